@@ -0,0 +1,139 @@
+package com.example.recipe_ai.cache;
+
+import com.example.recipe_ai.exception.ApiException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * InFlightRegistry
+ * 同一個 key 同時只跑「一次」AI 生成流程 (single-flight)。
+ * 熱門食材組合同時湧入很多請求、全部快取錯失時：
+ * - 第一個請求 (leader) 真的去呼叫 ChatModel、GeminiImageService、存資料庫
+ * - 其他請求 (waiter) 等同一個 CompletableFuture 的結果，不重複呼叫 AI
+ * - leader 失敗時，同一個例外會傳給所有 waiter；waiter 等太久會收到 504
+ * 串流生成 (SSE) 用 join 登記同一個 key，和一般生成共用
+ * 生成中的 key 數量以 gauge recipe.generations.inflight 輸出
+ */
+@Component
+public class InFlightRegistry implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(InFlightRegistry.class);
+
+    // key → 正在進行中的生成結果
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> myinFlight = new ConcurrentHashMap<>();
+    // waiter 最多等多久
+    private final Duration waitTimeout;
+
+    public InFlightRegistry(@Value("${recipe.inflight.wait-timeout:90s}") Duration waitTimeout) {
+        this.waitTimeout = waitTimeout;
+    }
+
+    /**
+     * 執行 loader；如果同一個 key 已經有人在跑，就等那一次的結果
+     * @param key    生成的 key
+     * @param loader 真正的生成流程 (只有 leader 會執行)
+     * @return 生成結果 (leader 與所有 waiter 拿到同一個物件)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> loader) {
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> existing = myinFlight.putIfAbsent(key, mine);
+
+        //1. 沒有人在跑 → 自己是 leader
+        if (existing == null) {
+            try {
+                T result = loader.get();
+                mine.complete(result);
+                return result;
+            } catch (RuntimeException | Error e) {
+                //失敗也要通知所有 waiter
+                mine.completeExceptionally(e);
+                throw e;
+            } finally {
+                //不論成功失敗都要移除，下一批請求才會重新生成 (或直接命中快取)
+                myinFlight.remove(key, mine);
+            }
+        }
+
+        //2. 已經有人在跑 → 等它的結果
+        logger.debug("key={} 已在生成中，等待同一個結果", key);
+        try {
+            return (T) existing.get(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new ApiException("食譜生成中，等待逾時，請稍後再試", HttpStatus.GATEWAY_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException("食譜生成等待被中斷", HttpStatus.SERVICE_UNAVAILABLE);
+        } catch (ExecutionException e) {
+            //把 leader 的例外原封不動丟出去 (ApiException 會保留原本的 HTTP 狀態)
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new ApiException("食譜生成失敗", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * 非同步版本 (SSE 串流：leader 的生成在 Reactor 執行緒上結束，不能在請求執行緒等)
+     * - 沒有人在跑 → 登記 mine，自己是 leader，回傳空的 Optional；生成結束時一定要 complete / completeExceptionally mine
+     * - 已經有人在跑 (串流或一般生成都算) → 回傳那次生成的結果，超過 wait-timeout 以 504 結束
+     * @param key  生成的 key
+     * @param mine leader 的生成結果
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public <T> Optional<CompletableFuture<T>> join(String key, CompletableFuture<T> mine) {
+        CompletableFuture<Object> existing = myinFlight.putIfAbsent(key, (CompletableFuture) mine);
+        if (existing == null) {
+            //不論成功失敗都要移除 (同 execute)
+            mine.whenComplete((result, error) -> myinFlight.remove(key, mine));
+            return Optional.empty();
+        }
+        logger.debug("key={} 已在生成中，等待同一個結果", key);
+        //copy：逾時只結束自己這份，不影響 leader 與其他 waiter
+        return Optional.of(((CompletableFuture<T>) existing).copy()
+                .orTimeout(waitTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .exceptionallyCompose(error -> CompletableFuture.failedFuture(waitFailure(error))));
+    }
+
+    private static Throwable waitFailure(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof TimeoutException) {
+            return new ApiException("食譜生成中，等待逾時，請稍後再試", HttpStatus.GATEWAY_TIMEOUT);
+        }
+        return cause;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("recipe.generations.inflight", myinFlight, ConcurrentHashMap::size)
+                .description("正在生成中的食譜數量")
+                .register(registry);
+    }
+
+    /**
+     * 目前正在生成中的 key 數量
+     */
+    public int size() {
+        return myinFlight.size();
+    }
+}
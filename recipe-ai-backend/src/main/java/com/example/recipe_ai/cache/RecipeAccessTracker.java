@@ -0,0 +1,175 @@
+package com.example.recipe_ai.cache;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * RecipeAccessTracker
+ * 記錄每筆快取食譜被讀取的次數與最後讀取時間 (recipe_cache.hit_count、last_accessed_at)：
+ * - 每次命中只在記憶體累加 (主鍵 → 次數、最後時間)，不會每次命中都寫資料庫
+ * - 每 flush-interval 把累加的結果用一次 JDBC batch UPDATE 寫回 (hit_count 加上增量)
+ * - 累積的主鍵數超過 max-pending 時提早寫回；關閉服務時也會寫回
+ * 寫回與命中同時發生時可能少算幾次，次數只用來判斷冷熱 (RecipeCachePurger、RecipeCachePreloader)，不需要精確
+ * 等待寫回的主鍵數以 gauge recipe.cache.access.pending 輸出
+ */
+@Component
+public class RecipeAccessTracker implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecipeAccessTracker.class);
+
+    static final String UPDATE_SQL = "UPDATE recipe_cache SET hit_count = COALESCE(hit_count, 0) + ?, "
+            + "last_accessed_at = GREATEST(COALESCE(last_accessed_at, 0), ?) WHERE id = ?";
+
+    private final JdbcTemplate myjdbcTemplate;
+    // 主鍵 → 還沒寫回資料庫的讀取紀錄
+    private final ConcurrentHashMap<UUID, Access> mypending = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor myscheduler;
+    private final AtomicBoolean flushing = new AtomicBoolean();
+    private final ReentrantLock myflushLock = new ReentrantLock();
+    private final boolean enabled;
+    private final int maxPending;
+    private final int batchSize;
+
+    public RecipeAccessTracker(DataSource dataSource,
+                               @Value("${recipe.access.enabled:true}") boolean enabled,
+                               @Value("${recipe.access.flush-interval:30s}") Duration flushInterval,
+                               @Value("${recipe.access.max-pending:100000}") int maxPending,
+                               @Value("${recipe.access.batch-size:500}") int batchSize) {
+        this.myjdbcTemplate = new JdbcTemplate(dataSource);
+        this.enabled = enabled;
+        this.maxPending = maxPending;
+        this.batchSize = batchSize;
+        this.myscheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "recipe-access-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (enabled) {
+            myscheduler.scheduleWithFixedDelay(this::flushQuietly,
+                    flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 記錄一次命中 (只更新記憶體)
+     */
+    public void record(UUID id) {
+        if (!enabled || id == null) {
+            return;
+        }
+        Access access = mypending.computeIfAbsent(id, k -> new Access());
+        access.hits.increment();
+        access.lastAccessedAt = System.currentTimeMillis();
+        if (mypending.size() >= maxPending && flushing.compareAndSet(false, true)) {
+            //累積太多主鍵 → 不等下一次排程，馬上在背景寫回
+            myscheduler.execute(() -> {
+                try {
+                    flushQuietly();
+                } finally {
+                    flushing.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * 把記憶體累加的讀取紀錄寫回資料庫
+     * @return 寫回的主鍵數
+     */
+    public int flush() {
+        //不用 synchronized：持有 monitor 時等待資料庫會卡住虛擬執行緒的載體執行緒 (pinning)
+        myflushLock.lock();
+        try {
+            List<Object[]> rows = new ArrayList<>(Math.min(mypending.size(), batchSize));
+            int flushed = 0;
+            for (UUID id : mypending.keySet()) {
+                Access access = mypending.remove(id);
+                if (access == null) {
+                    continue;
+                }
+                rows.add(new Object[] {access.hits.sum(), access.lastAccessedAt, toBytes(id)});
+                if (rows.size() == batchSize) {
+                    myjdbcTemplate.batchUpdate(UPDATE_SQL, rows);
+                    flushed += rows.size();
+                    rows.clear();
+                }
+            }
+            if (!rows.isEmpty()) {
+                myjdbcTemplate.batchUpdate(UPDATE_SQL, rows);
+                flushed += rows.size();
+            }
+            return flushed;
+        } finally {
+            myflushLock.unlock();
+        }
+    }
+
+    /**
+     * 資料已經從資料庫刪除，不需要再寫回
+     */
+    public void forget(UUID id) {
+        mypending.remove(id);
+    }
+
+    private void flushQuietly() {
+        try {
+            int flushed = flush();
+            logger.debug("讀取紀錄寫回資料庫 {} 筆", flushed);
+        } catch (DataAccessException e) {
+            //這一批的次數就不算了，不影響服務
+            logger.warn("讀取紀錄寫回資料庫失敗", e);
+        }
+    }
+
+    //-----UUID → 16 bytes (與 Hibernate 存 BINARY(16) 的順序相同：高位在前)-----
+    private static byte[] toBytes(UUID id) {
+        return ByteBuffer.allocate(16)
+                .putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits())
+                .array();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        myscheduler.shutdown();
+        if (enabled) {
+            flushQuietly();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("recipe.cache.access.pending", mypending, ConcurrentHashMap::size)
+                .description("還沒寫回資料庫的讀取紀錄 (主鍵數)")
+                .register(registry);
+    }
+
+    /**
+     * 一個主鍵累加中的讀取紀錄
+     */
+    private static final class Access {
+        private final LongAdder hits = new LongAdder();
+        private volatile long lastAccessedAt;
+    }
+}
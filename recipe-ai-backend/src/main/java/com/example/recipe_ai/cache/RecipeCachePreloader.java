@@ -0,0 +1,75 @@
+package com.example.recipe_ai.cache;
+
+import com.example.recipe_ai.entity.RecipeCache;
+import com.example.recipe_ai.repository.RecipeCacheRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * RecipeCachePreloader
+ * 啟動時把命中次數最多的 top-n 筆食譜 (recipe_cache.hit_count，由 RecipeAccessTracker 累加) 預先載入 L1，
+ * 重新部署後最熱門的請求不用再等資料庫 (冷啟動)。
+ * 在 ApplicationReadyEvent 同步執行 (readiness 在載入完成後才變成 ACCEPTING_TRAFFIC)，每批載入 batch-size 筆
+ * top-n=0 表示不預先載入
+ */
+@Component
+public class RecipeCachePreloader {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecipeCachePreloader.class);
+
+    private final RecipeCacheRepository myrecipeCacheRepository;
+    private final RecipeL1Cache myrecipeL1Cache;
+    private final int topN;
+    private final int batchSize;
+
+    public RecipeCachePreloader(RecipeCacheRepository recipeCacheRepository, RecipeL1Cache recipeL1Cache,
+                                @Value("${recipe.cache.preload.top-n:500}") int topN,
+                                @Value("${recipe.cache.preload.batch-size:100}") int batchSize) {
+        this.myrecipeCacheRepository = recipeCacheRepository;
+        this.myrecipeL1Cache = recipeL1Cache;
+        this.topN = topN;
+        this.batchSize = batchSize;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void preloadOnStartup() {
+        if (topN <= 0) {
+            return;
+        }
+        try {
+            preload();
+        } catch (DataAccessException e) {
+            //載入失敗不影響啟動，只是第一次請求比較慢
+            logger.warn("預先載入熱門食譜失敗", e);
+        }
+    }
+
+    /**
+     * 依命中次數由高到低分批載入 L1
+     * @return 載入的筆數
+     */
+    public int preload() {
+        long start = System.nanoTime();
+        int loaded = 0;
+        for (int page = 0; loaded < topN; page++) {
+            List<RecipeCache> rows = myrecipeCacheRepository.findHottest(PageRequest.of(page, batchSize));
+            for (RecipeCache row : rows.subList(0, Math.min(rows.size(), topN - loaded))) {
+                myrecipeL1Cache.put(row.getNormalizedKey(), row);
+                loaded++;
+            }
+            if (rows.size() < batchSize) {
+                break;
+            }
+        }
+        logger.info("預先載入熱門食譜 {} 筆到 L1，耗時 {} ms", loaded, (System.nanoTime() - start) / 1_000_000);
+        return loaded;
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.recipe_ai.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * RecipeCachePurger
+ * 定期清理 recipe_cache，讓資料表不會無限制長大：
+ * 1. TTL：超過 ttl 沒有被讀取的資料刪除 (ttl=0 表示不啟用)
+ * 2. 筆數上限：超過 max-rows 時，依 policy 刪除最冷的資料 (max-rows=0 表示不限制)
+ * 3. 容量上限：估計的資料大小 (文字欄位 + 舊的 base64 圖片 + 預先序列化的回應內容) 超過 max-bytes 時，同樣依 policy 刪除
+ * - policy=lru：最久沒被讀取的先刪；policy=lfu：命中次數最少的先刪 (次數相同時較久沒讀取的先刪)
+ * - 最近 min-idle 內讀取或寫入過的資料不會因為筆數 / 容量被刪 (剛生成的食譜命中次數都是 0，LFU 會先刪到它們)
+ * - 清理前先把 RecipeAccessTracker 累加的讀取紀錄寫回，刪除後同步移除 L1 與相似度索引
+ * - 圖片檔案以 hash 共用，不在這裡刪除
+ * 刪除筆數以 recipe.cache.purged{reason=ttl|rows|bytes} 輸出
+ */
+@Component
+public class RecipeCachePurger implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecipeCachePurger.class);
+
+    public enum Policy { LRU, LFU }
+
+    // 估計一筆資料佔用的 bytes
+    static final String ROW_BYTES = "(LENGTH(normalized_key) + COALESCE(LENGTH(title), 0) + COALESCE(LENGTH(ingredients), 0) "
+            + "+ COALESCE(LENGTH(steps), 0) + COALESCE(LENGTH(image_url), 0) + COALESCE(LENGTH(response_payload), 0))";
+
+    private final JdbcTemplate myjdbcTemplate;
+    private final RecipeL1Cache myrecipeL1Cache;
+    private final RecipeSimilarityIndex mysimilarityIndex;
+    private final RecipeAccessTracker myaccessTracker;
+    private final ScheduledThreadPoolExecutor myscheduler;
+    private final boolean enabled;
+    private final Duration interval;
+    private final Duration ttl;
+    private final long maxRows;
+    private final long maxBytes;
+    private final Policy policy;
+    private final Duration minIdle;
+    private final int batchSize;
+    private final ReentrantLock mypurgeLock = new ReentrantLock();
+    private final AtomicLong ttlPurged = new AtomicLong();
+    private final AtomicLong rowsPurged = new AtomicLong();
+    private final AtomicLong bytesPurged = new AtomicLong();
+
+    public RecipeCachePurger(DataSource dataSource, RecipeL1Cache recipeL1Cache, RecipeSimilarityIndex similarityIndex,
+                             RecipeAccessTracker accessTracker,
+                             @Value("${recipe.purge.enabled:true}") boolean enabled,
+                             @Value("${recipe.purge.interval:1h}") Duration interval,
+                             @Value("${recipe.purge.ttl:0s}") Duration ttl,
+                             @Value("${recipe.purge.max-rows:0}") long maxRows,
+                             @Value("${recipe.purge.max-bytes:0}") long maxBytes,
+                             @Value("${recipe.purge.policy:lru}") String policy,
+                             @Value("${recipe.purge.min-idle:10m}") Duration minIdle,
+                             @Value("${recipe.purge.batch-size:500}") int batchSize) {
+        this.myjdbcTemplate = new JdbcTemplate(dataSource);
+        this.myrecipeL1Cache = recipeL1Cache;
+        this.mysimilarityIndex = similarityIndex;
+        this.myaccessTracker = accessTracker;
+        this.enabled = enabled;
+        this.interval = interval;
+        this.ttl = ttl;
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+        this.policy = Policy.valueOf(policy.trim().toUpperCase(Locale.ROOT));
+        this.minIdle = minIdle;
+        this.batchSize = batchSize;
+        this.myscheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "recipe-cache-purger");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 啟動完成後，在背景補上舊資料的讀取時間，再開始定期清理
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void startOnReady() {
+        if (!enabled) {
+            return;
+        }
+        myscheduler.execute(this::backfillQuietly);
+        myscheduler.scheduleWithFixedDelay(this::purgeQuietly, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 新欄位加上之前的舊資料沒有讀取時間：當作現在剛讀取過 (不然 TTL 一啟用就全部刪掉)
+     * @return 補上的筆數
+     */
+    public int backfillAccessColumns() {
+        return myjdbcTemplate.update("UPDATE recipe_cache SET last_accessed_at = ?, hit_count = COALESCE(hit_count, 0) "
+                + "WHERE last_accessed_at IS NULL", System.currentTimeMillis());
+    }
+
+    /**
+     * 執行一次清理
+     * @return 刪除的筆數
+     */
+    public int purge() {
+        //同 RecipeAccessTracker.flush：用 ReentrantLock 而不是 synchronized (pinning)
+        mypurgeLock.lock();
+        try {
+            myaccessTracker.flush();
+            long now = System.currentTimeMillis();
+            int purged = 0;
+
+            //1. TTL
+            if (!ttl.isZero()) {
+                int deleted = purgeColdest(now - ttl.toMillis(), Long.MAX_VALUE, Long.MAX_VALUE, Policy.LRU);
+                ttlPurged.addAndGet(deleted);
+                purged += deleted;
+            }
+
+            //2. 筆數上限
+            long idleCutoff = now - minIdle.toMillis();
+            if (maxRows > 0) {
+                long rows = myjdbcTemplate.queryForObject("SELECT COUNT(*) FROM recipe_cache", Long.class);
+                if (rows > maxRows) {
+                    int deleted = purgeColdest(idleCutoff, rows - maxRows, Long.MAX_VALUE, policy);
+                    rowsPurged.addAndGet(deleted);
+                    purged += deleted;
+                }
+            }
+
+            //3. 容量上限
+            if (maxBytes > 0) {
+                long bytes = myjdbcTemplate.queryForObject("SELECT COALESCE(SUM(" + ROW_BYTES + "), 0) FROM recipe_cache", Long.class);
+                if (bytes > maxBytes) {
+                    int deleted = purgeColdest(idleCutoff, Long.MAX_VALUE, bytes - maxBytes, policy);
+                    bytesPurged.addAndGet(deleted);
+                    purged += deleted;
+                }
+            }
+            if (purged > 0) {
+                logger.info("recipe_cache 清理完成，刪除 {} 筆 (policy={})", purged, policy);
+            }
+            return purged;
+        } finally {
+            mypurgeLock.unlock();
+        }
+    }
+
+    /**
+     * 依 policy 從最冷的開始分批刪除，直到刪滿 maxCount 筆或 maxBytes bytes，或沒有可刪的資料
+     * @param cutoff 只刪最後讀取時間早於 cutoff 的資料
+     */
+    private int purgeColdest(long cutoff, long maxCount, long maxBytes, Policy order) {
+        String sql = "SELECT id, normalized_key, " + ROW_BYTES + " AS row_bytes FROM recipe_cache "
+                + "WHERE last_accessed_at < ? ORDER BY "
+                + (order == Policy.LFU ? "hit_count ASC, last_accessed_at ASC" : "last_accessed_at ASC")
+                + " LIMIT ?";
+        int deleted = 0;
+        long deletedBytes = 0;
+        while (deleted < maxCount && deletedBytes < maxBytes) {
+            List<Victim> victims = myjdbcTemplate.query(sql, (rs, rowNum) ->
+                    new Victim(rs.getBytes("id"), rs.getString("normalized_key"), rs.getLong("row_bytes")),
+                    cutoff, (int) Math.min(batchSize, maxCount - deleted));
+            List<Victim> batch = new ArrayList<>(victims.size());
+            for (Victim victim : victims) {
+                if (deleted + batch.size() >= maxCount || deletedBytes >= maxBytes) {
+                    break;
+                }
+                batch.add(victim);
+                deletedBytes += victim.bytes;
+            }
+            if (batch.isEmpty()) {
+                break;
+            }
+            delete(batch, cutoff);
+            deleted += batch.size();
+            if (victims.size() < batchSize) {
+                break;
+            }
+        }
+        return deleted;
+    }
+
+    //刪除時再確認一次讀取時間 (選出來之後剛好被讀取的就留著)
+    private void delete(List<Victim> batch, long cutoff) {
+        List<Object[]> args = new ArrayList<>(batch.size());
+        for (Victim victim : batch) {
+            args.add(new Object[] {victim.id, cutoff});
+        }
+        myjdbcTemplate.batchUpdate("DELETE FROM recipe_cache WHERE id = ? AND last_accessed_at < ?", args);
+        for (Victim victim : batch) {
+            myrecipeL1Cache.invalidate(victim.key);
+            mysimilarityIndex.remove(victim.key);
+            myaccessTracker.forget(toUuid(victim.id));
+        }
+    }
+
+    private void backfillQuietly() {
+        try {
+            int updated = backfillAccessColumns();
+            if (updated > 0) {
+                logger.info("補上 {} 筆舊資料的讀取時間", updated);
+            }
+        } catch (DataAccessException e) {
+            logger.warn("補上舊資料的讀取時間失敗", e);
+        }
+    }
+
+    private void purgeQuietly() {
+        try {
+            purge();
+        } catch (DataAccessException e) {
+            //下一次排程再試
+            logger.warn("recipe_cache 清理失敗", e);
+        }
+    }
+
+    private static UUID toUuid(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        myscheduler.shutdownNow();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        purged(registry, "ttl", ttlPurged);
+        purged(registry, "rows", rowsPurged);
+        purged(registry, "bytes", bytesPurged);
+    }
+
+    private static void purged(MeterRegistry registry, String reason, AtomicLong count) {
+        FunctionCounter.builder("recipe.cache.purged", count, AtomicLong::get)
+                .tag("reason", reason)
+                .description("recipe_cache 清理刪除的筆數")
+                .register(registry);
+    }
+
+    /**
+     * 要刪除的一筆 (主鍵 bytes、正規化 key、估計大小)
+     */
+    private record Victim(byte[] id, String key, long bytes) {
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.recipe_ai.cache;
+
+import com.example.recipe_ai.repository.RecipeCacheRepository;
+import com.example.recipe_ai.storage.ImageBlobStore;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * RecipeImageReuseCache
+ * 圖片重複使用快取：不同的食材 / 風格 key 常常生成同一道菜 (例如都叫「泰式打拋雞」)，
+ * 已經有同名料理的圖片時直接沿用，不再呼叫圖片模型 (最慢也最貴的一步)。
+ * - 以正規化的料理名稱 (去空白、標點、括號內的補充說明，全形轉半形，英文轉小寫) 為 key，值是圖片 hash (ImageBlobStore)
+ * - 也可以用步驟文字的指紋 (去掉數字、空白與標點後的 SHA-256) 當 key：名稱不同但做法一樣的菜
+ * - policy：off | title | steps | title-or-steps，決定查詢時用哪些 key
+ * - 淘汰策略：筆數上限 (max-entries，每筆只有 key 與 hash) + 多久沒被使用就移除 (ttl)
+ * - 圖片檔案已經不存在的 hash 不會被使用
+ * - 啟動時從資料庫載入最近讀取過的 preload-size 筆料理名稱 (步驟指紋只在執行期間累積)
+ * 使用次數以 recipe.image.reuse{result=title|steps|miss} 輸出，快取本身為 cache="recipe-image-reuse"
+ */
+@Component
+public class RecipeImageReuseCache implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecipeImageReuseCache.class);
+
+    public enum Policy { OFF, TITLE, STEPS, TITLE_OR_STEPS }
+
+    private static final String TITLE_PREFIX = "t:";
+    private static final String STEPS_PREFIX = "s:";
+    // 括號內通常是補充說明，例如「泰式打拋雞（簡易版）」
+    private static final Pattern BRACKETED = Pattern.compile("\\([^)]*\\)|\\[[^\\]]*\\]|【[^】]*】|〔[^〕]*〕");
+    // 文字與數字以外的字元 (空白、標點、符號)
+    private static final Pattern NOT_LETTER_OR_DIGIT = Pattern.compile("[^\\p{L}\\p{N}]+");
+    // 步驟指紋另外去掉數字 (份量、時間不同還是同一種做法)
+    private static final Pattern NOT_LETTER = Pattern.compile("[^\\p{L}]+");
+
+    private final ImageBlobStore myimageBlobStore;
+    private final RecipeCacheRepository myrecipeCacheRepository;
+    private final Cache<String, String> mycache;
+    private final Policy policy;
+    private final int preloadSize;
+    private final AtomicLong titleHits = new AtomicLong();
+    private final AtomicLong stepsHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public RecipeImageReuseCache(ImageBlobStore imageBlobStore, RecipeCacheRepository recipeCacheRepository,
+                                 @Value("${recipe.image.reuse.policy:title}") String policy,
+                                 @Value("${recipe.image.reuse.max-entries:50000}") long maxEntries,
+                                 @Value("${recipe.image.reuse.ttl:7d}") Duration ttl,
+                                 @Value("${recipe.image.reuse.preload-size:10000}") int preloadSize) {
+        this.myimageBlobStore = imageBlobStore;
+        this.myrecipeCacheRepository = recipeCacheRepository;
+        this.policy = Policy.valueOf(policy.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        this.preloadSize = preloadSize;
+        this.mycache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterAccess(ttl)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 啟動完成後載入資料庫裡已經有圖片的料理名稱
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void preloadOnStartup() {
+        if (policy == Policy.OFF || preloadSize <= 0) {
+            return;
+        }
+        try {
+            int loaded = 0;
+            for (RecipeCacheRepository.TitleImageRow row : myrecipeCacheRepository.findTitleImages(PageRequest.of(0, preloadSize))) {
+                String key = titleKey(row.getTitle());
+                if (key != null) {
+                    mycache.asMap().putIfAbsent(key, row.getImageHash());
+                    loaded++;
+                }
+            }
+            logger.info("載入 {} 筆料理名稱 → 圖片", loaded);
+        } catch (DataAccessException e) {
+            //載入失敗不影響啟動，只是一開始比較少圖片可以重複使用
+            logger.warn("載入料理名稱 → 圖片失敗", e);
+        }
+    }
+
+    /**
+     * 依 policy 找可以重複使用的圖片
+     * @return 圖片 hash；沒有可用的圖片 (或 policy=off) 回傳空的 Optional
+     */
+    public Optional<String> find(String title, List<String> steps) {
+        if (policy == Policy.OFF) {
+            return Optional.empty();
+        }
+        if (policy != Policy.STEPS) {
+            Optional<String> hash = lookup(titleKey(title));
+            if (hash.isPresent()) {
+                titleHits.incrementAndGet();
+                return hash;
+            }
+        }
+        if (policy != Policy.TITLE) {
+            Optional<String> hash = lookup(stepsKey(steps));
+            if (hash.isPresent()) {
+                stepsHits.incrementAndGet();
+                return hash;
+            }
+        }
+        misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    /**
+     * 記錄一張新生成的圖片 (料理名稱與步驟指紋都記，之後改 policy 也能用)
+     */
+    public void put(String title, List<String> steps, String imageHash) {
+        if (policy == Policy.OFF || imageHash == null) {
+            return;
+        }
+        String title_key = titleKey(title);
+        if (title_key != null) {
+            mycache.put(title_key, imageHash);
+        }
+        String steps_key = stepsKey(steps);
+        if (steps_key != null) {
+            mycache.put(steps_key, imageHash);
+        }
+    }
+
+    private Optional<String> lookup(String key) {
+        if (key == null) {
+            return Optional.empty();
+        }
+        String hash = mycache.getIfPresent(key);
+        if (hash == null) {
+            return Optional.empty();
+        }
+        //圖片檔案不見了 (例如換了儲存目錄)：不能用，也不用再記著
+        if (myimageBlobStore.resolve(hash).isEmpty()) {
+            mycache.invalidate(key);
+            return Optional.empty();
+        }
+        return Optional.of(hash);
+    }
+
+    //-----正規化料理名稱：全形轉半形、轉小寫、去掉括號內的說明與標點空白-----
+    static String normalizeTitle(String title) {
+        if (title == null) {
+            return "";
+        }
+        String s = Normalizer.normalize(title, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        s = BRACKETED.matcher(s).replaceAll("");
+        return NOT_LETTER_OR_DIGIT.matcher(s).replaceAll("");
+    }
+
+    static String titleKey(String title) {
+        String normalized = normalizeTitle(title);
+        return normalized.isEmpty() ? null : TITLE_PREFIX + normalized;
+    }
+
+    //-----步驟指紋：每個步驟去掉數字、空白與標點後依序串起來，取 SHA-256-----
+    static String stepsKey(List<String> steps) {
+        if (steps == null || steps.isEmpty()) {
+            return null;
+        }
+        StringBuilder text = new StringBuilder();
+        boolean empty = true;
+        for (String step : steps) {
+            String s = step == null ? "" : NOT_LETTER.matcher(
+                    Normalizer.normalize(step, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT)).replaceAll("");
+            empty &= s.isEmpty();
+            text.append(s).append('|');
+        }
+        if (empty) {
+            return null;
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.toString().getBytes(StandardCharsets.UTF_8));
+            return STEPS_PREFIX + HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("JVM 不支援 SHA-256", e);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, mycache, "recipe-image-reuse");
+        reuse(registry, "title", titleHits);
+        reuse(registry, "steps", stepsHits);
+        reuse(registry, "miss", misses);
+    }
+
+    private static void reuse(MeterRegistry registry, String result, AtomicLong count) {
+        FunctionCounter.builder("recipe.image.reuse", count, AtomicLong::get)
+                .tag("result", result)
+                .description("生成圖片前查詢可重複使用的圖片 (title/steps: 沿用既有圖片，miss: 呼叫圖片模型)")
+                .register(registry);
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.recipe_ai.cache;
+
+import com.example.recipe_ai.entity.RecipeCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * RecipeL1Cache
+ * 放在 RecipeCacheRepository 前面的「程序內記憶體快取」(L1)。
+ * 熱門的 key (例如 "雞肉|洋蔥::泰式") 直接從記憶體回傳，不用每次都去 MySQL 拉整筆資料 (含很大的 imageUrl)。
+ * - 淘汰策略：Caffeine 的 W-TinyLFU
+ * - 容量：以「估計的位元組數」限制，而不是筆數 (一張圖片就可能好幾 MB)
+ * - TTL：放入 (或更新) 後 ttl 過期，讀取不會延長；每筆資料可以指定自己的存活時間 (例如還沒有圖片的食譜短一點)
+ * - 統計：記錄 hit / miss / eviction，供 /api/recipe/cache/stats 查詢，也輸出到 Micrometer (cache="recipe-l1")
+ * - 另外記錄 id (key 的 hash) → key，GET /api/recipe/{id} 也能直接從 L1 回傳
+ * 放進來的 RecipeCache 會被多個請求執行緒同時讀取，放入後就不能再修改：
+ * 要更新 (補上圖片、回應內容) 時用 RecipeCache.copy() 複製一份修改後，再 put 整個換掉
+ */
+@Component
+public class RecipeL1Cache implements MeterBinder {
+
+    // 每筆資料除了字串內容以外，物件本身大約的額外開銷 (物件標頭、欄位參考、Caffeine 節點)
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+    // 食材/步驟 List 的每個元素額外的開銷 (String 物件標頭、陣列參考)
+    private static final int ELEMENT_OVERHEAD_BYTES = 32;
+    // id → key 索引最多幾筆 (每筆只有 UUID 與 key 的參考，key 字串和主快取共用)
+    private static final int ID_INDEX_MAX_SIZE = 100_000;
+
+    private final Cache<String, RecipeCache> mycache;
+    private final Cache<UUID, String> myidIndex;
+    private final long maxBytes;
+    private final Duration defaultTtl;
+
+    @Autowired
+    public RecipeL1Cache(@Value("${recipe.cache.l1.max-bytes:268435456}") long maxBytes,
+                         @Value("${recipe.cache.l1.ttl:1h}") Duration defaultTtl) {
+        this(maxBytes, defaultTtl, Ticker.systemTicker());
+    }
+
+    //測試用：指定時間來源
+    RecipeL1Cache(long maxBytes, Duration defaultTtl, Ticker ticker) {
+        this.maxBytes = maxBytes;
+        this.defaultTtl = defaultTtl;
+        this.mycache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)                                        //總容量 (bytes)
+                .weigher((String key, RecipeCache value) -> estimateBytes(key, value))
+                .expireAfter(new DefaultTtlExpiry(defaultTtl))                  //每筆資料各自的 TTL
+                .ticker(ticker)
+                .recordStats()                                                  //開啟 hit/miss 統計
+                .build();
+        this.myidIndex = Caffeine.newBuilder()
+                .maximumSize(ID_INDEX_MAX_SIZE)
+                .expireAfterAccess(defaultTtl)
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * 查詢 L1，有資料回傳 Optional 內含 RecipeCache，沒資料回傳空的 Optional
+     */
+    public Optional<RecipeCache> get(String key) {
+        return Optional.ofNullable(mycache.getIfPresent(key));
+    }
+
+    /**
+     * 用 id (RecipeCache 的主鍵) 查詢 L1；主快取已經淘汰的話回傳空的 Optional
+     */
+    public Optional<RecipeCache> getById(UUID id) {
+        String key = myidIndex.getIfPresent(id);
+        return key == null ? Optional.empty() : get(key);
+    }
+
+    /**
+     * 放入 L1 (同一個 key 已經有資料就整個換掉)；放入後 value 不能再被修改
+     */
+    public void put(String key, RecipeCache value) {
+        mycache.put(key, value);
+        index(key, value);
+    }
+
+    /**
+     * 放入 L1，並指定這筆資料自己的 TTL (之後用 put(key, value) 更新時恢復預設 TTL)
+     */
+    public void put(String key, RecipeCache value, Duration ttl) {
+        mycache.policy().expireVariably()
+                .ifPresentOrElse(
+                        varExpiration -> varExpiration.put(key, value, ttl),
+                        () -> mycache.put(key, value));
+        index(key, value);
+    }
+
+    private void index(String key, RecipeCache value) {
+        if (value.getId() != null) {
+            myidIndex.put(value.getId(), key);
+        }
+    }
+
+    /**
+     * 移除 L1 中的某筆資料 (例如資料庫那筆被更新時)
+     */
+    public void invalidate(String key) {
+        mycache.invalidate(key);
+    }
+
+    //測試用：立即執行淘汰 (平常由 Caffeine 在背景處理)
+    void cleanUp() {
+        mycache.cleanUp();
+        myidIndex.cleanUp();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, mycache, "recipe-l1");
+        Gauge.builder("recipe.cache.l1.used", this, cache -> cache.usedBytes())
+                .baseUnit("bytes")
+                .description("L1 快取估計使用的記憶體")
+                .register(registry);
+    }
+
+    /**
+     * 取得 Caffeine 原始統計資料
+     */
+    public CacheStats stats() {
+        return mycache.stats();
+    }
+
+    /**
+     * 把統計資料整理成 Map，方便 Controller 直接轉成 JSON 回傳
+     */
+    public Map<String, Object> statsSnapshot() {
+        CacheStats stats = mycache.stats();
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("hitCount", stats.hitCount());
+        snapshot.put("missCount", stats.missCount());
+        snapshot.put("hitRate", stats.hitRate());
+        snapshot.put("evictionCount", stats.evictionCount());
+        snapshot.put("evictionBytes", stats.evictionWeight());
+        snapshot.put("entries", mycache.estimatedSize());
+        snapshot.put("usedBytes", usedBytes());
+        snapshot.put("maxBytes", maxBytes);
+        snapshot.put("defaultTtlSeconds", defaultTtl.toSeconds());
+        return snapshot;
+    }
+
+    private long usedBytes() {
+        return mycache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
+    }
+
+    //-----估計一筆資料佔用的記憶體大小-----
+    // base64 圖片只含 ASCII，Java 的 compact string 一個字元佔 1 byte；中文內容一個字元佔 2 bytes
+    static int estimateBytes(String key, RecipeCache value) {
+        long bytes = ENTRY_OVERHEAD_BYTES;
+        bytes += utf16Bytes(key);
+        bytes += utf16Bytes(value.getTitle());
+        bytes += utf16Bytes(value.getIngredients());
+        bytes += utf16Bytes(value.getSteps());
+        bytes += value.getImageUrl() == null ? 0 : value.getImageUrl().length();
+        bytes += value.getResponsePayload() == null ? 0 : value.getResponsePayload().length;
+        //Caffeine 的 weight 是 int，超過就以上限計算
+        return (int) Math.min(Integer.MAX_VALUE, bytes);
+    }
+
+    private static long utf16Bytes(String s) {
+        return s == null ? 0 : 2L * s.length();
+    }
+
+    private static long utf16Bytes(List<String> values) {
+        long bytes = 0;
+        if (values != null) {
+            for (String value : values) {
+                bytes += ELEMENT_OVERHEAD_BYTES + utf16Bytes(value);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 預設 TTL：新增、更新時重設為預設 TTL，讀取時不延長
+     * (用 put(key, value, ttl) 指定的 TTL 會覆蓋這裡的設定)
+     */
+    private static final class DefaultTtlExpiry implements Expiry<String, RecipeCache> {
+        private final long ttlNanos;
+
+        private DefaultTtlExpiry(Duration ttl) {
+            this.ttlNanos = ttl.toNanos();
+        }
+
+        @Override
+        public long expireAfterCreate(String key, RecipeCache value, long currentTime) {
+            return ttlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, RecipeCache value, long currentTime, long currentDuration) {
+            return ttlNanos;
+        }
+
+        @Override
+        public long expireAfterRead(String key, RecipeCache value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package com.example.recipe_ai.cache;
+
+import com.example.recipe_ai.repository.RecipeCacheRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * RecipeSimilarityIndex
+ * 食材集合的相似度索引：完全相同的 key 沒有命中時，找一筆「夠接近」的快取食譜來回傳，不用再呼叫 AI。
+ * 例如已經快取 "雞肉|洋蔥::"，查詢 "雞肉|洋蔥|鹽::" 時可以直接使用。
+ * - 比對方式 (recipe.similarity.mode)
+ *   subset ：快取食譜的食材全部都在查詢裡 (手邊的食材做得出來)，且覆蓋率 |快取| / |查詢| ≥ threshold
+ *   jaccard：|交集| / |聯集| ≥ threshold
+ * - 料理需求 (style) 必須完全相同，索引依 style 分區
+ * - 資料結構 (百萬筆仍維持亞毫秒查詢)
+ *   食材字串 → int id；(style, 食材 id) → 依 docId 遞增的 int[] posting list；所有食譜排序好的食材 id 連續存在一個 int[]
+ *   查詢時只掃「最稀有的幾個食材」的 posting list (prefix filtering)，其他候選不可能達到門檻；
+ *   候選再用排序陣列的 merge 算出交集大小
+ * - 啟動完成後在背景從 recipe_cache 分批載入所有 key，之後每次存檔時加入，資料被清除時移除
+ * - 移除只把 docId 標記為已刪除；已刪除的超過 1/4 時重建整個索引，posting list 與食材資料不會無限成長
+ */
+@Component
+public class RecipeSimilarityIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecipeSimilarityIndex.class);
+    // 已刪除的 docId 超過這個比例就重建
+    private static final double COMPACT_RATIO = 0.25;
+
+    public enum Mode { JACCARD, SUBSET }
+
+    /**
+     * 查詢結果：相似的快取 key 與分數 (0~1)
+     */
+    public record Match(String key, double score) {
+    }
+
+    private final RecipeCacheRepository myrecipeCacheRepository;
+    private final boolean enabled;
+    private final Mode mode;
+    private final double threshold;
+    private final int loadBatchSize;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // 食材字串 → 食材 id、style 字串 → style id
+    private final Map<String, Integer> tokenIds = new HashMap<>();
+    private final Map<String, Integer> styleIds = new HashMap<>();
+    // (style id << 32 | 食材 id) → 含有這個食材的 docId (遞增)
+    private final Map<Long, IntList> postings = new HashMap<>();
+    // docId → key (被 remove 的食譜為 null；posting list 裡的 docId 留著，查詢時略過)
+    private final List<String> docKeys = new ArrayList<>();
+    // 所有食譜排序好的食材 id 連續存在同一個 int[] (docId 的食材在 docOffsets[docId] ~ docOffsets[docId + 1])
+    private final IntList docTokenData = new IntList();
+    private final IntList docOffsets = new IntList();
+    // key → docId (避免重複加入)
+    private final Map<String, Integer> docIdsByKey = new HashMap<>();
+    // 已刪除 (docKeys 為 null) 的 docId 數量
+    private int removedCount;
+
+    public RecipeSimilarityIndex(RecipeCacheRepository recipeCacheRepository,
+                                 @Value("${recipe.similarity.enabled:true}") boolean enabled,
+                                 @Value("${recipe.similarity.mode:subset}") String mode,
+                                 @Value("${recipe.similarity.threshold:0.6}") double threshold,
+                                 @Value("${recipe.similarity.load-batch-size:1000}") int loadBatchSize) {
+        this.myrecipeCacheRepository = recipeCacheRepository;
+        this.enabled = enabled;
+        this.mode = Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        this.threshold = threshold;
+        this.loadBatchSize = loadBatchSize;
+        if (threshold <= 0 || threshold > 1) {
+            throw new IllegalArgumentException("recipe.similarity.threshold 必須介於 0 與 1 之間");
+        }
+        docOffsets.add(0);
+    }
+
+    /**
+     * 啟動完成後，在背景執行緒載入 recipe_cache 所有 key，不影響服務啟動 (載入期間查不到的就照常呼叫 AI)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        if (!enabled) {
+            return;
+        }
+        Thread worker = new Thread(this::loadAll, "recipe-similarity-loader");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * 依主鍵順序分批載入 (只查主鍵與正規化 key，不載入食譜內容)
+     */
+    public int loadAll() {
+        long start = System.nanoTime();
+        int loaded = 0;
+        UUID afterId = new UUID(0, 0);
+        List<RecipeCacheRepository.KeyRow> rows;
+        do {
+            rows = myrecipeCacheRepository.findKeysAfter(afterId, PageRequest.of(0, loadBatchSize));
+            for (RecipeCacheRepository.KeyRow row : rows) {
+                add(row.getNormalizedKey());
+            }
+            loaded += rows.size();
+            if (!rows.isEmpty()) {
+                afterId = rows.get(rows.size() - 1).getId();
+            }
+        } while (rows.size() == loadBatchSize);
+        logger.info("相似度索引載入完成，共 {} 筆，耗時 {} ms", loaded, (System.nanoTime() - start) / 1_000_000);
+        return loaded;
+    }
+
+    /**
+     * 加入一筆快取的正規化 key (RecipeKeyNormalizer："食材1|食材2::style")
+     */
+    public void add(String key) {
+        if (!enabled || key == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            addLocked(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //呼叫端要先拿到 write lock
+    private void addLocked(String key) {
+        if (docIdsByKey.containsKey(key)) {
+            return;
+        }
+        String[] parts = splitKey(key);
+        int styleId = styleIds.computeIfAbsent(parts[1], s -> styleIds.size());
+        int[] tokens = toTokenIds(parts[0], true);
+        if (tokens.length == 0) {
+            return;
+        }
+        int docId = docKeys.size();
+        docKeys.add(key);
+        for (int token : tokens) {
+            docTokenData.add(token);
+        }
+        docOffsets.add(docTokenData.size);
+        docIdsByKey.put(key, docId);
+        for (int token : tokens) {
+            postings.computeIfAbsent(postingKey(styleId, token), k -> new IntList()).add(docId);
+        }
+    }
+
+    /**
+     * 移除一筆快取的 key (RecipeCachePurger 從資料庫刪除之後)
+     */
+    public void remove(String key) {
+        if (key == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Integer docId = docIdsByKey.remove(key);
+            if (docId != null) {
+                docKeys.set(docId, null);
+                removedCount++;
+                if (removedCount > docKeys.size() * COMPACT_RATIO) {
+                    compact();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 用還在的 key 重建索引 (docId、食材 id 重新編號)，丟掉已刪除的 docId 與沒人用的食材、style
+     * 每次重建之後至少要再刪除 1/4 才會再重建，攤還下來每次 remove 是常數時間
+     */
+    private void compact() {
+        List<String> live = new ArrayList<>(docIdsByKey.size());
+        for (String key : docKeys) {
+            if (key != null) {
+                live.add(key);
+            }
+        }
+        tokenIds.clear();
+        styleIds.clear();
+        postings.clear();
+        docKeys.clear();
+        docTokenData.clear();
+        docOffsets.clear();
+        docOffsets.add(0);
+        docIdsByKey.clear();
+        removedCount = 0;
+        for (String key : live) {
+            addLocked(key);
+        }
+    }
+
+    /**
+     * 找出與 key 最相似、且達到門檻的快取 key (不包含 key 本身)
+     */
+    public Optional<Match> findSimilar(String key) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        return find(key, mode, threshold);
+    }
+
+    /**
+     * 找出與 key 最接近的快取 key (jaccard 分數 ≥ minScore；不受 recipe.similarity.enabled 影響)
+     * AI 無法使用時的備案，門檻通常比 findSimilar 低很多
+     */
+    public Optional<Match> findClosest(String key, double minScore) {
+        return find(key, Mode.JACCARD, minScore);
+    }
+
+    private Optional<Match> find(String key, Mode mode, double threshold) {
+        if (key == null) {
+            return Optional.empty();
+        }
+        String[] parts = splitKey(key);
+        lock.readLock().lock();
+        try {
+            Integer styleId = styleIds.get(parts[1]);
+            if (styleId == null) {
+                return Optional.empty();
+            }
+            //1. 查詢的食材 → id (沒看過的食材給負數，沒有任何食譜含有它)
+            int[] query = toTokenIds(parts[0], false);
+            int queryLength = query.length;
+            if (queryLength == 0) {
+                return Optional.empty();
+            }
+            //2. 兩種模式都需要：交集大小 ≥ ceil(threshold × |查詢|)
+            //   → 候選一定含有「最稀有的 |查詢| - 最小交集 + 1 個食材」其中之一 (prefix filtering)
+            int minOverlap = (int) Math.ceil(threshold * queryLength - 1e-9);
+            int[] byRarity = sortByFrequency(styleId, query);
+            int prefixLength = queryLength - minOverlap + 1;
+
+            //3. 掃描候選 docId，算交集大小與分數，留下最高分
+            //   (同一筆可能出現在好幾個 posting list，重複計算比排序去重便宜)
+            int[] sortedQuery = Arrays.stream(query).filter(t -> t >= 0).sorted().toArray();
+            int maxLength = mode == Mode.SUBSET ? queryLength : (int) Math.floor(queryLength / threshold + 1e-9);
+            String bestKey = null;
+            double bestScore = 0;
+            for (int i = 0; i < prefixLength; i++) {
+                IntList posting = byRarity[i] < 0 ? null : postings.get(postingKey(styleId, byRarity[i]));
+                if (posting == null) {
+                    continue;
+                }
+                for (int p = 0; p < posting.size; p++) {
+                    int docId = posting.values[p];
+                    String docKey = docKeys.get(docId);
+                    if (docKey == null) {
+                        continue;   //已經移除
+                    }
+                    int from = docOffsets.values[docId];
+                    int docLength = docOffsets.values[docId + 1] - from;
+                    if (docLength < minOverlap || docLength > maxLength) {
+                        continue;   //長度過濾：不可能達到門檻
+                    }
+                    int overlap = intersectionSize(sortedQuery, docTokenData.values, from, from + docLength, mode == Mode.SUBSET);
+                    if (overlap < 0) {
+                        continue;   //subset：快取食譜有查詢沒有的食材
+                    }
+                    double score = score(mode, overlap, queryLength, docLength);
+                    if (score >= threshold && score > bestScore && !docKey.equals(key)) {
+                        bestScore = score;
+                        bestKey = docKey;
+                    }
+                }
+            }
+            return bestKey == null ? Optional.empty() : Optional.of(new Match(bestKey, bestScore));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 目前索引中的食譜筆數
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docIdsByKey.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //目前佔用的 docId 數量 (包含已刪除、還沒重建的)，測試用
+    int docSlots() {
+        lock.readLock().lock();
+        try {
+            return docKeys.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //-----分數：subset 為覆蓋率，jaccard 為交集 / 聯集-----
+    private static double score(Mode mode, int overlap, int queryLength, int docLength) {
+        if (mode == Mode.SUBSET) {
+            return (double) overlap / queryLength;
+        }
+        return (double) overlap / (queryLength + docLength - overlap);
+    }
+
+    //-----查詢食材依出現次數由少到多排序-----
+    private int[] sortByFrequency(int styleId, int[] query) {
+        long[] packed = new long[query.length];
+        for (int i = 0; i < query.length; i++) {
+            IntList posting = query[i] < 0 ? null : postings.get(postingKey(styleId, query[i]));
+            long frequency = posting == null ? 0 : posting.size;
+            packed[i] = (frequency << 32) | (query[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(packed);
+        int[] sorted = new int[query.length];
+        for (int i = 0; i < packed.length; i++) {
+            sorted[i] = (int) packed[i];
+        }
+        return sorted;
+    }
+
+    //-----"食材1|食材2" → 去除重複與空白的食材 id-----
+    private int[] toTokenIds(String ingredients, boolean create) {
+        String[] names = ingredients.isEmpty() ? new String[0] : ingredients.split("\\|");
+        int[] ids = new int[names.length];
+        int count = 0;
+        int unknown = -1;
+        for (String name : names) {
+            if (name.isEmpty()) {
+                continue;
+            }
+            Integer id = create ? tokenIds.computeIfAbsent(name, n -> tokenIds.size()) : tokenIds.get(name);
+            ids[count++] = id != null ? id : unknown--;     //沒看過的食材各自給不同的負數，才不會被當成重複
+        }
+        return Arrays.stream(ids, 0, count).distinct().sorted().toArray();
+    }
+
+    //-----查詢 (排序好) 與 b[from, to) 的交集大小；requireAll 時 b 有 a 沒有的元素就回傳 -1-----
+    private static int intersectionSize(int[] a, int[] b, int from, int to, boolean requireAll) {
+        int i = 0;
+        int j = from;
+        int count = 0;
+        while (i < a.length && j < to) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                if (requireAll) {
+                    return -1;
+                }
+                j++;
+            } else {
+                count++;
+                i++;
+                j++;
+            }
+        }
+        return requireAll && j < to ? -1 : count;
+    }
+
+    //-----key → [食材, style]-----
+    private static String[] splitKey(String key) {
+        int separator = key.indexOf("::");
+        if (separator < 0) {
+            return new String[]{key, ""};
+        }
+        return new String[]{key.substring(0, separator), key.substring(separator + 2)};
+    }
+
+    private static long postingKey(int styleId, int tokenId) {
+        return ((long) styleId << 32) | (tokenId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 可成長的 int 陣列 (避免 List<Integer> 的 boxing)
+     */
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private void clear() {
+            values = new int[4];
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.recipe_ai.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * GeminiHttpClientConfig
+ * GeminiImageService 專用的 HTTP client (Apache HttpClient 5)：
+ * - 連線池 + keep-alive，不用每次呼叫都重新建立 TLS 連線
+ * - 連線、讀取、向連線池借連線都有 timeout，Gemini 卡住時不會一直佔住 Tomcat 執行緒
+ * - 定期清掉閒置太久 / 過期的連線
+ * (整個呼叫的總時間上限 total-timeout 由 GeminiImageService 控制)
+ */
+@Configuration
+public class GeminiHttpClientConfig {
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager geminiConnectionManager(
+            @Value("${gemini.image.http.max-connections:20}") int maxConnections,
+            @Value("${gemini.image.http.max-connections-per-route:20}") int maxConnectionsPerRoute,
+            @Value("${gemini.image.http.connect-timeout:5s}") Duration connectTimeout,
+            @Value("${gemini.image.http.read-timeout:60s}") Duration readTimeout,
+            @Value("${gemini.image.http.connection-ttl:5m}") Duration connectionTtl) {
+        return createConnectionManager(maxConnections, maxConnectionsPerRoute, connectTimeout, readTimeout, connectionTtl);
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient geminiHttpClient(
+            PoolingHttpClientConnectionManager geminiConnectionManager,
+            @Value("${gemini.image.http.pool-acquire-timeout:5s}") Duration poolAcquireTimeout,
+            @Value("${gemini.image.http.read-timeout:60s}") Duration readTimeout,
+            @Value("${gemini.image.http.idle-eviction:30s}") Duration idleEviction) {
+        return createHttpClient(geminiConnectionManager, poolAcquireTimeout, readTimeout, idleEviction);
+    }
+
+    /**
+     * 連線池狀態輸出到 Micrometer：gemini.image.http.connections{state=leased|available|pending|max}
+     */
+    @Bean
+    public MeterBinder geminiConnectionPoolMetrics(PoolingHttpClientConnectionManager geminiConnectionManager) {
+        return registry -> {
+            Gauge.builder("gemini.image.http.connections", geminiConnectionManager, cm -> cm.getTotalStats().getLeased())
+                    .tag("state", "leased").register(registry);
+            Gauge.builder("gemini.image.http.connections", geminiConnectionManager, cm -> cm.getTotalStats().getAvailable())
+                    .tag("state", "available").register(registry);
+            Gauge.builder("gemini.image.http.connections", geminiConnectionManager, cm -> cm.getTotalStats().getPending())
+                    .tag("state", "pending").register(registry);
+            Gauge.builder("gemini.image.http.connections", geminiConnectionManager, cm -> cm.getTotalStats().getMax())
+                    .tag("state", "max").register(registry);
+        };
+    }
+
+    /**
+     * 建立連線池
+     * @param maxConnections         全部連線數上限
+     * @param maxConnectionsPerRoute 同一個主機的連線數上限 (Gemini 只有一個主機，通常與上面相同)
+     * @param connectTimeout         建立 TCP/TLS 連線的 timeout
+     * @param readTimeout            等待資料 (socket read) 的 timeout
+     * @param connectionTtl          一條連線最多使用多久就換新的
+     */
+    public static PoolingHttpClientConnectionManager createConnectionManager(int maxConnections, int maxConnectionsPerRoute,
+                                                                             Duration connectTimeout, Duration readTimeout,
+                                                                             Duration connectionTtl) {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(readTimeout))
+                        .setTimeToLive(TimeValue.of(connectionTtl))
+                        .build())
+                .build();
+    }
+
+    /**
+     * 建立使用連線池的 HTTP client
+     * @param poolAcquireTimeout 連線池滿了時，最多等多久借到連線
+     * @param readTimeout        等待回應的 timeout
+     * @param idleEviction       閒置超過這個時間的連線會被背景執行緒關閉
+     */
+    public static CloseableHttpClient createHttpClient(PoolingHttpClientConnectionManager connectionManager,
+                                                       Duration poolAcquireTimeout, Duration readTimeout,
+                                                       Duration idleEviction) {
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(poolAcquireTimeout))
+                        .setResponseTimeout(Timeout.of(readTimeout))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.of(idleEviction))
+                .disableAutomaticRetries()      //重試策略由呼叫端決定，避免圖片生成被默默呼叫兩次
+                .build();
+    }
+
+    /**
+     * 連線池目前狀態 (使用中、閒置、等待中、上限)
+     */
+    public static Map<String, Object> poolStats(PoolingHttpClientConnectionManager connectionManager) {
+        PoolStats stats = connectionManager.getTotalStats();
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("leased", stats.getLeased());
+        snapshot.put("available", stats.getAvailable());
+        snapshot.put("pending", stats.getPending());
+        snapshot.put("max", stats.getMax());
+        return snapshot;
+    }
+}
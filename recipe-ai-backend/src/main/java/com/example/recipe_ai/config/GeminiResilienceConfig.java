@@ -0,0 +1,58 @@
+package com.example.recipe_ai.config;
+
+import com.example.recipe_ai.limit.CircuitBreaker;
+import com.example.recipe_ai.limit.ResilientCaller;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * GeminiResilienceConfig
+ * 文字生成 (ChatModel) 與圖片生成 (GeminiImageService) 各自的重試、對沖與熔斷器
+ * (Spring AI 內建的 RetryTemplate 設成不重試，重試統一由這裡處理：spring.ai.retry.max-attempts=1)
+ */
+@Configuration
+public class GeminiResilienceConfig {
+
+    @Bean(destroyMethod = "shutdown")
+    public ResilientCaller chatCaller(
+            @Value("${recipe.resilience.chat.max-attempts:3}") int maxAttempts,
+            @Value("${recipe.resilience.chat.backoff:500ms}") Duration backoff,
+            @Value("${recipe.resilience.chat.max-backoff:5s}") Duration maxBackoff,
+            @Value("${recipe.resilience.chat.hedge:true}") boolean hedge,
+            @Value("${recipe.resilience.chat.hedge-percentile:0.95}") double hedgePercentile,
+            @Value("${recipe.resilience.chat.hedge-min-delay:1s}") Duration hedgeMinDelay,
+            @Value("${recipe.resilience.chat.hedge-initial-delay:10s}") Duration hedgeInitialDelay,
+            @Value("${recipe.resilience.chat.breaker.window:20}") int window,
+            @Value("${recipe.resilience.chat.breaker.minimum-calls:10}") int minimumCalls,
+            @Value("${recipe.resilience.chat.breaker.failure-rate:0.5}") double failureRate,
+            @Value("${recipe.resilience.chat.breaker.open-duration:30s}") Duration openDuration,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        return new ResilientCaller("chat",
+                new ResilientCaller.Policy(maxAttempts, backoff, maxBackoff, hedge, hedgePercentile, hedgeMinDelay, hedgeInitialDelay),
+                new CircuitBreaker("chat", window, minimumCalls, failureRate, openDuration, 1),
+                virtualThreads);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ResilientCaller imageCaller(
+            @Value("${recipe.resilience.image.max-attempts:2}") int maxAttempts,
+            @Value("${recipe.resilience.image.backoff:1s}") Duration backoff,
+            @Value("${recipe.resilience.image.max-backoff:5s}") Duration maxBackoff,
+            @Value("${recipe.resilience.image.hedge:true}") boolean hedge,
+            @Value("${recipe.resilience.image.hedge-percentile:0.95}") double hedgePercentile,
+            @Value("${recipe.resilience.image.hedge-min-delay:3s}") Duration hedgeMinDelay,
+            @Value("${recipe.resilience.image.hedge-initial-delay:20s}") Duration hedgeInitialDelay,
+            @Value("${recipe.resilience.image.breaker.window:20}") int window,
+            @Value("${recipe.resilience.image.breaker.minimum-calls:10}") int minimumCalls,
+            @Value("${recipe.resilience.image.breaker.failure-rate:0.5}") double failureRate,
+            @Value("${recipe.resilience.image.breaker.open-duration:30s}") Duration openDuration,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        return new ResilientCaller("image",
+                new ResilientCaller.Policy(maxAttempts, backoff, maxBackoff, hedge, hedgePercentile, hedgeMinDelay, hedgeInitialDelay),
+                new CircuitBreaker("image", window, minimumCalls, failureRate, openDuration, 1),
+                virtualThreads);
+    }
+}
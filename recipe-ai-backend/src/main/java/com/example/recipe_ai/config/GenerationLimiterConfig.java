@@ -0,0 +1,39 @@
+package com.example.recipe_ai.config;
+
+import com.example.recipe_ai.limit.AdaptiveConcurrencyLimiter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * GenerationLimiterConfig
+ * 文字生成 (ChatModel) 與圖片生成 (GeminiImageService) 各自的並行上限與等待佇列 (bulkhead)，
+ * 一邊塞滿不會影響另一邊，快取命中也不會排在 AI 呼叫後面
+ */
+@Configuration
+public class GenerationLimiterConfig {
+
+    @Bean
+    public AdaptiveConcurrencyLimiter textGenerationLimiter(
+            @Value("${recipe.limit.text.initial:8}") int initialLimit,
+            @Value("${recipe.limit.text.min:2}") int minLimit,
+            @Value("${recipe.limit.text.max:64}") int maxLimit,
+            @Value("${recipe.limit.text.queue-capacity:50}") int queueCapacity,
+            @Value("${recipe.limit.text.max-wait:10s}") Duration maxWait,
+            @Value("${recipe.limit.text.backoff-ratio:0.9}") double backoffRatio) {
+        return new AdaptiveConcurrencyLimiter("text", initialLimit, minLimit, maxLimit, queueCapacity, maxWait, backoffRatio);
+    }
+
+    @Bean
+    public AdaptiveConcurrencyLimiter imageGenerationLimiter(
+            @Value("${recipe.limit.image.initial:4}") int initialLimit,
+            @Value("${recipe.limit.image.min:1}") int minLimit,
+            @Value("${recipe.limit.image.max:20}") int maxLimit,
+            @Value("${recipe.limit.image.queue-capacity:20}") int queueCapacity,
+            @Value("${recipe.limit.image.max-wait:20s}") Duration maxWait,
+            @Value("${recipe.limit.image.backoff-ratio:0.9}") double backoffRatio) {
+        return new AdaptiveConcurrencyLimiter("image", initialLimit, minLimit, maxLimit, queueCapacity, maxWait, backoffRatio);
+    }
+}
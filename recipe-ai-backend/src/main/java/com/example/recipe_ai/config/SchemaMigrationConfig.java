@@ -0,0 +1,32 @@
+package com.example.recipe_ai.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * SchemaMigrationConfig
+ * 資料表結構由 Flyway 管理 (db/migration/V1__recipe_cache.sql、RecipeKeyMigration、RecipeCacheColumnsMigration)，
+ * 每次啟動時在 JPA 之前執行，已經是最新版本時只查一次 flyway_schema_history。
+ * recipe.schema.migrate=false 時不執行 (Dockerfile 的 AppCDS 訓練沒有資料庫)；
+ * 用執行期的設定決定而不是 spring.flyway.enabled，因為 AOT 在建構時就決定好 Flyway 的 bean 要不要建立。
+ */
+@Configuration
+public class SchemaMigrationConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchemaMigrationConfig.class);
+
+    @Bean
+    public FlywayMigrationStrategy schemaMigrationStrategy(@Value("${recipe.schema.migrate:true}") boolean migrate) {
+        return flyway -> {
+            if (migrate) {
+                flyway.migrate();
+            } else {
+                logger.info("recipe.schema.migrate=false，略過資料表結構遷移");
+            }
+        };
+    }
+}
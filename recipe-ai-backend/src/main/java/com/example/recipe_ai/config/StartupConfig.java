@@ -0,0 +1,26 @@
+package com.example.recipe_ai.config;
+
+import com.example.recipe_ai.RecipeAiApplication;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * StartupConfig
+ * 開啟 spring.main.lazy-initialization (prod profile) 時，哪些 bean 仍然在啟動時建立：
+ * - 本專案的 bean 都在請求路徑上 (或負責預先載入快取、背景寫入)，延遲建立只是把時間移到第一個請求
+ * - 它們相依的 ChatModel、JPA、連線池、MeterRegistry 跟著一起建立
+ * - 其他 (springdoc / Swagger、沒被用到的 Actuator 端點等) 第一次用到時才建立
+ */
+@Configuration
+public class StartupConfig {
+
+    private static final String APPLICATION_PACKAGE = RecipeAiApplication.class.getPackageName() + ".";
+
+    //static：在 BeanFactoryPostProcessor 階段就會被讀取，不需要先建立這個設定類別
+    @Bean
+    public static LazyInitializationExcludeFilter applicationBeansEager() {
+        return (beanName, beanDefinition, beanType) ->
+                beanType != null && beanType.getName().startsWith(APPLICATION_PACKAGE);
+    }
+}
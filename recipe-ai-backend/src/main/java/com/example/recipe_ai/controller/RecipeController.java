@@ -1,17 +1,51 @@
 package com.example.recipe_ai.controller;
 // ====================== DTO ======================
+import com.example.recipe_ai.dto.RecipeBatchRequest;
+import com.example.recipe_ai.dto.RecipeBatchResponse;
 import com.example.recipe_ai.dto.RecipeRequest;
 import com.example.recipe_ai.dto.RecipeResponse;
+import com.example.recipe_ai.dto.ImageJobResponse;
+// ====================== Cache ======================
+import com.example.recipe_ai.cache.RecipeL1Cache;
+import com.example.recipe_ai.entity.RecipeCache;
 // ====================== Service ======================
 //處理核心業務邏輯（生成食譜、處理資料、呼叫 AI 等
+import com.example.recipe_ai.exception.ApiException;
+import com.example.recipe_ai.service.GeminiImageService;
+import com.example.recipe_ai.service.ImageJobService;
+import com.example.recipe_ai.service.RecipeBatchService;
+import com.example.recipe_ai.service.RecipeResponsePayload;
 import com.example.recipe_ai.service.RecipeService;
+import com.example.recipe_ai.service.RecipeStreamService;
+import com.example.recipe_ai.storage.ImageBlobStore;
+import com.example.recipe_ai.storage.ImageRendition;
+import com.example.recipe_ai.storage.ImageRenditionService;
+import com.example.recipe_ai.storage.ResolvedImage;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
 
 // 標記這個類別 (Class) 是一個「API 控制器」，接收前端的網路請求並「回傳 JSON 資料」
 // @controller負責接收 HTTP 請求、處理資料，並回傳資料或 HTML 頁面等。 @ResponseBody。回傳值放到 HTTP Response Body 中回傳給到前端
 @RestController
 // 允許「所有來源」的網址，都可以來呼叫這裡的 API。解決 CORS 跨域問題。
-@CrossOrigin(origins = "*")
+// 前端 JavaScript 要讀得到 Content-Location (食譜資源網址) 與 ETag
+@CrossOrigin(origins = "*", exposedHeaders = {HttpHeaders.CONTENT_LOCATION, HttpHeaders.ETAG})
 // 統一此class控制器裡所有 API 的「路徑」，都以 "/api/recipe" 開頭
 @RequestMapping("/api/recipe")
 
@@ -20,21 +54,240 @@ import org.springframework.web.bind.annotation.*;
  */
 public class RecipeController {
 
+    // Tomcat sendfile 的 request attribute (org.apache.catalina.Globals)
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
     // 宣告RecipeService型態的變數my_recipeService
     // 把RecipeService的注入myrecipeService來使用
     private final RecipeService myrecipeService;
-    public RecipeController(RecipeService recipeService) {
+    // 記憶體快取(L1)，用來查詢 hit/miss 統計
+    private final RecipeL1Cache myrecipeL1Cache;
+    // 圖片各尺寸版本 (縮圖、中圖、原圖)
+    private final ImageRenditionService myimageRenditionService;
+    // 非同步圖片生成工作
+    private final ImageJobService myimageJobService;
+    // 串流 (SSE) 生成食譜
+    private final RecipeStreamService myrecipeStreamService;
+    // Gemini 圖片服務 (查詢連線池狀態)
+    private final GeminiImageService mygeminiImageService;
+    // 批次生成食譜
+    private final RecipeBatchService myrecipeBatchService;
+    // GET /api/recipe/{id} 的 Cache-Control: max-age (過期後用 ETag 重新驗證)
+    private final CacheControl recipeCacheControl;
+    public RecipeController(RecipeService recipeService, RecipeL1Cache recipeL1Cache, ImageRenditionService imageRenditionService,
+                            ImageJobService imageJobService, RecipeStreamService recipeStreamService,
+                            GeminiImageService geminiImageService, RecipeBatchService recipeBatchService,
+                            @Value("${recipe.http.max-age:5m}") Duration recipeMaxAge) {
         this.myrecipeService = recipeService;     //附值給自己
+        this.myrecipeL1Cache = recipeL1Cache;
+        this.myimageRenditionService = imageRenditionService;
+        this.myimageJobService = imageJobService;
+        this.myrecipeStreamService = recipeStreamService;
+        this.mygeminiImageService = geminiImageService;
+        this.myrecipeBatchService = recipeBatchService;
+        this.recipeCacheControl = CacheControl.maxAge(recipeMaxAge).cachePublic();
     }
 
     /**
      * 這是一個產生食譜 API，名為handle_generateRecipe
+     * 快取命中時直接送出預先序列化好的 JSON bytes (前端接受 gzip 就原樣送出壓縮內容)，不組 DTO
+     * Content-Location 是這份食譜的資源網址 (GET /api/recipe/{id})，之後可以改用帶 ETag 的 GET 讀取
      * @param request - 顧客遞給你的「點單」 (RecipeRequest)
+     * @param acceptEncoding - 前端是否接受 gzip
      * @return RecipeResponse - 你端回給顧客的「完成的菜餚」 (RecipeResponse)
      */
     //利用myrecipeService呼叫generateRecipe方法(參數為requset)，回傳resoponse到前端
     @PostMapping("/generate")
-    public RecipeResponse handle_generateRecipe(@RequestBody RecipeRequest request) {
-        return myrecipeService.generateRecipe(request);
+    public ResponseEntity<?> handle_generateRecipe(@RequestBody RecipeRequest request,
+                                                   @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding)
+            throws IOException {
+        //只查一次快取/資料庫：沒有 payload 時把查詢結果交給 generateRecipe，不再重查
+        RecipeService.CacheLookup lookup = myrecipeService.lookup(request);
+        if (!lookup.hasPayload()) {
+            RecipeResponse recipeResponse = myrecipeService.generateRecipe(request, lookup);
+            ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+            if (recipeResponse.getId() != null) {
+                ok.header(HttpHeaders.CONTENT_LOCATION, resourcePath(recipeResponse.getId()));
+            }
+            return ok.body(recipeResponse);
+        }
+        RecipeCache cached = lookup.cached();
+        return sendPayload(ResponseEntity.ok().header(HttpHeaders.CONTENT_LOCATION, resourcePath(cached.getId())),
+                cached.getResponsePayload(), RecipeResponsePayload.acceptsGzip(acceptEncoding));
+    }
+
+    /**
+     * 讀取一份已經生成的食譜 (id 來自 POST /generate 回應的 Content-Location)
+     * - 強 ETag (回應內容的 hash；gzip 與未壓縮是不同的 ETag)，帶 If-None-Match 且相同時回 304
+     * - Cache-Control: public, max-age (recipe.http.max-age)，瀏覽器/CDN 可以快取
+     * - 圖片還在生成的食譜內容之後會變，不快取 (no-store)
+     * @param id 食譜資源 id
+     * @param ifNoneMatch 瀏覽器快取的 ETag
+     * @param acceptEncoding 前端是否接受 gzip
+     */
+    @GetMapping("/{id:[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}}")
+    public ResponseEntity<?> handle_getRecipe(@PathVariable UUID id,
+                                              @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                              @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding)
+            throws IOException {
+        RecipeCache entry = myrecipeService.findById(id)
+                .orElseThrow(() -> new ApiException("找不到食譜", HttpStatus.NOT_FOUND));
+        if (entry.getResponsePayload() == null) {
+            return ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(myrecipeService.toResponse(entry));
+        }
+
+        boolean gzip = RecipeResponsePayload.acceptsGzip(acceptEncoding);
+        String etag = "\"" + RecipeResponsePayload.etag(entry) + (gzip ? "-gzip" : "") + "\"";
+        //瀏覽器/CDN 已經有這個版本 → 304，不用再傳內容
+        if (RecipeResponsePayload.etagMatches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .cacheControl(recipeCacheControl)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+        return sendPayload(ResponseEntity.ok().eTag(etag).cacheControl(recipeCacheControl), entry.getResponsePayload(), gzip);
+    }
+
+    //送出預先序列化好的回應內容：前端接受 gzip 就原樣送出，不接受就解壓縮
+    private static ResponseEntity<byte[]> sendPayload(ResponseEntity.BodyBuilder ok, byte[] payload, boolean gzip) throws IOException {
+        ok.contentType(MediaType.APPLICATION_JSON).header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            return ok.header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .contentLength(payload.length)
+                    .body(payload);
+        }
+        try (InputStream json = RecipeResponsePayload.uncompressed(payload)) {
+            return ok.body(json.readAllBytes());
+        }
+    }
+
+    private static String resourcePath(UUID id) {
+        return "/api/recipe/" + id;
+    }
+
+    /**
+     * 批次產生食譜 API：一次送出多組食材，依輸入順序回傳每一組的結果
+     * - 相同的輸入只生成一次，快取命中的直接回傳
+     * - 某一組失敗不影響其他組 (該組回傳 message 與 status)
+     * @param request - items 為多張點單
+     */
+    @PostMapping("/generate/batch")
+    public RecipeBatchResponse handle_generateRecipeBatch(@RequestBody RecipeBatchRequest request) {
+        return myrecipeBatchService.generateBatch(request);
+    }
+
+    /**
+     * 串流版的產生食譜 API (Server-Sent Events)，AI 每生成一個欄位就推送一個事件
+     * 事件：title、ingredient、step、image、done (失敗時為 error)
+     * @param request - 與 /generate 相同的點單
+     */
+    @PostMapping(value = "/generate/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter handle_generateRecipeStream(@RequestBody RecipeRequest request) {
+        return myrecipeStreamService.stream(request);
+    }
+
+    /**
+     * 串流版的產生食譜 API (GET 版本，給瀏覽器的 EventSource 使用)
+     */
+    @GetMapping(value = "/generate/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter handle_generateRecipeStream(@RequestParam String ingredients,
+                                                  @RequestParam(required = false) String styleOrDiet,
+                                                  @RequestParam(required = false) Boolean asyncImage) {
+        RecipeRequest request = RecipeRequest.builder()
+                .ingredients(ingredients)
+                .styleOrDiet(styleOrDiet)
+                .asyncImage(asyncImage)
+                .build();
+        return myrecipeStreamService.stream(request);
+    }
+
+    /**
+     * 查詢記憶體快取(L1)的統計資料：hit/miss 次數、命中率、淘汰次數、使用的 bytes
+     * @return 統計資料 (JSON)
+     */
+    @GetMapping("/cache/stats")
+    public Map<String, Object> handle_cacheStats() {
+        return myrecipeL1Cache.statsSnapshot();
+    }
+
+    /**
+     * 查詢 Gemini 圖片 API 連線池的狀態：使用中、閒置、等待中的連線數與上限
+     * @return 連線池狀態 (JSON)
+     */
+    @GetMapping("/gemini/stats")
+    public Map<String, Object> handle_geminiPoolStats() {
+        return mygeminiImageService.poolStats();
+    }
+
+    /**
+     * 取得食譜圖片 (內容定址，同一個 hash 的內容永遠不變)
+     * - size=thumb|medium|full 選擇尺寸 (列表頁用 thumb)，沒帶時為 full
+     * - ETag 是 hash (+ 尺寸)，瀏覽器帶 If-None-Match 時直接回 304
+     * - Cache-Control: immutable，瀏覽器/CDN 可以快取一年
+     * - 縮圖還沒產生 (轉檔忙碌、失敗) 而先回傳原圖時不帶 ETag、不快取 (no-store)，之後再要求就會拿到真正的縮圖
+     * - 檔案以串流方式送出 (Files.copy，固定大小的緩衝區)，不會整張圖片讀進記憶體
+     * @param hash 圖片的 SHA-256
+     * @param size 圖片尺寸
+     * @param ifNoneMatch 瀏覽器快取的 ETag
+     */
+    @GetMapping("/image/{hash}")
+    public void handle_getImage(@PathVariable String hash,
+                                @RequestParam(required = false) String size,
+                                @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                HttpServletRequest request, HttpServletResponse response) throws IOException {
+        ImageRendition rendition = ImageRendition.fromParam(size);
+        ResolvedImage resolved = myimageRenditionService.resolve(hash, rendition)
+                .orElseThrow(() -> new ApiException("找不到圖片", HttpStatus.NOT_FOUND));
+        Path image = resolved.path();
+
+        if (resolved.rendition() != rendition) {
+            //先以原圖代替：這個網址之後會是縮圖，不能讓瀏覽器/CDN 把原圖當成縮圖快取
+            response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noStore().getHeaderValue());
+        } else {
+            String etag = "\"" + (rendition == ImageRendition.FULL ? hash : hash + "-" + rendition.param()) + "\"";
+            response.setHeader(HttpHeaders.ETAG, etag);
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "public, max-age=31536000, immutable");
+
+            //瀏覽器已經有這張圖片 → 304，不用再傳內容
+            if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || ifNoneMatch.trim().equals("*"))) {
+                response.setStatus(HttpStatus.NOT_MODIFIED.value());
+                return;
+            }
+        }
+
+        long length = Files.size(image);
+        response.setContentType(ImageBlobStore.detectContentType(image));
+        response.setContentLengthLong(length);
+        //Tomcat 支援 sendfile (NIO connector 預設開啟)：交給 connector 由 kernel 直接把檔案送到 socket，
+        //不經過 JVM 的 heap 與請求執行緒；不支援時才自己複製
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, image.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, 0L);
+            request.setAttribute(SENDFILE_END, length);
+            return;
+        }
+        Files.copy(image, response.getOutputStream());
+    }
+
+    /**
+     * 輪詢非同步圖片生成的狀態 (PENDING / DONE / FAILED)
+     * @param jobId 生成食譜時回傳的 imageJobId
+     */
+    @GetMapping("/image/job/{jobId}")
+    public ImageJobResponse handle_getImageJob(@PathVariable String jobId) {
+        return myimageJobService.getStatus(jobId);
+    }
+
+    /**
+     * 用 SSE 訂閱非同步圖片生成結果，圖片完成 (或失敗) 時推送 "image" 事件
+     * @param jobId 生成食譜時回傳的 imageJobId
+     */
+    @GetMapping(value = "/image/job/{jobId}/events", produces = "text/event-stream")
+    public SseEmitter handle_subscribeImageJob(@PathVariable String jobId) {
+        return myimageJobService.subscribe(jobId);
     }
 }
@@ -0,0 +1,21 @@
+package com.example.recipe_ai.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * ImageJobResponse
+ * 非同步圖片生成的工作狀態，給前端輪詢 (polling) 或 SSE 使用
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageJobResponse {
+    private String jobId;       //工作編號
+    private String status;      //PENDING、DONE、FAILED
+    private String imageUrl;    //DONE 時的圖片網址
+    private String message;     //FAILED 時的錯誤訊息
+}
@@ -0,0 +1,25 @@
+package com.example.recipe_ai.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * RecipeBatchItemResult
+ * 批次產生食譜中，單一組輸入的結果 (成功有 recipe，失敗有 message 與 status)
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class RecipeBatchItemResult {
+    private int index;              //對應輸入 items 的位置
+    private String key;             //正規化後的 key (相同 key 的輸入只會生成一次)
+    private boolean cached;         //true: 快取命中；false: 這次由 AI 生成
+    private RecipeResponse recipe;  //成功時的食譜
+    private String message;         //失敗時的錯誤訊息
+    private Integer status;         //失敗時的 HTTP 狀態碼
+}
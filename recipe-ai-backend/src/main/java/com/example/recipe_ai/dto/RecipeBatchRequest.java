@@ -0,0 +1,20 @@
+package com.example.recipe_ai.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * RecipeBatchRequest
+ * 批次產生食譜的 DTO，一次送多組食材 / 料理風格
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RecipeBatchRequest {
+    private List<RecipeRequest> items;   //每一組與 /generate 的點單相同
+}
@@ -0,0 +1,20 @@
+package com.example.recipe_ai.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * RecipeBatchResponse
+ * 批次產生食譜的回傳，results 的順序與輸入 items 相同
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RecipeBatchResponse {
+    private List<RecipeBatchItemResult> results;
+}
@@ -12,5 +12,6 @@ import lombok.Data;
 public class RecipeRequest {
     private String ingredients;   // 使用者輸入的食材 (例如: "雞肉, 洋蔥")
     private String styleOrDiet;   // 飲食需求 / 料理風格 (例如: "低碳", "泰式")
+    private Boolean asyncImage;   // true: 食譜文字先回傳，圖片在背景生成 (不填則使用伺服器預設值)
 }
 
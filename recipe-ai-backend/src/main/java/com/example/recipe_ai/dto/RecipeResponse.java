@@ -1,8 +1,11 @@
 package com.example.recipe_ai.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Builder;
 import lombok.Data;
 import java.util.List;
+import java.util.UUID;
 import lombok.NoArgsConstructor;   // <-- 1. 匯入這兩個
 import lombok.AllArgsConstructor; // <-- 1. 匯入這兩個
 
@@ -19,4 +22,8 @@ public class RecipeResponse {
     private List<String> ingredients;   //食材清單
     private List<String> steps;         //料理步驟
     private String imageUrl;            //料理預覽圖
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String imageJobId;          //非同步圖片生成的工作編號 (圖片還沒好時才有)
+    @JsonIgnore
+    private UUID id;                    //食譜資源 id (GET /api/recipe/{id})，不輸出到 JSON，由 controller 放在 Content-Location
 }
\ No newline at end of file
@@ -3,39 +3,121 @@ import jakarta.persistence.*;
 import  jakarta.persistence.Entity;
 import jakarta.persistence.Id;
 import jakarta.persistence.Column;
-import jakarta.persistence.Lob;     //存大量文字
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+import org.springframework.data.domain.Persistable;
+
+import java.util.List;
+import java.util.UUID;
 
 @Entity // 告訴spring boot，這個class是一個(entity)，資料庫中的table
 @Setter
 @Getter
 @Table(name = "recipe_cache") //告訴spring boot，這個class對應的資料表名稱
-public class RecipeCache {
-    //1-欄位  主鍵
+public class RecipeCache implements Persistable<UUID> {
+    //1-欄位  主鍵：正規化 key 的 SHA-256 前 128 bits (BINARY(16))，由 RecipeKeyNormalizer.idOf 產生
     @Id
-    @Column(name="key_id",length = 512)
-    private  String key_id;
+    @JdbcTypeCode(SqlTypes.BINARY)
+    @Column(name="id",length = 16,nullable = false)
+    private UUID id;
+
+    //1.1-欄位  可讀的正規化 key (例如 "洋蔥|雞肉::泰式")，只用來顯示與重建索引，不建索引
+    //TEXT：長度不受限制 (食材清單很長時也寫得進去)，查詢一律用 id
+    @Column(name = "normalized_key",columnDefinition = "TEXT",nullable = false)
+    private String normalizedKey;
 
     //2-欄位  料理名稱
     @Column(name = "title",length = 512)
     private String title;
 
-    //3-欄位  食材清單
-    @Lob    //大量文字
+    //3-欄位  食材清單 (JSON 陣列)
+    @Convert(converter = StringListJsonConverter.class)
     @Column(name = "ingredients",columnDefinition = "TEXT")
-    private String ingredients;
+    private List<String> ingredients;
 
-    //4-欄位  料理步驟
+    //4-欄位  料理步驟 (JSON 陣列)
+    @Convert(converter = StringListJsonConverter.class)
     @Column(name = "steps",columnDefinition = "MEDIUMTEXT")
-    private String steps;
+    private List<String> steps;
 
-    //5-欄位  料理預覽圖
+    //5-欄位  料理預覽圖 (舊資料：base64 Data URL，遷移到 ImageBlobStore 後會清成 null)
     @Column(name = "imageUrl",columnDefinition = "MEDIUMTEXT")
     private  String imageUrl;
 
+    //6-欄位  料理預覽圖的 SHA-256，圖片本身存在 ImageBlobStore
+    @Column(name = "image_hash",length = 64)
+    private String imageHash;
+
+    //7-欄位  快取命中時直接回傳的回應內容 (gzip 壓縮的 RecipeResponse JSON，見 RecipeResponsePayload)
+    //圖片還沒生成好時為 null
+    @Column(name = "response_payload",columnDefinition = "MEDIUMBLOB")
+    private byte[] responsePayload;
+
+    //8-欄位  快取命中次數 (RecipeAccessTracker 先在記憶體累加，再定期批次寫入；RecipeCachePurger 的 LFU 依據)
+    //只由 JDBC 批次更新，JPA save 不寫入，避免用舊的值蓋掉累加結果
+    @Column(name = "hit_count",insertable = false,updatable = false)
+    private Long hitCount;
+
+    //9-欄位  最後一次被讀取 (或寫入) 的時間，epoch 毫秒 (LRU 與 TTL 的依據)；同樣只由 JDBC 更新
+    @Column(name = "last_accessed_at",insertable = false,updatable = false)
+    private Long lastAccessedAt;
+
+    //是否為還沒存入資料庫的新資料 (不是資料表欄位)
+    //主鍵是自己算出來的 hash (BINARY(16)，不是資料庫產生的)，Spring Data 預設會先 SELECT 再決定 INSERT 或 UPDATE，
+    //實作 Persistable 讓新資料直接 INSERT，saveAll 也能用 JDBC batch
+    @Transient
+    private boolean isNew = true;
+
+    //回應內容的 ETag (由 responsePayload 算出，見 RecipeResponsePayload.etag；不是資料表欄位)
+    @Transient
+    private String payloadEtag;
+
     //jpa需要無參數的建構子呼叫
     public  RecipeCache(){
     }
 
+    //複製一份 (淺複製，食材/步驟 List 共用，不會被修改)
+    //L1 快取裡的物件會被多個執行緒同時讀取，要更新時先複製再修改，改好後整個換掉 (見 RecipeL1Cache)
+    public RecipeCache copy() {
+        RecipeCache copy = new RecipeCache();
+        copy.id = id;
+        copy.normalizedKey = normalizedKey;
+        copy.title = title;
+        copy.ingredients = ingredients;
+        copy.steps = steps;
+        copy.imageUrl = imageUrl;
+        copy.imageHash = imageHash;
+        copy.responsePayload = responsePayload;
+        copy.hitCount = hitCount;
+        copy.lastAccessedAt = lastAccessedAt;
+        copy.isNew = isNew;
+        copy.payloadEtag = payloadEtag;
+        return copy;
+    }
+
+    //回應內容換掉時，ETag 也要重新算
+    public void setResponsePayload(byte[] responsePayload) {
+        this.responsePayload = responsePayload;
+        this.payloadEtag = null;
+    }
+
+    @Override
+    public UUID getId() {
+        return id;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    //從資料庫讀出來或存入資料庫之後，就不是新資料了
+    @PostLoad
+    @PostPersist
+    public void markNotNew() {
+        this.isNew = false;
+    }
+
 }
@@ -0,0 +1,50 @@
+package com.example.recipe_ai.entity;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * StringListJsonConverter
+ * List<String> ↔ 資料庫文字欄位 (JSON 陣列，例如 ["雞胸肉 200g","洋蔥 半顆"])
+ * 以前用 "||" 串接，步驟內容剛好有 "||" 就會被切錯；改成 JSON 後任何內容都能原樣還原。
+ * 舊格式的資料在啟動時由 RecipeListJsonMigration (資料表版本 5) 改寫成 JSON，這裡只讀 JSON，不猜格式。
+ */
+@Converter
+public class StringListJsonConverter implements AttributeConverter<List<String>, String> {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectWriter WRITER = MAPPER.writerFor(new TypeReference<List<String>>() { });
+    private static final ObjectReader READER = MAPPER.readerFor(new TypeReference<List<String>>() { });
+
+    @Override
+    public String convertToDatabaseColumn(List<String> values) {
+        if (values == null) {
+            return null;
+        }
+        try {
+            return WRITER.writeValueAsString(values);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("無法轉換成 JSON", e);
+        }
+    }
+
+    @Override
+    public List<String> convertToEntityAttribute(String column) {
+        if (column == null || column.isEmpty()) {
+            return new ArrayList<>();
+        }
+        try {
+            return READER.readValue(column);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("資料庫的 JSON 格式錯誤", e);
+        }
+    }
+}
@@ -17,6 +17,17 @@ public class ApiException extends RuntimeException {
         //把從外面傳進來的 HTTP 狀態碼，儲存到這個物件內部的 'status' 變數中
         this.status = status;
     }
+
+    /**
+     * 建構子 (保留造成錯誤的原因，例如連線逾時的 IOException，ResilientCaller 依此判斷能不能重試)
+     * @param message 錯誤訊息
+     * @param status  對應的 HTTP 狀態
+     * @param cause   原本的例外
+     */
+    public ApiException(String message, HttpStatus status, Throwable cause) {
+        super(message, cause);
+        this.status = status;
+    }
 }
 
 //Object
@@ -0,0 +1,15 @@
+package com.example.recipe_ai.key;
+
+/**
+ * IngredientDictionary
+ * 把一個食材名稱轉成標準名稱 (同義詞合併、去掉份量與單位)，讓意思相同的輸入得到同一個 key。
+ * 預設實作是 SynonymIngredientDictionary；要換成其他字典 (例如從資料庫載入) 時，另外註冊一個 @Primary 的 bean 即可。
+ */
+public interface IngredientDictionary {
+
+    /**
+     * @param ingredient 已轉小寫、去除頭尾空白的食材 (例如 "雞胸肉 200g")
+     * @return 標準名稱 (例如 "雞胸肉")，無法辨識時回傳原字串
+     */
+    String canonicalize(String ingredient);
+}
@@ -0,0 +1,243 @@
+package com.example.recipe_ai.key;
+
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.migration.Context;
+import org.flywaydb.core.api.migration.JavaMigration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * RecipeKeyMigration
+ * 資料表結構的版本 2 (Flyway JavaMigration，版本 1 見 db/migration/V1__recipe_cache.sql)：
+ * 把舊的 recipe_cache (主鍵 key_id VARCHAR(512)) 轉成新格式 (主鍵 id BINARY(16) + normalized_key)。
+ * 重新正規化要用到 RecipeKeyNormalizer 與同義詞表，所以不是 SQL 檔；Flyway 在 JPA (EntityManagerFactory) 啟動之前執行。
+ * 1. 新增 id、normalized_key 欄位 (先允許 null，id 加上 unique index)
+ * 2. 依 key_id 順序分批：舊 key → RecipeKeyNormalizer 重新正規化 → hash，寫回 id 與 normalized_key
+ *    同義詞合併後 hash 相同的舊資料只保留第一筆，其餘刪除
+ * 3. 主鍵改成 id，最後才刪除 key_id
+ * 每個 ALTER 只做一件事，執行前先查目前的資料表結構，做過的就略過；
+ * key_id 還在就表示遷移沒完成，中途中斷重新啟動時從中斷的地方繼續 (已經寫好的資料結果相同)。
+ * 資料表已經是新格式 (沒有 key_id，例如 ddl-auto=update 時期就遷移過、但沒有 Flyway 紀錄的資料庫) 時什麼都不做。
+ * 多個服務實例同時啟動時，用 MySQL 的 GET_LOCK 讓同一時間只有一個執行遷移 (Flyway 在 MySQL 上也會拿自己的鎖，這裡不依賴它)；
+ * 其他實例拿到鎖後重新檢查欄位，已經遷移完就直接略過。
+ */
+@Component
+public class RecipeKeyMigration implements JavaMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecipeKeyMigration.class);
+    private static final String TABLE = "recipe_cache";
+    private static final String LOCK_NAME = "recipe_cache_key_migration";
+
+    private final DataSource mydataSource;
+    private final JdbcTemplate myjdbcTemplate;
+    private final RecipeKeyNormalizer myrecipeKeyNormalizer;
+    private final int batchSize;
+    // 等其他實例遷移完成 (拿到 GET_LOCK) 最多等多久
+    private final Duration lockTimeout;
+
+    public RecipeKeyMigration(DataSource dataSource, RecipeKeyNormalizer recipeKeyNormalizer,
+                              @Value("${recipe.key.migrate-batch-size:500}") int batchSize,
+                              @Value("${recipe.key.migrate-lock-timeout:10m}") Duration lockTimeout) {
+        this.mydataSource = dataSource;
+        this.myjdbcTemplate = new JdbcTemplate(dataSource);
+        this.myrecipeKeyNormalizer = recipeKeyNormalizer;
+        this.batchSize = batchSize;
+        this.lockTimeout = lockTimeout;
+    }
+
+    @Override
+    public MigrationVersion getVersion() {
+        return MigrationVersion.fromVersion("2");
+    }
+
+    @Override
+    public String getDescription() {
+        return "recipe key hash";
+    }
+
+    @Override
+    public Integer getChecksum() {
+        return null;
+    }
+
+    //DDL 在 MySQL 上本來就不能 rollback，遷移也不是用 Flyway 的連線
+    @Override
+    public boolean canExecuteInTransaction() {
+        return false;
+    }
+
+    @Override
+    public void migrate(Context context) throws SQLException {
+        run();
+    }
+
+    void run() throws SQLException {
+        if (!columns().contains("key_id")) {
+            return;
+        }
+        //GET_LOCK 綁在連線上：拿鎖與釋放要用同一條連線，遷移本身用連線池的其他連線
+        try (Connection lockConnection = mydataSource.getConnection()) {
+            acquireLock(lockConnection);
+            try {
+                //等鎖的期間其他實例可能已經遷移完成
+                if (columns().contains("key_id")) {
+                    migrate();
+                }
+            } finally {
+                releaseLock(lockConnection);
+            }
+        }
+    }
+
+    //-----GET_LOCK 回傳 1 表示拿到鎖，0 為逾時，NULL 為錯誤-----
+    private void acquireLock(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            statement.setString(1, LOCK_NAME);
+            statement.setLong(2, lockTimeout.toSeconds());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next() || resultSet.getInt(1) != 1) {
+                    throw new IllegalStateException("等待 " + TABLE + " 主鍵遷移鎖逾時 (" + lockTimeout + ")，可能有其他實例正在遷移");
+                }
+            }
+        }
+    }
+
+    private void releaseLock(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            statement.setString(1, LOCK_NAME);
+            statement.executeQuery().close();
+        }
+    }
+
+    private void migrate() throws SQLException {
+        long start = System.nanoTime();
+        logger.info("開始將 {} 的主鍵從 key_id 遷移為 hash (id BINARY(16))", TABLE);
+
+        //1. 新增欄位 (id 的 unique index 用來發現同義詞合併後重複的 key)
+        Set<String> columns = columns();
+        if (!columns.contains("id")) {
+            myjdbcTemplate.execute("ALTER TABLE " + TABLE + " ADD COLUMN id BINARY(16) NULL");
+        }
+        if (!columns.contains("normalized_key")) {
+            myjdbcTemplate.execute("ALTER TABLE " + TABLE + " ADD COLUMN normalized_key VARCHAR(2048) NULL");
+        }
+        if (!indexes().contains("ux_recipe_cache_id")) {
+            myjdbcTemplate.execute("CREATE UNIQUE INDEX ux_recipe_cache_id ON " + TABLE + " (id)");
+        }
+
+        //2. 依 key_id 順序分批重新正規化、計算 hash
+        int migrated = 0;
+        int merged = 0;
+        String afterKey = "";
+        List<Map<String, Object>> rows;
+        do {
+            rows = myjdbcTemplate.queryForList("SELECT key_id, id FROM " + TABLE
+                    + " WHERE key_id > ? ORDER BY key_id LIMIT ?", afterKey, batchSize);
+            for (Map<String, Object> row : rows) {
+                String legacyKey = (String) row.get("key_id");
+                afterKey = legacyKey;
+                if (row.get("id") != null) {
+                    continue;   //上次中斷前已經遷移
+                }
+                String normalizedKey = myrecipeKeyNormalizer.normalizeLegacyKey(legacyKey);
+                try {
+                    myjdbcTemplate.update("UPDATE " + TABLE + " SET id = ?, normalized_key = ? WHERE key_id = ?",
+                            toBytes(RecipeKeyNormalizer.idOf(normalizedKey)), normalizedKey, legacyKey);
+                    migrated++;
+                } catch (DuplicateKeyException e) {
+                    //正規化後與前面某一筆是同一個 key (例如 蕃茄/番茄)，保留先遷移的那筆
+                    myjdbcTemplate.update("DELETE FROM " + TABLE + " WHERE key_id = ?", legacyKey);
+                    merged++;
+                }
+            }
+        } while (rows.size() == batchSize);
+
+        //3. 主鍵改成 id，最後才刪除 key_id
+        myjdbcTemplate.execute("ALTER TABLE " + TABLE + " MODIFY COLUMN id BINARY(16) NOT NULL");
+        myjdbcTemplate.execute("ALTER TABLE " + TABLE + " MODIFY COLUMN normalized_key VARCHAR(2048) NOT NULL");
+        Set<String> primaryKey = primaryKey();
+        if (primaryKey.contains("key_id")) {
+            myjdbcTemplate.execute("ALTER TABLE " + TABLE + " DROP PRIMARY KEY");
+            primaryKey = Set.of();
+        }
+        if (primaryKey.isEmpty()) {
+            myjdbcTemplate.execute("ALTER TABLE " + TABLE + " ADD PRIMARY KEY (id)");
+        }
+        if (indexes().contains("ux_recipe_cache_id")) {
+            myjdbcTemplate.execute("ALTER TABLE " + TABLE + " DROP INDEX ux_recipe_cache_id");
+        }
+        myjdbcTemplate.execute("ALTER TABLE " + TABLE + " DROP COLUMN key_id");
+        logger.info("主鍵遷移完成：{} 筆轉為 hash，{} 筆同義 key 合併刪除，耗時 {} ms",
+                migrated, merged, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    //-----目前資料表的欄位名稱 (小寫)，資料表不存在時回傳空集合-----
+    private Set<String> columns() throws SQLException {
+        Set<String> columns = new HashSet<>();
+        try (Connection connection = mydataSource.getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            try (ResultSet resultSet = metaData.getColumns(connection.getCatalog(), null, TABLE, null)) {
+                while (resultSet.next()) {
+                    columns.add(resultSet.getString("COLUMN_NAME").toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        return columns;
+    }
+
+    //-----主鍵的欄位名稱 (小寫)-----
+    private Set<String> primaryKey() throws SQLException {
+        Set<String> columns = new HashSet<>();
+        try (Connection connection = mydataSource.getConnection()) {
+            try (ResultSet resultSet = connection.getMetaData().getPrimaryKeys(connection.getCatalog(), null, TABLE)) {
+                while (resultSet.next()) {
+                    columns.add(resultSet.getString("COLUMN_NAME").toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        return columns;
+    }
+
+    //-----索引名稱 (小寫)-----
+    private Set<String> indexes() throws SQLException {
+        Set<String> indexes = new HashSet<>();
+        try (Connection connection = mydataSource.getConnection()) {
+            try (ResultSet resultSet = connection.getMetaData().getIndexInfo(connection.getCatalog(), null, TABLE, false, false)) {
+                while (resultSet.next()) {
+                    String name = resultSet.getString("INDEX_NAME");
+                    if (name != null) {
+                        indexes.add(name.toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+        }
+        return indexes;
+    }
+
+    //-----UUID → 16 bytes (與 Hibernate 存 BINARY(16) 的順序相同：高位在前)-----
+    private static byte[] toBytes(UUID id) {
+        return ByteBuffer.allocate(16)
+                .putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits())
+                .array();
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.recipe_ai.key;
+
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * RecipeKeyNormalizer
+ * 食譜快取的 key：
+ * - 可讀的正規化 key (normalized_key 欄位、L1/相似度索引使用)："食材1|食材2::料理需求"
+ *   食材依 「、」「，」「,」「|」 切割 → 轉小寫、去頭尾空白 → IngredientDictionary 轉成標準名稱 → 去重複 → 排序
+ * - 資料表主鍵：正規化 key 的 SHA-256 取前 128 bits，存成 BINARY(16)，長度固定、不會超過欄位長度
+ * 切割與組合用單純的字元迴圈，不用 regex split 與 stream (每個請求都會呼叫)。
+ */
+@Component
+public class RecipeKeyNormalizer {
+
+    private final IngredientDictionary myingredientDictionary;
+
+    public RecipeKeyNormalizer(IngredientDictionary ingredientDictionary) {
+        this.myingredientDictionary = ingredientDictionary;
+    }
+
+    /**
+     * 產生正規化 key
+     * @param ingredients 食材 (例如 "雞肉, 洋蔥")
+     * @param styleOrDiet 料理需求 (例如 "泰式")
+     */
+    public String normalize(String ingredients, String styleOrDiet) {
+        StringBuilder key = new StringBuilder();
+        appendSorted(key, split(ingredients, true));
+        key.append("::");
+        appendSorted(key, split(styleOrDiet, false));
+        return key.toString();
+    }
+
+    /**
+     * 舊格式的 key (食材已轉小寫、排序，以 | 連接) 轉成目前的正規化 key，供資料遷移使用
+     */
+    public String normalizeLegacyKey(String legacyKey) {
+        int separator = legacyKey.indexOf("::");
+        if (separator < 0) {
+            return normalize(legacyKey, null);
+        }
+        return normalize(legacyKey.substring(0, separator), legacyKey.substring(separator + 2));
+    }
+
+    /**
+     * 正規化 key → 資料表主鍵 (SHA-256 前 128 bits)
+     */
+    public static UUID idOf(String normalizedKey) {
+        byte[] digest = sha256().digest(normalizedKey.getBytes(StandardCharsets.UTF_8));
+        long mostSignificant = 0;
+        long leastSignificant = 0;
+        for (int i = 0; i < 8; i++) {
+            mostSignificant = (mostSignificant << 8) | (digest[i] & 0xFF);
+            leastSignificant = (leastSignificant << 8) | (digest[i + 8] & 0xFF);
+        }
+        return new UUID(mostSignificant, leastSignificant);
+    }
+
+    //-----依分隔字元切割，每段轉小寫、去頭尾空白 (食材再查字典)，空的與重複的不要-----
+    private List<String> split(String input, boolean ingredient) {
+        if (input == null || input.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        int length = input.length();
+        for (int i = 0; i <= length; i++) {
+            if (i == length || isSeparator(input.charAt(i))) {
+                String part = input.substring(start, i).trim().toLowerCase(Locale.ROOT);
+                if (!part.isEmpty()) {
+                    if (ingredient) {
+                        part = myingredientDictionary.canonicalize(part);
+                    }
+                    if (!parts.contains(part)) {
+                        parts.add(part);
+                    }
+                }
+                start = i + 1;
+            }
+        }
+        return parts;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ',' || c == '，' || c == '、' || c == '|';
+    }
+
+    private static void appendSorted(StringBuilder key, List<String> parts) {
+        Collections.sort(parts);
+        for (int i = 0; i < parts.size(); i++) {
+            if (i > 0) {
+                key.append('|');
+            }
+            key.append(parts.get(i));
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("JVM 不支援 SHA-256", e);
+        }
+    }
+}
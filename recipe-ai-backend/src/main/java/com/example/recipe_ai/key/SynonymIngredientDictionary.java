@@ -0,0 +1,97 @@
+package com.example.recipe_ai.key;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * SynonymIngredientDictionary
+ * 預設的食材字典：
+ * 1. 去掉括號註解與份量/單位 ("雞胸肉 200g" → "雞胸肉"、"洋蔥 半顆" → "洋蔥"、"鹽少許" → "鹽")
+ * 2. 同義詞換成標準名稱 ("蕃茄" → "番茄")，同義詞表在 recipe.key.synonyms (預設 classpath:ingredient-synonyms.txt)
+ *    每行格式：標準名稱=同義詞1,同義詞2   (# 開頭為註解)
+ */
+@Component
+public class SynonymIngredientDictionary implements IngredientDictionary {
+
+    // 份量：數字 (200、1.5、1/2) 或中文數字 (半、一、兩…)
+    private static final String AMOUNT = "(?:\\d+(?:[./]\\d+)?|[半一二兩三四五六七八九十幾]+)";
+    // 常見單位
+    private static final String UNIT = "(?:kg|mg|g|ml|l|tbsp|tsp|cups?|pcs?|公克|公斤|克|毫升|公升|大匙|小匙|湯匙|茶匙"
+            + "|顆|個|片|匙|杯|根|條|瓣|支|把|塊|碗|份|隻|尾|包|罐|盒|斤|兩|粒|撮|滴)";
+    // 括號註解：(去皮)、（約 300g）
+    private static final Pattern NOTE = Pattern.compile("[(（][^)）]*[)）]");
+    // 空白之後的份量與其後所有文字："雞胸肉 200g"、"olive oil 1 tbsp"、"洋蔥 半顆 切絲"
+    private static final Pattern SPACED_AMOUNT = Pattern.compile("\\s+(?:" + AMOUNT + "|少許|適量|些許)(?:\\s*" + UNIT + ")?(?:\\s.*)?$");
+    // 緊接在名稱後面的份量："雞胸肉200g"、"雞蛋兩顆"、"鹽少許"
+    private static final Pattern TRAILING_AMOUNT = Pattern.compile("(?:\\d+(?:[./]\\d+)?\\s*" + UNIT + "?|[半一二兩三四五六七八九十幾]+" + UNIT + "|少許|適量|些許)$");
+
+    // 同義詞 (小寫) → 標準名稱
+    private final Map<String, String> synonyms;
+
+    @Autowired
+    public SynonymIngredientDictionary(@Value("${recipe.key.synonyms:classpath:ingredient-synonyms.txt}") Resource synonymsFile) {
+        this.synonyms = load(synonymsFile);
+    }
+
+    SynonymIngredientDictionary(Map<String, String> synonyms) {
+        this.synonyms = synonyms;
+    }
+
+    @Override
+    public String canonicalize(String ingredient) {
+        String name = stripAmount(ingredient);
+        return synonyms.getOrDefault(name, name);
+    }
+
+    //-----去掉份量與單位，全部去掉後變成空字串時保留原本的輸入-----
+    static String stripAmount(String ingredient) {
+        String name = ingredient;
+        if (name.indexOf('(') >= 0 || name.indexOf('（') >= 0) {
+            name = NOTE.matcher(name).replaceAll(" ").trim();
+        }
+        name = SPACED_AMOUNT.matcher(name).replaceFirst("");
+        String stripped = TRAILING_AMOUNT.matcher(name).replaceFirst("").trim();
+        if (!stripped.isEmpty()) {
+            name = stripped;
+        }
+        return name.isEmpty() ? ingredient : name;
+    }
+
+    private static Map<String, String> load(Resource synonymsFile) {
+        Map<String, String> synonyms = new HashMap<>();
+        if (synonymsFile == null || !synonymsFile.exists()) {
+            return synonyms;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(synonymsFile.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                int equals = line.indexOf('=');
+                if (line.isEmpty() || line.startsWith("#") || equals < 0) {
+                    continue;
+                }
+                String canonical = line.substring(0, equals).trim().toLowerCase(Locale.ROOT);
+                for (String synonym : line.substring(equals + 1).split(",")) {
+                    if (!synonym.isBlank()) {
+                        synonyms.put(synonym.trim().toLowerCase(Locale.ROOT), canonical);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("無法讀取食材同義詞表 " + synonymsFile, e);
+        }
+        return synonyms;
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.recipe_ai.limit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * AdaptiveConcurrencyLimiter
+ * 呼叫 Gemini 的並行上限 (bulkhead) + 有上限的等待佇列，上限依 Gemini 的延遲自動調整：
+ * - 執行中的呼叫數 < limit → 直接執行
+ * - 否則排隊等待；佇列已滿 → 馬上丟 429，等超過 max-wait → 丟 503 (不讓 Tomcat 執行緒一直卡住)
+ * - limit 的調整 (Vegas)：以最小延遲 minRtt 當作「沒有排隊」的基準，
+ *   估計 Gemini 端排隊的請求數 queue = limit × (1 - minRtt / rtt)，
+ *   rtt 用指數移動平均 (Gemini 的延遲長尾很明顯，單一個慢的樣本不應該讓 limit 大幅縮小)
+ *   queue 小於 alpha → 加大 limit；大於 beta → 縮小 limit
+ * - 呼叫失敗 (Gemini 429/503、逾時) 視為過載 → limit 乘上 backoff-ratio (AIMD 的乘法減少)
+ * 只包住真正呼叫 Gemini 的地方；快取命中不會經過這裡。
+ * 用法：
+ *   Permit permit = limiter.acquire();
+ *   try { ...; permit.success(); } catch (RuntimeException e) { permit.dropped(); throw e; }
+ */
+public class AdaptiveConcurrencyLimiter implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    // 每 maxLimit × PROBE_MULTIPLIER 個樣本重設一次 minRtt，Gemini 本身變慢時基準才會跟著調整
+    // (用固定的 maxLimit，limit 正在縮小時不會因為門檻變低而提早重設)
+    private static final int PROBE_MULTIPLIER = 30;
+    // rtt 指數移動平均中，新樣本的權重
+    private static final double RTT_SMOOTHING = 0.2;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int queueCapacity;
+    private final Duration maxWait;
+    private final double backoffRatio;
+    private final LongSupplier nanoClock;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition available = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    private long minRttNanos = Long.MAX_VALUE;
+    private double smoothedRttNanos;
+    private long samplesSinceProbe;
+
+    private Counter rejectedQueueFull;
+    private Counter rejectedTimeout;
+
+    /**
+     * @param name          名稱 (指標的 tag，例如 text、image)
+     * @param initialLimit  一開始的並行上限
+     * @param minLimit      並行上限的下限
+     * @param maxLimit      並行上限的上限
+     * @param queueCapacity 最多幾個請求排隊等待
+     * @param maxWait       排隊最多等多久
+     * @param backoffRatio  呼叫失敗時 limit 乘上的比例 (0~1)
+     */
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit,
+                                      int queueCapacity, Duration maxWait, double backoffRatio) {
+        this(name, initialLimit, minLimit, maxLimit, queueCapacity, maxWait, backoffRatio, System::nanoTime);
+    }
+
+    // 測試用：可以指定時鐘
+    AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit,
+                               int queueCapacity, Duration maxWait, double backoffRatio, LongSupplier nanoClock) {
+        if (minLimit < 1 || minLimit > maxLimit) {
+            throw new IllegalArgumentException("並行上限設定錯誤 name=" + name + " min=" + minLimit + " max=" + maxLimit);
+        }
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.queueCapacity = queueCapacity;
+        this.maxWait = maxWait;
+        this.backoffRatio = backoffRatio;
+        this.nanoClock = nanoClock;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * 取得執行權；沒有空位時排隊
+     * @throws LimitExceededException 佇列已滿 (429) 或等待逾時 (503)
+     */
+    public Permit acquire() {
+        lock.lock();
+        try {
+            if (inFlight < currentLimit()) {
+                inFlight++;
+                return new Permit(nanoClock.getAsLong());
+            }
+            //1. 佇列滿了 → 直接拒絕
+            if (waiting >= queueCapacity) {
+                countRejected(rejectedQueueFull);
+                throw new LimitExceededException("目前生成食譜的請求過多，請稍後再試", HttpStatus.TOO_MANY_REQUESTS);
+            }
+            //2. 排隊等空位
+            waiting++;
+            try {
+                long remaining = maxWait.toNanos();
+                while (inFlight >= currentLimit()) {
+                    if (remaining <= 0) {
+                        countRejected(rejectedTimeout);
+                        throw new LimitExceededException("AI 服務忙碌中，請稍後再試", HttpStatus.SERVICE_UNAVAILABLE);
+                    }
+                    remaining = available.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LimitExceededException("等待 AI 服務被中斷", HttpStatus.SERVICE_UNAVAILABLE);
+            } finally {
+                waiting--;
+            }
+            inFlight++;
+            return new Permit(nanoClock.getAsLong());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int currentLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int waiting() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //-----呼叫結束：歸還執行權，並用這次的延遲調整 limit-----
+    private void release(long rttNanos, boolean dropped, boolean sample) {
+        lock.lock();
+        try {
+            int before = (int) limit;
+            inFlight--;
+            if (dropped) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+            } else if (sample) {
+                onSample(rttNanos);
+            }
+            if ((int) limit != before) {
+                logger.debug("並行上限調整 name={} {} → {} (inFlight={}, minRtt={}ms)",
+                        name, before, (int) limit, inFlight, minRttNanos / 1_000_000);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onSample(long rttNanos) {
+        rttNanos = Math.max(1, rttNanos);
+        if (++samplesSinceProbe >= (long) maxLimit * PROBE_MULTIPLIER) {
+            samplesSinceProbe = 0;
+            minRttNanos = rttNanos;
+        }
+        minRttNanos = Math.min(minRttNanos, rttNanos);
+        smoothedRttNanos = smoothedRttNanos == 0
+                ? rttNanos
+                : smoothedRttNanos * (1 - RTT_SMOOTHING) + rttNanos * RTT_SMOOTHING;
+
+        //沒有用滿 limit 時，延遲低不代表可以再加大 (避免閒置時 limit 一路往上長)
+        boolean saturated = inFlight + 1 >= limit / 2;
+        double log = Math.max(1, Math.log10(limit));
+        double alpha = 3 * log;
+        double beta = 6 * log;
+        double queue = limit * (1 - minRttNanos / smoothedRttNanos);
+        if (queue <= alpha && saturated) {
+            limit = Math.min(maxLimit, limit + log);
+        } else if (queue >= beta) {
+            limit = Math.max(minLimit, limit - log);
+        }
+    }
+
+    private void countRejected(Counter counter) {
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    /**
+     * 並行上限、執行中、排隊中的數量與拒絕次數輸出到 Micrometer
+     * recipe.limiter.limit / inflight / queued {name}、recipe.limiter.rejected {name, reason}
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("recipe.limiter.limit", this, AdaptiveConcurrencyLimiter::currentLimit)
+                .tag("name", name).description("目前的並行上限").register(registry);
+        Gauge.builder("recipe.limiter.inflight", this, AdaptiveConcurrencyLimiter::inFlight)
+                .tag("name", name).description("執行中的呼叫數").register(registry);
+        Gauge.builder("recipe.limiter.queued", this, AdaptiveConcurrencyLimiter::waiting)
+                .tag("name", name).description("排隊中的呼叫數").register(registry);
+        rejectedQueueFull = Counter.builder("recipe.limiter.rejected").tag("name", name).tag("reason", "queue-full")
+                .description("佇列已滿被拒絕的次數").register(registry);
+        rejectedTimeout = Counter.builder("recipe.limiter.rejected").tag("name", name).tag("reason", "timeout")
+                .description("排隊逾時被拒絕的次數").register(registry);
+    }
+
+    /**
+     * 一次執行權；呼叫結束時必須呼叫 success() 或 dropped() 其中一個 (重複呼叫會被忽略)
+     */
+    public final class Permit {
+
+        private final long startNanos;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * 呼叫成功：以這次的延遲調整 limit
+         */
+        public void success() {
+            if (released.compareAndSet(false, true)) {
+                release(nanoClock.getAsLong() - startNanos, false, true);
+            }
+        }
+
+        /**
+         * 呼叫失敗 (過載、逾時)：縮小 limit
+         */
+        public void dropped() {
+            if (released.compareAndSet(false, true)) {
+                release(nanoClock.getAsLong() - startNanos, true, false);
+            }
+        }
+
+        /**
+         * 呼叫丟出例外：只有過載的訊號 (逾時、429、5xx，與 ResilientCaller 會重試的錯誤相同) 才縮小 limit，
+         * 其他錯誤 (API key 錯誤、請求格式錯誤、我們自己的並行上限拒絕) 與 Gemini 的負載無關，只歸還執行權
+         */
+        public void failed(Throwable error) {
+            if (ResilientCaller.isRetryable(error)) {
+                dropped();
+            } else {
+                ignore();
+            }
+        }
+
+        /**
+         * 沒有完成也不算失敗 (例如前端取消串流)：只歸還執行權
+         */
+        public void ignore() {
+            if (released.compareAndSet(false, true)) {
+                release(0, false, false);
+            }
+        }
+    }
+}
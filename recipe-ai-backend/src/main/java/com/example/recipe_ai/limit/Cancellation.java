@@ -0,0 +1,58 @@
+package com.example.recipe_ai.limit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cancellation
+ * 一次嘗試的取消通知：ResilientCaller 對沖時，其中一個請求先成功，另一個還在跑的嘗試就被取消
+ * 嘗試在這裡登記被取消時要做的事 (中斷 HTTP 請求、歸還 AdaptiveConcurrencyLimiter 的執行權)
+ */
+public final class Cancellation {
+
+    private static final Logger logger = LoggerFactory.getLogger(Cancellation.class);
+
+    private final List<Runnable> actions = new ArrayList<>();
+    private boolean cancelled;
+
+    /**
+     * 登記取消時要做的事；已經取消了就立刻執行
+     */
+    public void onCancel(Runnable action) {
+        synchronized (this) {
+            if (!cancelled) {
+                actions.add(action);
+                return;
+            }
+        }
+        run(action);
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    void cancel() {
+        List<Runnable> registered;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            registered = List.copyOf(actions);
+            actions.clear();
+        }
+        registered.forEach(Cancellation::run);
+    }
+
+    private static void run(Runnable action) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            logger.warn("取消嘗試時發生錯誤: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.recipe_ai.limit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * CircuitBreaker
+ * 最近 window 次呼叫中失敗比例達到門檻 → 開啟 (OPEN)，open-duration 內的呼叫直接拒絕，不再打 Gemini；
+ * 時間到了進入半開 (HALF_OPEN)，放行少數試探呼叫：成功 → 關閉 (CLOSED)，失敗 → 再開啟一段時間
+ * 用法：tryAcquire() 為 true 才呼叫，結束時呼叫 onSuccess / onFailure / onIgnored 其中一個
+ */
+public class CircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final LongSupplier nanoClock;
+
+    // 最近 window 次呼叫的結果 (環狀)，true 為失敗
+    private final boolean[] outcomes;
+    private int outcomeCount;
+    private int outcomeIndex;
+    private int failureCount;
+
+    private State state = State.CLOSED;
+    private long openUntilNanos;
+    private int halfOpenInFlight;
+
+    /**
+     * @param window               統計最近幾次呼叫
+     * @param minimumCalls         至少幾次呼叫才判斷失敗比例
+     * @param failureRateThreshold 失敗比例門檻 (0~1)
+     * @param openDuration         開啟多久後進入半開
+     * @param halfOpenCalls        半開時放行幾個試探呼叫
+     */
+    public CircuitBreaker(String name, int window, int minimumCalls, double failureRateThreshold,
+                          Duration openDuration, int halfOpenCalls) {
+        this(name, window, minimumCalls, failureRateThreshold, openDuration, halfOpenCalls, System::nanoTime);
+    }
+
+    // 測試用：可以指定時鐘
+    CircuitBreaker(String name, int window, int minimumCalls, double failureRateThreshold,
+                   Duration openDuration, int halfOpenCalls, LongSupplier nanoClock) {
+        this.name = name;
+        this.outcomes = new boolean[window];
+        this.minimumCalls = Math.min(minimumCalls, window);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.halfOpenCalls = halfOpenCalls;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * 可以呼叫嗎？(開啟中回傳 false；半開時只放行 halfOpenCalls 個)
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (nanoClock.getAsLong() - openUntilNanos < 0) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            halfOpenInFlight = 0;
+            logger.info("熔斷器進入半開 name={}，放行試探呼叫", name);
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenInFlight >= halfOpenCalls) {
+                return false;
+            }
+            halfOpenInFlight++;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            logger.info("熔斷器關閉 name={}，Gemini 已恢復", name);
+            state = State.CLOSED;
+            resetWindow();
+            return;
+        }
+        record(false);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        if (state == State.OPEN) {
+            return;
+        }
+        record(true);
+        if (outcomeCount >= minimumCalls && (double) failureCount / outcomeCount >= failureRateThreshold) {
+            open();
+        }
+    }
+
+    /**
+     * 呼叫結束但結果不算數 (例如我們自己的並行上限拒絕)：只歸還半開的試探名額
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN && halfOpenInFlight > 0) {
+            halfOpenInFlight--;
+        }
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    private void open() {
+        logger.warn("熔斷器開啟 name={}，{} 內不呼叫 Gemini (最近 {} 次失敗 {} 次)",
+                name, Duration.ofNanos(openNanos), outcomeCount, failureCount);
+        state = State.OPEN;
+        openUntilNanos = nanoClock.getAsLong() + openNanos;
+        resetWindow();
+    }
+
+    private void record(boolean failure) {
+        if (outcomeCount == outcomes.length) {
+            if (outcomes[outcomeIndex]) {
+                failureCount--;
+            }
+        } else {
+            outcomeCount++;
+        }
+        outcomes[outcomeIndex] = failure;
+        if (failure) {
+            failureCount++;
+        }
+        outcomeIndex = (outcomeIndex + 1) % outcomes.length;
+    }
+
+    private void resetWindow() {
+        outcomeCount = 0;
+        outcomeIndex = 0;
+        failureCount = 0;
+    }
+}
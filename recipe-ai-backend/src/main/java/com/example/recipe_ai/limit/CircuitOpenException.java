@@ -0,0 +1,14 @@
+package com.example.recipe_ai.limit;
+
+import com.example.recipe_ai.exception.ApiException;
+import org.springframework.http.HttpStatus;
+
+/**
+ * 熔斷器開啟中，沒有真的呼叫 Gemini (呼叫端可以改用快取的食譜或不附圖片)
+ */
+public class CircuitOpenException extends ApiException {
+
+    public CircuitOpenException(String name) {
+        super("AI 服務暫時無法使用 (" + name + ")，請稍後再試", HttpStatus.SERVICE_UNAVAILABLE);
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.recipe_ai.limit;
+
+import com.example.recipe_ai.exception.ApiException;
+import org.springframework.http.HttpStatus;
+
+/**
+ * 並行上限已滿 (佇列滿了 429 / 排隊逾時 503)。
+ * 是我們自己拒絕的請求，不是 Gemini 的錯：不重試，也不算在熔斷器的失敗次數裡
+ */
+public class LimitExceededException extends ApiException {
+
+    public LimitExceededException(String message, HttpStatus status) {
+        super(message, status);
+    }
+}
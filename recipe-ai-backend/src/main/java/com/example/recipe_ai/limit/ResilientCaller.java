@@ -0,0 +1,313 @@
+package com.example.recipe_ai.limit;
+
+import com.example.recipe_ai.exception.ApiException;
+import com.google.genai.errors.GenAiIOException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.http.HttpStatus;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * ResilientCaller
+ * 呼叫 Gemini 時的重試、對沖 (hedging) 與熔斷：
+ * - 熔斷器開啟中 → 直接丟 CircuitOpenException，不呼叫 Gemini
+ * - 每一次嘗試：超過 hedge 延遲 (最近成功呼叫延遲的 p95) 還沒回來 → 再送一個相同的請求，先成功的為準，
+ *   另一個請求透過 Cancellation 取消 (中斷 HTTP 請求、歸還執行權)
+ * - 嘗試失敗且可以重試 (逾時、429、5xx) → 等一段隨機的指數退避時間 (full jitter) 後重試
+ * - 成功/失敗回報給熔斷器；我們自己的並行上限拒絕 (LimitExceededException) 不重試、也不算失敗
+ */
+public class ResilientCaller implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResilientCaller.class);
+
+    // p95 至少要有幾個樣本，不夠時用 hedgeInitialDelay
+    private static final int MIN_LATENCY_SAMPLES = 20;
+    private static final int LATENCY_WINDOW = 256;
+
+    /**
+     * 重試與對沖的設定
+     * @param maxAttempts       最多嘗試幾次 (1 = 不重試)
+     * @param backoff           第一次重試前的退避上限，之後每次加倍
+     * @param maxBackoff        退避時間上限
+     * @param hedge             是否送出對沖請求
+     * @param hedgePercentile   對沖延遲用最近成功呼叫延遲的哪個百分位 (例如 0.95)
+     * @param hedgeMinDelay     對沖延遲的下限
+     * @param hedgeInitialDelay 樣本還不夠時的對沖延遲
+     */
+    public record Policy(int maxAttempts, Duration backoff, Duration maxBackoff,
+                         boolean hedge, double hedgePercentile, Duration hedgeMinDelay, Duration hedgeInitialDelay) {
+
+        /**
+         * 不重試、不對沖 (只有熔斷)
+         */
+        public static Policy noRetry() {
+            return new Policy(1, Duration.ZERO, Duration.ZERO, false, 0.95, Duration.ZERO, Duration.ZERO);
+        }
+    }
+
+    private final String name;
+    private final Policy policy;
+    private final CircuitBreaker breaker;
+    private final ExecutorService hedgeExecutor;
+
+    // 最近成功嘗試的延遲 (環狀)
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount;
+    private int latencyIndex;
+
+    private Counter retries;
+    private Counter hedges;
+    private Counter hedgeWins;
+    private Counter shortCircuited;
+
+    public ResilientCaller(String name, Policy policy, CircuitBreaker breaker) {
+        this(name, policy, breaker, false);
+    }
+
+    /**
+     * @param virtualThreads true：對沖的呼叫在虛擬執行緒上跑 (等待 Gemini 回應時不佔用 OS 執行緒)
+     */
+    public ResilientCaller(String name, Policy policy, CircuitBreaker breaker, boolean virtualThreads) {
+        this.name = name;
+        this.policy = policy;
+        this.breaker = breaker;
+        //對沖時兩個請求都在這裡跑 (數量由 AdaptiveConcurrencyLimiter 限制)
+        this.hedgeExecutor = Executors.newCachedThreadPool(virtualThreads
+                ? Thread.ofVirtual().name("gemini-" + name + "-call-", 1).factory()
+                : Thread.ofPlatform().name("gemini-" + name + "-call-", 1).daemon().factory());
+    }
+
+    public void shutdown() {
+        hedgeExecutor.shutdownNow();
+    }
+
+    public CircuitBreaker breaker() {
+        return breaker;
+    }
+
+    /**
+     * 執行 attempt (可能重試、對沖)
+     * @throws CircuitOpenException 熔斷器開啟中
+     */
+    public <T> T call(Supplier<T> attempt) {
+        return callCancellable(cancellation -> attempt.get());
+    }
+
+    /**
+     * 同上，attempt 收到這次嘗試的 Cancellation：對沖時輸的一方會被取消，attempt 應該在上面登記中斷請求、歸還執行權
+     * @throws CircuitOpenException 熔斷器開啟中
+     */
+    public <T> T callCancellable(Function<Cancellation, T> attempt) {
+        if (!breaker.tryAcquire()) {
+            increment(shortCircuited);
+            throw new CircuitOpenException(name);
+        }
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            try {
+                T result = hedged(attempt);
+                breaker.onSuccess();
+                return result;
+            } catch (LimitExceededException e) {
+                breaker.onIgnored();
+                throw e;
+            } catch (RuntimeException e) {
+                boolean retryable = isRetryable(e);
+                if (retryable) {
+                    breaker.onFailure();
+                } else {
+                    breaker.onIgnored();
+                }
+                if (!retryable || attemptNumber >= policy.maxAttempts() || breaker.state() != CircuitBreaker.State.CLOSED) {
+                    throw e;
+                }
+                long backoffMillis = backoffMillis(attemptNumber);
+                logger.warn("呼叫 Gemini ({}) 失敗，{}ms 後重試 (第 {}/{} 次): {}",
+                        name, backoffMillis, attemptNumber + 1, policy.maxAttempts(), e.getMessage());
+                increment(retries);
+                sleep(backoffMillis);
+                if (!breaker.tryAcquire()) {
+                    increment(shortCircuited);
+                    throw new CircuitOpenException(name);
+                }
+            }
+        }
+    }
+
+    //-----一次嘗試：超過對沖延遲還沒回來就再送一個，先成功的為準，另一個取消-----
+    private <T> T hedged(Function<Cancellation, T> attempt) {
+        if (!policy.hedge()) {
+            return timed(attempt, new Cancellation());
+        }
+        Cancellation primaryCancellation = new Cancellation();
+        CompletableFuture<T> primary = CompletableFuture.supplyAsync(() -> timed(attempt, primaryCancellation), hedgeExecutor);
+        try {
+            return primary.get(hedgeDelayMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            //主要請求太慢 → 送出對沖請求
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException("等待 AI 服務被中斷", HttpStatus.SERVICE_UNAVAILABLE);
+        }
+
+        increment(hedges);
+        Cancellation hedgeCancellation = new Cancellation();
+        CompletableFuture<T> hedge = CompletableFuture.supplyAsync(() -> timed(attempt, hedgeCancellation), hedgeExecutor);
+        CompletableFuture<T> first = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        primary.whenComplete((value, error) -> {
+            if (error == null) {
+                if (first.complete(value)) {
+                    hedgeCancellation.cancel();
+                }
+            } else if (failed.incrementAndGet() == 2) {
+                first.completeExceptionally(error);
+            }
+        });
+        hedge.whenComplete((value, error) -> {
+            if (error == null) {
+                if (first.complete(value)) {
+                    increment(hedgeWins);
+                    primaryCancellation.cancel();
+                }
+            } else if (failed.incrementAndGet() == 2) {
+                //兩個都失敗：回報主要請求的錯誤
+                primary.whenComplete((v, primaryError) -> first.completeExceptionally(primaryError != null ? primaryError : error));
+            }
+        });
+        try {
+            return first.join();
+        } catch (CompletionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    private <T> T timed(Function<Cancellation, T> attempt, Cancellation cancellation) {
+        long start = System.nanoTime();
+        T result = attempt.apply(cancellation);
+        recordLatency(System.nanoTime() - start);
+        return result;
+    }
+
+    //-----對沖延遲：最近成功呼叫延遲的 p95 (不低於 hedgeMinDelay)-----
+    long hedgeDelayMillis() {
+        long[] sorted;
+        synchronized (latencies) {
+            if (latencyCount < MIN_LATENCY_SAMPLES) {
+                return policy.hedgeInitialDelay().toMillis();
+            }
+            sorted = Arrays.copyOf(latencies, latencyCount);
+        }
+        Arrays.sort(sorted);
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(policy.hedgePercentile() * sorted.length) - 1);
+        return Math.max(policy.hedgeMinDelay().toMillis(), TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, index)]));
+    }
+
+    private void recordLatency(long nanos) {
+        synchronized (latencies) {
+            latencies[latencyIndex] = nanos;
+            latencyIndex = (latencyIndex + 1) % LATENCY_WINDOW;
+            latencyCount = Math.min(LATENCY_WINDOW, latencyCount + 1);
+        }
+    }
+
+    //-----full jitter：0 ~ min(maxBackoff, backoff × 2^(n-1)) 之間隨機-----
+    private long backoffMillis(int attemptNumber) {
+        long cap = Math.min(policy.maxBackoff().toMillis(), policy.backoff().toMillis() << Math.min(20, attemptNumber - 1));
+        return cap <= 0 ? 0 : ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException("等待重試被中斷", HttpStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * 可以重試的錯誤 (也是熔斷器的失敗、AdaptiveConcurrencyLimiter 的過載訊號)：
+     * 逾時、網路錯誤 (IOException，例外的原因裡有也算)、Gemini 回傳 408/429/5xx
+     * 不重試：我們自己的並行上限拒絕、Gemini 回傳其他 4xx (例如 API key 錯誤、請求格式錯誤)，
+     * 以及其他錯誤 (例如回覆裡沒有圖片、JSON 解析失敗)：同樣的請求再送一次結果也一樣
+     */
+    public static boolean isRetryable(Throwable error) {
+        if (error instanceof LimitExceededException || error instanceof CircuitOpenException) {
+            return false;
+        }
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof com.google.genai.errors.ApiException genAiError) {
+                return isRetryableStatus(genAiError.code());
+            }
+            if (cause instanceof UpstreamStatusException upstream) {
+                return isRetryableStatus(upstream.getUpstreamStatus());
+            }
+            if (cause instanceof IOException || cause instanceof GenAiIOException
+                    || cause instanceof TimeoutException || cause instanceof TransientAiException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isRetryableStatus(int status) {
+        return status == 408 || status == 429 || status >= 500;
+    }
+
+    private static RuntimeException unwrap(Throwable error) {
+        if (error instanceof RuntimeException runtime) {
+            return runtime;
+        }
+        if (error instanceof Error fatal) {
+            throw fatal;
+        }
+        return new IllegalStateException(error);
+    }
+
+    private static void increment(Counter counter) {
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    /**
+     * recipe.resilience.retries / hedges / hedge.wins / short-circuited {name}、
+     * recipe.resilience.breaker.state {name} (0 關閉、1 開啟、2 半開)、recipe.resilience.hedge.delay {name}
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        retries = Counter.builder("recipe.resilience.retries").tag("name", name)
+                .description("重試次數").register(registry);
+        hedges = Counter.builder("recipe.resilience.hedges").tag("name", name)
+                .description("送出對沖請求的次數").register(registry);
+        hedgeWins = Counter.builder("recipe.resilience.hedge.wins").tag("name", name)
+                .description("對沖請求比主要請求先成功的次數").register(registry);
+        shortCircuited = Counter.builder("recipe.resilience.short-circuited").tag("name", name)
+                .description("熔斷器開啟而沒有呼叫的次數").register(registry);
+        Gauge.builder("recipe.resilience.breaker.state", breaker, b -> b.state().ordinal())
+                .tag("name", name).description("熔斷器狀態 (0 關閉、1 開啟、2 半開)").register(registry);
+        Gauge.builder("recipe.resilience.hedge.delay", this, ResilientCaller::hedgeDelayMillis)
+                .tag("name", name).baseUnit("milliseconds").description("目前的對沖延遲").register(registry);
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.recipe_ai.limit;
+
+import com.example.recipe_ai.exception.ApiException;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Gemini 回傳了非 2xx 的狀態碼；upstreamStatus 用來判斷能不能重試 (408/429/5xx)
+ */
+public class UpstreamStatusException extends ApiException {
+
+    private final int upstreamStatus;
+
+    public UpstreamStatusException(String message, HttpStatus status, int upstreamStatus) {
+        super(message, status);
+        this.upstreamStatus = upstreamStatus;
+    }
+
+    public int getUpstreamStatus() {
+        return upstreamStatus;
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.recipe_ai.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * RecipeMetrics
+ * 食譜生成流程的監控指標 (Micrometer，經由 /actuator/prometheus 輸出)：
+ * - recipe.cache.requests{result=hit|miss}   快取命中/錯失次數
+ * - recipe.cache.similar.hits                完全相同的 key 沒命中，但相似食譜命中的次數
+ * - recipe.cache.fallback.hits               AI 無法使用，改用最接近的快取食譜回應的次數
+ * - 各階段耗時 (Timer + percentile histogram，tag outcome=success|error)：
+ *   recipe.db.lookup、recipe.chat.call、recipe.json.parse、recipe.image.call、recipe.image.transcode、recipe.db.save
+ *   (recipe.chat.call、recipe.json.parse 另外有 tag mode=prompt|structured，見 recipe.chat.output-mode)
+ * - recipe.image.bytes                       生成圖片的大小
+ * - recipe.image.stored.bytes{rendition=full|medium|thumb} 轉檔後實際儲存的圖片大小
+ * - recipe.chat.tokens{type=prompt|completion, mode=prompt|structured} 每次呼叫 AI 的 token 數
+ * 快取 (L1) 與生成中數量的 gauge 由 RecipeL1Cache、InFlightRegistry 自己註冊 (MeterBinder)。
+ */
+@Component
+public class RecipeMetrics {
+
+    public static final String DB_LOOKUP = "recipe.db.lookup";
+    public static final String CHAT_CALL = "recipe.chat.call";
+    public static final String JSON_PARSE = "recipe.json.parse";
+    public static final String IMAGE_CALL = "recipe.image.call";
+    public static final String IMAGE_TRANSCODE = "recipe.image.transcode";
+    public static final String DB_SAVE = "recipe.db.save";
+
+    private final MeterRegistry myregistry;
+    private final Counter cacheHits;
+    private final Counter cacheMisses;
+    private final Counter similarHits;
+    private final Counter fallbackHits;
+    private final DistributionSummary imageBytes;
+
+    public RecipeMetrics(MeterRegistry registry) {
+        this.myregistry = registry;
+        this.cacheHits = Counter.builder("recipe.cache.requests").tag("result", "hit")
+                .description("食譜快取命中次數").register(registry);
+        this.cacheMisses = Counter.builder("recipe.cache.requests").tag("result", "miss")
+                .description("食譜快取錯失次數").register(registry);
+        this.similarHits = Counter.builder("recipe.cache.similar.hits")
+                .description("以相似食材的快取食譜回應的次數").register(registry);
+        this.fallbackHits = Counter.builder("recipe.cache.fallback.hits")
+                .description("AI 無法使用，改用最接近的快取食譜回應的次數").register(registry);
+        this.imageBytes = DistributionSummary.builder("recipe.image.bytes").baseUnit("bytes")
+                .description("生成圖片的大小").publishPercentileHistogram()
+                .minimumExpectedValue(10_000.0).maximumExpectedValue(20_000_000.0)
+                .register(registry);
+    }
+
+    /**
+     * 開始計時，結束時呼叫 stopTimer
+     */
+    public Timer.Sample startTimer() {
+        return Timer.start(myregistry);
+    }
+
+    /**
+     * 結束計時
+     * @param name    指標名稱 (DB_LOOKUP、CHAT_CALL…)
+     * @param success 這一段是否成功 (tag outcome)
+     */
+    public void stopTimer(Timer.Sample sample, String name, boolean success) {
+        stopTimer(sample, name, success, Tags.empty());
+    }
+
+    /**
+     * 結束計時，另外加上 tag mode (AI 輸出 JSON 的方式，比較兩種模式的耗時)
+     */
+    public void stopTimer(Timer.Sample sample, String name, boolean success, String mode) {
+        stopTimer(sample, name, success, Tags.of("mode", mode));
+    }
+
+    private void stopTimer(Timer.Sample sample, String name, boolean success, Tags tags) {
+        sample.stop(Timer.builder(name)
+                .tag("outcome", success ? "success" : "error")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(3))
+                .register(myregistry));
+    }
+
+    public void cacheHit() {
+        cacheHits.increment();
+    }
+
+    public void cacheMiss() {
+        cacheMisses.increment();
+    }
+
+    //批次請求一次記錄多筆
+    public void cacheHits(int count) {
+        cacheHits.increment(count);
+    }
+
+    public void cacheMisses(int count) {
+        cacheMisses.increment(count);
+    }
+
+    public void similarHit() {
+        similarHits.increment();
+    }
+
+    public void fallbackHit() {
+        fallbackHits.increment();
+    }
+
+    public void recordImageBytes(long bytes) {
+        imageBytes.record(bytes);
+    }
+
+    /**
+     * 記錄轉檔後存下來的圖片大小
+     * @param rendition 尺寸 (full、medium、thumb)
+     */
+    public void recordStoredImageBytes(String rendition, long bytes) {
+        DistributionSummary.builder("recipe.image.stored.bytes").tag("rendition", rendition).baseUnit("bytes")
+                .description("轉檔後儲存的圖片大小").publishPercentileHistogram()
+                .minimumExpectedValue(1_000.0).maximumExpectedValue(20_000_000.0)
+                .register(myregistry)
+                .record(bytes);
+    }
+
+    /**
+     * 記錄一次 AI 呼叫的 token 數 (模型沒有回傳 usage 時為 null，不記錄)
+     * @param mode AI 輸出 JSON 的方式 (prompt、structured)
+     */
+    public void recordTokens(String mode, Integer prompt, Integer completion) {
+        if (prompt != null) {
+            tokens("prompt", mode).record(prompt);
+        }
+        if (completion != null) {
+            tokens("completion", mode).record(completion);
+        }
+    }
+
+    private DistributionSummary tokens(String type, String mode) {
+        return DistributionSummary.builder("recipe.chat.tokens").tag("type", type).tag("mode", mode).baseUnit("tokens")
+                .description("每次呼叫 AI 的 token 數").publishPercentileHistogram()
+                .minimumExpectedValue(1.0).maximumExpectedValue(10_000.0)
+                .register(myregistry);
+    }
+}
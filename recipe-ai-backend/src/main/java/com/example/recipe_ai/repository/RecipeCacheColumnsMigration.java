@@ -0,0 +1,88 @@
+package com.example.recipe_ai.repository;
+
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.migration.Context;
+import org.flywaydb.core.api.migration.JavaMigration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * RecipeCacheColumnsMigration
+ * 資料表結構的版本 3 (Flyway JavaMigration)：recipe_cache 加上主鍵改成 hash 之後新增的欄位
+ * - image_hash        圖片存在 ImageBlobStore，資料表只留 hash
+ * - response_payload  快取命中時直接回傳的 gzip JSON
+ * - hit_count、last_accessed_at  RecipeAccessTracker 的命中統計 (RecipeCachePurger、RecipeCachePreloader 使用)
+ * 以前這些欄位是 ddl-auto=update 加上的，有些資料庫已經有了，所以逐一檢查，只新增缺少的欄位。
+ */
+@Component
+public class RecipeCacheColumnsMigration implements JavaMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecipeCacheColumnsMigration.class);
+    private static final String TABLE = "recipe_cache";
+    // 欄位 → 定義 (與 RecipeCache entity 相同)
+    private static final Map<String, String> COLUMNS = new LinkedHashMap<>();
+
+    static {
+        COLUMNS.put("image_hash", "VARCHAR(64) NULL");
+        COLUMNS.put("response_payload", "MEDIUMBLOB NULL");
+        COLUMNS.put("hit_count", "BIGINT NULL");
+        COLUMNS.put("last_accessed_at", "BIGINT NULL");
+    }
+
+    @Override
+    public MigrationVersion getVersion() {
+        return MigrationVersion.fromVersion("3");
+    }
+
+    @Override
+    public String getDescription() {
+        return "recipe cache columns";
+    }
+
+    @Override
+    public Integer getChecksum() {
+        return null;
+    }
+
+    //DDL 在 MySQL 上本來就不能 rollback
+    @Override
+    public boolean canExecuteInTransaction() {
+        return false;
+    }
+
+    @Override
+    public void migrate(Context context) throws SQLException {
+        Connection connection = context.getConnection();
+        Set<String> existing = columns(connection);
+        try (Statement statement = connection.createStatement()) {
+            for (Map.Entry<String, String> column : COLUMNS.entrySet()) {
+                if (!existing.contains(column.getKey())) {
+                    statement.execute("ALTER TABLE " + TABLE + " ADD COLUMN " + column.getKey() + " " + column.getValue());
+                    logger.info("{} 新增欄位 {}", TABLE, column.getKey());
+                }
+            }
+        }
+    }
+
+    //-----目前資料表的欄位名稱 (小寫)-----
+    private static Set<String> columns(Connection connection) throws SQLException {
+        Set<String> columns = new HashSet<>();
+        try (ResultSet resultSet = connection.getMetaData().getColumns(connection.getCatalog(), null, TABLE, null)) {
+            while (resultSet.next()) {
+                columns.add(resultSet.getString("COLUMN_NAME").toLowerCase(Locale.ROOT));
+            }
+        }
+        return columns;
+    }
+}
@@ -1,13 +1,51 @@
 package com.example.recipe_ai.repository;
 import com.example.recipe_ai.entity.RecipeCache;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+import java.util.UUID;
+
 //@Repository可省略，但還是要標示讓人知道這class是實作Repository
 @Repository
-//JpaRepository<table,主鍵型態>
+//JpaRepository<table,主鍵型態>  主鍵是正規化 key 的 hash (RecipeKeyNormalizer.idOf)
 public interface RecipeCacheRepository extends
-        JpaRepository<RecipeCache,String> {
+        JpaRepository<RecipeCache,UUID> {
+
+    // 找出還沒遷移到 ImageBlobStore 的舊資料 (imageUrl 還是 base64)，只取主鍵，依主鍵分批往後查
+    @Query("select r.id from RecipeCache r where r.imageHash is null and r.imageUrl is not null " +
+            "and r.id > :afterId order by r.id")
+    List<UUID> findLegacyImageIds(@Param("afterId") UUID afterId, Pageable pageable);
+
+    // 只取主鍵與正規化 key，依主鍵分批往後查 (啟動時載入相似度索引)
+    @Query("select r.id as id, r.normalizedKey as normalizedKey from RecipeCache r where r.id > :afterId order by r.id")
+    List<KeyRow> findKeysAfter(@Param("afterId") UUID afterId, Pageable pageable);
+
+    // 命中次數最多的資料 (有預先序列化的回應內容才有用)，啟動時預先載入 L1
+    @Query("select r from RecipeCache r where r.responsePayload is not null order by r.hitCount desc, r.lastAccessedAt desc")
+    List<RecipeCache> findHottest(Pageable pageable);
+
+    // 有圖片的料理名稱 (最近讀取過的優先)，啟動時載入 RecipeImageReuseCache
+    @Query("select r.title as title, r.imageHash as imageHash from RecipeCache r " +
+            "where r.imageHash is not null and r.title is not null order by r.lastAccessedAt desc")
+    List<TitleImageRow> findTitleImages(Pageable pageable);
+
+    // 主鍵 + 正規化 key (不載入食譜內容)
+    interface KeyRow {
+        UUID getId();
+
+        String getNormalizedKey();
+    }
+
+    // 料理名稱 + 圖片 hash
+    interface TitleImageRow {
+        String getTitle();
+
+        String getImageHash();
+    }
 }
 // JpaRepository 自動產生以下方法
 // - save(RecipeCache entity)     // 新增或更新
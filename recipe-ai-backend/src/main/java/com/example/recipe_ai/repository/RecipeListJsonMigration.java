@@ -0,0 +1,132 @@
+package com.example.recipe_ai.repository;
+
+import com.example.recipe_ai.entity.StringListJsonConverter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.migration.Context;
+import org.flywaydb.core.api.migration.JavaMigration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * RecipeListJsonMigration
+ * 資料表結構的版本 5 (Flyway JavaMigration)：把 ingredients、steps 還是舊格式 ("雞胸肉 200g||洋蔥 半顆") 的資料改寫成 JSON 陣列。
+ * 以前 StringListJsonConverter 讀取時看第一個字元猜格式，舊資料第一項剛好以 '[' 開頭 (例如 "[可選] 香菜||鹽") 就會讀取失敗；
+ * 全部改寫成 JSON 之後 StringListJsonConverter 只讀 JSON，不再猜。
+ * 判斷方式：能解析成 JSON 字串陣列的就是新格式，不能的才用 "||" 切開。
+ * 依 id 順序分批處理，每筆改寫都是獨立的 UPDATE；中途中斷重新啟動時，已經改寫的資料會被判斷成新格式直接略過。
+ */
+@Component
+public class RecipeListJsonMigration implements JavaMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecipeListJsonMigration.class);
+    private static final String TABLE = "recipe_cache";
+    private static final ObjectReader READER = new ObjectMapper().readerFor(new TypeReference<List<String>>() { });
+
+    private final StringListJsonConverter myjsonConverter = new StringListJsonConverter();
+    private final int batchSize;
+
+    public RecipeListJsonMigration(@Value("${recipe.schema.migrate-batch-size:500}") int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public MigrationVersion getVersion() {
+        return MigrationVersion.fromVersion("5");
+    }
+
+    @Override
+    public String getDescription() {
+        return "recipe lists json";
+    }
+
+    @Override
+    public Integer getChecksum() {
+        return null;
+    }
+
+    //分批改寫，不包在一個大交易裡 (資料很多時不會長時間鎖住整張表)
+    @Override
+    public boolean canExecuteInTransaction() {
+        return false;
+    }
+
+    @Override
+    public void migrate(Context context) throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = context.getConnection();
+        int scanned = 0;
+        int rewritten = 0;
+        byte[] afterId = null;
+        try (PreparedStatement first = connection.prepareStatement(
+                     "SELECT id, ingredients, steps FROM " + TABLE + " ORDER BY id LIMIT ?");
+             PreparedStatement next = connection.prepareStatement(
+                     "SELECT id, ingredients, steps FROM " + TABLE + " WHERE id > ? ORDER BY id LIMIT ?");
+             PreparedStatement update = connection.prepareStatement(
+                     "UPDATE " + TABLE + " SET ingredients = ?, steps = ? WHERE id = ?")) {
+            int rows;
+            do {
+                //1. 讀下一批
+                PreparedStatement select = afterId == null ? first : next;
+                if (afterId == null) {
+                    first.setInt(1, batchSize);
+                } else {
+                    next.setBytes(1, afterId);
+                    next.setInt(2, batchSize);
+                }
+                rows = 0;
+                try (ResultSet resultSet = select.executeQuery()) {
+                    while (resultSet.next()) {
+                        rows++;
+                        afterId = resultSet.getBytes("id");
+                        String ingredients = resultSet.getString("ingredients");
+                        String steps = resultSet.getString("steps");
+                        //2. 有舊格式的欄位才改寫 (另一個欄位原樣寫回)
+                        String newIngredients = toJson(ingredients);
+                        String newSteps = toJson(steps);
+                        if (!Objects.equals(newIngredients, ingredients) || !Objects.equals(newSteps, steps)) {
+                            update.setString(1, newIngredients);
+                            update.setString(2, newSteps);
+                            update.setBytes(3, afterId);
+                            update.executeUpdate();
+                            rewritten++;
+                        }
+                    }
+                }
+                scanned += rows;
+            } while (rows == batchSize);
+        }
+        logger.info("{} 的食材/步驟改寫為 JSON：檢查 {} 筆，改寫 {} 筆，耗時 {} ms",
+                TABLE, scanned, rewritten, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    //-----欄位內容 → JSON 陣列 (已經是 JSON、或是 null 就原樣回傳)-----
+    private String toJson(String column) {
+        if (column == null) {
+            return null;
+        }
+        if (column.isEmpty()) {
+            return myjsonConverter.convertToDatabaseColumn(List.of());
+        }
+        try {
+            READER.readValue(column);
+            return column;
+        } catch (JsonProcessingException e) {
+            //舊格式："雞胸肉 200g||洋蔥 半顆"
+            return myjsonConverter.convertToDatabaseColumn(Arrays.asList(column.split("\\|\\|")));
+        }
+    }
+}
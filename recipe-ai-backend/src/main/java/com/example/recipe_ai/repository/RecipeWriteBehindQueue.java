@@ -0,0 +1,337 @@
+package com.example.recipe_ai.repository;
+
+import com.example.recipe_ai.entity.RecipeCache;
+import com.example.recipe_ai.entity.StringListJsonConverter;
+import com.example.recipe_ai.metrics.RecipeMetrics;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RecipeWriteBehindQueue
+ * 新生成 (或更新圖片) 的食譜不在請求執行緒寫資料庫，先放進有上限的佇列，由背景執行緒批次寫入：
+ * 1. enqueue 時先記在 pending (主鍵 → 最新的一筆)，寫入完成前 find 仍查得到，不會重新生成同一個 key
+ * 2. 背景執行緒湊滿 batch-size 筆 (或第一筆等了 flush-interval) 就用一次 JDBC batch 送出
+ *    INSERT ... ON DUPLICATE KEY UPDATE：主鍵已存在 (其他服務實例先存了、圖片完成後的更新) 就直接更新
+ * 3. 佇列滿了等 offer-timeout，還是滿的就在呼叫端執行緒同步寫入 (backpressure，不丟資料)
+ * 4. 寫入失敗重試 max-retries 次 (間隔加倍)；整批還是失敗就逐筆再寫一次，只放棄仍然失敗的那幾筆
+ *    (一筆壞資料不會連累同一批其他人的食譜)，關閉服務時把佇列剩下的全部寫完
+ * recipe.persist.write-behind=false 時每次 enqueue 都同步寫入 (一樣是 upsert)
+ * 佇列長度以 gauge recipe.persist.queue.size 輸出，寫入筆數以 recipe.persist.rows{mode=async|sync|dropped} 輸出
+ */
+@Component
+public class RecipeWriteBehindQueue implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecipeWriteBehindQueue.class);
+
+    // 資料表欄位與 RecipeCache 一致 (imageUrl 經 Spring 命名策略變成 image_url)
+    // 主鍵重複時更新；圖片 hash 與回應內容只在這次有值時覆蓋，不把別人已經存好的圖片清掉
+    // 命中次數與最後讀取時間只在新增時給初始值，之後由 RecipeAccessTracker 累加
+    static final String UPSERT_SQL = "INSERT INTO recipe_cache "
+            + "(id, normalized_key, title, ingredients, steps, image_url, image_hash, response_payload, "
+            + "hit_count, last_accessed_at) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, 0, ?) "
+            + "ON DUPLICATE KEY UPDATE normalized_key = VALUES(normalized_key), title = VALUES(title), "
+            + "ingredients = VALUES(ingredients), steps = VALUES(steps), image_url = VALUES(image_url), "
+            + "image_hash = COALESCE(VALUES(image_hash), image_hash), "
+            + "response_payload = COALESCE(VALUES(response_payload), response_payload)";
+
+    private static final long SHUTDOWN_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final JdbcTemplate myjdbcTemplate;
+    private final RecipeMetrics myrecipeMetrics;
+    private final StringListJsonConverter myjsonConverter = new StringListJsonConverter();
+    // 主鍵 → 還沒寫入資料庫的最新一筆 (同一個主鍵再 enqueue 會換成新的 Write)
+    private final ConcurrentHashMap<UUID, Write> mypending = new ConcurrentHashMap<>();
+    // 等待背景寫入的佇列 (有上限)
+    private final ArrayBlockingQueue<Write> myqueue;
+    private final boolean enabled;
+    private final int batchSize;
+    private final Duration flushInterval;
+    private final Duration offerTimeout;
+    private final int maxRetries;
+    private final Duration retryBackoff;
+    private final Duration shutdownTimeout;
+    private final Thread mywriter;
+    private final AtomicLong asyncRows = new AtomicLong();
+    private final AtomicLong syncRows = new AtomicLong();
+    private final AtomicLong droppedRows = new AtomicLong();
+    private volatile boolean running = true;
+
+    public RecipeWriteBehindQueue(DataSource dataSource, RecipeMetrics recipeMetrics,
+                                  @Value("${recipe.persist.write-behind:true}") boolean enabled,
+                                  @Value("${recipe.persist.queue-capacity:2000}") int queueCapacity,
+                                  @Value("${recipe.persist.batch-size:50}") int batchSize,
+                                  @Value("${recipe.persist.flush-interval:200ms}") Duration flushInterval,
+                                  @Value("${recipe.persist.offer-timeout:1s}") Duration offerTimeout,
+                                  @Value("${recipe.persist.max-retries:3}") int maxRetries,
+                                  @Value("${recipe.persist.retry-backoff:200ms}") Duration retryBackoff,
+                                  @Value("${recipe.persist.shutdown-timeout:30s}") Duration shutdownTimeout) {
+        this.myjdbcTemplate = new JdbcTemplate(dataSource);
+        this.myrecipeMetrics = recipeMetrics;
+        this.enabled = enabled;
+        this.myqueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.offerTimeout = offerTimeout;
+        this.maxRetries = maxRetries;
+        this.retryBackoff = retryBackoff;
+        this.shutdownTimeout = shutdownTimeout;
+        this.mywriter = new Thread(this::drainLoop, "recipe-write-behind");
+        this.mywriter.setDaemon(true);
+        if (enabled) {
+            this.mywriter.start();
+        }
+    }
+
+    /**
+     * 排入寫入佇列 (新資料 INSERT，已存在就 UPDATE)
+     * 佇列滿了就在目前的執行緒同步寫入
+     */
+    public void enqueue(RecipeCache entry) {
+        Write write = new Write(entry);
+        if (!enabled || !running) {
+            flushWithRetry(List.of(write));
+            syncRows.incrementAndGet();
+            return;
+        }
+        mypending.put(entry.getId(), write);
+        boolean queued = false;
+        try {
+            queued = myqueue.offer(write, offerTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queued) {
+            //背景寫入跟不上 → 由呼叫端自己寫 (寫入變慢，請求也跟著變慢，不會無限制堆積)
+            logger.warn("寫入佇列已滿 ({} 筆)，改為同步寫入 key={}", myqueue.size(), entry.getNormalizedKey());
+            try {
+                flushWithRetry(List.of(write));
+                syncRows.incrementAndGet();
+            } finally {
+                mypending.remove(entry.getId(), write);
+            }
+        }
+    }
+
+    /**
+     * 查詢還沒寫入資料庫的那一筆 (讀得到自己剛寫的資料)
+     */
+    public Optional<RecipeCache> find(UUID id) {
+        Write write = mypending.get(id);
+        return write == null ? Optional.empty() : Optional.of(write.entry);
+    }
+
+    /**
+     * 等待寫入的筆數
+     */
+    public int size() {
+        return myqueue.size();
+    }
+
+    /**
+     * 把目前佇列裡的資料全部寫完 (關閉服務、測試用)
+     */
+    public void flush() {
+        List<Write> batch = new ArrayList<>(batchSize);
+        while (myqueue.drainTo(batch, batchSize) > 0) {
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    //-----背景執行緒：等到第一筆後，最多再等 flushInterval 湊滿 batchSize 筆，一起寫入-----
+    private void drainLoop() {
+        List<Write> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                Write first = myqueue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + flushInterval.toNanos();
+                while (batch.size() < batchSize) {
+                    myqueue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0 || !running) {
+                        break;
+                    }
+                    //每 100ms 醒來一次，關閉服務時不用等滿 flushInterval
+                    Write next = myqueue.poll(Math.min(remaining, SHUTDOWN_CHECK_NANOS), TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                //關閉服務：剩下的由 shutdown 寫完
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.error("背景寫入發生未預期的錯誤", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<Write> batch) {
+        try {
+            flushWithRetry(batch);
+            asyncRows.addAndGet(batch.size());
+        } catch (DataAccessException e) {
+            if (batch.size() == 1) {
+                drop(batch.get(0), e);
+            } else {
+                //重試完還是失敗：可能只是其中幾筆有問題 (例如欄位太長)，逐筆再寫一次
+                logger.warn("食譜批次寫入失敗，改為逐筆寫入 {} 筆", batch.size(), e);
+                for (Write write : batch) {
+                    try {
+                        timedUpsert(List.of(write));
+                        asyncRows.incrementAndGet();
+                    } catch (DataAccessException rowError) {
+                        drop(write, rowError);
+                    }
+                }
+            }
+        } finally {
+            for (Write write : batch) {
+                //同一個主鍵之後又 enqueue 了新的一筆時，pending 保留新的那一筆
+                mypending.remove(write.entry.getId(), write);
+            }
+        }
+    }
+
+    //重試完還是失敗：資料還在 L1，只是沒有存進資料庫
+    private void drop(Write write, DataAccessException e) {
+        logger.error("食譜寫入資料庫失敗，放棄 id={}", write.entry.getId(), e);
+        droppedRows.incrementAndGet();
+    }
+
+    private void flushWithRetry(List<Write> batch) {
+        long backoff = retryBackoff.toMillis();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                timedUpsert(batch);
+                return;
+            } catch (DataAccessException e) {
+                if (attempt > maxRetries) {
+                    throw e;
+                }
+                logger.warn("食譜寫入資料庫失敗，{}ms 後重試 ({}/{})", backoff, attempt, maxRetries, e);
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            backoff *= 2;
+        }
+    }
+
+    private void timedUpsert(List<Write> batch) {
+        Timer.Sample sample = myrecipeMetrics.startTimer();
+        boolean success = false;
+        try {
+            upsert(batch);
+            success = true;
+        } finally {
+            myrecipeMetrics.stopTimer(sample, RecipeMetrics.DB_SAVE, success);
+        }
+    }
+
+    //一次 JDBC batch (MySQL 搭配 rewriteBatchedStatements 會合併成一條多筆 INSERT)
+    private void upsert(List<Write> batch) {
+        long now = System.currentTimeMillis();
+        myjdbcTemplate.batchUpdate(UPSERT_SQL, batch, batch.size(), (statement, write) -> {
+            RecipeCache entry = write.entry;
+            statement.setBytes(1, toBytes(entry.getId()));
+            statement.setString(2, entry.getNormalizedKey());
+            statement.setString(3, entry.getTitle());
+            statement.setString(4, myjsonConverter.convertToDatabaseColumn(entry.getIngredients()));
+            statement.setString(5, myjsonConverter.convertToDatabaseColumn(entry.getSteps()));
+            statement.setString(6, entry.getImageUrl());
+            statement.setString(7, entry.getImageHash());
+            statement.setBytes(8, entry.getResponsePayload());
+            statement.setLong(9, now);
+        });
+        //已經在資料庫了，之後經由 JPA save 要走 UPDATE
+        batch.forEach(write -> write.entry.markNotNew());
+    }
+
+    //-----UUID → 16 bytes (與 Hibernate 存 BINARY(16) 的順序相同：高位在前)-----
+    private static byte[] toBytes(UUID id) {
+        return ByteBuffer.allocate(16)
+                .putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits())
+                .array();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        try {
+            mywriter.join(shutdownTimeout.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (mywriter.isAlive()) {
+            mywriter.interrupt();
+        }
+        //背景執行緒停下來之後，剩下的在這裡寫完
+        flush();
+        if (!myqueue.isEmpty() || !mypending.isEmpty()) {
+            logger.warn("關閉服務時還有 {} 筆食譜沒有寫入資料庫", mypending.size());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("recipe.persist.queue.size", myqueue, ArrayBlockingQueue::size)
+                .description("等待寫入資料庫的食譜數量")
+                .register(registry);
+        rows(registry, "async", asyncRows);
+        rows(registry, "sync", syncRows);
+        rows(registry, "dropped", droppedRows);
+    }
+
+    private static void rows(MeterRegistry registry, String mode, AtomicLong count) {
+        FunctionCounter.builder("recipe.persist.rows", count, AtomicLong::get)
+                .tag("mode", mode)
+                .description("寫入資料庫的食譜筆數 (async: 背景批次；sync: 佇列滿了同步寫入；dropped: 重試後仍失敗)")
+                .register(registry);
+    }
+
+    /**
+     * 一次寫入 (同一個物件可能被 enqueue 好幾次，用 Write 分辨哪一次是最新的)
+     */
+    private static final class Write {
+        private final RecipeCache entry;
+
+        private Write(RecipeCache entry) {
+            this.entry = entry;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.recipe_ai.service;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+
+/**
+ * GeminiImageResponseParser
+ * 以串流方式 (JsonParser) 解析 Gemini 圖片 API 的回覆，不把整段幾 MB 的 JSON 讀成 String、也不建立 JsonNode 樹。
+ * 只走訪 candidates[0].content.parts[*].inlineData，找到 data 時直接把 base64 解碼寫進 byte buffer。
+ * 其他欄位 (text、safetyRatings、usageMetadata...) 用 skipChildren() 跳過。
+ */
+final class GeminiImageResponseParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    // 沒有 Content-Length 時 buffer 的初始大小
+    private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private GeminiImageResponseParser() {
+    }
+
+    /**
+     * 解析回覆，找到第一張圖片
+     * @param body          回覆內容 (HTTP response 的 InputStream)
+     * @param contentLength 回覆長度 (不知道時傳負數)，用來預先配置解碼後的 buffer 大小
+     * @return 圖片；回覆中沒有圖片時回傳空的 Optional
+     * @throws JsonParseException JSON 格式錯誤
+     */
+    static Optional<GeneratedImage> parse(InputStream body, long contentLength) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Gemini 回覆不是 JSON 物件");
+            }
+            //root → "candidates"
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("candidates".equals(field) && value == JsonToken.START_ARRAY) {
+                    //只看 candidates[0]
+                    if (parser.nextToken() == JsonToken.START_OBJECT) {
+                        return parseCandidate(parser, contentLength);
+                    }
+                    return Optional.empty();
+                }
+                parser.skipChildren();
+            }
+            return Optional.empty();
+        }
+    }
+
+    //candidates[0] → "content" → "parts"
+    private static Optional<GeneratedImage> parseCandidate(JsonParser parser, long contentLength) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("content".equals(field) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String contentField = parser.currentName();
+                    JsonToken contentValue = parser.nextToken();
+                    if ("parts".equals(contentField) && contentValue == JsonToken.START_ARRAY) {
+                        return parseParts(parser, contentLength);
+                    }
+                    parser.skipChildren();
+                }
+                return Optional.empty();
+            }
+            parser.skipChildren();
+        }
+        return Optional.empty();
+    }
+
+    //parts[*] → 第一個有 "inlineData" 的元素
+    private static Optional<GeneratedImage> parseParts(JsonParser parser, long contentLength) throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("inlineData".equals(field) && value == JsonToken.START_OBJECT) {
+                    Optional<GeneratedImage> image = parseInlineData(parser, contentLength);
+                    if (image.isPresent()) {
+                        return image;
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    //inlineData → "data" (其他欄位如 mimeType 略過，順序不固定)
+    private static Optional<GeneratedImage> parseInlineData(JsonParser parser, long contentLength) throws IOException {
+        byte[] data = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("data".equals(field) && value == JsonToken.VALUE_STRING) {
+                //base64 直接從輸入 buffer 解碼寫進 out，不會產生整串 base64 的 String
+                ByteArrayOutputStream out = new ByteArrayOutputStream(initialCapacity(contentLength));
+                parser.readBinaryValue(Base64Variants.MIME_NO_LINEFEEDS, out);
+                data = out.toByteArray();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (data == null || data.length == 0) {
+            return Optional.empty();
+        }
+        return Optional.of(new GeneratedImage(data));
+    }
+
+    //base64 解碼後大約是原本長度的 3/4
+    private static int initialCapacity(long contentLength) {
+        if (contentLength <= 0) {
+            return DEFAULT_BUFFER_SIZE;
+        }
+        return (int) Math.min(Integer.MAX_VALUE - 8, contentLength / 4 * 3 + 16);
+    }
+}
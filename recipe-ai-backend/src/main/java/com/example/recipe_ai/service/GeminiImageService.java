@@ -1,23 +1,43 @@
 package com.example.recipe_ai.service;
 
+import com.example.recipe_ai.config.GeminiHttpClientConfig;
 import com.example.recipe_ai.exception.ApiException;
+import com.example.recipe_ai.limit.AdaptiveConcurrencyLimiter;
+import com.example.recipe_ai.limit.Cancellation;
+import com.example.recipe_ai.limit.ResilientCaller;
+import com.example.recipe_ai.limit.UpstreamStatusException;
+import com.example.recipe_ai.metrics.RecipeMetrics;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.web.client.RestTemplate;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * GeminiImageService
@@ -27,25 +47,98 @@ import java.util.Map;
 @Service
 public class GeminiImageService {
 
-    // 指定模型--- gemini-2.5-flash-image-preview---
-    private static final String GEMINI_IMAGE_API_URL =
-            "https://generativelanguage.googleapis.com/v1beta/models/gemini-2.5-flash-image:generateContent?key={apiKey}";
-
-    // value--從 application.properties  讀取spring.ai.google.genai.api-key，geminiApiKey
-    @Value("${spring.ai.google.genai.api-key:}")
-    private String geminiApiKey;
-
     // 加入 Logger
     private static final Logger logger = LoggerFactory.getLogger(GeminiImageService.class);
-    // new 兩個物件，分別是 RestTemplate 和 ObjectMapper：
-    private final RestTemplate restTemplate = new RestTemplate();
+
+    // 指定模型--- gemini-2.5-flash-image (可由 gemini.image.api-url 覆蓋，例如壓力測試用的本機 stub)
+    private final String geminiImageApiUrl;
+    // value--從 application.properties  讀取spring.ai.google.genai.api-key，geminiApiKey
+    private final String geminiApiKey;
+    // 連線池 HTTP client (GeminiHttpClientConfig)
+    private final CloseableHttpClient mygeminiHttpClient;
+    // 連線池 (查詢使用狀況用)
+    private final PoolingHttpClientConnectionManager mygeminiConnectionManager;
+    // 整個呼叫 (連線 + 上傳 + 等待 + 下載) 的總時間上限
+    private final Duration totalTimeout;
+    // 總時間到了就中斷 HTTP 請求的排程器
+    private final ScheduledThreadPoolExecutor mytimeoutScheduler;
     private final ObjectMapper objectMapper = new ObjectMapper();
+    // 監控指標 (呼叫耗時、圖片大小)
+    private final RecipeMetrics myrecipeMetrics;
+    // 同時呼叫圖片生成的數量上限 (和文字生成分開)
+    private final AdaptiveConcurrencyLimiter myimageGenerationLimiter;
+    // 重試、對沖與熔斷器
+    private final ResilientCaller myimageCaller;
+
+    public GeminiImageService(CloseableHttpClient geminiHttpClient,
+                              PoolingHttpClientConnectionManager geminiConnectionManager,
+                              RecipeMetrics recipeMetrics,
+                              @Qualifier("imageGenerationLimiter") AdaptiveConcurrencyLimiter imageGenerationLimiter,
+                              @Qualifier("imageCaller") ResilientCaller imageCaller,
+                              @Value("${gemini.image.api-url:https://generativelanguage.googleapis.com/v1beta/models/gemini-2.5-flash-image:generateContent}") String geminiImageApiUrl,
+                              @Value("${spring.ai.google.genai.api-key:}") String geminiApiKey,
+                              @Value("${gemini.image.http.total-timeout:90s}") Duration totalTimeout) {
+        this.mygeminiHttpClient = geminiHttpClient;
+        this.mygeminiConnectionManager = geminiConnectionManager;
+        this.myrecipeMetrics = recipeMetrics;
+        this.myimageGenerationLimiter = imageGenerationLimiter;
+        this.myimageCaller = imageCaller;
+        this.geminiImageApiUrl = geminiImageApiUrl;
+        this.geminiApiKey = geminiApiKey;
+        this.totalTimeout = totalTimeout;
+        this.mytimeoutScheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "gemini-image-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.mytimeoutScheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        mytimeoutScheduler.shutdownNow();
+    }
+
+    /**
+     * Gemini 圖片 API 連線池目前的使用狀況 (使用中、閒置、等待中、上限)
+     */
+    public Map<String, Object> poolStats() {
+        return GeminiHttpClientConfig.poolStats(mygeminiConnectionManager);
+    }
+
     /**
-     * 呼叫 Gemini 2.5 Flash (Image Preview) 生成圖片並回傳 Base64 Data URL
+     * 呼叫 Gemini 2.5 Flash (Image Preview) 生成圖片並回傳解碼後的圖片
      * @param steps 圖片的提示語 (料理步驟)
-     * @return Base64 編碼的 Data URL (e.g., data:image/png;base64,...)
+     * 失敗時依設定重試，太慢時送出對沖請求 (ResilientCaller)
+     * @return 圖片原始 bytes
+     * @throws com.example.recipe_ai.limit.CircuitOpenException 熔斷器開啟中
      */
-    public String generateImage(List<String> steps) {
+    public GeneratedImage generateImage(List<String> steps) {
+        return myimageCaller.callCancellable(cancellation -> attemptImage(steps, cancellation));
+    }
+
+    //-----一次嘗試 (對沖時兩個請求各自呼叫一次，輸的一方被取消：中斷 HTTP 請求並歸還執行權)-----
+    private GeneratedImage attemptImage(List<String> steps, Cancellation cancellation) {
+        //先取得執行權 (排隊滿了直接丟 429/503)，排隊的時間不算在 recipe.image.call 裡
+        AdaptiveConcurrencyLimiter.Permit permit = myimageGenerationLimiter.acquire();
+        cancellation.onCancel(permit::ignore);
+        //記錄整個呼叫的耗時 (recipe.image.call) 與圖片大小 (recipe.image.bytes)
+        Timer.Sample sample = myrecipeMetrics.startTimer();
+        try {
+            GeneratedImage image = requestImage(steps, cancellation);
+            myrecipeMetrics.recordImageBytes(image.data().length);
+            myrecipeMetrics.stopTimer(sample, RecipeMetrics.IMAGE_CALL, true);
+            permit.success();
+            return image;
+        } catch (RuntimeException e) {
+            myrecipeMetrics.stopTimer(sample, RecipeMetrics.IMAGE_CALL, false);
+            //只有逾時、429、5xx 才縮小 limit
+            permit.failed(e);
+            throw e;
+        }
+    }
+
+    private GeneratedImage requestImage(List<String> steps, Cancellation cancellation) {
         // 用料理步驟作為prompt
         String imagePromptText = String.format("""
                         【圖片生成指令】請使用超高清解析度、專業打光、美食特寫構圖與景深效果，
@@ -90,80 +183,80 @@ public class GeminiImageService {
 //          }
 //        }
 
-        // 2. 設定 HTTP Header
-        HttpHeaders headers = new HttpHeaders();        //建立 HTTP Header 物件，用來告訴伺服器「我要傳什麼格式的資料」。
-        headers.setContentType(MediaType.APPLICATION_JSON);     //告訴伺服器：傳的是 JSON 格式的資料
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(payload, headers);
-        //把payload, headers包在一起傳出，payload--傳出的內容、header---傳出的格式
-
-        // 3. 執行 HTTP POST 請求
-        String jsonResponse;        //存放gemini回應
+        // 2. 建立 HTTP POST，設定 Header (API key 放在 header，不放在網址，避免出現在 log)
+        HttpPost post = new HttpPost(geminiImageApiUrl);
+        post.setHeader("x-goog-api-key", geminiApiKey);
         try {
-            //restTemplate.postForObject發送post到網路上
-            jsonResponse = restTemplate.postForObject(
-                    GEMINI_IMAGE_API_URL,       //我發送post的 api網址
-                    entity,                     //傳給gemini ai  api的資料
-                    String.class,               //api回傳內容後，字串存放
-                    geminiApiKey                // 替換 URL 中的 {apiKey}
-            );
-        } catch (Exception e) {
-            logger.error("呼叫 Gemini 圖片生成服務失敗: {}", e.getMessage(), e);
-            throw new ApiException("呼叫 Gemini 圖片生成服務失敗", HttpStatus.INTERNAL_SERVER_ERROR);
+            //payload 轉成 JSON，告訴伺服器：傳的是 JSON 格式的資料
+            post.setEntity(new ByteArrayEntity(objectMapper.writeValueAsBytes(payload), ContentType.APPLICATION_JSON));
+        } catch (JsonProcessingException e) {
+            throw new ApiException("無法建立 Gemini 圖片請求", HttpStatus.INTERNAL_SERVER_ERROR);
         }
+
         //jsonResponse內容
         // -> candidates[0]
         //     -> content
         //         -> parts (這是一個陣列 [...])
         //             -> [陣列中的某一個元素，例如 index 1]
         //                 -> inlineData
-        //                     -> data (這裡才是圖片 Base64 資料)
+        //                     -> mimeType、data (這裡才是圖片 Base64 資料)
 
-        // 4. 解析 JSON 取得 Base64 圖片資料
-        JsonNode rootNode;
+        // 3. 執行 HTTP POST 請求 (超過總時間上限就中斷)
+        // 4. 一邊從網路讀取回覆，一邊解析 JSON (GeminiImageResponseParser)，base64 直接解碼成 bytes
+        //    不會把整段回覆讀成 String、也不會建立 JsonNode 樹或組合 Data URL 字串
+        Optional<GeneratedImage> image;
+        ScheduledFuture<?> deadline = mytimeoutScheduler.schedule(post::cancel, totalTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        cancellation.onCancel(post::cancel);
         try {
-            //  4.1 readTree會把jsonResponse解析成樹狀結構的jsonnode，存放到rootNode。
-            rootNode = objectMapper.readTree(jsonResponse);
-
-        }
-        catch (JsonProcessingException e) {
-            logger.error("無法解析 Gemini 圖片回覆的 JSON: {}", jsonResponse, e);
-            throw new ApiException("無法解析 Gemini 的圖片回覆 JSON", HttpStatus.INTERNAL_SERVER_ERROR);
-        }
-
-        // 4.2 取得 candidates 中的content 中的 parts _arr
-        JsonNode partsNode = rootNode
-                .path("candidates").path(0)
-                .path("content").path("parts");
-
-        String base64Image = null;
-
-        //4.3找jsonnode中的base64data。
-        if (partsNode.isArray()) {
-            // 用for-each，檢查partsNode中每個parts 陣列，尋找包含 inlineData (圖片) 的節點
-            for (JsonNode part : partsNode) {
-                //取出part.path 中 "inlineData" 欄位
-                JsonNode inlineDataNode = part.path("inlineData");
-                // 檢查inlineData是否有資料
-                if (!inlineDataNode.isMissingNode()) {
-                    //取出 inlineDataNode中的 'data'欄位 (Base64 字串)
-                    JsonNode dataNode = inlineDataNode.path("data");
-                    // 檢查 data 是否存在且為文字 (即 Base64 字串)
-                    if (dataNode.isTextual()) {
-                        //將dataNode賦予給base64Image變數
-                        base64Image = dataNode.asText();
-                        // 找到圖片後跳出迴圈
-                        break;
-                    }
+            image = mygeminiHttpClient.execute(post, response -> {
+                HttpEntity entity = response.getEntity();
+                if (response.getCode() / 100 != 2) {
+                    String body = entity == null ? "" : EntityUtils.toString(entity, StandardCharsets.UTF_8);
+                    logger.error("Gemini 圖片生成服務回傳 HTTP {}: {}", response.getCode(), body);
+                    throw new UpstreamStatusException("呼叫 Gemini 圖片生成服務失敗", HttpStatus.INTERNAL_SERVER_ERROR, response.getCode());
+                }
+                if (entity == null) {
+                    return Optional.<GeneratedImage>empty();
                 }
+                try (InputStream body = entity.getContent()) {
+                    return GeminiImageResponseParser.parse(body, entity.getContentLength());
+                } catch (JsonProcessingException e) {
+                    logger.error("無法解析 Gemini 圖片回覆的 JSON: {}", e.getOriginalMessage());
+                    throw new ApiException("無法解析 Gemini 的圖片回覆 JSON", HttpStatus.INTERNAL_SERVER_ERROR);
+                }
+            });
+        } catch (InterruptedIOException e) {
+            throwIfCancelled(cancellation);
+            //連線逾時、讀取逾時、借不到連線，或總時間到了被 cancel
+            logger.error("呼叫 Gemini 圖片生成服務逾時 (總時間上限 {}): {}", totalTimeout, e.getMessage());
+            throw new ApiException("Gemini 圖片生成服務逾時", HttpStatus.GATEWAY_TIMEOUT, e);
+        } catch (IOException e) {
+            throwIfCancelled(cancellation);
+            if (post.isCancelled()) {
+                //讀取回應內容到一半時總時間到了
+                logger.error("呼叫 Gemini 圖片生成服務超過總時間上限 {}", totalTimeout);
+                throw new ApiException("Gemini 圖片生成服務逾時", HttpStatus.GATEWAY_TIMEOUT, e);
             }
+            logger.error("呼叫 Gemini 圖片生成服務失敗: {}", e.getMessage(), e);
+            throw new ApiException("呼叫 Gemini 圖片生成服務失敗", HttpStatus.INTERNAL_SERVER_ERROR, e);
+        } finally {
+            deadline.cancel(false);
         }
-        // 如果沒有找到 Base64 圖片資料，拋出異常
-        if (base64Image == null) {
-            logger.error("無法從 Gemini 回覆中提取 Base64 圖片資料: {}", jsonResponse);
+
+        // 5. 如果沒有找到圖片資料，拋出異常
+        if (image.isEmpty()) {
+            logger.error("無法從 Gemini 回覆中提取 Base64 圖片資料");
             throw new ApiException("無法從 Gemini 回覆中提取 Base64 圖片資料。", HttpStatus.INTERNAL_SERVER_ERROR);
         }
-        // 5. 組合 Data URL (前端可直接使用的圖片字串)
-        return "data:image/png;base64," + base64Image;
+        return image.get();
+    }
+
+    //對沖的另一個請求先成功而被取消：不是 Gemini 的錯誤，不記錯誤 log
+    private static void throwIfCancelled(Cancellation cancellation) {
+        if (cancellation.isCancelled()) {
+            logger.debug("對沖的另一個請求已經成功，取消這次圖片請求");
+            throw new ApiException("圖片請求已取消", HttpStatus.SERVICE_UNAVAILABLE);
+        }
     }
 }
 //json
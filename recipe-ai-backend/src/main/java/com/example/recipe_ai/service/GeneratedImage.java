@@ -0,0 +1,10 @@
+package com.example.recipe_ai.service;
+
+/**
+ * GeneratedImage
+ * Gemini 生成的圖片：已從 base64 解碼的原始 bytes
+ * 格式不另外記錄，ImageRenditionService 會轉成 JPEG，原圖的格式由 ImageBlobStore 從 magic number 判斷
+ * @param data 圖片原始內容
+ */
+public record GeneratedImage(byte[] data) {
+}
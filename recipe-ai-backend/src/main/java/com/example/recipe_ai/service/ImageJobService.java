@@ -0,0 +1,248 @@
+package com.example.recipe_ai.service;
+
+import com.example.recipe_ai.cache.RecipeImageReuseCache;
+import com.example.recipe_ai.cache.RecipeL1Cache;
+import com.example.recipe_ai.dto.ImageJobResponse;
+import com.example.recipe_ai.entity.RecipeCache;
+import com.example.recipe_ai.exception.ApiException;
+import com.example.recipe_ai.key.RecipeKeyNormalizer;
+import com.example.recipe_ai.repository.RecipeCacheRepository;
+import com.example.recipe_ai.repository.RecipeWriteBehindQueue;
+import com.example.recipe_ai.storage.ImageBlobStore;
+import com.example.recipe_ai.storage.ImageRenditionService;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ImageJobService
+ * 非同步圖片生成：食譜文字生成完就先回傳給前端，圖片在背景執行緒慢慢生成。
+ * - 背景執行緒池有上限 (pool-size) 與等待佇列上限 (queue-capacity)；佇列滿了工作直接標成 FAILED，
+ *   不在呼叫端執行緒生成 (快取命中、批次、SSE 重播都會送出工作，不能因此卡住一整次圖片生成)
+ * - 失敗的工作不再對應到食譜 key，下一次讀到那筆食譜會重新送出
+ * - 同名料理已經有圖片 (RecipeImageReuseCache) 就直接沿用，不呼叫圖片模型
+ * - 圖片完成後更新資料庫那筆資料的 image_hash 與預先序列化的回應內容 (排入寫入佇列)，並更新 L1 快取
+ * - 前端用 jobId 輪詢 GET /api/recipe/image/job/{jobId}，或用 SSE 訂閱 /events
+ */
+@Service
+public class ImageJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageJobService.class);
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_DONE = "DONE";
+    public static final String STATUS_FAILED = "FAILED";
+
+    private final GeminiImageService mygeminiImageService;
+    private final ImageBlobStore myimageBlobStore;
+    private final ImageRenditionService myimageRenditionService;
+    private final RecipeImageReuseCache myimageReuseCache;
+    private final RecipeCacheRepository myrecipeCacheRepository;
+    private final RecipeWriteBehindQueue myrecipeWriteBehind;
+    private final RecipeL1Cache myrecipeL1Cache;
+    // 背景圖片生成執行緒池 (有上限)
+    private final ThreadPoolExecutor myexecutor;
+    // jobId → 工作
+    private final Cache<String, ImageJob> myjobs;
+    // 食譜 key → 正在進行 (或最近完成) 的 jobId，同一個 key 不重複生成圖片
+    private final Cache<String, String> myjobIdsByKey;
+    // SSE 連線最多等多久
+    private final Duration sseTimeout;
+
+    public ImageJobService(GeminiImageService geminiImageService, ImageBlobStore imageBlobStore,
+                           ImageRenditionService imageRenditionService, RecipeImageReuseCache imageReuseCache,
+                           RecipeCacheRepository recipeCacheRepository, RecipeWriteBehindQueue recipeWriteBehind,
+                           RecipeL1Cache recipeL1Cache,
+                           @Value("${recipe.image.async.pool-size:4}") int poolSize,
+                           @Value("${recipe.image.async.queue-capacity:100}") int queueCapacity,
+                           @Value("${recipe.image.async.job-retention:30m}") Duration jobRetention,
+                           @Value("${recipe.image.async.sse-timeout:2m}") Duration sseTimeout,
+                           @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.mygeminiImageService = geminiImageService;
+        this.myimageBlobStore = imageBlobStore;
+        this.myimageRenditionService = imageRenditionService;
+        this.myimageReuseCache = imageReuseCache;
+        this.myrecipeCacheRepository = recipeCacheRepository;
+        this.myrecipeWriteBehind = recipeWriteBehind;
+        this.myrecipeL1Cache = recipeL1Cache;
+        this.sseTimeout = sseTimeout;
+        //虛擬執行緒模式：工作數量一樣由 pool-size 限制，只是等待 Gemini 時不佔用 OS 執行緒
+        this.myexecutor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                virtualThreads
+                        ? Thread.ofVirtual().name("image-job-", 1).factory()
+                        : Thread.ofPlatform().name("image-job-", 1).daemon().factory());
+        this.myjobs = Caffeine.newBuilder().expireAfterWrite(jobRetention).build();
+        this.myjobIdsByKey = Caffeine.newBuilder().expireAfterWrite(jobRetention).build();
+    }
+
+    /**
+     * 送出一個圖片生成工作 (同一個 key 已經有工作就直接回傳那個 jobId)
+     * @param key   食譜 key (圖片完成後要更新的那筆資料)
+     * @param steps 料理步驟，作為圖片 prompt
+     * @return jobId
+     */
+    public String submit(String key, List<String> steps) {
+        String jobId = myjobIdsByKey.get(key, k -> UUID.randomUUID().toString());
+        ImageJob job = new ImageJob(jobId, key);
+        ImageJob existing = myjobs.asMap().putIfAbsent(jobId, job);
+        if (existing != null) {
+            return jobId;
+        }
+        try {
+            myexecutor.execute(() -> run(job, steps));
+        } catch (RejectedExecutionException e) {
+            //背景佇列已滿 → 工作失敗，之後再讀到這筆食譜時重新送出
+            logger.warn("圖片生成佇列已滿，工作標為失敗 key={}", key);
+            fail(job, e);
+        }
+        return jobId;
+    }
+
+    /**
+     * 查詢某個食譜 key 目前的圖片工作
+     */
+    public Optional<String> findJobIdByKey(String key) {
+        return Optional.ofNullable(myjobIdsByKey.getIfPresent(key));
+    }
+
+    /**
+     * 輪詢：查詢工作狀態
+     */
+    public ImageJobResponse getStatus(String jobId) {
+        return findJob(jobId).toResponse();
+    }
+
+    /**
+     * SSE：圖片完成 (或失敗) 時推送一次 "image" 事件後結束連線
+     */
+    public SseEmitter subscribe(String jobId) {
+        ImageJob job = findJob(jobId);
+        SseEmitter emitter = new SseEmitter(sseTimeout.toMillis());
+        //先推送目前狀態，讓前端知道連線成功
+        sendQuietly(emitter, job.toResponse());
+        job.result.whenComplete((imageUrl, error) -> {
+            sendQuietly(emitter, job.toResponse());
+            emitter.complete();
+        });
+        return emitter;
+    }
+
+    //-----背景執行：生成圖片 (同名料理已經有圖片就沿用) → 轉檔存檔 → 更新資料庫與 L1-----
+    private void run(ImageJob job, List<String> steps) {
+        try {
+            //那筆食譜的料理名稱 (圖片重複使用快取用)
+            String title = findRow(job.key).map(RecipeCache::getTitle).orElse(null);
+
+            String imageHash = myimageReuseCache.find(title, steps).orElseGet(() -> generate(title, steps));
+
+            //更新那筆食譜的圖片 hash
+            //圖片生成要好幾秒，這段期間那筆食譜可能被 RecipeCachePurger 刪掉了：重新讀一次，不在了就不寫回 (upsert 會把它加回來)
+            String imageUrl = myimageBlobStore.publicUrl(imageHash);
+            Optional<RecipeCache> row = findRow(job.key);
+            //L1 裡的物件可能正被其他請求讀取：複製一份再更新，L1 整個換掉
+            row.map(RecipeCache::copy).ifPresent(entry -> {
+                entry.setImageHash(imageHash);
+                entry.setResponsePayload(RecipeResponsePayload.build(entry, imageUrl));
+                myrecipeWriteBehind.enqueue(entry);
+                myrecipeL1Cache.put(job.key, entry);
+            });
+            if (row.isEmpty()) {
+                logger.warn("圖片完成時找不到食譜資料 (可能已被清除)，不寫回 key={}", job.key);
+            }
+            job.result.complete(imageUrl);
+        } catch (RuntimeException e) {
+            logger.error("背景圖片生成失敗 key={}", job.key, e);
+            fail(job, e);
+        }
+    }
+
+    //那筆食譜 (那筆資料可能還在寫入佇列裡，先查佇列)
+    private Optional<RecipeCache> findRow(String key) {
+        UUID id = RecipeKeyNormalizer.idOf(key);
+        return myrecipeL1Cache.get(key)
+                .or(() -> myrecipeWriteBehind.find(id))
+                .or(() -> myrecipeCacheRepository.findById(id));
+    }
+
+    //工作失敗：jobId 還可以查到 FAILED，但 key 不再對應到它 (否則 job-retention 內每次命中都拿到同一個失敗的工作)
+    private void fail(ImageJob job, Throwable error) {
+        myjobIdsByKey.asMap().remove(job.key, job.jobId);
+        job.result.completeExceptionally(error);
+    }
+
+    //呼叫圖片模型，轉檔存檔後記到圖片重複使用快取
+    private String generate(String title, List<String> steps) {
+        GeneratedImage image = mygeminiImageService.generateImage(steps);
+        String imageHash = myimageRenditionService.store(image.data());
+        myimageReuseCache.put(title, steps, imageHash);
+        return imageHash;
+    }
+
+    private ImageJob findJob(String jobId) {
+        ImageJob job = myjobs.getIfPresent(jobId);
+        if (job == null) {
+            throw new ApiException("找不到圖片生成工作", HttpStatus.NOT_FOUND);
+        }
+        return job;
+    }
+
+    private void sendQuietly(SseEmitter emitter, ImageJobResponse status) {
+        try {
+            emitter.send(SseEmitter.event().name("image").data(status));
+        } catch (IOException | IllegalStateException e) {
+            //前端已經斷線，不影響背景工作
+            logger.debug("SSE 推送失敗 jobId={}", status.getJobId());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        myexecutor.shutdown();
+    }
+
+    /**
+     * 一個圖片生成工作
+     */
+    private static final class ImageJob {
+        private final String jobId;
+        private final String key;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+
+        private ImageJob(String jobId, String key) {
+            this.jobId = jobId;
+            this.key = key;
+        }
+
+        private ImageJobResponse toResponse() {
+            ImageJobResponse response = ImageJobResponse.builder().jobId(jobId).status(STATUS_PENDING).build();
+            if (result.isDone()) {
+                try {
+                    response.setImageUrl(result.join());
+                    response.setStatus(STATUS_DONE);
+                } catch (RuntimeException e) {
+                    response.setStatus(STATUS_FAILED);
+                    response.setMessage("圖片生成失敗");
+                }
+            }
+            return response;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.recipe_ai.service;
+
+import com.example.recipe_ai.cache.RecipeAccessTracker;
+import com.example.recipe_ai.cache.RecipeL1Cache;
+import com.example.recipe_ai.dto.RecipeBatchItemResult;
+import com.example.recipe_ai.dto.RecipeBatchRequest;
+import com.example.recipe_ai.dto.RecipeBatchResponse;
+import com.example.recipe_ai.dto.RecipeRequest;
+import com.example.recipe_ai.dto.RecipeResponse;
+import com.example.recipe_ai.entity.RecipeCache;
+import com.example.recipe_ai.exception.ApiException;
+import com.example.recipe_ai.key.RecipeKeyNormalizer;
+import com.example.recipe_ai.metrics.RecipeMetrics;
+import com.example.recipe_ai.repository.RecipeCacheRepository;
+import com.example.recipe_ai.repository.RecipeWriteBehindQueue;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * RecipeBatchService
+ * 批次產生食譜 (POST /api/recipe/generate/batch)：
+ * 1. 每組輸入算出 key，相同 key 只處理一次
+ * 2. 先查 L1，剩下的 key 用一次 findAllById 查資料庫
+ * 3. 快取錯失的 key 交給有上限的執行緒池平行呼叫 AI (所有批次請求共用同一個上限與排隊上限)
+ * 4. 每一組生成完就排入寫入佇列 (RecipeWriteBehindQueue 在背景用 JDBC batch upsert)，逾時的組別也不會遺失已生成的資料
+ * 5. 依輸入順序回傳每一組的結果或錯誤
+ */
+@Service
+public class RecipeBatchService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecipeBatchService.class);
+
+    private final RecipeService myrecipeService;
+    private final RecipeCacheRepository myrecipeCacheRepository;
+    private final RecipeWriteBehindQueue myrecipeWriteBehind;
+    private final RecipeL1Cache myrecipeL1Cache;
+    private final RecipeAccessTracker myaccessTracker;
+    private final RecipeMetrics myrecipeMetrics;
+    // 快取錯失時平行呼叫 AI 的執行緒池
+    private final ThreadPoolExecutor myexecutor;
+    // 一次批次最多幾組
+    private final int maxItems;
+    // 每一組 AI 生成最多多久 (從開始執行算起，排隊的時間不算)
+    private final Duration itemTimeout;
+    // 整個批次最多等多久 (從送出算起，排隊的時間也算)
+    private final Duration batchTimeout;
+
+    public RecipeBatchService(RecipeService recipeService, RecipeCacheRepository recipeCacheRepository,
+                              RecipeWriteBehindQueue recipeWriteBehind,
+                              RecipeL1Cache recipeL1Cache, RecipeAccessTracker accessTracker, RecipeMetrics recipeMetrics,
+                              @Value("${recipe.batch.parallelism:4}") int parallelism,
+                              @Value("${recipe.batch.max-items:500}") int maxItems,
+                              @Value("${recipe.batch.item-timeout:3m}") Duration itemTimeout,
+                              @Value("${recipe.batch.timeout:5m}") Duration batchTimeout,
+                              @Value("${recipe.batch.queue-capacity:500}") int queueCapacity,
+                              @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.myrecipeService = recipeService;
+        this.myrecipeCacheRepository = recipeCacheRepository;
+        this.myrecipeWriteBehind = recipeWriteBehind;
+        this.myrecipeL1Cache = recipeL1Cache;
+        this.myaccessTracker = accessTracker;
+        this.myrecipeMetrics = recipeMetrics;
+        this.maxItems = maxItems;
+        this.itemTimeout = itemTimeout;
+        this.batchTimeout = batchTimeout;
+        //虛擬執行緒模式：平行數量一樣由 parallelism 限制 (所有批次共用)
+        //排隊上限預設與 max-items 相同：單一批次一定排得進去，同時太多批次時超出的組別回 503
+        this.myexecutor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                virtualThreads
+                        ? Thread.ofVirtual().name("recipe-batch-", 1).factory()
+                        : Thread.ofPlatform().name("recipe-batch-", 1).daemon().factory());
+    }
+
+    public RecipeBatchResponse generateBatch(RecipeBatchRequest batchRequest) {
+        List<RecipeRequest> items = batchRequest == null ? null : batchRequest.getItems();
+        if (items == null || items.isEmpty()) {
+            throw new ApiException("items 不可為空", HttpStatus.BAD_REQUEST);
+        }
+        if (items.size() > maxItems) {
+            throw new ApiException("一次最多 " + maxItems + " 組", HttpStatus.BAD_REQUEST);
+        }
+        RecipeBatchItemResult[] results = new RecipeBatchItemResult[items.size()];
+
+        //1. 算出每組的 key，相同 key 合併 (記住每個 key 對應到哪些輸入位置)
+        Map<String, RecipeRequest> requestsByKey = new LinkedHashMap<>();
+        Map<String, List<Integer>> indexesByKey = new HashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            RecipeRequest item = items.get(i);
+            if (item == null || item.getIngredients() == null || item.getIngredients().isBlank()) {
+                results[i] = error(i, null, new ApiException("ingredients 不可為空", HttpStatus.BAD_REQUEST));
+                continue;
+            }
+            String key = myrecipeService.generate_key(item);
+            requestsByKey.putIfAbsent(key, item);
+            indexesByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+        }
+
+        //2. 先查 L1 與還沒寫入資料庫的資料，剩下的 key 一次 findAllById
+        Map<String, RecipeCache> found = new HashMap<>();
+        List<UUID> dbIds = new ArrayList<>();
+        for (String key : requestsByKey.keySet()) {
+            UUID id = RecipeKeyNormalizer.idOf(key);
+            myrecipeL1Cache.get(key).or(() -> myrecipeWriteBehind.find(id))
+                    .ifPresentOrElse(entry -> found.put(key, entry), () -> dbIds.add(id));
+        }
+        if (!dbIds.isEmpty()) {
+            for (RecipeCache entry : myrecipeCacheRepository.findAllById(dbIds)) {
+                found.put(entry.getNormalizedKey(), entry);
+                myrecipeL1Cache.put(entry.getNormalizedKey(), entry);
+            }
+        }
+        logger.info("批次 {} 組 ({} 個不同 key)：快取命中 {}，需要生成 {}",
+                items.size(), requestsByKey.size(), found.size(), requestsByKey.size() - found.size());
+
+        //3. 快取命中 → 直接轉成 RecipeResponse
+        myrecipeMetrics.cacheHits(found.size());
+        myrecipeMetrics.cacheMisses(requestsByKey.size() - found.size());
+        for (Map.Entry<String, RecipeCache> hit : found.entrySet()) {
+            myaccessTracker.record(hit.getValue().getId());
+            fill(results, indexesByKey.get(hit.getKey()), hit.getKey(), true, myrecipeService.toResponse(hit.getValue()));
+        }
+
+        //4. 快取錯失 → 平行呼叫 AI，每一組生成完直接排入寫入佇列
+        //   整個批次的期限從這裡起算：到期時還在排隊或生成中的組別回 504
+        long deadline = System.nanoTime() + batchTimeout.toNanos();
+        Map<String, CompletableFuture<RecipeResponse>> generations = new LinkedHashMap<>();
+        for (Map.Entry<String, RecipeRequest> miss : requestsByKey.entrySet()) {
+            if (found.containsKey(miss.getKey())) {
+                continue;
+            }
+            try {
+                generations.put(miss.getKey(), submit(miss.getKey(), miss.getValue(), deadline));
+            } catch (RejectedExecutionException e) {
+                generations.put(miss.getKey(), CompletableFuture.failedFuture(
+                        new ApiException("批次生成排隊已滿，請稍後再試", HttpStatus.SERVICE_UNAVAILABLE)));
+            }
+        }
+        for (Map.Entry<String, CompletableFuture<RecipeResponse>> generation : generations.entrySet()) {
+            String key = generation.getKey();
+            List<Integer> indexes = indexesByKey.get(key);
+            try {
+                fill(results, indexes, key, false, generation.getValue().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fillError(results, indexes, key, new ApiException("食譜生成被中斷", HttpStatus.SERVICE_UNAVAILABLE));
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof ApiException)) {
+                    logger.warn("批次生成失敗 key={}", key, e.getCause());
+                }
+                fillError(results, indexes, key, e.getCause());
+            }
+        }
+        return RecipeBatchResponse.builder().results(Arrays.asList(results)).build();
+    }
+
+    /**
+     * 一組的生成：開始執行時才起算 itemTimeout，逾時就中斷那條執行緒並回 504
+     * 同一批次的其他組別不受影響 (各自計時)
+     * 另外不管有沒有開始執行，到了批次的期限 (deadline) 也回 504：排隊中的組別取消後不會再執行
+     */
+    private CompletableFuture<RecipeResponse> submit(String key, RecipeRequest request, long deadline) {
+        CompletableFuture<RecipeResponse> result = new CompletableFuture<>();
+        result.orTimeout(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        Future<?> task = myexecutor.submit(() -> {
+            result.orTimeout(itemTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            try {
+                result.complete(myrecipeService.generateDeferred(request, key, myrecipeWriteBehind::enqueue));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result.exceptionallyCompose(error -> {
+            if (error instanceof TimeoutException) {
+                task.cancel(true);
+                return CompletableFuture.failedFuture(new ApiException("食譜生成逾時", HttpStatus.GATEWAY_TIMEOUT));
+            }
+            return CompletableFuture.failedFuture(error);
+        });
+    }
+
+    private static void fill(RecipeBatchItemResult[] results, List<Integer> indexes, String key, boolean cached,
+                             RecipeResponse recipe) {
+        for (int index : indexes) {
+            results[index] = RecipeBatchItemResult.builder()
+                    .index(index).key(key).cached(cached).recipe(recipe)
+                    .build();
+        }
+    }
+
+    private static void fillError(RecipeBatchItemResult[] results, List<Integer> indexes, String key, Throwable error) {
+        for (int index : indexes) {
+            results[index] = error(index, key, error);
+        }
+    }
+
+    private static RecipeBatchItemResult error(int index, String key, Throwable error) {
+        //ApiException 保留原本的訊息與狀態碼，其他例外一律 500
+        HttpStatus status = error instanceof ApiException apiException ? apiException.getStatus() : HttpStatus.INTERNAL_SERVER_ERROR;
+        String message = error instanceof ApiException ? error.getMessage() : "AI 服務處理失敗";
+        return RecipeBatchItemResult.builder()
+                .index(index).key(key).message(message).status(status.value())
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        myexecutor.shutdown();
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.recipe_ai.service;
+
+import com.example.recipe_ai.dto.RecipeResponse;
+import com.example.recipe_ai.entity.RecipeCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * RecipeResponsePayload
+ * 快取命中時直接回傳的「已經序列化好」的回應內容：RecipeResponse 的 JSON，再用 gzip 壓縮。
+ * 食譜生成 (或圖片完成) 時寫一次，存在 RecipeCache.responsePayload；
+ * 之後命中時 controller 直接把這些 bytes 送出，不用再組 DTO、不用再跑 Jackson。
+ * 只有圖片已經好的食譜才會有 payload (圖片還在生成時，回應要帶 imageJobId，每次都不一樣)。
+ * GET /api/recipe/{id} 用 payload 的 SHA-256 當作 ETag。
+ */
+public final class RecipeResponsePayload {
+
+    private static final ObjectWriter WRITER = new ObjectMapper().writerFor(RecipeResponse.class);
+
+    private RecipeResponsePayload() {
+    }
+
+    /**
+     * 資料庫的一筆食譜 + 圖片網址 → gzip 壓縮的 JSON
+     */
+    public static byte[] build(RecipeCache entry, String imageUrl) {
+        RecipeResponse recipeResponse = RecipeResponse.builder()
+                .title(entry.getTitle())
+                .ingredients(entry.getIngredients())
+                .steps(entry.getSteps())
+                .imageUrl(imageUrl)
+                .build();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            WRITER.writeValue(gzip, recipeResponse);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 回應內容的 ETag (不含引號)：payload 的 SHA-256 前 128 bits (base64url)
+     * 同一個 RecipeCache 物件只算一次 (L1 快取的是同一個物件)
+     */
+    public static String etag(RecipeCache entry) {
+        String etag = entry.getPayloadEtag();
+        if (etag == null) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(entry.getResponsePayload());
+                etag = Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 16));
+            } catch (NoSuchAlgorithmException e) {
+                //每個 JVM 都一定有 SHA-256
+                throw new IllegalStateException(e);
+            }
+            entry.setPayloadEtag(etag);
+        }
+        return etag;
+    }
+
+    /**
+     * If-None-Match 是否包含這個 ETag (弱比較：忽略 W/；* 表示任何內容都符合)
+     * @param etag 含引號的 ETag
+     */
+    public static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 前端不支援 gzip 時，解壓縮成原本的 JSON
+     */
+    public static InputStream uncompressed(byte[] payload) throws IOException {
+        return new GZIPInputStream(new ByteArrayInputStream(payload));
+    }
+
+    /**
+     * Accept-Encoding 是否接受 gzip (gzip;q=0 表示不接受)
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.toLowerCase(Locale.ROOT).split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (name.equals("gzip") || name.equals("*")) {
+                return parts.length < 2 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+}
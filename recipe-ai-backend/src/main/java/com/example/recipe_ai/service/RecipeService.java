@@ -4,26 +4,54 @@ import com.example.recipe_ai.dto.RecipeRequest;
 import com.example.recipe_ai.dto.RecipeResponse;
 //呼叫SPRING AI
 import com.example.recipe_ai.exception.ApiException;
+import org.springframework.ai.chat.metadata.Usage;
 import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.google.genai.GoogleGenAiChatOptions;
 //使用@Service
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 //Jackson 相關類別
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.core.JsonProcessingException;
+//監控指標
+import io.micrometer.core.instrument.Timer;
 //輸入LOGGER
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 //資料庫相關
+import com.example.recipe_ai.cache.InFlightRegistry;
+import com.example.recipe_ai.cache.RecipeAccessTracker;
+import com.example.recipe_ai.cache.RecipeImageReuseCache;
+import com.example.recipe_ai.cache.RecipeL1Cache;
+import com.example.recipe_ai.cache.RecipeSimilarityIndex;
 import com.example.recipe_ai.entity.RecipeCache;
+import com.example.recipe_ai.key.RecipeKeyNormalizer;
+import com.example.recipe_ai.limit.AdaptiveConcurrencyLimiter;
+import com.example.recipe_ai.limit.Cancellation;
+import com.example.recipe_ai.limit.CircuitOpenException;
+import com.example.recipe_ai.limit.LimitExceededException;
+import com.example.recipe_ai.limit.ResilientCaller;
+import com.example.recipe_ai.metrics.RecipeMetrics;
 import com.example.recipe_ai.repository.RecipeCacheRepository;
+import com.example.recipe_ai.repository.RecipeWriteBehindQueue;
+//圖片儲存
+import com.example.recipe_ai.storage.ImageBlobStore;
+import com.example.recipe_ai.storage.ImageRenditionService;
+import com.example.recipe_ai.storage.LegacyImageMigrator;
 
-import java.util.Arrays;
+import java.time.Duration;
 import java.util.Collections;
+import java.util.Locale;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.UUID;
+import java.util.function.Consumer;
 /**
  * RecipeService
  * 核心邏輯：呼叫 Spring AI 的 ChatModel 產生食譜文字，並呼叫 GeminiImageService 產生圖片 Data
@@ -33,26 +61,124 @@ public class RecipeService {
 
     //宣告LOGGER
     private static final Logger logger=LoggerFactory.getLogger(RecipeService.class);
+
+    /**
+     * 要求 AI 輸出 JSON 的方式
+     * PROMPT：在 prompt 裡用完整的說明與 JSON 範本要求格式，回覆可能夾帶 ```json 標記
+     * STRUCTURED：用 chat options 指定回覆的 MIME type (application/json，模型只會輸出 JSON)，prompt 只留精簡的欄位格式
+     */
+    public enum OutputMode { PROMPT, STRUCTURED }
+
+    //預先建好的 JSON → RecipeResponse 讀取器 (執行緒安全，不用每次建立)；多出來的欄位忽略，不因此整份作廢
+    private static final ObjectReader RECIPE_READER = new ObjectMapper()
+            .readerFor(RecipeResponse.class)
+            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    //STRUCTURED 模式的 chat options (其他設定沿用 spring.ai.google.genai.chat.options.*)
+    private static final GoogleGenAiChatOptions STRUCTURED_OPTIONS = GoogleGenAiChatOptions.builder()
+            .responseMimeType("application/json")
+            .build();
     // 宣告ChatModel型態的變數mychatModel，用來跟 AI 模型互動（用於生成食譜文字/JSON）
     private final ChatModel mychatModel;
     // 宣告GeminiImageService型態的變數mygeminiImageService，用來呼叫GeminiImageService中的方法
     private final GeminiImageService mygeminiImageService;
-    // 宣告ObjectMapper型態變數mapper，負責把json轉換成java，或java轉換成json
-    private final ObjectMapper mapper = new ObjectMapper();
     //宣告recipeCacheRepository，來跟資料庫互動
     private final RecipeCacheRepository myrecipeCacheRepository;
+    //宣告recipeWriteBehind，新資料先排入佇列，由背景執行緒批次寫入資料庫
+    private final RecipeWriteBehindQueue myrecipeWriteBehind;
+    //宣告recipeL1Cache，資料庫前面的記憶體快取
+    private final RecipeL1Cache myrecipeL1Cache;
+    //宣告inFlightRegistry，同一個key同時只跑一次AI生成
+    private final InFlightRegistry myinFlightRegistry;
+    //宣告accessTracker，記錄每筆快取的命中次數與最後讀取時間 (在記憶體累加，定期寫回)
+    private final RecipeAccessTracker myaccessTracker;
+    //宣告imageBlobStore，圖片以 SHA-256 存在檔案系統，資料庫只存 hash
+    private final ImageBlobStore myimageBlobStore;
+    //宣告imageRenditionService，圖片轉檔 (JPEG) 與產生縮圖
+    private final ImageRenditionService myimageRenditionService;
+    //宣告imageReuseCache，同名料理 (或同樣做法) 已經有圖片時直接沿用，不呼叫圖片模型
+    private final RecipeImageReuseCache myimageReuseCache;
+    //宣告legacyImageMigrator，舊資料(base64)讀到時順便遷移
+    private final LegacyImageMigrator mylegacyImageMigrator;
+    //宣告imageJobService，非同步模式時圖片在背景生成
+    private final ImageJobService myimageJobService;
+    //請求沒有指定 asyncImage 時，是否預設使用非同步圖片生成
+    private final boolean asyncImageDefault;
+    //還沒有圖片 (背景圖片工作進行中、或圖片生成失敗) 的食譜在 L1 的存活時間，比預設短
+    private final Duration pendingImageTtl;
+    //宣告similarityIndex，完全相同的key沒命中時，找食材夠接近的快取食譜
+    private final RecipeSimilarityIndex mysimilarityIndex;
+    //宣告recipeKeyNormalizer，產生快取key (同義詞、份量單位都會正規化)
+    private final RecipeKeyNormalizer myrecipeKeyNormalizer;
+    //宣告recipeMetrics，記錄命中率與各階段耗時
+    private final RecipeMetrics myrecipeMetrics;
+    //宣告textGenerationLimiter，限制同時呼叫 ChatModel 的數量
+    private final AdaptiveConcurrencyLimiter mytextGenerationLimiter;
+    //宣告chatCaller，呼叫 ChatModel 時的重試、對沖與熔斷器
+    private final ResilientCaller mychatCaller;
+    //AI 無法使用時，最接近的快取食譜至少要多相似
+    private final double fallbackMinScore;
+    //要求 AI 輸出 JSON 的方式 (prompt / structured)
+    private final OutputMode outputMode;
 
     // 建構子注入:Spring 自動把ChatModel、 GeminiImageService 物件（Bean）們當作參數傳進來，讓我賦予變數值。
-    public RecipeService(ChatModel chatModel, GeminiImageService geminiImageService,RecipeCacheRepository recipeCacheRepository) {
+    public RecipeService(ChatModel chatModel, GeminiImageService geminiImageService,RecipeCacheRepository recipeCacheRepository,
+                         RecipeWriteBehindQueue recipeWriteBehind,
+                         RecipeL1Cache recipeL1Cache, InFlightRegistry inFlightRegistry,
+                         RecipeAccessTracker accessTracker,
+                         ImageBlobStore imageBlobStore, ImageRenditionService imageRenditionService,
+                         RecipeImageReuseCache imageReuseCache, LegacyImageMigrator legacyImageMigrator,
+                         ImageJobService imageJobService, RecipeSimilarityIndex similarityIndex,
+                         RecipeKeyNormalizer recipeKeyNormalizer, RecipeMetrics recipeMetrics,
+                         @Qualifier("textGenerationLimiter") AdaptiveConcurrencyLimiter textGenerationLimiter,
+                         @Qualifier("chatCaller") ResilientCaller chatCaller,
+                         @Value("${recipe.resilience.fallback-min-score:0.2}") double fallbackMinScore,
+                         @Value("${recipe.image.async-default:false}") boolean asyncImageDefault,
+                         @Value("${recipe.cache.l1.pending-image-ttl:5m}") Duration pendingImageTtl,
+                         @Value("${recipe.chat.output-mode:prompt}") String outputMode) {
         this.mychatModel = chatModel;
         this.mygeminiImageService = geminiImageService;
         this.myrecipeCacheRepository=recipeCacheRepository;
+        this.myrecipeWriteBehind=recipeWriteBehind;
+        this.myrecipeL1Cache=recipeL1Cache;
+        this.myinFlightRegistry=inFlightRegistry;
+        this.myaccessTracker=accessTracker;
+        this.myimageBlobStore=imageBlobStore;
+        this.myimageRenditionService=imageRenditionService;
+        this.myimageReuseCache=imageReuseCache;
+        this.mylegacyImageMigrator=legacyImageMigrator;
+        this.myimageJobService=imageJobService;
+        this.asyncImageDefault=asyncImageDefault;
+        this.pendingImageTtl=pendingImageTtl;
+        this.mysimilarityIndex=similarityIndex;
+        this.myrecipeKeyNormalizer=recipeKeyNormalizer;
+        this.myrecipeMetrics=recipeMetrics;
+        this.mytextGenerationLimiter=textGenerationLimiter;
+        this.mychatCaller=chatCaller;
+        this.fallbackMinScore=fallbackMinScore;
+        this.outputMode=OutputMode.valueOf(outputMode.trim().toUpperCase(Locale.ROOT));
     }
 
     /**
-     * 建立 Prompt，告訴 AI 要怎麼輸出 JSON 食譜格式
+     * 建立 Prompt，告訴 AI 要怎麼輸出 JSON 食譜格式 (依 recipe.chat.output-mode)
      */
-    private Prompt buildPrompt(RecipeRequest request) {
+    Prompt buildPrompt(RecipeRequest request) {
+        return buildPrompt(request, outputMode);
+    }
+
+    static Prompt buildPrompt(RecipeRequest request, OutputMode mode) {
+        if (mode == OutputMode.STRUCTURED) {
+            //格式由 responseMimeType 保證，prompt 只描述內容與欄位 (imageUrl 另外生成，不用模型輸出)
+            String promptText = String.format("""
+                    依食材與料理需求寫一份詳細的食譜：食材列出名稱與數量，步驟寫出動作、時間、火候與器具，讓初學者能照著完成。
+                    食材：%s
+                    料理需求：%s
+                    JSON 格式：{"title":"料理名稱","ingredients":["食材 數量"],"steps":["步驟"]}
+                    """,
+                    request.getIngredients(),
+                    request.getStyleOrDiet()
+            );
+            return new Prompt(new UserMessage(promptText), STRUCTURED_OPTIONS);
+        }
         //宣告字串變數promptText，存放給ai的指令
         String promptText = String.format("""
                 請根據以下輸入，回傳**純 JSON 格式**的食譜，**不要加任何說明文字或 Markdown 格式**（例如 ```json ... ```）。
@@ -82,139 +208,427 @@ public class RecipeService {
      * 核心邏輯：根據輸入，檢查是否存在於資料庫，有--直接回傳，沒有--呼叫 AI 模型生成食譜，接著呼叫 Gemini 生成圖片，存入資料庫
      */
     public RecipeResponse generateRecipe(RecipeRequest request) {
-        //----判斷需求是否存在資料庫
+        return generateRecipe(request, lookup(request));
+    }
+
+    /**
+     * 同上，但使用呼叫端已經查過的結果 (lookup)，不再查一次快取/資料庫
+     */
+    public RecipeResponse generateRecipe(RecipeRequest request, CacheLookup lookup) {
+        //3. 資料庫有這筆key
+        if(lookup.cached()!=null){
+            logger.debug("快取命中 key={}", lookup.key());
+            return toResponse(lookup.cached());
+        }
+
+        logger.debug("快取錯失 key={}，準備呼叫 AI", lookup.key());
+
+        //4. 同一個key同時只讓一個請求呼叫AI，其他請求等同一個結果
+        return myinFlightRegistry.execute(lookup.key(), () -> generateAndSave(request, lookup.key(), this::persist));
+    }
+
+    /**
+     * 一次請求的快取查詢結果：key 與命中的那筆資料 (錯失時 cached 為 null)
+     */
+    public record CacheLookup(String key, RecipeCache cached) {
+
+        //有預先序列化好的回應內容 (圖片還在生成、舊資料沒有)
+        public boolean hasPayload() {
+            return cached != null && cached.getResponsePayload() != null;
+        }
+    }
+
+    /**
+     * 判斷需求是否存在資料庫：產生此需求的key，查快取/資料庫，並記錄命中/錯失
+     * 呼叫端依結果決定直接送出 payload，或把結果交給 generateRecipe(request, lookup)
+     */
+    public CacheLookup lookup(RecipeRequest request) {
         //1.產生此需求的key
         String key= generate_key(request);
-        System.out.println("log:正在查詢key:"+key);
+        logger.debug("正在查詢 key={}", key);
+        //2.檢查key是否在快取/資料庫
+        return new CacheLookup(key, lookup(key).orElse(null));
+    }
 
-        //2.檢查key是否在資料庫，找到回查那筆資料，找不對回傳null，用Optional<RecipeCache>接收
-        //有資料 → Optional 內部就存了一個 RecipeCache 物件
-        //沒資料 → Optional 是空的
-        Optional<RecipeCache> search_result=myrecipeCacheRepository.findById(key);
-        //3. Optional非空，資料庫有這筆key
-        if(search_result.isPresent()){
-            System.out.println("log:資料庫找到食譜資料");//資料庫資料，放入old_data，之後做存取
-            RecipeCache old_data=search_result.get();
+    /**
+     * 批次生成用：生成一份食譜，但不馬上存入資料庫，而是交給 persister (由呼叫端最後一起排入寫入佇列)
+     * 圖片一律同步生成 (背景圖片工作會去更新資料庫那筆資料，批次存檔前那筆資料還不存在)
+     */
+    RecipeResponse generateDeferred(RecipeRequest request, String key, Consumer<RecipeCache> persister) {
+        RecipeRequest syncRequest = RecipeRequest.builder()
+                .ingredients(request.getIngredients())
+                .styleOrDiet(request.getStyleOrDiet())
+                .asyncImage(false)
+                .build();
+        return myinFlightRegistry.execute(key, () -> generateAndSave(syncRequest, key, persister));
+    }
 
-            //4.將old_data放入recipeResponse回傳
-            RecipeResponse recipeResponse = new RecipeResponse();
+    /**
+     * 一次請求的快取查詢：findCached，並記錄命中/錯失 (recipe.cache.requests)
+     */
+    Optional<RecipeCache> lookup(String key) {
+        Optional<RecipeCache> search_result=findCached(key);
+        if(search_result.isPresent()){
+            myrecipeMetrics.cacheHit();
+        }else{
+            myrecipeMetrics.cacheMiss();
+        }
+        return search_result;
+    }
 
-            //先處理資料庫跟dto都是string的部分
-            recipeResponse.setTitle(old_data.getTitle());
-            recipeResponse.setImageUrl(old_data.getImageUrl());
+    /**
+     * 先查記憶體快取(L1)，L1沒有再查還在寫入佇列裡的資料，都沒有才去資料庫查，找到回查那筆資料，找不對回傳null，用Optional<RecipeCache>接收
+     * 有資料 → Optional 內部就存了一個 RecipeCache 物件
+     * 沒資料 → Optional 是空的
+     */
+    Optional<RecipeCache> findCached(String key) {
+        Optional<RecipeCache> search_result=myrecipeL1Cache.get(key);
+        if(search_result.isEmpty()){
+            //L1 被擠掉、但還沒寫進資料庫的新資料 (不能因此重新生成)
+            search_result=myrecipeWriteBehind.find(RecipeKeyNormalizer.idOf(key));
+        }
+        if(search_result.isEmpty()){
+            Timer.Sample sample=myrecipeMetrics.startTimer();
+            boolean success=false;
+            try {
+                search_result=myrecipeCacheRepository.findById(RecipeKeyNormalizer.idOf(key));
+                success=true;
+            } finally {
+                myrecipeMetrics.stopTimer(sample, RecipeMetrics.DB_LOOKUP, success);
+            }
+            //資料庫有，放進L1，下次同樣的key就不用再查資料庫
+            search_result.ifPresent(found -> myrecipeL1Cache.put(key, found));
+        }
+        search_result.ifPresent(found -> myaccessTracker.record(found.getId()));
+        return search_result;
+    }
 
-            // DTO中 recipeResponse的 ingredients、steps必須是 list<string>，但資料庫中是string
-            // 用 Arrays.asList 和 split，來將string還原成 List<string>。資料庫中用 ||來分隔每個不同元素
+    /**
+     * 完全相同的key沒有命中時，從相似度索引找食材夠接近的快取食譜 (例如多了一樣調味料)
+     */
+    Optional<RecipeCache> findSimilar(String key) {
+        return mysimilarityIndex.findSimilar(key).flatMap(match -> {
+            logger.info("相似食譜命中 key={} → {} (score={})", key, match.key(), String.format("%.2f", match.score()));
+            Optional<RecipeCache> similar = findCached(match.key());
+            similar.ifPresent(found -> myrecipeMetrics.similarHit());
+            return similar;
+        });
+    }
 
-            // recipeResponse放入Ingredients
-            if (old_data.getIngredients() != null && !old_data.getIngredients().isEmpty()) {
-                // 使用 split("\\|\\|")因為|要用 \\來跳脫，兩個||就是 \\ | || |
-                recipeResponse.setIngredients(Arrays.asList(old_data.getIngredients().split("\\|\\|")));
-            } else {
-                recipeResponse.setIngredients(Collections.emptyList());
+    /**
+     * GET /api/recipe/{id}：依食譜資源 id (key 的 hash，也就是主鍵) 查詢，先查 L1 與寫入佇列，都沒有才去資料庫查
+     */
+    public Optional<RecipeCache> findById(UUID id) {
+        Optional<RecipeCache> search_result=myrecipeL1Cache.getById(id);
+        if(search_result.isEmpty()){
+            search_result=myrecipeWriteBehind.find(id);
+        }
+        if(search_result.isEmpty()){
+            Timer.Sample sample=myrecipeMetrics.startTimer();
+            boolean success=false;
+            try {
+                search_result=myrecipeCacheRepository.findById(id);
+                success=true;
+            } finally {
+                myrecipeMetrics.stopTimer(sample, RecipeMetrics.DB_LOOKUP, success);
             }
+            search_result.ifPresent(found -> myrecipeL1Cache.put(found.getNormalizedKey(), found));
+        }
+        search_result.ifPresent(found -> myaccessTracker.record(found.getId()));
+        return search_result;
+    }
 
-            // recipeResponse放入steps
-            if (old_data.getSteps() != null && !old_data.getSteps().isEmpty()) {
-                recipeResponse.setSteps(Arrays.asList(old_data.getSteps().split("\\|\\|")));
-            } else {
-                recipeResponse.setSteps(Collections.emptyList());
+    /**
+     * 將資料庫的 RecipeCache 轉成回傳給前端的 RecipeResponse
+     */
+    public RecipeResponse toResponse(RecipeCache cached) {
+        //圖片：舊資料(base64)先遷移到 ImageBlobStore，之後一律回傳圖片網址
+        //(遷移後是新的物件，L1 裡的那筆直接換掉，不修改其他執行緒可能正在讀的物件)
+        RecipeCache old_data = cached;
+        try {
+            Optional<RecipeCache> migrated = mylegacyImageMigrator.migrate(cached);
+            if (migrated.isPresent()) {
+                old_data = migrated.get();
+                myrecipeL1Cache.put(old_data.getNormalizedKey(), old_data);
             }
-            //回傳給前端
-            return  recipeResponse;
+        } catch (RuntimeException e) {
+            logger.warn("舊圖片遷移失敗，先回傳原本的 imageUrl key={}", cached.getNormalizedKey(), e);
+        }
+
+        //將old_data放入recipeResponse回傳
+        RecipeResponse recipeResponse = new RecipeResponse();
+        recipeResponse.setId(old_data.getId());
+
+        //先處理資料庫跟dto都是string的部分
+        recipeResponse.setTitle(old_data.getTitle());
+        if (old_data.getImageHash() != null) {
+            recipeResponse.setImageUrl(myimageBlobStore.publicUrl(old_data.getImageHash()));
+        } else {
+            recipeResponse.setImageUrl(old_data.getImageUrl());
+        }
+
+        // ingredients、steps 在資料庫是 JSON 陣列，讀出來就是 List<String>
+        recipeResponse.setIngredients(old_data.getIngredients() != null ? old_data.getIngredients() : Collections.emptyList());
+        recipeResponse.setSteps(old_data.getSteps() != null ? old_data.getSteps() : Collections.emptyList());
+
+        //舊資料還沒有預先序列化的回應內容：補上，下次命中就直接送出 bytes
+        if (old_data.getImageHash() != null && old_data.getResponsePayload() == null) {
+            backfillPayload(old_data, recipeResponse.getImageUrl());
         }
 
-        System.out.println("LOG: 快取錯失 (Miss)! 準備呼叫 AI...");
+        //圖片還沒生成好 (非同步模式)：回傳圖片工作編號，前端之後再來拿圖片
+        //找不到工作 (例如服務重啟過) 就重新送出一個
+        if (recipeResponse.getImageUrl() == null) {
+            String key = old_data.getNormalizedKey();
+            recipeResponse.setImageJobId(myimageJobService.findJobIdByKey(key)
+                    .orElseGet(() -> myimageJobService.submit(key, recipeResponse.getSteps())));
+        }
+        return recipeResponse;
+    }
+
+    private void backfillPayload(RecipeCache cached, String imageUrl) {
+        try {
+            //複製一份再補上，L1 裡的物件整個換掉
+            RecipeCache entry = cached.copy();
+            entry.setResponsePayload(RecipeResponsePayload.build(entry, imageUrl));
+            myrecipeWriteBehind.enqueue(entry);
+            myrecipeL1Cache.put(entry.getNormalizedKey(), entry);
+        } catch (RuntimeException e) {
+            logger.warn("補上回應內容失敗 key={}", cached.getNormalizedKey(), e);
+        }
+    }
+
+    /**
+     * 快取錯失時的生成流程 (由 InFlightRegistry 保證同一個key同時只會執行一次)
+     * 呼叫 AI 模型生成食譜，接著呼叫 Gemini 生成圖片，存入資料庫
+     * @param persister 負責把新資料存入資料庫 (單筆：排入寫入佇列；批次：先收集起來最後一起排入)
+     */
+    private RecipeResponse generateAndSave(RecipeRequest request, String key, Consumer<RecipeCache> persister) {
+        //前一批請求可能剛好生成完，再確認一次L1，避免重複呼叫AI
+        Optional<RecipeCache> just_saved=myrecipeL1Cache.get(key);
+        if(just_saved.isPresent()){
+            return toResponse(just_saved.get());
+        }
+        //食材夠接近的快取食譜 → 直接使用，不呼叫AI
+        Optional<RecipeCache> similar=findSimilar(key);
+        if(similar.isPresent()){
+            return toResponse(similar.get());
+        }
 
         //5. -------資料庫沒有key-----呼叫ai產生食譜
+        //   失敗會重試、太慢會送出對沖請求 (ResilientCaller)
         String aiResponse;
         try {
             // 5.1 產生prompt，並呼叫gemini的chatModel
-            Prompt prompt = buildPrompt(request);
+            Prompt prompt = buildPrompt(request, outputMode);
 
             //將gemini的回應取出，存入airesponse。  aiResponse是json格式，因為prompt指定
-            aiResponse = mychatModel.call(prompt).getResult().getOutput().getText();
+            ChatResponse chatResponse = mychatCaller.callCancellable(cancellation -> callChatModel(prompt, cancellation));
+            aiResponse = chatResponse.getResult().getOutput().getText();
 
+        } catch (LimitExceededException e) {
+            //同時生成的請求太多：直接回 429/503
+            throw e;
         } catch (Exception e) {
-            //----模型呼叫失敗---
-            logger.error("呼叫 Gemini AI 模型失敗: " + e.getMessage(), e); // 1.把錯誤印在後台日誌除錯
+            //----模型呼叫失敗 (重試後仍失敗，或熔斷器開啟中)---
+            logger.error("呼叫 Gemini AI 模型失敗: {}", e.getMessage(), e); // 1.把錯誤印在後台日誌除錯
 
-            // 2. 回傳一個更通用的錯誤訊息給前端
+            // 2. 改用食材最接近的快取食譜 (不限門檻)，總比回傳錯誤好
+            Optional<RecipeCache> closest = findClosest(key);
+            if (closest.isPresent()) {
+                return toResponse(closest.get());
+            }
+            if (e instanceof CircuitOpenException circuitOpen) {
+                throw circuitOpen;
+            }
+            // 3. 回傳一個更通用的錯誤訊息給前端
             throw new ApiException("AI 服務處理失敗，可能是API_KEY錯誤", HttpStatus.INTERNAL_SERVER_ERROR);
         }
         // 5.2 將 JSON 字串轉成 RecipeResponse 物件格式
         RecipeResponse recipeResponse;
+        Timer.Sample parseSample = myrecipeMetrics.startTimer();
         try {
-            //清理aiResponse，避免轉換錯誤
-            String cleanAiResponse = aiResponse.replace("```json", "").replace("```", "").trim();
-
-            //mapper.readValue(String content, Class<T> valueType)
-            //content：要解析的 JSON 字串、 valueType：希望生成的 Java 類別
-            recipeResponse = mapper.readValue(cleanAiResponse, RecipeResponse.class);
-            //mapper是jakson轉換器--->readvalue來說明: 誰 轉換成 和型態java物件
+            recipeResponse = parseRecipe(aiResponse, outputMode);
+            myrecipeMetrics.stopTimer(parseSample, RecipeMetrics.JSON_PARSE, true, modeTag());
 
         } catch (JsonProcessingException e) {
             // JSON 轉換失敗
-            logger.error("無法解析 AI 回傳的 JSON: " + aiResponse, e);
+            myrecipeMetrics.stopTimer(parseSample, RecipeMetrics.JSON_PARSE, false, modeTag());
+            logger.error("無法解析 AI 回傳的 JSON: {}", aiResponse, e);
             throw new ApiException("無法解析 AI 生成的食譜 JSON: " , HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
-        // 5.3. 使用食譜步驟作為圖片prompt，呼叫 Gemini 生成圖片
-        //呼叫圖片生成
-        String imageUrl = mygeminiImageService.generateImage(recipeResponse.getSteps());
+        attachImageAndSave(request, key, recipeResponse, persister);
+        return recipeResponse;
+    }
+
+    /**
+     * AI 回覆的 JSON → RecipeResponse
+     * PROMPT 模式的回覆可能夾帶 ```json 標記，先清掉；STRUCTURED 模式的回覆就是 JSON，直接解析
+     */
+    static RecipeResponse parseRecipe(String aiResponse, OutputMode mode) throws JsonProcessingException {
+        String json = mode == OutputMode.STRUCTURED
+                ? aiResponse
+                : aiResponse.replace("```json", "").replace("```", "").trim();
+        return RECIPE_READER.readValue(json);
+    }
+
+    //指標的 mode tag (prompt / structured)，比較兩種模式的 token 數與耗時
+    private String modeTag() {
+        return outputMode.name().toLowerCase(Locale.ROOT);
+    }
 
-        // 5.4. recipeResponse 中加入imageUrl
-        recipeResponse.setImageUrl(imageUrl);
+    //-----呼叫一次 ChatModel (對沖時兩個請求各自呼叫一次)-----
+    //先取得執行權 (同時呼叫 AI 的數量有上限，排隊滿了直接丟 429/503)
+    //對沖輸了被取消時馬上歸還執行權 (ChatModel 沒有中斷請求的方法，請求本身會跑完，結果丟掉)
+    private ChatResponse callChatModel(Prompt prompt, Cancellation cancellation) {
+        //對沖輸掉被取消時 ChatModel.call 沒辦法中斷，還在佔用 Gemini 的並行數：
+        //執行權留到這次呼叫真的結束才歸還，只是不拿它的延遲調整 limit (ignore)
+        AdaptiveConcurrencyLimiter.Permit permit = mytextGenerationLimiter.acquire();
+        Timer.Sample chatSample = myrecipeMetrics.startTimer();
+        try {
+            ChatResponse chatResponse = mychatModel.call(prompt);
+            myrecipeMetrics.stopTimer(chatSample, RecipeMetrics.CHAT_CALL, true, modeTag());
+            if (cancellation.isCancelled()) {
+                permit.ignore();
+            } else {
+                permit.success();
+            }
+            recordTokens(chatResponse);
+            return chatResponse;
+        } catch (RuntimeException e) {
+            myrecipeMetrics.stopTimer(chatSample, RecipeMetrics.CHAT_CALL, false, modeTag());
+            if (cancellation.isCancelled()) {
+                permit.ignore();
+            } else {
+                permit.failed(e);
+            }
+            throw e;
+        }
+    }
 
-        //5.5 儲存 進資料庫
-        System.out.println("LOG: 正在將 AI 結果存入資料庫...");
+    /**
+     * AI 無法使用時的備案：食材最接近的快取食譜 (分數達 fallback-min-score 即可)
+     */
+    Optional<RecipeCache> findClosest(String key) {
+        return mysimilarityIndex.findClosest(key, fallbackMinScore).flatMap(match -> {
+            logger.warn("AI 無法使用，改用最接近的快取食譜 key={} → {} (score={})", key, match.key(), String.format("%.2f", match.score()));
+            Optional<RecipeCache> closest = findCached(match.key());
+            closest.ifPresent(found -> myrecipeMetrics.fallbackHit());
+            return closest;
+        });
+    }
+
+    //記錄這次呼叫的 prompt/回覆 token 數 (模型有回傳 usage 時)
+    private void recordTokens(ChatResponse chatResponse) {
+        if (chatResponse.getMetadata() == null) {
+            return;
+        }
+        Usage usage = chatResponse.getMetadata().getUsage();
+        if (usage != null) {
+            myrecipeMetrics.recordTokens(modeTag(), usage.getPromptTokens(), usage.getCompletionTokens());
+        }
+    }
+
+    /**
+     * 食譜文字生成完之後：生成圖片 (或送出背景圖片工作)，並存入資料庫
+     */
+    void attachImageAndSave(RecipeRequest request, String key, RecipeResponse recipeResponse) {
+        attachImageAndSave(request, key, recipeResponse, this::persist);
+    }
+
+    private void attachImageAndSave(RecipeRequest request, String key, RecipeResponse recipeResponse,
+                                    Consumer<RecipeCache> persister) {
+        // 5.3. 同名料理 (或同樣做法) 已經有圖片：直接沿用，不呼叫圖片模型 (非同步模式也不用送出背景工作)
+        Optional<String> reused = myimageReuseCache.find(recipeResponse.getTitle(), recipeResponse.getSteps());
+        if (reused.isPresent()) {
+            logger.debug("沿用既有圖片 key={} title={}", key, recipeResponse.getTitle());
+            recipeResponse.setImageUrl(myimageBlobStore.publicUrl(reused.get()));
+            saveEntry(key, recipeResponse, reused.get(), persister);
+            return;
+        }
+
+        // 5.4. 非同步模式：食譜文字先存入資料庫並回傳，圖片交給背景執行緒，完成後再更新那筆資料
+        if (isAsyncImage(request)) {
+            saveEntry(key, recipeResponse, null, persister);
+            recipeResponse.setImageJobId(myimageJobService.submit(key, recipeResponse.getSteps()));
+            return;
+        }
+
+        // 5.5. 使用食譜步驟作為圖片prompt，呼叫 Gemini 生成圖片
+        //呼叫圖片生成，轉成 JPEG 與各尺寸縮圖後存進 ImageBlobStore，只留下 hash
+        GeneratedImage image;
+        try {
+            image = mygeminiImageService.generateImage(recipeResponse.getSteps());
+        } catch (RuntimeException e) {
+            //圖片生成失敗 (熔斷器開啟、重試後仍失敗、排隊已滿)：食譜文字已經生成好了，先不附圖片回傳
+            //之後命中這筆快取時會在背景補生成圖片 (toResponse)
+            logger.warn("圖片生成失敗，先回傳沒有圖片的食譜 key={}: {}", key, e.getMessage());
+            saveEntry(key, recipeResponse, null, persister);
+            return;
+        }
+        String imageHash = myimageRenditionService.store(image.data());
+        myimageReuseCache.put(recipeResponse.getTitle(), recipeResponse.getSteps(), imageHash);
+
+        // 5.6. recipeResponse 中加入圖片網址 (GET /api/recipe/image/{hash})
+        recipeResponse.setImageUrl(myimageBlobStore.publicUrl(imageHash));
+
+        //5.7 儲存 進資料庫
+        saveEntry(key, recipeResponse, imageHash, persister);
+    }
+
+    //請求有指定就用請求的，沒有就用伺服器預設值
+    private boolean isAsyncImage(RecipeRequest request) {
+        return request.getAsyncImage() != null ? request.getAsyncImage() : asyncImageDefault;
+    }
+
+    /**
+     * 將 AI 生成的食譜存入資料庫，同時放進L1
+     * @param imageHash 圖片hash，非同步模式時圖片還沒好，先放 null
+     */
+    private void saveEntry(String key, RecipeResponse recipeResponse, String imageHash, Consumer<RecipeCache> persister) {
+        logger.debug("正在將 AI 結果存入資料庫 key={}", key);
 
         RecipeCache new_cache_entry=new RecipeCache();
         //將recipeResponse的資料放入 new_cache_entry
 
-        new_cache_entry.setKey_id(key);                             //放入key
+        new_cache_entry.setId(RecipeKeyNormalizer.idOf(key));       //放入主鍵 (key的hash)
+        recipeResponse.setId(new_cache_entry.getId());              //回應的資源 id (Content-Location)
+        new_cache_entry.setNormalizedKey(key);                      //放入可讀的key
         new_cache_entry.setTitle(recipeResponse.getTitle());        //放入料理標題
-        new_cache_entry.setImageUrl(recipeResponse.getImageUrl());  //放入圖片
+        new_cache_entry.setImageHash(imageHash);                    //放入圖片hash
 
-        // recipeResponse 中ingredients、steps 型態為List<String>。而database只能存放list，所以要List<String>轉換成String
-        //String.join: 把一個 List多個字串元素「用指定分隔符」連起來，變成一條字串。 List<String--->String
-        new_cache_entry.setIngredients(String.join("||", recipeResponse.getIngredients()));
-        new_cache_entry.setSteps(String.join("||", recipeResponse.getSteps()));
-        //["雞胸肉 200g", "洋蔥 半顆", "橄欖油 1 湯匙"] ---->"雞胸肉 200g||洋蔥 半顆||橄欖油 1 湯匙"
+        // ingredients、steps 以 JSON 陣列存入資料庫 (StringListJsonConverter)
+        new_cache_entry.setIngredients(recipeResponse.getIngredients());
+        new_cache_entry.setSteps(recipeResponse.getSteps());
+        // 圖片已經好了：順便把要回傳的內容序列化好，之後命中就直接送出
+        if (imageHash != null) {
+            new_cache_entry.setResponsePayload(RecipeResponsePayload.build(new_cache_entry, recipeResponse.getImageUrl()));
+        }
 
-        // 存入資料庫
-        myrecipeCacheRepository.save(new_cache_entry);
-        return recipeResponse;
+        // 放進L1 (批次模式還沒寫入資料庫時，同一個key的請求也能直接命中)，再存入資料庫
+        // 還沒有圖片的只放 pendingImageTtl：過期後改查資料庫，拿到背景工作 (或命中時補生成) 補上的圖片
+        if (imageHash == null) {
+            myrecipeL1Cache.put(key, new_cache_entry, pendingImageTtl);
+        } else {
+            myrecipeL1Cache.put(key, new_cache_entry);
+        }
+        persister.accept(new_cache_entry);
+        mysimilarityIndex.add(key);
     }
 
-    //-----產生key函數-----
-    private String generate_key(RecipeRequest request){
-        //輸入資料正規化
-        String normalize_ingredients= normalizeString(request.getIngredients());
-        String normalize_style=normalizeString(request.getStyleOrDiet());
-        //正規化資料組合成key
-        String key=normalize_ingredients+"::"+normalize_style;
-        return key;
-    }
-    //正規化---1.檢查空字串 、 2.字串切割 、 3.轉小寫、 4.去除每個字串的頭尾空白、 5.按開頭排序字串陣列、 6.用|重組字串
-    // string --切割成---string [] ----處理完後---組合成 string (用|間隔不同元素)
-    private String normalizeString(String input){
-        //1. 輸入是空的，回傳空字串
-        if(input == null || input.trim().isEmpty()){
-            return  "";
-        }
-        //2. 切割字串split，因為input是"雞肉, 洋蔥"string。所以要先切割成多個字串，才可以進一步處理
-        // 遇到特殊字元，就分割成多個字串陣列(代表不同食材
-        String [] string_arr = input.split("[,，、]"); // 只用這三種符號分割
-        //清理 map(代表對每個字串轉換
-        String normalize_string=Arrays.stream(string_arr)
-                .map(String::toLowerCase)   //3.轉小寫
-                .map(String::trim)          //4.刪除每個陣列，頭尾空白
-                .sorted()                   //5.每個陣列按開頭排序
-                .collect(Collectors.joining("|"));  //把 Stream 集成最終結果，用|分隔，輸出預設string
-        return  normalize_string;
+    /**
+     * 單筆存入資料庫：排入寫入佇列，由背景執行緒批次 upsert (請求不用等資料庫)
+     * 寫入完成前 findCached 仍查得到 (L1 與寫入佇列)
+     */
+    private void persist(RecipeCache entry) {
+        myrecipeWriteBehind.enqueue(entry);
     }
 
-
-
+    //-----產生key函數-----
+    //正規化 (切割、轉小寫、去空白、同義詞與份量單位、去重複、排序) 交給 RecipeKeyNormalizer
+    //回傳可讀的正規化 key，例如 "洋蔥|雞肉::泰式"；資料表主鍵是它的 hash (RecipeKeyNormalizer.idOf)
+    String generate_key(RecipeRequest request){
+        return myrecipeKeyNormalizer.normalize(request.getIngredients(), request.getStyleOrDiet());
+    }
 }
@@ -0,0 +1,332 @@
+package com.example.recipe_ai.service;
+
+import com.example.recipe_ai.cache.InFlightRegistry;
+import com.example.recipe_ai.dto.RecipeRequest;
+import com.example.recipe_ai.dto.RecipeResponse;
+import com.example.recipe_ai.entity.RecipeCache;
+import com.example.recipe_ai.exception.ApiException;
+import com.example.recipe_ai.limit.AdaptiveConcurrencyLimiter;
+import com.example.recipe_ai.limit.CircuitBreaker;
+import com.example.recipe_ai.limit.CircuitOpenException;
+import com.example.recipe_ai.limit.ResilientCaller;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * RecipeStreamService
+ * 以 Server-Sent Events 串流食譜：AI 一邊生成，前端一邊收到。
+ * 事件順序 (快取命中時用同樣的事件重播資料庫的食譜)：
+ *   title       {"title": "..."}
+ *   ingredient  {"index": 0, "text": "..."}   (每個食材一個事件)
+ *   step        {"index": 0, "text": "..."}   (每個步驟一個事件)
+ *   image       {"imageUrl": "..."} 或 {"imageJobId": "..."} (非同步圖片模式)
+ *   done        {"key": "..."}
+ *   error       {"message": "...", "status": 500} (發生錯誤時，之後連線結束)
+ * 生成完成的食譜一樣會存入 RecipeCache。
+ * 同一個 key 同時只生成一次 (InFlightRegistry，和一般生成共用)：其他請求等 leader 的結果，再用重播的事件送出。
+ * 串流已經開始送事件就不能重試，所以這裡只和一般生成共用熔斷器 (chatCaller.breaker())：
+ * 熔斷器開啟時改用最接近的快取食譜，沒有的話回 503。
+ */
+@Service
+public class RecipeStreamService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecipeStreamService.class);
+
+    private final ChatModel mychatModel;
+    private final RecipeService myrecipeService;
+    // SSE 連線最多維持多久 (文字 + 同步圖片生成都要在這段時間內完成)
+    private final Duration streamTimeout;
+    private final AdaptiveConcurrencyLimiter mytextGenerationLimiter;
+    private final CircuitBreaker mychatBreaker;
+    private final InFlightRegistry myinFlightRegistry;
+
+    public RecipeStreamService(ChatModel chatModel, RecipeService recipeService, InFlightRegistry inFlightRegistry,
+                               @Qualifier("textGenerationLimiter") AdaptiveConcurrencyLimiter textGenerationLimiter,
+                               @Qualifier("chatCaller") ResilientCaller chatCaller,
+                               @Value("${recipe.stream.timeout:3m}") Duration streamTimeout) {
+        this.mychatModel = chatModel;
+        this.myrecipeService = recipeService;
+        this.myinFlightRegistry = inFlightRegistry;
+        this.mytextGenerationLimiter = textGenerationLimiter;
+        this.mychatBreaker = chatCaller.breaker();
+        this.streamTimeout = streamTimeout;
+    }
+
+    /**
+     * 開始串流一份食譜
+     */
+    public SseEmitter stream(RecipeRequest request) {
+        SseEmitter emitter = new SseEmitter(streamTimeout.toMillis());
+        String key = myrecipeService.generate_key(request);
+
+        //1. 快取命中 (或食材夠接近的快取食譜)：重播資料庫的食譜
+        Optional<RecipeCache> cached = myrecipeService.lookup(key).or(() -> myrecipeService.findSimilar(key));
+        if (cached.isPresent()) {
+            try {
+                replay(emitter, key, myrecipeService.toResponse(cached.get()));
+                emitter.complete();
+            } catch (IOException | RuntimeException e) {
+                fail(emitter, e);
+            }
+            return emitter;
+        }
+
+        //2. 同一個 key 已經在生成中 (串流或一般生成)：等那次的結果，再重播
+        //   結果在 leader 的執行緒上完成，送事件 (可能因前端很慢而卡住) 切到 boundedElastic
+        CompletableFuture<RecipeResponse> generation = new CompletableFuture<>();
+        Optional<CompletableFuture<RecipeResponse>> leader = myinFlightRegistry.join(key, generation);
+        if (leader.isPresent()) {
+            leader.get().whenCompleteAsync((recipeResponse, error) -> {
+                if (error != null) {
+                    fail(emitter, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                    return;
+                }
+                try {
+                    replay(emitter, key, recipeResponse);
+                    emitter.complete();
+                } catch (IOException | RuntimeException e) {
+                    fail(emitter, e);
+                }
+            }, runnable -> Schedulers.boundedElastic().schedule(runnable));
+            return emitter;
+        }
+
+        //以下自己是 leader：每一條路都要結束 generation，等待中的請求才會收到結果
+        //3. 熔斷器開啟 (AI 最近一直失敗)：改用最接近的快取食譜，沒有就回 503
+        if (!mychatBreaker.tryAcquire()) {
+            Optional<RecipeCache> closest;
+            RecipeResponse fallback;
+            try {
+                closest = myrecipeService.findClosest(key);
+                fallback = closest.map(myrecipeService::toResponse).orElse(null);
+            } catch (RuntimeException e) {
+                generation.completeExceptionally(e);
+                throw e;
+            }
+            if (fallback == null) {
+                CircuitOpenException error = new CircuitOpenException("chat");
+                generation.completeExceptionally(error);
+                throw error;
+            }
+            generation.complete(fallback);
+            try {
+                replay(emitter, key, fallback);
+                emitter.complete();
+            } catch (IOException | RuntimeException e) {
+                fail(emitter, e);
+            }
+            return emitter;
+        }
+
+        //4. 快取錯失：呼叫串流 ChatModel，解析到一個欄位就送出一個事件
+        //   結束時要同步呼叫圖片生成與資料庫 (blocking)，所以切到 boundedElastic 執行緒處理
+        //   和一般生成共用文字生成的並行上限；排隊滿了在這裡就丟 429/503 (還沒開始送事件)
+        AdaptiveConcurrencyLimiter.Permit permit;
+        try {
+            permit = mytextGenerationLimiter.acquire();
+        } catch (RuntimeException e) {
+            mychatBreaker.onIgnored();
+            generation.completeExceptionally(e);
+            throw e;
+        }
+        try {
+            subscribe(emitter, request, key, permit, generation);
+        } catch (RuntimeException e) {
+            permit.ignore();
+            mychatBreaker.onIgnored();
+            generation.completeExceptionally(e);
+            throw e;
+        }
+        return emitter;
+    }
+
+    private void subscribe(SseEmitter emitter, RecipeRequest request, String key, AdaptiveConcurrencyLimiter.Permit permit,
+                           CompletableFuture<RecipeResponse> generation) {
+        StreamingRecipeParser parser = new StreamingRecipeParser(new EmitterListener(emitter));
+        //AI 回覆無法解析時在 onNext 裡自己結束串流 (不能丟例外：LambdaSubscriber 會先取消上游，
+        //doOnCancel 就把 generation 當成「被中斷」以 503 結束，等待中的請求拿到錯的狀態)
+        //訂閱可能在 subscribe 回傳前就收到資料，用 swap：還沒放進去就 dispose 的話，放進去時會立刻取消
+        Disposable.Swap subscription = Disposables.swap();
+        AtomicBoolean parseFailed = new AtomicBoolean();
+        subscription.update(mychatModel.stream(myrecipeService.buildPrompt(request))
+                .doOnComplete(() -> {
+                    permit.success();
+                    mychatBreaker.onSuccess();
+                })
+                .doOnError(error -> {
+                    permit.failed(error);
+                    //與 ResilientCaller 相同：只有逾時、網路錯誤、408/429/5xx 算熔斷器的失敗 (API key 錯誤等 4xx 不算)
+                    if (ResilientCaller.isRetryable(error)) {
+                        mychatBreaker.onFailure();
+                    } else {
+                        mychatBreaker.onIgnored();
+                    }
+                })
+                .doOnCancel(() -> {
+                    mychatBreaker.onIgnored();
+                    generation.completeExceptionally(new ApiException("食譜生成被中斷", HttpStatus.SERVICE_UNAVAILABLE));
+                })
+                .doFinally(signal -> permit.ignore())
+                .publishOn(Schedulers.boundedElastic())
+                .subscribe(
+                        chatResponse -> {
+                            if (parseFailed.get()) {
+                                return;
+                            }
+                            try {
+                                parser.feed(textOf(chatResponse));
+                            } catch (IOException e) {
+                                //1. 先以解析錯誤結束 generation 與 SSE，2. 再取消上游 (doOnCancel 的 503 已經不會覆蓋結果)
+                                parseFailed.set(true);
+                                logger.error("無法解析 AI 串流回傳的 JSON key={}", key, e);
+                                ApiException parseError = new ApiException("無法解析 AI 生成的食譜 JSON", HttpStatus.INTERNAL_SERVER_ERROR, e);
+                                generation.completeExceptionally(parseError);
+                                fail(emitter, parseError);
+                                subscription.dispose();
+                            }
+                        },
+                        error -> {
+                            logger.error("串流呼叫 Gemini AI 模型失敗 key={}", key, error);
+                            generation.completeExceptionally(error);
+                            fail(emitter, error);
+                        },
+                        () -> complete(emitter, request, key, parser, generation)));
+    }
+
+    //-----AI 回覆結束：補上圖片、存入資料庫、送出 image 與 done 事件-----
+    private void complete(SseEmitter emitter, RecipeRequest request, String key, StreamingRecipeParser parser,
+                          CompletableFuture<RecipeResponse> generation) {
+        RecipeResponse recipeResponse;
+        try {
+            recipeResponse = parser.finish();
+            myrecipeService.attachImageAndSave(request, key, recipeResponse);
+        } catch (IOException e) {
+            logger.error("無法解析 AI 串流回傳的 JSON key={}", key, e);
+            ApiException error = new ApiException("無法解析 AI 生成的食譜 JSON", HttpStatus.INTERNAL_SERVER_ERROR);
+            generation.completeExceptionally(error);
+            fail(emitter, error);
+            return;
+        } catch (RuntimeException e) {
+            generation.completeExceptionally(e);
+            fail(emitter, e);
+            return;
+        }
+        //已經存好了：等待中的請求可以重播
+        generation.complete(recipeResponse);
+        try {
+            sendImage(emitter, recipeResponse);
+            emitter.send(SseEmitter.event().name("done").data(Map.of("key", key)));
+            emitter.complete();
+        } catch (IOException | RuntimeException e) {
+            fail(emitter, e);
+        }
+    }
+
+    //-----快取命中：用同樣的事件格式送出整份食譜-----
+    private void replay(SseEmitter emitter, String key, RecipeResponse recipeResponse) throws IOException {
+        emitter.send(SseEmitter.event().name("title").data(Map.of("title", Objects.requireNonNullElse(recipeResponse.getTitle(), ""))));
+        List<String> ingredients = recipeResponse.getIngredients();
+        for (int i = 0; i < ingredients.size(); i++) {
+            emitter.send(SseEmitter.event().name("ingredient").data(indexed(i, ingredients.get(i))));
+        }
+        List<String> steps = recipeResponse.getSteps();
+        for (int i = 0; i < steps.size(); i++) {
+            emitter.send(SseEmitter.event().name("step").data(indexed(i, steps.get(i))));
+        }
+        sendImage(emitter, recipeResponse);
+        emitter.send(SseEmitter.event().name("done").data(Map.of("key", key)));
+    }
+
+    private void sendImage(SseEmitter emitter, RecipeResponse recipeResponse) throws IOException {
+        Map<String, Object> image = new LinkedHashMap<>();
+        if (recipeResponse.getImageUrl() != null) {
+            image.put("imageUrl", recipeResponse.getImageUrl());
+        }
+        if (recipeResponse.getImageJobId() != null) {
+            image.put("imageJobId", recipeResponse.getImageJobId());
+        }
+        emitter.send(SseEmitter.event().name("image").data(image));
+    }
+
+    private void fail(SseEmitter emitter, Throwable error) {
+        HttpStatus status = error instanceof ApiException apiException ? apiException.getStatus() : HttpStatus.INTERNAL_SERVER_ERROR;
+        String message = error instanceof ApiException ? error.getMessage() : "AI 服務處理失敗";
+        try {
+            emitter.send(SseEmitter.event().name("error").data(Map.of("message", message, "status", status.value())));
+            emitter.complete();
+        } catch (IOException | IllegalStateException e) {
+            //前端已經斷線
+            emitter.completeWithError(error);
+        }
+    }
+
+    private static Map<String, Object> indexed(int index, String text) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("index", index);
+        data.put("text", text);
+        return data;
+    }
+
+    private static String textOf(ChatResponse chatResponse) {
+        if (chatResponse == null || chatResponse.getResult() == null || chatResponse.getResult().getOutput() == null) {
+            return null;
+        }
+        return chatResponse.getResult().getOutput().getText();
+    }
+
+    /**
+     * 解析到欄位就送出對應的 SSE 事件
+     */
+    private static final class EmitterListener implements StreamingRecipeParser.Listener {
+        private final SseEmitter emitter;
+
+        private EmitterListener(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void onTitle(String title) {
+            send("title", Map.of("title", title));
+        }
+
+        @Override
+        public void onIngredient(int index, String ingredient) {
+            send("ingredient", indexed(index, ingredient));
+        }
+
+        @Override
+        public void onStep(int index, String step) {
+            send("step", indexed(index, step));
+        }
+
+        private void send(String name, Object data) {
+            try {
+                emitter.send(SseEmitter.event().name(name).data(data));
+            } catch (IOException | IllegalStateException e) {
+                //前端斷線也讓 AI 繼續生成完，結果一樣會存入資料庫
+                logger.debug("SSE 推送失敗 event={}", name);
+            }
+        }
+    }
+}
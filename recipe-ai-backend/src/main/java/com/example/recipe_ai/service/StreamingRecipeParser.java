@@ -0,0 +1,129 @@
+package com.example.recipe_ai.service;
+
+import com.example.recipe_ai.dto.RecipeResponse;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * StreamingRecipeParser
+ * 一邊接收 AI 串流回來的文字片段，一邊解析食譜 JSON (Jackson non-blocking parser)。
+ * 每解析出一個 title / ingredients 元素 / steps 元素，就馬上通知 Listener，不用等整段回覆結束。
+ * AI 有時會在 JSON 前後加上 ```json ``` 標記，這裡只從第一個 '{' 開始解析，根物件結束後的內容忽略。
+ */
+class StreamingRecipeParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * 解析到每個欄位時的通知
+     */
+    interface Listener {
+        void onTitle(String title);
+
+        void onIngredient(int index, String ingredient);
+
+        void onStep(int index, String step);
+    }
+
+    private final Listener listener;
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+    // 組合出來的完整食譜
+    private String title;
+    private final List<String> ingredients = new ArrayList<>();
+    private final List<String> steps = new ArrayList<>();
+    private boolean started;    //是否已經遇到第一個 '{'
+    private boolean finished;   //根物件是否已經結束
+
+    StreamingRecipeParser(Listener listener) {
+        this.listener = listener;
+        try {
+            this.parser = JSON_FACTORY.createNonBlockingByteArrayParser();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+    }
+
+    /**
+     * 餵入一段 AI 回覆的文字
+     */
+    void feed(String chunk) throws IOException {
+        if (finished || chunk == null || chunk.isEmpty()) {
+            return;
+        }
+        //1. 還沒遇到 '{' 之前的文字 (例如 ```json) 全部跳過
+        if (!started) {
+            int start = chunk.indexOf('{');
+            if (start < 0) {
+                return;
+            }
+            started = true;
+            chunk = chunk.substring(start);
+        }
+        byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+        feeder.feedInput(bytes, 0, bytes.length);
+        drain();
+    }
+
+    /**
+     * AI 回覆結束，回傳組合好的完整食譜
+     * @throws IOException JSON 不完整或格式錯誤
+     */
+    RecipeResponse finish() throws IOException {
+        if (!finished) {
+            feeder.endOfInput();
+            drain();
+        }
+        if (!finished) {
+            throw new IOException("AI 回傳的 JSON 不完整");
+        }
+        RecipeResponse recipeResponse = new RecipeResponse();
+        recipeResponse.setTitle(title);
+        recipeResponse.setIngredients(ingredients);
+        recipeResponse.setSteps(steps);
+        return recipeResponse;
+    }
+
+    //-----讀取目前可以解析的所有 token-----
+    private void drain() throws IOException {
+        JsonToken token;
+        while (!finished && (token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            if (token == JsonToken.END_OBJECT && parser.getParsingContext().inRoot()) {
+                finished = true;
+            } else if (token == JsonToken.VALUE_STRING) {
+                onString(parser.getParsingContext(), parser.getText());
+            }
+        }
+    }
+
+    private void onString(JsonStreamContext context, String value) {
+        //{"title": "..."}  → 根物件裡的欄位
+        if (context.inObject() && context.getParent().inRoot()) {
+            if ("title".equals(context.getCurrentName())) {
+                title = value;
+                listener.onTitle(value);
+            }
+            return;
+        }
+        //{"ingredients": ["...", "..."], "steps": ["...", "..."]} → 根物件欄位裡的陣列
+        if (context.inArray() && context.getParent().inObject() && context.getParent().getParent().inRoot()) {
+            String field = context.getParent().getCurrentName();
+            if ("ingredients".equals(field)) {
+                ingredients.add(value);
+                listener.onIngredient(ingredients.size() - 1, value);
+            } else if ("steps".equals(field)) {
+                steps.add(value);
+                listener.onStep(steps.size() - 1, value);
+            }
+        }
+    }
+}
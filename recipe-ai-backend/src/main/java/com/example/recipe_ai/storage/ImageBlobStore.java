@@ -0,0 +1,202 @@
+package com.example.recipe_ai.storage;
+
+import com.example.recipe_ai.exception.ApiException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * ImageBlobStore
+ * 以內容定址 (SHA-256) 的方式，把圖片「原始 bytes」存在本機檔案系統。
+ * - 同一張圖片只會存一份，檔名就是它的 SHA-256 (hash)
+ * - 資料庫只存 hash，不再存幾 MB 的 base64 字串
+ * - 前端透過 GET /api/recipe/image/{hash} 取得圖片，可以被瀏覽器快取
+ * 目錄結構：{store-dir}/ab/abcdef... (用前兩碼分資料夾，避免單一資料夾檔案太多)
+ * 縮圖等尺寸版本 (ImageRendition) 存在原圖旁邊：{store-dir}/ab/abcdef....thumb
+ */
+@Component
+public class ImageBlobStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageBlobStore.class);
+    // hash 一定是 64 個小寫十六進位字元，避免路徑注入 (../)
+    private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    private static final String DATA_URL_PREFIX = "data:";
+    private static final String BASE64_MARKER = ";base64,";
+
+    private final Path baseDir;
+    // 回傳給前端的圖片網址前綴，例如 "" (相對路徑) 或 "https://cdn.example.com"
+    private final String publicBaseUrl;
+
+    public ImageBlobStore(@Value("${recipe.image.store-dir:./data/images}") Path baseDir,
+                          @Value("${recipe.image.public-base-url:}") String publicBaseUrl) throws IOException {
+        this.baseDir = baseDir.toAbsolutePath().normalize();
+        this.publicBaseUrl = publicBaseUrl;
+        Files.createDirectories(this.baseDir);
+        logger.info("圖片儲存目錄: {}", this.baseDir);
+    }
+
+    /**
+     * 儲存圖片原始 bytes
+     * @param bytes 圖片內容
+     * @return 圖片的 SHA-256 (十六進位小寫)
+     */
+    public String store(byte[] bytes) {
+        String hash = sha256Hex(bytes);
+        write(pathOf(hash), hash, bytes);
+        return hash;
+    }
+
+    /**
+     * 儲存某張圖片的尺寸版本 (縮圖、中圖)
+     * @param hash      原圖的 hash
+     * @param rendition 尺寸
+     * @param bytes     該尺寸的圖片內容
+     */
+    public void storeRendition(String hash, ImageRendition rendition, byte[] bytes) {
+        write(renditionPathOf(hash, rendition), hash, bytes);
+    }
+
+    //-----寫入檔案：已經存在就不寫 (內容由 hash 決定，一定相同)-----
+    private void write(Path target, String hash, byte[] bytes) {
+        //1. 內容定址：同樣內容的檔案已經存在就不用再寫
+        if (Files.exists(target)) {
+            return;
+        }
+        try {
+            Files.createDirectories(target.getParent());
+            //2. 先寫到暫存檔，再搬到正式位置，避免其他請求讀到寫一半的檔案
+            Path temp = Files.createTempFile(target.getParent(), hash, ".tmp");
+            try {
+                Files.write(temp, bytes, StandardOpenOption.TRUNCATE_EXISTING);
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (FileAlreadyExistsException e) {
+                //同時有另一個請求寫入同一張圖片，內容一定相同，直接使用
+                logger.debug("圖片 {} 已由其他請求寫入", hash);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            logger.error("圖片寫入失敗: {}", target, e);
+            throw new ApiException("圖片儲存失敗", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * 儲存 Data URL 格式的圖片 (data:image/png;base64,....)，解碼成原始 bytes 後再存
+     * @param dataUrl Data URL 字串
+     * @return 圖片的 SHA-256
+     */
+    public String storeDataUrl(String dataUrl) {
+        if (!isDataUrl(dataUrl)) {
+            throw new ApiException("不是有效的圖片 Data URL", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        int marker = dataUrl.indexOf(BASE64_MARKER);
+        byte[] bytes;
+        try {
+            bytes = Base64.getMimeDecoder().decode(dataUrl.substring(marker + BASE64_MARKER.length()));
+        } catch (IllegalArgumentException e) {
+            throw new ApiException("圖片 base64 解碼失敗", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        return store(bytes);
+    }
+
+    /**
+     * 判斷字串是否為 base64 Data URL (舊資料的 imageUrl 欄位)
+     */
+    public static boolean isDataUrl(String value) {
+        return value != null && value.startsWith(DATA_URL_PREFIX) && value.contains(BASE64_MARKER);
+    }
+
+    /**
+     * 依 hash 找到圖片檔案，hash 格式錯誤或檔案不存在時回傳空的 Optional
+     */
+    public Optional<Path> resolve(String hash) {
+        if (hash == null || !HASH_PATTERN.matcher(hash).matches()) {
+            return Optional.empty();
+        }
+        Path path = pathOf(hash);
+        return Files.isRegularFile(path) ? Optional.of(path) : Optional.empty();
+    }
+
+    /**
+     * 找到某張圖片的尺寸版本 (FULL 就是原圖)，還沒產生時回傳空的 Optional
+     */
+    public Optional<Path> resolveRendition(String hash, ImageRendition rendition) {
+        if (rendition == ImageRendition.FULL) {
+            return resolve(hash);
+        }
+        if (hash == null || !HASH_PATTERN.matcher(hash).matches()) {
+            return Optional.empty();
+        }
+        Path path = renditionPathOf(hash, rendition);
+        return Files.isRegularFile(path) ? Optional.of(path) : Optional.empty();
+    }
+
+    /**
+     * 回傳給前端的圖片網址
+     */
+    public String publicUrl(String hash) {
+        return publicBaseUrl + "/api/recipe/image/" + hash;
+    }
+
+    /**
+     * 從檔案開頭的 magic number 判斷圖片格式 (不用另外在資料庫存 mimeType)
+     */
+    public static String detectContentType(Path path) throws IOException {
+        byte[] head = new byte[12];
+        int read;
+        try (InputStream in = Files.newInputStream(path)) {
+            read = in.readNBytes(head, 0, head.length);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(head, 0, read);
+        if (read >= 8 && (head[0] & 0xFF) == 0x89 && head[1] == 'P' && head[2] == 'N' && head[3] == 'G') {
+            return "image/png";
+        }
+        if (read >= 3 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xD8 && (head[2] & 0xFF) == 0xFF) {
+            return "image/jpeg";
+        }
+        if (read >= 12 && buffer.getInt(0) == 0x52494646 && buffer.getInt(8) == 0x57454250) {
+            return "image/webp";   // "RIFF" .... "WEBP"
+        }
+        return "application/octet-stream";
+    }
+
+    private Path pathOf(String hash) {
+        return baseDir.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private Path renditionPathOf(String hash, ImageRendition rendition) {
+        return baseDir.resolve(hash.substring(0, 2)).resolve(hash + "." + rendition.param());
+    }
+
+    private static String sha256Hex(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            //每個 JVM 都一定有 SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.recipe_ai.storage;
+
+import com.example.recipe_ai.exception.ApiException;
+import org.springframework.http.HttpStatus;
+
+import java.util.Locale;
+
+/**
+ * ImageRendition
+ * 前端可以要求的圖片尺寸：GET /api/recipe/image/{hash}?size=thumb|medium|full
+ * - THUMB   列表頁的縮圖
+ * - MEDIUM  手機上的食譜頁
+ * - FULL    原圖 (轉成 JPEG 後的完整尺寸)，沒帶 size 時的預設值
+ * 寬度上限由 recipe.image.rendition.* 設定 (ImageRenditionService)
+ */
+public enum ImageRendition {
+    THUMB,
+    MEDIUM,
+    FULL;
+
+    /**
+     * 網址參數 / 檔名後綴
+     */
+    public String param() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 解析網址的 size 參數 (沒帶時為 FULL)
+     */
+    public static ImageRendition fromParam(String size) {
+        if (size == null || size.isBlank()) {
+            return FULL;
+        }
+        for (ImageRendition rendition : values()) {
+            if (rendition.param().equalsIgnoreCase(size.trim())) {
+                return rendition;
+            }
+        }
+        throw new ApiException("不支援的圖片尺寸: " + size + " (thumb、medium、full)", HttpStatus.BAD_REQUEST);
+    }
+}
@@ -0,0 +1,315 @@
+package com.example.recipe_ai.storage;
+
+import com.example.recipe_ai.metrics.RecipeMetrics;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ImageRenditionService
+ * Gemini 回傳的是完整尺寸的 PNG (約 1~2 MB)，直接送給列表頁的縮圖太浪費。
+ * 圖片生成後在這裡 (純 Java：ImageIO + Java2D) 轉成 JPEG，並產生三種尺寸：
+ * - FULL    寬度不超過 full-max-width，存在原本的 hash 位置 (資料庫的 image_hash 指向它)
+ * - MEDIUM  寬度 medium-width
+ * - THUMB   寬度 thumb-width
+ * 轉檔吃 CPU，所以放在有上限的執行緒池 (pool-size + queue-capacity) 執行；
+ * 佇列滿了、逾時或轉檔失敗時就存原圖 (不影響食譜生成)，縮圖等第一次被要求時再補產生；
+ * 逾時後才轉完的結果直接丟掉，不寫入任何檔案 (不會留下沒有資料引用的圖片)。
+ * 舊資料 (只有原始 PNG) 也一樣在第一次被要求縮圖時產生。
+ */
+@Component
+public class ImageRenditionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageRenditionService.class);
+
+    static {
+        //ImageIO 預設會用暫存檔當緩衝，全部在記憶體處理就好
+        ImageIO.setUseCache(false);
+    }
+
+    private final ImageBlobStore myimageBlobStore;
+    private final RecipeMetrics myrecipeMetrics;
+    private final boolean enabled;
+    private final int thumbWidth;
+    private final int mediumWidth;
+    private final int fullMaxWidth;
+    private final float jpegQuality;
+    // 等待轉檔最多多久 (逾時就先存原圖)
+    private final Duration timeout;
+    // 轉檔執行緒池 (有上限)
+    private final ThreadPoolExecutor myexecutor;
+    // hash → 正在補產生的縮圖工作，同一張圖片同時只產生一次
+    private final Map<String, CompletableFuture<Void>> mypending = new ConcurrentHashMap<>();
+
+    public ImageRenditionService(ImageBlobStore imageBlobStore, RecipeMetrics recipeMetrics,
+                                 @Value("${recipe.image.rendition.enabled:true}") boolean enabled,
+                                 @Value("${recipe.image.rendition.thumb-width:320}") int thumbWidth,
+                                 @Value("${recipe.image.rendition.medium-width:768}") int mediumWidth,
+                                 @Value("${recipe.image.rendition.full-max-width:1536}") int fullMaxWidth,
+                                 @Value("${recipe.image.rendition.jpeg-quality:0.82}") float jpegQuality,
+                                 @Value("${recipe.image.rendition.pool-size:0}") int poolSize,
+                                 @Value("${recipe.image.rendition.queue-capacity:32}") int queueCapacity,
+                                 @Value("${recipe.image.rendition.timeout:10s}") Duration timeout) {
+        this.myimageBlobStore = imageBlobStore;
+        this.myrecipeMetrics = recipeMetrics;
+        this.enabled = enabled;
+        this.thumbWidth = thumbWidth;
+        this.mediumWidth = mediumWidth;
+        this.fullMaxWidth = fullMaxWidth;
+        this.jpegQuality = jpegQuality;
+        this.timeout = timeout;
+        // pool-size 0 = CPU 核心數的一半 (至少 1)，留一半給處理請求的執行緒
+        int threads = poolSize > 0 ? poolSize : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.myexecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "image-transcode-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * 儲存剛生成的圖片：轉成 JPEG 並產生各尺寸版本
+     * @param original Gemini 回傳的原始圖片
+     * @return 圖片 hash (FULL 版本的 SHA-256；轉檔失敗時為原圖的 hash)
+     */
+    public String store(byte[] original) {
+        if (!enabled) {
+            return myimageBlobStore.store(original);
+        }
+        //轉檔工作與等待的一方誰先搶到 claimed，誰負責寫入檔案
+        AtomicBoolean claimed = new AtomicBoolean();
+        CompletableFuture<String> task;
+        try {
+            task = CompletableFuture.supplyAsync(() -> transcodeAndStore(original, claimed), myexecutor);
+        } catch (RejectedExecutionException e) {
+            logger.warn("圖片轉檔佇列已滿，先儲存原圖");
+            return myimageBlobStore.store(original);
+        }
+        try {
+            return task.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            if (claimed.compareAndSet(false, true)) {
+                //轉檔之後才做完也不會寫入 (還在佇列裡就直接跳過)
+                logger.warn("圖片轉檔超過 {}，先儲存原圖", timeout);
+                return myimageBlobStore.store(original);
+            }
+            //轉檔剛好做完、正在寫入各尺寸 → 等它寫完，用轉檔的結果
+            try {
+                return task.join();
+            } catch (CompletionException joinError) {
+                logger.warn("圖片轉檔失敗，儲存原圖: {}", joinError.getCause().getMessage());
+            }
+        } catch (ExecutionException e) {
+            logger.warn("圖片轉檔失敗，儲存原圖: {}", e.getCause().getMessage());
+        }
+        return myimageBlobStore.store(original);
+    }
+
+    /**
+     * 找到某個尺寸的圖片檔案
+     * 縮圖還沒產生 (舊資料、當初轉檔失敗) 時在這裡補產生；補不出來就回傳原圖
+     */
+    public Optional<ResolvedImage> resolve(String hash, ImageRendition rendition) {
+        Optional<ResolvedImage> existing = myimageBlobStore.resolveRendition(hash, rendition)
+                .map(path -> new ResolvedImage(path, rendition));
+        if (existing.isPresent() || rendition == ImageRendition.FULL) {
+            return existing;
+        }
+        Optional<ResolvedImage> original = myimageBlobStore.resolve(hash)
+                .map(path -> new ResolvedImage(path, ImageRendition.FULL));
+        if (original.isEmpty() || !enabled) {
+            return original;
+        }
+        try {
+            CompletableFuture<Void> pending = mypending.computeIfAbsent(hash, h ->
+                    CompletableFuture.runAsync(() -> storeRenditions(h, encodeRenditions(decode(read(original.get().path())))), myexecutor));
+            pending.whenComplete((ignored, error) -> mypending.remove(hash, pending));
+            pending.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException | TimeoutException e) {
+            logger.warn("圖片轉檔忙碌中，先回傳原圖 hash={}", hash);
+        } catch (ExecutionException e) {
+            logger.warn("產生縮圖失敗，回傳原圖 hash={}: {}", hash, e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return myimageBlobStore.resolveRendition(hash, rendition)
+                .map(path -> new ResolvedImage(path, rendition))
+                .or(() -> original);
+    }
+
+    //-----轉檔：原圖 → FULL (JPEG) → MEDIUM → THUMB，全部在記憶體做完，搶到 claimed 才寫入檔案-----
+    private String transcodeAndStore(byte[] original, AtomicBoolean claimed) {
+        //等待的一方已經逾時放棄 (還在佇列裡時)
+        if (claimed.get()) {
+            return null;
+        }
+        Timer.Sample sample = myrecipeMetrics.startTimer();
+        boolean success = false;
+        try {
+            BufferedImage full = scaleToWidth(decode(original), fullMaxWidth);
+            byte[] fullJpeg = encodeJpeg(full);
+            //JPEG 反而比較大 (很少見，例如很小的單色圖) 就保留原圖
+            byte[] stored = fullJpeg.length < original.length ? fullJpeg : original;
+            Map<ImageRendition, byte[]> renditions = encodeRenditions(full);
+            if (!claimed.compareAndSet(false, true)) {
+                logger.debug("圖片轉檔完成時已經逾時，丟掉轉檔結果");
+                return null;
+            }
+            String hash = myimageBlobStore.store(stored);
+            myrecipeMetrics.recordStoredImageBytes(ImageRendition.FULL.param(), stored.length);
+            storeRenditions(hash, renditions);
+            logger.debug("圖片轉檔完成 hash={}，{} bytes → {} bytes", hash, original.length, stored.length);
+            success = true;
+            return hash;
+        } finally {
+            myrecipeMetrics.stopTimer(sample, RecipeMetrics.IMAGE_TRANSCODE, success);
+        }
+    }
+
+    //MEDIUM 由 FULL 縮小，THUMB 再由 MEDIUM 縮小 (每一步縮小的比例小，品質較好也比較快)
+    private Map<ImageRendition, byte[]> encodeRenditions(BufferedImage full) {
+        BufferedImage medium = scaleToWidth(full, mediumWidth);
+        Map<ImageRendition, byte[]> renditions = new EnumMap<>(ImageRendition.class);
+        renditions.put(ImageRendition.MEDIUM, encodeJpeg(medium));
+        renditions.put(ImageRendition.THUMB, encodeJpeg(scaleToWidth(medium, thumbWidth)));
+        return renditions;
+    }
+
+    private void storeRenditions(String hash, Map<ImageRendition, byte[]> renditions) {
+        renditions.forEach((rendition, bytes) -> {
+            myimageBlobStore.storeRendition(hash, rendition, bytes);
+            myrecipeMetrics.recordStoredImageBytes(rendition.param(), bytes.length);
+        });
+    }
+
+    private static byte[] read(Path path) {
+        try {
+            return Files.readAllBytes(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static BufferedImage decode(byte[] bytes) {
+        try {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+            if (image == null) {
+                throw new IllegalArgumentException("無法辨識的圖片格式");
+            }
+            return image;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 等比例縮小到寬度不超過 maxWidth (已經夠小就不縮)，一律轉成 RGB (JPEG 沒有透明度)
+     * 每次最多縮小一半，避免一次縮太多產生鋸齒
+     */
+    static BufferedImage scaleToWidth(BufferedImage source, int maxWidth) {
+        BufferedImage current = toRgb(source);
+        if (maxWidth <= 0 || current.getWidth() <= maxWidth) {
+            return current;
+        }
+        int targetHeight = Math.max(1, Math.round(current.getHeight() * (float) maxWidth / current.getWidth()));
+        int width = current.getWidth();
+        int height = current.getHeight();
+        do {
+            width = Math.max(maxWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            current = draw(current, width, height);
+        } while (width != maxWidth || height != targetHeight);
+        return current;
+    }
+
+    private static BufferedImage toRgb(BufferedImage source) {
+        if (source.getType() == BufferedImage.TYPE_INT_RGB) {
+            return source;
+        }
+        return draw(source, source.getWidth(), source.getHeight());
+    }
+
+    private static BufferedImage draw(BufferedImage source, int width, int height) {
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            //透明的地方填白色
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    //等進行中的轉檔寫完 (最多 timeout)，不在關閉時留下寫到一半的工作
+    @PreDestroy
+    public void shutdown() {
+        myexecutor.shutdown();
+        try {
+            myexecutor.awaitTermination(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
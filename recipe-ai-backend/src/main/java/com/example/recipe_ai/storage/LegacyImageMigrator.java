@@ -0,0 +1,100 @@
+package com.example.recipe_ai.storage;
+
+import com.example.recipe_ai.entity.RecipeCache;
+import com.example.recipe_ai.repository.RecipeCacheRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * LegacyImageMigrator
+ * 舊資料的 imageUrl 欄位存的是整串 base64 Data URL，這裡把它們搬到 ImageBlobStore：
+ * 1. 讀取時遷移：RecipeService 讀到舊資料時呼叫 migrate()，當下就轉成 hash
+ * 2. 批次遷移：recipe.image.migrate-legacy=true 時，啟動後在背景把所有舊資料一次轉完
+ * 遷移後 imageUrl 會清成 null，只保留 imageHash
+ */
+@Component
+public class LegacyImageMigrator {
+
+    private static final Logger logger = LoggerFactory.getLogger(LegacyImageMigrator.class);
+
+    private final RecipeCacheRepository myrecipeCacheRepository;
+    private final ImageBlobStore myimageBlobStore;
+    private final boolean migrateOnStartup;
+    private final int batchSize;
+
+    public LegacyImageMigrator(RecipeCacheRepository recipeCacheRepository, ImageBlobStore imageBlobStore,
+                               @Value("${recipe.image.migrate-legacy:false}") boolean migrateOnStartup,
+                               @Value("${recipe.image.migrate-batch-size:50}") int batchSize) {
+        this.myrecipeCacheRepository = recipeCacheRepository;
+        this.myimageBlobStore = imageBlobStore;
+        this.migrateOnStartup = migrateOnStartup;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * 舊資料 → 把 base64 存進 ImageBlobStore，資料庫改存 hash
+     * @param entry 資料庫的一筆資料 (不會修改這個物件)
+     * @return 遷移後的那筆資料；不需要遷移時回傳空的 Optional
+     */
+    public Optional<RecipeCache> migrate(RecipeCache entry) {
+        if (entry.getImageHash() != null || !ImageBlobStore.isDataUrl(entry.getImageUrl())) {
+            return Optional.empty();
+        }
+        //傳進來的可能是 L1 裡的物件 (其他執行緒正在讀)：改在複製出來的那份上
+        RecipeCache migrated = entry.copy();
+        migrated.setImageHash(myimageBlobStore.storeDataUrl(entry.getImageUrl()));
+        migrated.setImageUrl(null);
+        myrecipeCacheRepository.save(migrated);
+        return Optional.of(migrated);
+    }
+
+    /**
+     * 啟動完成後，在背景執行緒批次遷移，不影響服務啟動
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateAllOnStartup() {
+        if (!migrateOnStartup) {
+            return;
+        }
+        Thread worker = new Thread(this::migrateAll, "legacy-image-migrator");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * 依主鍵順序分批遷移，每批只載入 batchSize 筆 (每筆都可能有好幾 MB)
+     * @return 遷移的筆數
+     */
+    public int migrateAll() {
+        int migrated = 0;
+        UUID afterId = new UUID(0, 0);
+        List<UUID> ids;
+        do {
+            ids = myrecipeCacheRepository.findLegacyImageIds(afterId, PageRequest.of(0, batchSize));
+            for (UUID id : ids) {
+                try {
+                    if (myrecipeCacheRepository.findById(id).flatMap(this::migrate).isPresent()) {
+                        migrated++;
+                    }
+                } catch (RuntimeException e) {
+                    //單筆失敗 (例如 base64 壞掉) 不中斷整批，記錄下來之後人工處理
+                    logger.warn("舊圖片遷移失敗 id={}", id, e);
+                }
+            }
+            if (!ids.isEmpty()) {
+                afterId = ids.get(ids.size() - 1);
+            }
+        } while (ids.size() == batchSize);
+        logger.info("舊圖片遷移完成，共 {} 筆", migrated);
+        return migrated;
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.recipe_ai.storage;
+
+import java.nio.file.Path;
+
+/**
+ * ResolvedImage
+ * ImageRenditionService.resolve 找到的圖片檔案
+ * @param path      圖片檔案
+ * @param rendition 這個檔案實際的尺寸 (縮圖補不出來、先回傳原圖時是 FULL，不一定等於要求的尺寸)
+ */
+public record ResolvedImage(Path path, ImageRendition rendition) {
+}
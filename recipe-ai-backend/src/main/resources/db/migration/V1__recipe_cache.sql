@@ -0,0 +1,11 @@
+-- 版本 1：最初的 recipe_cache (主鍵為正規化後的食材與料理需求字串)
+-- 已經有這張表、但還沒有 flyway_schema_history 的資料庫直接標記為版本 1 (spring.flyway.baseline-on-migrate)，不會執行這個檔案
+-- 版本 2 (主鍵改成 hash) 見 RecipeKeyMigration，版本 3 (新增欄位) 見 RecipeCacheColumnsMigration，版本 4 見 V4__normalized_key_text.sql，版本 5 見 RecipeListJsonMigration
+CREATE TABLE recipe_cache (
+    key_id VARCHAR(512) NOT NULL,
+    title VARCHAR(512),
+    ingredients TEXT,
+    steps MEDIUMTEXT,
+    image_url MEDIUMTEXT,
+    PRIMARY KEY (key_id)
+);
@@ -0,0 +1,3 @@
+-- 版本 4：normalized_key 改成 TEXT
+-- 查詢一律用 id (hash)，這個欄位不需要索引；VARCHAR(2048) 遇到很長的食材清單時寫入會失敗 (AI 已經生成完才發現)
+ALTER TABLE recipe_cache MODIFY COLUMN normalized_key TEXT NOT NULL;
@@ -0,0 +1,34 @@
+package com.example.recipe_ai;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * H2 (MODE=MySQL) 沒有 MySQL 的 GET_LOCK / RELEASE_LOCK，測試時用 CREATE ALIAS 換成這裡的 Java 函式
+ * (同一個名稱同時只有一個持有者；H2 的 CREATE ALIAS 要求 public class 與 public static 方法)
+ */
+public final class H2MySqlLocks {
+
+	private static final Map<String, Semaphore> LOCKS = new ConcurrentHashMap<>();
+
+	private H2MySqlLocks() {
+	}
+
+	public static void register(JdbcTemplate jdbcTemplate) {
+		jdbcTemplate.execute("CREATE ALIAS GET_LOCK FOR \"" + H2MySqlLocks.class.getName() + ".getLock\"");
+		jdbcTemplate.execute("CREATE ALIAS RELEASE_LOCK FOR \"" + H2MySqlLocks.class.getName() + ".releaseLock\"");
+	}
+
+	public static Integer getLock(String name, long timeoutSeconds) throws InterruptedException {
+		return LOCKS.computeIfAbsent(name, n -> new Semaphore(1)).tryAcquire(timeoutSeconds, TimeUnit.SECONDS) ? 1 : 0;
+	}
+
+	public static Integer releaseLock(String name) {
+		LOCKS.get(name).release();
+		return 1;
+	}
+}
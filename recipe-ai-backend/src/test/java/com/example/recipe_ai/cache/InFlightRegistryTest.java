@@ -0,0 +1,143 @@
+package com.example.recipe_ai.cache;
+
+import com.example.recipe_ai.exception.ApiException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InFlightRegistryTest {
+
+	@Test
+	void concurrentCallersShareOneExecution() throws Exception {
+		InFlightRegistry registry = new InFlightRegistry(Duration.ofSeconds(5));
+		AtomicInteger calls = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				results.add(pool.submit(() -> registry.execute("雞肉|洋蔥::泰式", () -> {
+					calls.incrementAndGet();
+					await(release);
+					return "recipe";
+				})));
+			}
+			// 等所有請求都排進來後才放行 leader
+			while (registry.size() == 0) {
+				Thread.onSpinWait();
+			}
+			Thread.sleep(100);
+			release.countDown();
+			for (Future<String> result : results) {
+				assertEquals("recipe", result.get(5, TimeUnit.SECONDS));
+			}
+			assertEquals(1, calls.get());
+			assertEquals(0, registry.size());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void asyncLeaderSharesResultWithStreamAndBlockingWaiters() throws Exception {
+		InFlightRegistry registry = new InFlightRegistry(Duration.ofSeconds(5));
+		CompletableFuture<String> generation = new CompletableFuture<>();
+		assertTrue(registry.join("k", generation).isEmpty(), "第一個是 leader");
+
+		// 串流請求與一般請求都等同一次生成
+		CompletableFuture<String> streamWaiter = registry.join("k", new CompletableFuture<String>()).orElseThrow();
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			Future<String> blockingWaiter = pool.submit(() -> registry.execute("k", () -> "不應該執行"));
+			Thread.sleep(100);
+			generation.complete("recipe");
+			assertEquals("recipe", streamWaiter.get(5, TimeUnit.SECONDS));
+			assertEquals("recipe", blockingWaiter.get(5, TimeUnit.SECONDS));
+			assertEquals(0, registry.size());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void asyncWaiterTimesOutWithoutFailingLeader() {
+		InFlightRegistry registry = new InFlightRegistry(Duration.ofMillis(50));
+		CompletableFuture<String> generation = new CompletableFuture<>();
+		registry.join("k", generation);
+
+		ExecutionException error = assertThrows(ExecutionException.class,
+				() -> registry.join("k", new CompletableFuture<String>()).orElseThrow().get(5, TimeUnit.SECONDS));
+		ApiException apiException = assertInstanceOf(ApiException.class, error.getCause());
+		assertEquals(HttpStatus.GATEWAY_TIMEOUT, apiException.getStatus());
+		assertFalse(generation.isDone(), "只有等待的那份逾時");
+		assertEquals(1, registry.size());
+	}
+
+	@Test
+	void leaderFailureIsPropagatedToWaiters() throws Exception {
+		InFlightRegistry registry = new InFlightRegistry(Duration.ofSeconds(5));
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			Future<Object> leader = pool.submit(() -> registry.execute("k", () -> {
+				await(release);
+				throw new ApiException("AI 服務處理失敗", HttpStatus.BAD_GATEWAY);
+			}));
+			while (registry.size() == 0) {
+				Thread.onSpinWait();
+			}
+			Future<Object> waiter = pool.submit(() -> registry.execute("k", () -> "不應該被執行"));
+			Thread.sleep(100);
+			release.countDown();
+			for (Future<Object> f : List.of(leader, waiter)) {
+				Exception e = assertThrows(Exception.class, () -> f.get(5, TimeUnit.SECONDS));
+				ApiException api = assertInstanceOf(ApiException.class, e.getCause());
+				assertEquals(HttpStatus.BAD_GATEWAY, api.getStatus());
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void waiterTimesOutWithGatewayTimeout() throws Exception {
+		InFlightRegistry registry = new InFlightRegistry(Duration.ofMillis(50));
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			pool.submit(() -> registry.execute("k", () -> {
+				await(release);
+				return "late";
+			}));
+			while (registry.size() == 0) {
+				Thread.onSpinWait();
+			}
+			ApiException e = assertThrows(ApiException.class, () -> registry.execute("k", () -> "x"));
+			assertEquals(HttpStatus.GATEWAY_TIMEOUT, e.getStatus());
+		} finally {
+			release.countDown();
+			pool.shutdownNow();
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package com.example.recipe_ai.cache;
+
+import com.example.recipe_ai.entity.RecipeCache;
+import com.example.recipe_ai.key.RecipeKeyNormalizer;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecipeCachePurgerTest {
+
+	private static final long HOUR = Duration.ofHours(1).toMillis();
+
+	private JdbcDataSource dataSource;
+	private JdbcTemplate jdbcTemplate;
+	private RecipeL1Cache l1Cache;
+	private RecipeSimilarityIndex similarityIndex;
+	private RecipeAccessTracker tracker;
+
+	@BeforeEach
+	void setUp() {
+		dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:purger_" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate.execute("CREATE TABLE recipe_cache (id BINARY(16) NOT NULL PRIMARY KEY, "
+				+ "normalized_key TEXT NOT NULL, title VARCHAR(512), ingredients TEXT, steps MEDIUMTEXT, "
+				+ "image_url MEDIUMTEXT, image_hash VARCHAR(64), response_payload MEDIUMBLOB, "
+				+ "hit_count BIGINT, last_accessed_at BIGINT)");
+		l1Cache = new RecipeL1Cache(64L * 1024 * 1024, Duration.ofHours(1));
+		similarityIndex = new RecipeSimilarityIndex(null, true, "jaccard", 0.5, 1000);
+		tracker = new RecipeAccessTracker(dataSource, true, Duration.ofHours(1), 100_000, 500);
+	}
+
+	@AfterEach
+	void tearDown() {
+		tracker.shutdown();
+	}
+
+	@Test
+	void lruKeepsRowsReadSinceLastFlush() {
+		long now = System.currentTimeMillis();
+		for (int i = 1; i <= 5; i++) {
+			insert("食材" + i + "::", 0, now - i * HOUR);
+		}
+		// 最舊的那筆剛被讀取 (還只在記憶體裡)：清理前會先寫回，變成最新的
+		tracker.record(RecipeKeyNormalizer.idOf("食材5::"));
+
+		assertEquals(2, purger("lru", 3, 0, Duration.ZERO).purge());
+		assertEquals(List.of("食材1::", "食材2::", "食材5::"), keys());
+		assertTrue(l1Cache.get("食材4::").isEmpty(), "刪除的資料也要從 L1 移除");
+		assertTrue(l1Cache.get("食材5::").isPresent());
+		assertEquals(1L, jdbcTemplate.queryForObject("SELECT hit_count FROM recipe_cache WHERE normalized_key = '食材5::'", Long.class));
+	}
+
+	@Test
+	void ttlThenLfuWithinByteBudget() {
+		long now = System.currentTimeMillis();
+		insert("雞肉|洋蔥::", 50, now - HOUR);
+		insert("牛肉::", 1, now - HOUR);
+		insert("豆腐::", 9, now - 2 * HOUR);
+		insert("蝦子::", 0, now - 48 * HOUR);
+		insert("剛生成::", 0, now);     // 在 min-idle 內，LFU 不會先刪它
+
+		long rowBytes = jdbcTemplate.queryForObject("SELECT MAX(" + RecipeCachePurger.ROW_BYTES + ") FROM recipe_cache", Long.class);
+		RecipeCachePurger purger = purger("lfu", 0, rowBytes * 3, Duration.ofDays(1));
+		assertEquals(2, purger.purge());
+		assertEquals(List.of("剛生成::", "豆腐::", "雞肉|洋蔥::"), keys());
+		assertTrue(similarityIndex.findClosest("牛肉|鹽::", 0.1).isEmpty(), "刪除的資料也要從相似度索引移除");
+	}
+
+	private RecipeCachePurger purger(String policy, long maxRows, long maxBytes, Duration ttl) {
+		return new RecipeCachePurger(dataSource, l1Cache, similarityIndex, tracker, true, Duration.ofHours(1),
+				ttl, maxRows, maxBytes, policy, Duration.ofMinutes(10), 2);
+	}
+
+	private void insert(String key, long hits, long lastAccessedAt) {
+		UUID id = RecipeKeyNormalizer.idOf(key);
+		jdbcTemplate.update("INSERT INTO recipe_cache (id, normalized_key, title, ingredients, steps, hit_count, last_accessed_at) "
+						+ "VALUES (?, ?, ?, ?, ?, ?, ?)",
+				ByteBuffer.allocate(16).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits()).array(),
+				key, "料理", "[\"鹽 少許\"]", "[\"步驟\"]", hits, lastAccessedAt);
+		RecipeCache entry = new RecipeCache();
+		entry.setId(id);
+		entry.setNormalizedKey(key);
+		l1Cache.put(key, entry);
+		similarityIndex.add(key);
+	}
+
+	private List<String> keys() {
+		return jdbcTemplate.queryForList("SELECT normalized_key FROM recipe_cache ORDER BY normalized_key", String.class);
+	}
+}
@@ -0,0 +1,66 @@
+package com.example.recipe_ai.cache;
+
+import com.example.recipe_ai.storage.ImageBlobStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecipeImageReuseCacheTest {
+
+	@TempDir
+	Path storeDir;
+
+	@Test
+	void reusesImageForSameDishTitle() throws IOException {
+		ImageBlobStore blobStore = new ImageBlobStore(storeDir, "");
+		RecipeImageReuseCache cache = cache(blobStore, "title");
+		String hash = blobStore.store("image".getBytes(StandardCharsets.UTF_8));
+
+		cache.put("泰式打拋雞", List.of("熱鍋爆香蒜頭", "加入雞絞肉炒熟"), hash);
+
+		// 空白、標點、全形與括號內的說明不影響
+		assertEquals(Optional.of(hash), cache.find(" 泰式 打拋雞（簡易版）", List.of("完全不同的步驟")));
+		assertEquals(Optional.empty(), cache.find("打拋豬", List.of("熱鍋爆香蒜頭", "加入雞絞肉炒熟")));
+	}
+
+	@Test
+	void stepFingerprintIgnoresQuantities() throws IOException {
+		ImageBlobStore blobStore = new ImageBlobStore(storeDir, "");
+		RecipeImageReuseCache cache = cache(blobStore, "title-or-steps");
+		String hash = blobStore.store("image".getBytes(StandardCharsets.UTF_8));
+
+		cache.put("番茄炒蛋", List.of("蛋 3 顆打散", "番茄炒 2 分鐘，加入蛋液"), hash);
+
+		assertEquals(Optional.of(hash), cache.find("西紅柿炒雞蛋", List.of("蛋 2 顆打散。", "番茄炒 5 分鐘, 加入蛋液")));
+		assertEquals(Optional.empty(), cache.find("西紅柿炒雞蛋", List.of("蛋打散", "番茄燉煮")));
+	}
+
+	@Test
+	void skipsMissingImagesAndOffPolicy() throws IOException {
+		ImageBlobStore blobStore = new ImageBlobStore(storeDir, "");
+		String hash = blobStore.store("image".getBytes(StandardCharsets.UTF_8));
+
+		RecipeImageReuseCache off = cache(blobStore, "off");
+		off.put("牛肉麵", List.of("燉牛肉"), hash);
+		assertEquals(Optional.empty(), off.find("牛肉麵", List.of("燉牛肉")));
+
+		// 圖片檔案已經不存在 → 不能沿用
+		RecipeImageReuseCache cache = cache(blobStore, "title");
+		cache.put("牛肉麵", List.of("燉牛肉"), hash);
+		Files.delete(blobStore.resolve(hash).orElseThrow());
+		assertEquals(Optional.empty(), cache.find("牛肉麵", List.of("燉牛肉")));
+	}
+
+	private static RecipeImageReuseCache cache(ImageBlobStore blobStore, String policy) {
+		return new RecipeImageReuseCache(blobStore, null, policy, 1000, Duration.ofDays(7), 0);
+	}
+}
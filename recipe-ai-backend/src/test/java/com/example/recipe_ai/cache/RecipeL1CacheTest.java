@@ -0,0 +1,104 @@
+package com.example.recipe_ai.cache;
+
+import com.example.recipe_ai.entity.RecipeCache;
+import com.example.recipe_ai.key.RecipeKeyNormalizer;
+import com.github.benmanes.caffeine.cache.Ticker;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecipeL1CacheTest {
+
+	private final AtomicLong nanos = new AtomicLong();
+	private final Ticker ticker = nanos::get;
+
+	@Test
+	void weighsByEstimatedBytes() {
+		RecipeCache chinese = entry("雞肉::", "番茄燉雞");
+		chinese.setSteps(List.of("雞腿切塊"));
+		// 物件開銷 128 + key 4 字 + 標題 4 字 + 一個步驟 (32 + 4 字)，中文一個字 2 bytes
+		assertEquals(128 + 8 + 8 + 32 + 8, RecipeL1Cache.estimateBytes("雞肉::", chinese));
+
+		// base64 圖片與回應內容以 1 byte 計算
+		RecipeCache legacy = entry("a", null);
+		legacy.setImageUrl("data:image/png;base64,AAAA");
+		legacy.setResponsePayload(new byte[1000]);
+		assertEquals(128 + 2 + 26 + 1000, RecipeL1Cache.estimateBytes("a", legacy));
+	}
+
+	@Test
+	void evictsWhenOverMaxBytes() {
+		RecipeL1Cache cache = new RecipeL1Cache(10_000, Duration.ofHours(1), ticker);
+		for (int i = 0; i < 20; i++) {
+			RecipeCache entry = entry("key" + i, null);
+			entry.setResponsePayload(new byte[1000]);
+			cache.put("key" + i, entry);
+		}
+		cache.cleanUp();
+
+		long usedBytes = (long) cache.statsSnapshot().get("usedBytes");
+		assertTrue(usedBytes <= 10_000, "使用 " + usedBytes + " bytes");
+		assertTrue((long) cache.statsSnapshot().get("entries") < 20);
+	}
+
+	@Test
+	void expiresAfterDefaultTtlWithoutExtendingOnRead() {
+		RecipeL1Cache cache = new RecipeL1Cache(1_000_000, Duration.ofMinutes(10), ticker);
+		cache.put("雞肉::", entry("雞肉::", "番茄燉雞"));
+
+		nanos.addAndGet(Duration.ofMinutes(9).toNanos());
+		assertTrue(cache.get("雞肉::").isPresent());
+		// 讀取不延長，放入後 10 分鐘就過期
+		nanos.addAndGet(Duration.ofMinutes(2).toNanos());
+		assertTrue(cache.get("雞肉::").isEmpty());
+	}
+
+	@Test
+	void entryTtlOverridesDefaultUntilUpdated() {
+		RecipeL1Cache cache = new RecipeL1Cache(1_000_000, Duration.ofMinutes(10), ticker);
+		// 還沒有圖片的食譜只放 1 分鐘
+		cache.put("雞肉::", entry("雞肉::", "番茄燉雞"), Duration.ofMinutes(1));
+		cache.put("洋蔥::", entry("洋蔥::", "洋蔥湯"), Duration.ofMinutes(1));
+		nanos.addAndGet(Duration.ofSeconds(30).toNanos());
+
+		// 圖片補上後換成新的物件：恢復預設 TTL
+		RecipeCache withImage = cache.get("洋蔥::").orElseThrow().copy();
+		withImage.setImageHash("abc");
+		cache.put("洋蔥::", withImage);
+
+		nanos.addAndGet(Duration.ofMinutes(1).toNanos());
+		assertTrue(cache.get("雞肉::").isEmpty());
+		assertSame(withImage, cache.get("洋蔥::").orElseThrow());
+	}
+
+	@Test
+	void findsByIdUntilMainEntryIsGone() {
+		RecipeL1Cache cache = new RecipeL1Cache(1_000_000, Duration.ofHours(1), ticker);
+		RecipeCache entry = entry("雞肉::", "番茄燉雞");
+		cache.put("雞肉::", entry);
+
+		assertSame(entry, cache.getById(entry.getId()).orElseThrow());
+
+		// 換成新的物件，id 查到的也是新的
+		RecipeCache updated = entry.copy();
+		updated.setImageHash("abc");
+		cache.put("雞肉::", updated);
+		assertSame(updated, cache.getById(entry.getId()).orElseThrow());
+		assertNull(entry.getImageHash(), "舊的物件不會被修改");
+
+		cache.invalidate("雞肉::");
+		assertTrue(cache.getById(entry.getId()).isEmpty());
+	}
+
+	private static RecipeCache entry(String key, String title) {
+		RecipeCache entry = new RecipeCache();
+		entry.setId(RecipeKeyNormalizer.idOf(key));
+		entry.setNormalizedKey(key);
+		entry.setTitle(title);
+		return entry;
+	}
+}
@@ -0,0 +1,70 @@
+package com.example.recipe_ai.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecipeSimilarityIndexTest {
+
+	@Test
+	void subsetModeServesCachedRecipeWhenQueryHasExtraIngredients() {
+		RecipeSimilarityIndex index = index("subset", 0.6);
+		index.add("洋蔥|雞肉::");
+		index.add("洋蔥|牛肉::");
+
+		Optional<RecipeSimilarityIndex.Match> match = index.findSimilar("洋蔥|雞肉|鹽::");
+		assertTrue(match.isPresent());
+		assertEquals("洋蔥|雞肉::", match.get().key());
+		assertEquals(2.0 / 3, match.get().score(), 1e-9);
+
+		// 快取食譜需要查詢沒有的食材 → 不是子集合
+		assertTrue(index.findSimilar("洋蔥|鹽::").isEmpty());
+		// 覆蓋率太低 (2 / 4 < 0.6)
+		assertTrue(index.findSimilar("洋蔥|胡椒|雞肉|鹽::").isEmpty());
+	}
+
+	@Test
+	void jaccardModeRespectsThresholdAndStyle() {
+		RecipeSimilarityIndex index = index("jaccard", 0.5);
+		index.add("番茄|蛋|蔥::");
+		index.add("番茄|蛋|蔥::素食");
+
+		// 交集 2、聯集 4 → 0.5
+		assertEquals("番茄|蛋|蔥::", index.findSimilar("番茄|蛋|鹽::").orElseThrow().key());
+		// 料理需求不同不算
+		assertEquals("番茄|蛋|蔥::素食", index.findSimilar("番茄|蛋|鹽::素食").orElseThrow().key());
+		assertTrue(index.findSimilar("番茄|蛋|鹽::泰式").isEmpty());
+		// 交集 1、聯集 5 → 0.2
+		assertTrue(index.findSimilar("番茄|豆腐|鹽::").isEmpty());
+		// 完全相同的 key 不回傳自己
+		assertTrue(index.findSimilar("番茄|蛋|蔥::").isEmpty());
+	}
+
+	@Test
+	void removedRecipesAreCompactedAway() {
+		RecipeSimilarityIndex index = index("subset", 0.6);
+		for (int i = 0; i < 1000; i++) {
+			index.add("洋蔥|食材" + i + "::");
+		}
+		index.add("洋蔥|雞肉::");
+		for (int i = 0; i < 1000; i++) {
+			index.remove("洋蔥|食材" + i + "::");
+		}
+
+		// 已刪除的超過 1/4 就重建，不會留著 1000 個已刪除的 docId
+		assertEquals(1, index.size());
+		assertTrue(index.docSlots() < 10, "docId 數量 " + index.docSlots());
+		assertEquals("洋蔥|雞肉::", index.findSimilar("洋蔥|雞肉|鹽::").orElseThrow().key());
+		assertTrue(index.findSimilar("洋蔥|食材1|鹽::").isEmpty());
+
+		// 刪除後可以再加回來
+		index.add("洋蔥|食材1::");
+		assertEquals("洋蔥|食材1::", index.findSimilar("洋蔥|食材1|鹽::").orElseThrow().key());
+	}
+
+	private static RecipeSimilarityIndex index(String mode, double threshold) {
+		return new RecipeSimilarityIndex(null, true, mode, threshold, 1000);
+	}
+}
@@ -0,0 +1,130 @@
+package com.example.recipe_ai.key;
+
+import com.example.recipe_ai.H2MySqlLocks;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecipeKeyMigrationTest {
+
+	private final RecipeKeyNormalizer normalizer =
+			new RecipeKeyNormalizer(new SynonymIngredientDictionary(new ClassPathResource("ingredient-synonyms.txt")));
+	private JdbcDataSource dataSource;
+	private JdbcTemplate jdbcTemplate;
+
+	@BeforeEach
+	void setUp() {
+		dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:key_migration_" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		H2MySqlLocks.register(jdbcTemplate);
+		// 舊版 Hibernate 依 RecipeCache (主鍵 key_id) 建立的資料表
+		jdbcTemplate.execute("CREATE TABLE recipe_cache (key_id VARCHAR(512) NOT NULL PRIMARY KEY, "
+				+ "title VARCHAR(512), ingredients TEXT, steps MEDIUMTEXT, image_url MEDIUMTEXT)");
+		insertLegacy("番茄|雞胸肉::泰式", "泰式番茄雞");
+		insertLegacy("雞胸肉|蕃茄::泰式", "泰式番茄雞 (同義詞)");
+		insertLegacy("洋蔥|豬肉::", "洋蔥炒豬肉");
+	}
+
+	@Test
+	void migratesLegacyKeysAndMergesSynonyms() throws Exception {
+		migration().run();
+
+		// 蕃茄/番茄 正規化後是同一個 key，只保留先遷移的那筆 (依 key_id 順序)
+		assertEquals(2, count());
+		assertEquals("泰式番茄雞", titleOf("番茄|雞胸肉::泰式"));
+		assertEquals("洋蔥炒豬肉", titleOf("洋蔥|豬肉::"));
+		assertFalse(columns().contains("key_id"));
+
+		// 已經是新格式：再啟動一次什麼都不做
+		migration().run();
+		assertEquals(2, count());
+	}
+
+	@Test
+	void resumesAfterPartialRun() throws Exception {
+		// 上次在第 2 步中斷：欄位已新增，只遷移了一筆
+		jdbcTemplate.execute("ALTER TABLE recipe_cache ADD COLUMN id BINARY(16) NULL");
+		jdbcTemplate.execute("ALTER TABLE recipe_cache ADD COLUMN normalized_key VARCHAR(2048) NULL");
+		jdbcTemplate.execute("CREATE UNIQUE INDEX ux_recipe_cache_id ON recipe_cache (id)");
+		String key = normalizer.normalizeLegacyKey("洋蔥|豬肉::");
+		jdbcTemplate.update("UPDATE recipe_cache SET id = ?, normalized_key = ? WHERE key_id = ?",
+				bytes(RecipeKeyNormalizer.idOf(key)), key, "洋蔥|豬肉::");
+
+		migration().run();
+		assertEquals(2, count());
+		assertEquals("洋蔥炒豬肉", titleOf("洋蔥|豬肉::"));
+		assertEquals("泰式番茄雞", titleOf("番茄|雞胸肉::泰式"));
+		assertFalse(columns().contains("key_id"));
+	}
+
+	@Test
+	void concurrentInstancesMigrateOnce() throws Exception {
+		for (int i = 0; i < 200; i++) {
+			insertLegacy(name(i) + "|鹽::", "料理 " + name(i));
+		}
+		int instances = 4;
+		List<Future<?>> futures = new ArrayList<>();
+		try (ExecutorService pool = Executors.newFixedThreadPool(instances)) {
+			for (int i = 0; i < instances; i++) {
+				RecipeKeyMigration migration = migration();
+				futures.add(pool.submit(() -> {
+					migration.run();
+					return null;
+				}));
+			}
+		}
+		// 每個實例都正常啟動，沒有人在別人遷移到一半時改資料表
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		assertEquals(202, count());
+		assertEquals("料理 " + name(199), titleOf(name(199) + "|鹽::"));
+		assertFalse(columns().contains("key_id"));
+	}
+
+	private RecipeKeyMigration migration() {
+		return new RecipeKeyMigration(dataSource, normalizer, 50, Duration.ofSeconds(30));
+	}
+
+	// 不同的食材名稱 (不能帶數字，數字會被當成份量去掉)
+	private static String name(int i) {
+		return "食材" + (char) ('a' + i % 26) + (char) ('a' + i / 26);
+	}
+
+	private void insertLegacy(String key, String title) {
+		jdbcTemplate.update("INSERT INTO recipe_cache (key_id, title) VALUES (?, ?)", key, title);
+	}
+
+	private int count() {
+		return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM recipe_cache", Integer.class);
+	}
+
+	private String titleOf(String legacyKey) {
+		String key = normalizer.normalizeLegacyKey(legacyKey);
+		return jdbcTemplate.queryForObject("SELECT title FROM recipe_cache WHERE id = ? AND normalized_key = ?",
+				String.class, bytes(RecipeKeyNormalizer.idOf(key)), key);
+	}
+
+	private List<String> columns() {
+		return jdbcTemplate.queryForList("SELECT column_name FROM information_schema.columns WHERE table_name = 'recipe_cache'",
+				String.class);
+	}
+
+	private static byte[] bytes(UUID id) {
+		return ByteBuffer.allocate(16).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits()).array();
+	}
+}
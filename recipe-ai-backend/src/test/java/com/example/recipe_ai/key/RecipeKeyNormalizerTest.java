@@ -0,0 +1,47 @@
+package com.example.recipe_ai.key;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecipeKeyNormalizerTest {
+
+	private final RecipeKeyNormalizer normalizer =
+			new RecipeKeyNormalizer(new SynonymIngredientDictionary(new ClassPathResource("ingredient-synonyms.txt")));
+
+	@Test
+	void equivalentRequestsCollapseToOneKey() {
+		String key = normalizer.normalize("雞胸肉 200g, 蕃茄、洋蔥 半顆", "泰式");
+		assertEquals("洋蔥|番茄|雞胸肉::泰式", key);
+		assertEquals(key, normalizer.normalize("番茄，雞胸肉200g, 洋蔥(切絲)", " 泰式 "));
+		assertEquals(key, normalizer.normalize("tomato, 雞胸肉, 洋蔥, 番茄", "泰式"));
+	}
+
+	@Test
+	void keepsNamesThatOnlyLookLikeAmounts() {
+		assertEquals("三杯雞|五花肉|鹽::", normalizer.normalize("三杯雞, 五花肉, 鹽少許", null));
+		assertEquals("olive oil", SynonymIngredientDictionary.stripAmount("olive oil 1 tbsp"));
+		assertEquals("雞蛋", SynonymIngredientDictionary.stripAmount("雞蛋兩顆"));
+		assertEquals("一片", SynonymIngredientDictionary.stripAmount("一片"));
+	}
+
+	@Test
+	void legacyKeysMigrateToTheNewFormat() {
+		// 舊格式：轉小寫、排序後以 | 連接，沒有同義詞處理
+		assertEquals("洋蔥|番茄|雞肉::泰式|素食", normalizer.normalizeLegacyKey("洋蔥|蕃茄|雞肉::泰式|素食"));
+		assertEquals(normalizer.normalize("雞肉, 洋蔥, 番茄", "泰式, 素食"),
+				normalizer.normalizeLegacyKey("洋蔥|蕃茄|雞肉::泰式|素食"));
+	}
+
+	@Test
+	void idIsStableTruncatedSha256() {
+		UUID id = RecipeKeyNormalizer.idOf("洋蔥|雞肉::");
+		assertEquals(id, RecipeKeyNormalizer.idOf("洋蔥|雞肉::"));
+		assertNotEquals(id, RecipeKeyNormalizer.idOf("洋蔥|雞肉::泰式"));
+		// SHA-256("") = e3b0c442 98fc1c14 9afbf4c8 996fb924 ...
+		assertEquals(UUID.fromString("e3b0c442-98fc-1c14-9afb-f4c8996fb924"), RecipeKeyNormalizer.idOf(""));
+	}
+}
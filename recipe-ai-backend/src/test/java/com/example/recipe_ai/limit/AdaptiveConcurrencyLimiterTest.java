@@ -0,0 +1,133 @@
+package com.example.recipe_ai.limit;
+
+import com.example.recipe_ai.exception.ApiException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimiterTest {
+
+	@Test
+	void rejectsWith429WhenQueueIsFullAnd503WhenWaitTimesOut() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 1, 1, 1, 1, Duration.ofMillis(300), 0.9);
+		AdaptiveConcurrencyLimiter.Permit running = limiter.acquire();
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			// 第二個請求排隊，佇列 (容量 1) 就滿了
+			CountDownLatch queued = new CountDownLatch(1);
+			Future<HttpStatus> waiter = executor.submit(() -> {
+				queued.countDown();
+				try {
+					limiter.acquire().success();
+					return HttpStatus.OK;
+				} catch (ApiException e) {
+					return e.getStatus();
+				}
+			});
+			queued.await();
+			while (limiter.waiting() == 0) {
+				Thread.sleep(5);
+			}
+
+			ApiException full = assertThrows(ApiException.class, limiter::acquire);
+			assertEquals(HttpStatus.TOO_MANY_REQUESTS, full.getStatus());
+			assertEquals(HttpStatus.SERVICE_UNAVAILABLE, waiter.get(5, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+
+		// 歸還後就能再取得
+		running.success();
+		limiter.acquire().success();
+		assertEquals(0, limiter.inFlight());
+	}
+
+	@Test
+	void queuedRequestRunsWhenPermitIsReleased() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 1, 1, 1, 5, Duration.ofSeconds(5), 0.9);
+		AdaptiveConcurrencyLimiter.Permit running = limiter.acquire();
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<?> waiter = executor.submit(() -> limiter.acquire().success());
+			while (limiter.waiting() == 0) {
+				Thread.sleep(5);
+			}
+			running.success();
+			waiter.get(5, TimeUnit.SECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(0, limiter.inFlight());
+	}
+
+	@Test
+	void onlyOverloadFailuresShrinkTheLimit() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 20, 2, 40, 0, Duration.ZERO, 0.5);
+
+		// 400 (例如請求格式錯誤) 與 Gemini 的負載無關
+		limiter.acquire().failed(new UpstreamStatusException("bad request", HttpStatus.INTERNAL_SERVER_ERROR, 400));
+		assertEquals(20, limiter.currentLimit());
+		assertEquals(0, limiter.inFlight());
+
+		// 429、逾時是過載的訊號
+		limiter.acquire().failed(new UpstreamStatusException("quota", HttpStatus.INTERNAL_SERVER_ERROR, 429));
+		assertEquals(10, limiter.currentLimit());
+		limiter.acquire().failed(new ApiException("timeout", HttpStatus.GATEWAY_TIMEOUT, new SocketTimeoutException("read timed out")));
+		assertEquals(5, limiter.currentLimit());
+
+		// 我們自己的錯誤 (例如回覆裡沒有圖片) 也與負載無關
+		limiter.acquire().failed(new ApiException("no image", HttpStatus.INTERNAL_SERVER_ERROR));
+		assertEquals(5, limiter.currentLimit());
+		assertEquals(0, limiter.inFlight());
+	}
+
+	@Test
+	void limitShrinksOnDropsGrowsWhileLatencyIsFlatAndShrinksWhenLatencyRises() {
+		AtomicLong clock = new AtomicLong();
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 20, 2, 40, 0, Duration.ZERO, 0.5, clock::get);
+
+		// 連續失敗 → 乘法減少，但不低於下限
+		for (int i = 0; i < 10; i++) {
+			limiter.acquire().dropped();
+		}
+		assertEquals(2, limiter.currentLimit());
+
+		// 同時用滿 limit 且延遲穩定 (2 秒) → 加大到上限
+		for (int round = 0; round < 15; round++) {
+			runRound(limiter, clock, Duration.ofSeconds(2));
+		}
+		assertEquals(40, limiter.currentLimit());
+
+		// Gemini 變慢 (排隊) → 縮小
+		for (int round = 0; round < 3; round++) {
+			runRound(limiter, clock, Duration.ofSeconds(6));
+		}
+		assertTrue(limiter.currentLimit() < 30, "延遲變長時 limit 應該縮小，實際 " + limiter.currentLimit());
+		assertTrue(limiter.currentLimit() >= 2);
+	}
+
+	// 同時取得 limit 個執行權，經過 rtt 後全部成功歸還
+	private static void runRound(AdaptiveConcurrencyLimiter limiter, AtomicLong clock, Duration rtt) {
+		List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+		int limit = limiter.currentLimit();
+		for (int i = 0; i < limit; i++) {
+			permits.add(limiter.acquire());
+		}
+		clock.addAndGet(rtt.toNanos());
+		permits.forEach(AdaptiveConcurrencyLimiter.Permit::success);
+	}
+}
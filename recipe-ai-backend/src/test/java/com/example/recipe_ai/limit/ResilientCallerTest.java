@@ -0,0 +1,160 @@
+package com.example.recipe_ai.limit;
+
+import com.example.recipe_ai.exception.ApiException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResilientCallerTest {
+
+	private static CircuitBreaker breaker() {
+		return new CircuitBreaker("test", 20, 10, 0.5, Duration.ofSeconds(30), 1);
+	}
+
+	@Test
+	void retriesOnlyRetryableFailures() {
+		ResilientCaller caller = new ResilientCaller("test",
+				new ResilientCaller.Policy(3, Duration.ofMillis(1), Duration.ofMillis(5), false, 0.95, Duration.ZERO, Duration.ZERO),
+				breaker());
+		try {
+			// 503 可以重試：第三次成功
+			AtomicInteger attempts = new AtomicInteger();
+			String result = caller.call(() -> {
+				if (attempts.incrementAndGet() < 3) {
+					throw new UpstreamStatusException("upstream", HttpStatus.INTERNAL_SERVER_ERROR, 503);
+				}
+				return "ok";
+			});
+			assertEquals("ok", result);
+			assertEquals(3, attempts.get());
+
+			// 400 不重試
+			AtomicInteger badRequests = new AtomicInteger();
+			UpstreamStatusException error = assertThrows(UpstreamStatusException.class, () -> caller.call(() -> {
+				badRequests.incrementAndGet();
+				throw new UpstreamStatusException("bad request", HttpStatus.INTERNAL_SERVER_ERROR, 400);
+			}));
+			assertEquals(400, error.getUpstreamStatus());
+			assertEquals(1, badRequests.get());
+
+			// 我們自己的錯誤 (例如回覆裡沒有圖片) 不重試，原因是 IOException 的才重試
+			AtomicInteger noImage = new AtomicInteger();
+			assertThrows(ApiException.class, () -> caller.call(() -> {
+				noImage.incrementAndGet();
+				throw new ApiException("no image", HttpStatus.INTERNAL_SERVER_ERROR);
+			}));
+			assertEquals(1, noImage.get());
+			assertTrue(ResilientCaller.isRetryable(new ApiException("timeout", HttpStatus.GATEWAY_TIMEOUT, new SocketTimeoutException("read timed out"))));
+
+			// 我們自己的並行上限拒絕不重試
+			assertFalse(ResilientCaller.isRetryable(new LimitExceededException("queue full", HttpStatus.TOO_MANY_REQUESTS)));
+		} finally {
+			caller.shutdown();
+		}
+	}
+
+	@Test
+	void hedgeWinsWhenPrimaryIsSlow() {
+		ResilientCaller caller = new ResilientCaller("test",
+				new ResilientCaller.Policy(1, Duration.ZERO, Duration.ZERO, true, 0.95, Duration.ofMillis(10), Duration.ofMillis(50)),
+				breaker());
+		try {
+			AtomicInteger attempts = new AtomicInteger();
+			long start = System.nanoTime();
+			String result = caller.call(() -> {
+				if (attempts.incrementAndGet() == 1) {
+					// 第一個請求卡住，對沖請求應該先回來
+					sleep(5_000);
+					return "primary";
+				}
+				return "hedge";
+			});
+			assertEquals("hedge", result);
+			assertEquals(2, attempts.get());
+			assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 2_000);
+		} finally {
+			caller.shutdown();
+		}
+	}
+
+	@Test
+	void losingAttemptIsCancelled() throws InterruptedException {
+		ResilientCaller caller = new ResilientCaller("test",
+				new ResilientCaller.Policy(1, Duration.ZERO, Duration.ZERO, true, 0.95, Duration.ofMillis(10), Duration.ofMillis(50)),
+				breaker());
+		try {
+			AtomicInteger attempts = new AtomicInteger();
+			CountDownLatch primaryCancelled = new CountDownLatch(1);
+			String result = caller.callCancellable(cancellation -> {
+				if (attempts.incrementAndGet() == 1) {
+					// 第一個請求卡住：被取消時 (模擬中斷 HTTP 請求) 才結束
+					cancellation.onCancel(primaryCancelled::countDown);
+					await(primaryCancelled);
+					throw new IllegalStateException("cancelled");
+				}
+				return "hedge";
+			});
+			assertEquals("hedge", result);
+			// 對沖請求成功後，主要請求馬上被取消 (不會等到它自己逾時)
+			assertTrue(primaryCancelled.await(2, TimeUnit.SECONDS));
+		} finally {
+			caller.shutdown();
+		}
+	}
+
+	@Test
+	void breakerOpensAndHalfOpensAfterDuration() {
+		AtomicLong now = new AtomicLong();
+		CircuitBreaker breaker = new CircuitBreaker("test", 10, 4, 0.5, Duration.ofSeconds(30), 1, now::get);
+		ResilientCaller caller = new ResilientCaller("test", ResilientCaller.Policy.noRetry(), breaker);
+		try {
+			for (int i = 0; i < 4; i++) {
+				assertThrows(UpstreamStatusException.class, () -> caller.call(() -> {
+					throw new UpstreamStatusException("upstream", HttpStatus.INTERNAL_SERVER_ERROR, 503);
+				}));
+			}
+			assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+			// 開啟中：不呼叫 Gemini，直接 503
+			AtomicInteger attempts = new AtomicInteger();
+			CircuitOpenException open = assertThrows(CircuitOpenException.class, () -> caller.call(attempts::incrementAndGet));
+			assertEquals(HttpStatus.SERVICE_UNAVAILABLE, open.getStatus());
+			assertEquals(0, attempts.get());
+
+			// 30 秒後半開，只放行一個試探呼叫；成功就關閉
+			now.addAndGet(Duration.ofSeconds(31).toNanos());
+			assertTrue(breaker.tryAcquire());
+			assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+			assertFalse(breaker.tryAcquire());
+			breaker.onSuccess();
+			assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+			assertEquals(1, caller.call(attempts::incrementAndGet));
+		} finally {
+			caller.shutdown();
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
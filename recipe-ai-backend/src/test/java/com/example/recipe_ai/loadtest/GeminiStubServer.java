@@ -0,0 +1,237 @@
+package com.example.recipe_ai.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本機的 Gemini 替身 (壓力測試用，不消耗真正的 Gemini 配額)
+ * - POST /v1beta/models/{chat model}:generateContent         回傳固定格式的食譜 JSON
+ * - POST /v1beta/models/{chat model}:streamGenerateContent   同上，以 SSE 分段回傳
+ * - POST /v1beta/models/gemini-2.5-flash-image:generateContent 回傳 inlineData 圖片 (base64)
+ * 每個請求依設定的延遲分布等待，並依失敗率回傳 503 (和 Gemini 過載時一樣)
+ */
+final class GeminiStubServer implements AutoCloseable {
+
+	static final String IMAGE_PATH = "/v1beta/models/gemini-2.5-flash-image:generateContent";
+
+	// 預先編碼幾張不同的圖片輪流回傳 (圖片以 hash 存檔，全部一樣的話只會寫一次檔案)
+	private static final int IMAGE_VARIANTS = 8;
+
+	private static final String OVERLOADED = "{\"error\":{\"code\":503,"
+			+ "\"message\":\"The model is overloaded. Please try again later.\",\"status\":\"UNAVAILABLE\"}}";
+
+	/**
+	 * 替身的行為設定
+	 * @param chatLatency      文字生成的延遲
+	 * @param chatFailureRate  文字生成回傳 503 的機率
+	 * @param imageLatency     圖片生成的延遲
+	 * @param imageFailureRate 圖片生成回傳 503 的機率
+	 * @param imageBytes       圖片大小 (解碼後的 PNG，約略值)
+	 */
+	record Settings(LatencyDistribution chatLatency, double chatFailureRate,
+					LatencyDistribution imageLatency, double imageFailureRate, int imageBytes) {
+
+		/**
+		 * 從系統屬性讀取 (mvn -Ploadtest test -Dloadtest.image.bytes=3145728 …)
+		 */
+		static Settings fromSystemProperties() {
+			return new Settings(
+					LatencyDistribution.parse(System.getProperty("loadtest.chat.latency", "lognormal:300:1500")),
+					Double.parseDouble(System.getProperty("loadtest.chat.failure-rate", "0")),
+					LatencyDistribution.parse(System.getProperty("loadtest.image.latency", "lognormal:800:3000")),
+					Double.parseDouble(System.getProperty("loadtest.image.failure-rate", "0")),
+					Integer.parseInt(System.getProperty("loadtest.image.bytes", "1048576")));
+		}
+	}
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final Settings settings;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final List<byte[]> imageResponses = new ArrayList<>();
+	private final AtomicLong chatCalls = new AtomicLong();
+	private final AtomicLong imageCalls = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	private GeminiStubServer(Settings settings) throws IOException {
+		this.settings = settings;
+		for (int i = 0; i < IMAGE_VARIANTS; i++) {
+			byte[] image = png(settings.imageBytes(), new Random(42 + i));
+			imageResponses.add(imageResponse(Base64.getEncoder().encodeToString(image)));
+		}
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 512);
+		//延遲用 sleep 模擬，每個請求要有自己的執行緒 (虛擬執行緒：不會因為替身增加 OS 執行緒，影響執行緒模型的比較)
+		this.executor = Executors.newVirtualThreadPerTaskExecutor();
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+	}
+
+	static GeminiStubServer start(Settings settings) {
+		try {
+			GeminiStubServer stub = new GeminiStubServer(settings);
+			stub.server.start();
+			return stub;
+		} catch (IOException e) {
+			throw new IllegalStateException("無法啟動 Gemini 替身", e);
+		}
+	}
+
+	String baseUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	String imageApiUrl() {
+		return baseUrl() + IMAGE_PATH;
+	}
+
+	Settings settings() {
+		return settings;
+	}
+
+	long chatCalls() {
+		return chatCalls.get();
+	}
+
+	long imageCalls() {
+		return imageCalls.get();
+	}
+
+	long failures() {
+		return failures.get();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange; InputStream body = exchange.getRequestBody()) {
+			body.transferTo(OutputStream.nullOutputStream());
+			String path = exchange.getRequestURI().getPath();
+			if (path.equals(IMAGE_PATH)) {
+				imageCalls.incrementAndGet();
+				if (delayOrFail(exchange, settings.imageLatency(), settings.imageFailureRate())) {
+					byte[] response = imageResponses.get(ThreadLocalRandom.current().nextInt(IMAGE_VARIANTS));
+					send(exchange, 200, "application/json", response);
+				}
+			} else if (path.endsWith(":streamGenerateContent")) {
+				chatCalls.incrementAndGet();
+				if (delayOrFail(exchange, settings.chatLatency(), settings.chatFailureRate())) {
+					send(exchange, 200, "text/event-stream", chatStream());
+				}
+			} else if (path.endsWith(":generateContent")) {
+				chatCalls.incrementAndGet();
+				if (delayOrFail(exchange, settings.chatLatency(), settings.chatFailureRate())) {
+					send(exchange, 200, "application/json", mapper.writeValueAsBytes(chatChunk(recipeText(), true)));
+				}
+			} else {
+				send(exchange, 404, "application/json", "{\"error\":{\"code\":404}}".getBytes(StandardCharsets.UTF_8));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// 等待模擬的延遲；要失敗時回傳 503 並回傳 false
+	private boolean delayOrFail(HttpExchange exchange, LatencyDistribution latency, double failureRate)
+			throws IOException, InterruptedException {
+		Thread.sleep(Math.max(0, latency.sampleMillis()));
+		if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+			failures.incrementAndGet();
+			send(exchange, 503, "application/json", OVERLOADED.getBytes(StandardCharsets.UTF_8));
+			return false;
+		}
+		return true;
+	}
+
+	private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, body.length);
+		exchange.getResponseBody().write(body);
+	}
+
+	private String recipeText() throws IOException {
+		int n = ThreadLocalRandom.current().nextInt(1000);
+		return mapper.writeValueAsString(Map.of(
+				"title", "壓力測試料理 " + n,
+				"ingredients", List.of("雞腿 2 隻", "番茄 3 顆", "洋蔥 半顆", "蒜頭 3 瓣", "醬油 2 大匙"),
+				"steps", List.of(
+						"雞腿切塊，用醬油醃 15 分鐘。",
+						"熱鍋爆香蒜頭與洋蔥，放入雞腿煎至表面金黃。",
+						"加入切塊番茄與少許水，蓋上鍋蓋小火燉 20 分鐘。",
+						"開蓋收汁，試味道後起鍋。"),
+				"imageUrl", ""));
+	}
+
+	// 把食譜 JSON 切成幾段，以 SSE (alt=sse) 的格式送出
+	private byte[] chatStream() throws IOException {
+		String text = recipeText();
+		StringBuilder sse = new StringBuilder();
+		int chunks = 4;
+		int size = (text.length() + chunks - 1) / chunks;
+		for (int start = 0; start < text.length(); start += size) {
+			int end = Math.min(text.length(), start + size);
+			sse.append("data: ").append(mapper.writeValueAsString(chatChunk(text.substring(start, end), end == text.length())))
+					.append("\r\n\r\n");
+		}
+		return sse.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static Map<String, Object> chatChunk(String text, boolean last) {
+		Map<String, Object> candidate = last
+				? Map.of("content", Map.of("parts", List.of(Map.of("text", text)), "role", "model"), "finishReason", "STOP", "index", 0)
+				: Map.of("content", Map.of("parts", List.of(Map.of("text", text)), "role", "model"), "index", 0);
+		return Map.of(
+				"candidates", List.of(candidate),
+				"usageMetadata", Map.of("promptTokenCount", 350, "candidatesTokenCount", 220, "totalTokenCount", 570),
+				"modelVersion", "gemini-2.5-flash-lite");
+	}
+
+	// 真的 PNG (漸層 + 雜訊，和照片一樣不好壓縮)，大小約為 targetBytes，讓轉檔與縮圖也會被測到
+	private static byte[] png(int targetBytes, Random random) throws IOException {
+		int side = Math.max(16, (int) Math.sqrt(targetBytes / 3.0));
+		BufferedImage image = new BufferedImage(side, side, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < side; y++) {
+			for (int x = 0; x < side; x++) {
+				int r = (x * 255 / side + random.nextInt(24)) & 0xFF;
+				int g = (y * 255 / side + random.nextInt(24)) & 0xFF;
+				int b = ((x + y) * 127 / side + random.nextInt(24)) & 0xFF;
+				image.setRGB(x, y, r << 16 | g << 8 | b);
+			}
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(targetBytes);
+		ImageIO.write(image, "png", bytes);
+		return bytes.toByteArray();
+	}
+
+	private static byte[] imageResponse(String base64) {
+		return ("{\"candidates\":[{\"content\":{\"parts\":["
+				+ "{\"text\":\"這是一盤番茄燉雞腿的完成照。\"},"
+				+ "{\"inlineData\":{\"mimeType\":\"image/png\",\"data\":\"" + base64 + "\"}}"
+				+ "],\"role\":\"model\"},\"finishReason\":\"STOP\",\"index\":0}],"
+				+ "\"usageMetadata\":{\"promptTokenCount\":412,\"candidatesTokenCount\":1290,\"totalTokenCount\":1702},"
+				+ "\"modelVersion\":\"gemini-2.5-flash-image\"}").getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,55 @@
+package com.example.recipe_ai.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 模擬延遲的分布 (毫秒)，由字串設定：
+ * - "200"                 固定 200ms
+ * - "uniform:100:500"     100~500ms 平均分布
+ * - "lognormal:300:1500"  中位數 300ms、p99 1500ms 的對數常態分布 (外部 API 常見的長尾)
+ */
+final class LatencyDistribution {
+
+	// 標準常態分布的 99 百分位
+	private static final double Z_99 = 2.3263;
+
+	private final String spec;
+	private final double a;
+	private final double b;
+	private final boolean lognormal;
+
+	private LatencyDistribution(String spec, double a, double b, boolean lognormal) {
+		this.spec = spec;
+		this.a = a;
+		this.b = b;
+		this.lognormal = lognormal;
+	}
+
+	static LatencyDistribution parse(String spec) {
+		String[] parts = spec.trim().split(":");
+		switch (parts[0]) {
+			case "uniform":
+				return new LatencyDistribution(spec, Double.parseDouble(parts[1]), Double.parseDouble(parts[2]), false);
+			case "lognormal":
+				double median = Double.parseDouble(parts[1]);
+				double p99 = Double.parseDouble(parts[2]);
+				return new LatencyDistribution(spec, Math.log(median), Math.log(p99 / median) / Z_99, true);
+			default:
+				double fixed = Double.parseDouble(parts[0]);
+				return new LatencyDistribution(spec, fixed, fixed, false);
+		}
+	}
+
+	long sampleMillis() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (lognormal) {
+			return Math.round(Math.exp(a + b * random.nextGaussian()));
+		}
+		return Math.round(a + (b - a) * random.nextDouble());
+	}
+
+	@Override
+	public String toString() {
+		return spec;
+	}
+}
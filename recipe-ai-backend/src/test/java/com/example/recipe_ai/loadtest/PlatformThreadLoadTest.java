@@ -0,0 +1,10 @@
+package com.example.recipe_ai.loadtest;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * 執行緒模型比較：Tomcat 執行緒池 (預設)，見 ThreadModelLoadTest
+ */
+@TestPropertySource(properties = "spring.threads.virtual.enabled=false")
+class PlatformThreadLoadTest extends ThreadModelLoadTest {
+}
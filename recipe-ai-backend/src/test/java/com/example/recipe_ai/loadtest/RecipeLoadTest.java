@@ -0,0 +1,359 @@
+package com.example.recipe_ai.loadtest;
+
+import com.google.genai.Client;
+import com.google.genai.types.HttpOptions;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 端對端壓力測試：整個服務 (H2 取代 RDS、GeminiStubServer 取代 Gemini) 對 /api/recipe/generate 重播命中/錯失混合的請求，
+ * 輸出吞吐量、延遲百分位與 heap 使用量。
+ * 預設不會跑 (@Tag("loadtest"))，執行方式：
+ *   ./mvnw test -Ploadtest
+ *   ./mvnw test -Ploadtest -Dloadtest.requests=5000 -Dloadtest.concurrency=64 -Dloadtest.hit-ratio=0.9 \
+ *       -Dloadtest.image.bytes=3145728 -Dloadtest.image.latency=lognormal:2000:8000 -Dloadtest.chat.failure-rate=0.02
+ * 設定 (系統屬性)：
+ * - loadtest.requests      量測的請求數 (預設 2000)
+ * - loadtest.concurrency   同時送出的請求數 (預設 32)
+ * - loadtest.hit-ratio     命中快取的比例 (預設 0.8)
+ * - loadtest.hot-keys      預先生成、之後會被命中的 key 數 (預設 50)
+ * - loadtest.chat.latency / loadtest.image.latency、failure-rate、loadtest.image.bytes 見 GeminiStubServer.Settings
+ * 注意 heap 使用量包含替身與壓測程式本身 (同一個 JVM)。
+ */
+@Tag("loadtest")
+@ActiveProfiles("loadtest")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class RecipeLoadTest {
+
+	private static GeminiStubServer stub;
+
+	@LocalServerPort
+	private int port;
+
+	@DynamicPropertySource
+	static void geminiStub(DynamicPropertyRegistry registry) {
+		stub = GeminiStubServer.start(GeminiStubServer.Settings.fromSystemProperties());
+		registry.add("gemini.image.api-url", stub::imageApiUrl);
+		registry.add("loadtest.stub.base-url", stub::baseUrl);
+	}
+
+	@AfterAll
+	static void stopStub() {
+		stub.close();
+	}
+
+	/**
+	 * Spring AI 的 ChatModel 改連到替身
+	 */
+	@TestConfiguration
+	static class StubGeminiClientConfig {
+		@Bean
+		Client googleGenAiClient(@Value("${loadtest.stub.base-url}") String baseUrl) {
+			return Client.builder()
+					.apiKey("loadtest")
+					.httpOptions(HttpOptions.builder().baseUrl(baseUrl).build())
+					.build();
+		}
+	}
+
+	@Test
+	void replayHitMissMix() throws Exception {
+		int requests = Integer.getInteger("loadtest.requests", 2000);
+		int concurrency = Integer.getInteger("loadtest.concurrency", 32);
+		double hitRatio = Double.parseDouble(System.getProperty("loadtest.hit-ratio", "0.8"));
+		int hotKeys = Integer.getInteger("loadtest.hot-keys", 50);
+
+		HttpClient client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(Duration.ofSeconds(5))
+				.build();
+		URI uri = URI.create("http://localhost:" + port + "/api/recipe/generate");
+
+		//1. 預先生成會被命中的 key (不計入結果)
+		ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+		try {
+			List<Future<Integer>> warmup = new ArrayList<>();
+			for (int i = 0; i < hotKeys; i++) {
+				String body = requestBody("hot" + i);
+				warmup.add(pool.submit(() -> send(client, uri, body).statusCode()));
+			}
+			for (Future<Integer> result : warmup) {
+				result.get();
+			}
+
+			//2. 依命中比例排好要送的請求：命中 → 隨機挑一個熱門 key；錯失 → 全新的 key
+			Random random = new Random(7);
+			String[] bodies = new String[requests];
+			boolean[] hit = new boolean[requests];
+			for (int i = 0; i < requests; i++) {
+				hit[i] = random.nextDouble() < hitRatio;
+				bodies[i] = requestBody(hit[i] ? "hot" + random.nextInt(hotKeys) : "miss" + i);
+			}
+
+			//3. 送出請求，同時每 100ms 記錄 heap 使用量
+			long[] latencyNanos = new long[requests];
+			int[] status = new int[requests];
+			MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+			AtomicLong peakHeap = new AtomicLong();
+			ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+			sampler.scheduleAtFixedRate(() -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+					0, 100, TimeUnit.MILLISECONDS);
+			long gcCountBefore = gcCount();
+			long gcTimeBefore = gcTimeMillis();
+
+			long start = System.nanoTime();
+			List<Future<?>> futures = new ArrayList<>(requests);
+			for (int i = 0; i < requests; i++) {
+				int index = i;
+				futures.add(pool.submit(() -> {
+					long t0 = System.nanoTime();
+					try {
+						status[index] = send(client, uri, bodies[index]).statusCode();
+					} catch (Exception e) {
+						status[index] = -1;
+					}
+					latencyNanos[index] = System.nanoTime() - t0;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+			double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+			sampler.shutdownNow();
+
+			//4. 報告
+			int ok = 0;
+			for (int code : status) {
+				if (code == 200) {
+					ok++;
+				}
+			}
+			System.out.printf("%n===== 壓力測試結果 =====%n");
+			System.out.printf("請求 %d (並行 %d，命中比例 %.2f，熱門 key %d)，耗時 %.1fs，吞吐量 %.1f req/s%n",
+					requests, concurrency, hitRatio, hotKeys, elapsedSeconds, requests / elapsedSeconds);
+			System.out.printf("成功 %d，失敗 %d，狀態碼 %s%n", ok, requests - ok, statusSummary(status));
+			System.out.printf("延遲 (ms)   %8s %8s %8s %8s %8s%n", "p50", "p90", "p99", "p99.9", "max");
+			System.out.println(percentiles("全部", latencyNanos, hit, null));
+			System.out.println(percentiles("命中", latencyNanos, hit, true));
+			System.out.println(percentiles("錯失", latencyNanos, hit, false));
+			System.out.printf("heap 峰值 %,d MB，結束時 %,d MB，GC %d 次 / %d ms%n",
+					peakHeap.get() >> 20, memory.getHeapMemoryUsage().getUsed() >> 20,
+					gcCount() - gcCountBefore, gcTimeMillis() - gcTimeBefore);
+			System.out.printf("Gemini 替身：文字 %d 次、圖片 %d 次、503 %d 次 (%s)%n",
+					stub.chatCalls(), stub.imageCalls(), stub.failures(), stub.settings());
+
+			assertTrue(ok > 0, "沒有任何請求成功");
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void conditionalGetsReturnNotModified() throws Exception {
+		int requests = Integer.getInteger("loadtest.requests", 2000);
+		HttpClient client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(Duration.ofSeconds(5))
+				.build();
+
+		//1. POST 生成一份食譜，回應的 Content-Location 就是食譜的資源網址
+		HttpResponse<Void> created = send(client, URI.create("http://localhost:" + port + "/api/recipe/generate"), requestBody("etag"));
+		assertEquals(200, created.statusCode());
+		String location = created.headers().firstValue("Content-Location").orElseThrow();
+		URI resource = URI.create("http://localhost:" + port + location);
+
+		//2. 第一次 GET 拿到 ETag，之後帶 If-None-Match 都應該是 304 (沒有內容)
+		HttpResponse<byte[]> first = client.send(HttpRequest.newBuilder(resource).header("Accept-Encoding", "gzip").build(),
+				HttpResponse.BodyHandlers.ofByteArray());
+		assertEquals(200, first.statusCode());
+		String etag = first.headers().firstValue("ETag").orElseThrow();
+		assertTrue(first.headers().firstValue("Cache-Control").orElseThrow().contains("max-age"));
+
+		long[] latencyNanos = new long[requests];
+		int notModified = 0;
+		for (int i = 0; i < requests; i++) {
+			long t0 = System.nanoTime();
+			HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder(resource)
+					.header("Accept-Encoding", "gzip")
+					.header("If-None-Match", etag)
+					.build(), HttpResponse.BodyHandlers.ofByteArray());
+			latencyNanos[i] = System.nanoTime() - t0;
+			if (response.statusCode() == 304 && response.body().length == 0) {
+				notModified++;
+			}
+		}
+		Arrays.sort(latencyNanos);
+		System.out.printf("%n===== 條件式 GET =====%n");
+		System.out.printf("%s 第一次 %d bytes (gzip)，之後 %d 次 304，p50 %.2f ms，p99 %.2f ms%n",
+				location, first.body().length, notModified, millis(latencyNanos, 0.50), millis(latencyNanos, 0.99));
+		assertEquals(requests, notModified);
+	}
+
+	@Test
+	void concurrentStreamsShareOneGeneration() throws Exception {
+		int streams = Integer.getInteger("loadtest.concurrency", 32);
+		HttpClient client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(Duration.ofSeconds(5))
+				.build();
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/recipe/generate/stream"))
+				.header("Content-Type", "application/json")
+				.header("Accept", "text/event-stream")
+				.timeout(Duration.ofMinutes(3))
+				.POST(HttpRequest.BodyPublishers.ofString(requestBody("stream")))
+				.build();
+
+		//1. 同一份食材同時開 N 條串流：只有第一條呼叫 Gemini，其他等它完成後重播結果
+		long chatCallsBefore = stub.chatCalls();
+		List<Future<HttpResponse<String>>> futures = new ArrayList<>();
+		try (ExecutorService pool = Executors.newFixedThreadPool(streams)) {
+			for (int i = 0; i < streams; i++) {
+				futures.add(pool.submit(() -> client.send(request, HttpResponse.BodyHandlers.ofString())));
+			}
+		}
+
+		//2. 每條串流都收到完整的食譜 (done 事件)
+		int done = 0;
+		for (Future<HttpResponse<String>> future : futures) {
+			HttpResponse<String> response = future.get();
+			if (response.statusCode() == 200 && response.body().contains("event:done")) {
+				done++;
+			}
+		}
+		long chatCalls = stub.chatCalls() - chatCallsBefore;
+		System.out.printf("%n===== 同時串流 =====%n%d 條串流完成 %d 條，Gemini 文字呼叫 %d 次%n", streams, done, chatCalls);
+		assertEquals(streams, done);
+		assertEquals(1, chatCalls);
+	}
+
+	@Test
+	void batchPersistsEveryGeneratedItem() throws Exception {
+		int items = 16;
+		HttpClient client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(Duration.ofSeconds(5))
+				.build();
+		StringBuilder body = new StringBuilder("{\"items\":[");
+		for (int i = 0; i < items; i++) {
+			body.append(i == 0 ? "" : ",").append(requestBody("batch" + i));
+		}
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/recipe/generate/batch"))
+				.header("Content-Type", "application/json")
+				.timeout(Duration.ofMinutes(3))
+				.POST(HttpRequest.BodyPublishers.ofString(body.append("]}").toString()))
+				.build();
+
+		//1. 第一次全部由 AI 生成，每一組生成完就排入寫入佇列
+		HttpResponse<String> first = client.send(request, HttpResponse.BodyHandlers.ofString());
+		assertEquals(200, first.statusCode());
+		assertEquals(items, countOf(first.body(), "\"cached\":false"));
+
+		//2. 同一批再送一次：全部命中快取，不再呼叫 Gemini
+		long chatCallsBefore = stub.chatCalls();
+		HttpResponse<String> second = client.send(request, HttpResponse.BodyHandlers.ofString());
+		assertEquals(200, second.statusCode());
+		assertEquals(items, countOf(second.body(), "\"cached\":true"));
+		assertEquals(chatCallsBefore, stub.chatCalls());
+	}
+
+	private static int countOf(String text, String token) {
+		int count = 0;
+		for (int i = text.indexOf(token); i >= 0; i = text.indexOf(token, i + token.length())) {
+			count++;
+		}
+		return count;
+	}
+
+	static HttpResponse<Void> send(HttpClient client, URI uri, String body) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(uri)
+				.header("Content-Type", "application/json")
+				.header("Accept-Encoding", "gzip")
+				.timeout(Duration.ofMinutes(3))
+				.POST(HttpRequest.BodyPublishers.ofString(body))
+				.build();
+		return client.send(request, HttpResponse.BodyHandlers.discarding());
+	}
+
+	// 每個 key 的食材都是獨有的詞，不會被相似食材索引當成其他 key 的命中
+	static String requestBody(String key) {
+		return "{\"ingredients\":\"" + key + "雞肉, " + key + "洋蔥\",\"styleOrDiet\":\"家常\",\"asyncImage\":false}";
+	}
+
+	private static String percentiles(String label, long[] latencyNanos, boolean[] hit, Boolean filter) {
+		long[] selected = new long[latencyNanos.length];
+		int n = 0;
+		for (int i = 0; i < latencyNanos.length; i++) {
+			if (filter == null || hit[i] == filter) {
+				selected[n++] = latencyNanos[i];
+			}
+		}
+		if (n == 0) {
+			return String.format("%-8s    (沒有請求)", label);
+		}
+		long[] sorted = Arrays.copyOf(selected, n);
+		Arrays.sort(sorted);
+		return String.format("%-8s %8.1f %8.1f %8.1f %8.1f %8.1f  (%d 筆)", label,
+				millis(sorted, 0.50), millis(sorted, 0.90), millis(sorted, 0.99), millis(sorted, 0.999),
+				sorted[n - 1] / 1e6, n);
+	}
+
+	static double millis(long[] sorted, double quantile) {
+		int index = (int) Math.ceil(quantile * sorted.length) - 1;
+		return sorted[Math.max(0, index)] / 1e6;
+	}
+
+	static String statusSummary(int[] status) {
+		TreeMap<Integer, Integer> counts = new TreeMap<>();
+		for (int code : status) {
+			counts.merge(code, 1, Integer::sum);
+		}
+		return counts.toString();
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long gcTimeMillis() {
+		long time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, gc.getCollectionTime());
+		}
+		return time;
+	}
+}
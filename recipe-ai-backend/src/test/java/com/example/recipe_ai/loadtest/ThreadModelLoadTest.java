@@ -0,0 +1,168 @@
+package com.example.recipe_ai.loadtest;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 執行緒模型的比較：同樣的負載分別用 Tomcat 執行緒池 (PlatformThreadLoadTest) 與虛擬執行緒 (VirtualThreadLoadTest) 跑一次
+ * 負載：大量同時送出的錯失請求 (每個都要等 Gemini 文字 + 圖片各 1 秒)，期間再送出命中快取的請求
+ * - 平台執行緒：同時處理的請求數被 server.tomcat.threads.max 卡住，錯失請求分批完成，命中請求也要排隊
+ * - 虛擬執行緒：等待 Gemini 時不佔用 OS 執行緒，並行上限改由 recipe.limit.* 決定
+ * 兩邊的 AI 並行上限、連線池都調成足夠大，圖片很小且不轉檔 (每個請求的 CPU 工作很少)，差別只來自執行緒模型。執行方式：
+ *   ./mvnw test -Ploadtest -Dtest='*ThreadLoadTest'
+ *   ./mvnw test -Ploadtest -Dtest='*ThreadLoadTest' -Dloadtest.threads.slow-requests=800 -Dloadtest.threads.tomcat-max=200
+ * 設定 (系統屬性)：
+ * - loadtest.threads.slow-requests  同時送出的錯失請求數 (預設 400)
+ * - loadtest.threads.fast-requests  期間送出的命中請求數 (預設 200)
+ * - loadtest.threads.warmup        量測前暖機的錯失請求數 (預設 400)
+ * - loadtest.threads.tomcat-max     Tomcat 執行緒池大小 (預設 100，只影響平台執行緒)
+ * OS 執行緒數是整個 JVM 的：兩個一起跑時前一個的 Spring context 還留著，要比較執行緒數請分開跑 (-Dtest=VirtualThreadLoadTest)
+ */
+@Tag("loadtest")
+@ActiveProfiles("loadtest")
+@Import(RecipeLoadTest.StubGeminiClientConfig.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+		"server.tomcat.threads.max=${loadtest.threads.tomcat-max:100}",
+		"recipe.limit.text.initial=1000", "recipe.limit.text.min=1000", "recipe.limit.text.max=1000",
+		"recipe.limit.text.queue-capacity=1000",
+		"recipe.limit.image.initial=1000", "recipe.limit.image.min=1000", "recipe.limit.image.max=1000",
+		"recipe.limit.image.queue-capacity=1000",
+		"gemini.image.http.max-connections=1000", "gemini.image.http.max-connections-per-route=1000",
+		"spring.datasource.hikari.maximum-pool-size=50",
+		//轉檔是 CPU 工作，與執行緒模型無關，關掉才不會蓋過等待的差別
+		"recipe.image.rendition.enabled=false",
+		//每個錯失請求都要等圖片模型 (替身的料理名稱會重複)
+		"recipe.image.reuse.policy=off",
+		//每個錯失請求只呼叫 Gemini 文字、圖片各一次：對沖與重試會讓兩種執行緒模型送出的請求數不同
+		"recipe.resilience.chat.hedge=false", "recipe.resilience.image.hedge=false",
+		"recipe.resilience.chat.max-attempts=1", "recipe.resilience.image.max-attempts=1"
+})
+abstract class ThreadModelLoadTest {
+
+	private static GeminiStubServer stub;
+
+	@LocalServerPort
+	private int port;
+
+	@Value("${spring.threads.virtual.enabled:false}")
+	private boolean virtualThreads;
+
+	@DynamicPropertySource
+	static void geminiStub(DynamicPropertyRegistry registry) {
+		//固定延遲，兩種執行緒模型才能直接比較
+		stub = GeminiStubServer.start(new GeminiStubServer.Settings(
+				LatencyDistribution.parse("1000"), 0, LatencyDistribution.parse("1000"), 0, 4096));
+		registry.add("gemini.image.api-url", stub::imageApiUrl);
+		registry.add("loadtest.stub.base-url", stub::baseUrl);
+	}
+
+	@AfterAll
+	static void stopStub() {
+		stub.close();
+	}
+
+	@Test
+	void slowMissesDoNotStarveHits() throws Exception {
+		int slowRequests = Integer.getInteger("loadtest.threads.slow-requests", 400);
+		int fastRequests = Integer.getInteger("loadtest.threads.fast-requests", 200);
+		int warmupRequests = Integer.getInteger("loadtest.threads.warmup", 400);
+
+		HttpClient client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(Duration.ofSeconds(5))
+				.build();
+		URI uri = URI.create("http://localhost:" + port + "/api/recipe/generate");
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+		//壓測端自己用虛擬執行緒送請求，不佔用 OS 執行緒 (不影響執行緒數的比較)
+		try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+			threads.resetPeakThreadCount();
+			int threadsBefore = threads.getThreadCount();
+
+			//1. 先生成命中用的 key，再用一批錯失請求暖機 (JIT 編譯)，不計入結果
+			assertEquals(200, RecipeLoadTest.send(client, uri, RecipeLoadTest.requestBody("threadhot")).statusCode());
+			String hitBody = RecipeLoadTest.requestBody("threadhot");
+			List<Future<Integer>> warmup = new ArrayList<>(warmupRequests);
+			for (int i = 0; i < warmupRequests; i++) {
+				String body = RecipeLoadTest.requestBody("threadwarm" + (virtualThreads ? "v" : "p") + i);
+				warmup.add(pool.submit(() -> RecipeLoadTest.send(client, uri, body).statusCode()));
+			}
+			for (Future<Integer> result : warmup) {
+				result.get();
+			}
+
+			//2. 同時送出所有錯失請求
+			long start = System.nanoTime();
+			long[] slowDone = new long[slowRequests];
+			List<Future<Integer>> slow = new ArrayList<>(slowRequests);
+			for (int i = 0; i < slowRequests; i++) {
+				int index = i;
+				String body = RecipeLoadTest.requestBody("thread" + (virtualThreads ? "v" : "p") + i);
+				slow.add(pool.submit(() -> {
+					int code = RecipeLoadTest.send(client, uri, body).statusCode();
+					slowDone[index] = System.nanoTime() - start;
+					return code;
+				}));
+			}
+
+			//3. 錯失請求都在等 Gemini 的時候，送出命中請求
+			Thread.sleep(300);
+			long[] fastLatency = new long[fastRequests];
+			List<Future<Integer>> fast = new ArrayList<>(fastRequests);
+			for (int i = 0; i < fastRequests; i++) {
+				int index = i;
+				fast.add(pool.submit(() -> {
+					long t0 = System.nanoTime();
+					int code = RecipeLoadTest.send(client, uri, hitBody).statusCode();
+					fastLatency[index] = System.nanoTime() - t0;
+					return code;
+				}));
+			}
+
+			int[] status = new int[slowRequests + fastRequests];
+			int ok = 0;
+			for (int i = 0; i < status.length; i++) {
+				status[i] = (i < slowRequests ? slow.get(i) : fast.get(i - slowRequests)).get();
+				ok += status[i] == 200 ? 1 : 0;
+			}
+			double elapsedSeconds = Arrays.stream(slowDone).max().orElse(0) / 1e9;
+
+			//4. 報告
+			Arrays.sort(slowDone);
+			Arrays.sort(fastLatency);
+			System.out.printf("%n===== 執行緒模型：%s =====%n", virtualThreads ? "虛擬執行緒" : "平台執行緒 (Tomcat 執行緒池)");
+			System.out.printf("錯失 %d 筆 (Gemini 文字 + 圖片各 1s)：全部完成 %.1fs，吞吐量 %.1f req/s，p50 %.0f ms，p99 %.0f ms%n",
+					slowRequests, elapsedSeconds, slowRequests / elapsedSeconds,
+					RecipeLoadTest.millis(slowDone, 0.50), RecipeLoadTest.millis(slowDone, 0.99));
+			System.out.printf("命中 %d 筆 (同時進行)：p50 %.1f ms，p99 %.1f ms%n",
+					fastRequests, RecipeLoadTest.millis(fastLatency, 0.50), RecipeLoadTest.millis(fastLatency, 0.99));
+			System.out.printf("成功 %d，失敗 %d，狀態碼 %s%n", ok, status.length - ok, RecipeLoadTest.statusSummary(status));
+			System.out.printf("OS 執行緒：開始 %d，峰值 %d%n", threadsBefore, threads.getPeakThreadCount());
+			System.out.printf("Gemini 替身：文字 %d 次、圖片 %d 次%n", stub.chatCalls(), stub.imageCalls());
+
+			assertEquals(slowRequests + fastRequests, ok);
+		}
+	}
+}
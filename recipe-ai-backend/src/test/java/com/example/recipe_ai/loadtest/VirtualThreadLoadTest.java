@@ -0,0 +1,10 @@
+package com.example.recipe_ai.loadtest;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * 執行緒模型比較：虛擬執行緒 (spring.threads.virtual.enabled=true)，見 ThreadModelLoadTest
+ */
+@TestPropertySource(properties = "spring.threads.virtual.enabled=true")
+class VirtualThreadLoadTest extends ThreadModelLoadTest {
+}
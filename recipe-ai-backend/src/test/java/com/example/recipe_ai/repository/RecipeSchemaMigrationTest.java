@@ -0,0 +1,147 @@
+package com.example.recipe_ai.repository;
+
+import com.example.recipe_ai.H2MySqlLocks;
+import com.example.recipe_ai.entity.RecipeCache;
+import com.example.recipe_ai.entity.StringListJsonConverter;
+import com.example.recipe_ai.key.RecipeKeyMigration;
+import com.example.recipe_ai.key.RecipeKeyNormalizer;
+import com.example.recipe_ai.key.SynonymIngredientDictionary;
+import com.example.recipe_ai.metrics.RecipeMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Flyway 遷移 (V1 SQL、V2 RecipeKeyMigration、V3 RecipeCacheColumnsMigration、V4 SQL、V5 RecipeListJsonMigration)
+ * 在 H2 MySQL 模式下的結果：
+ * 全新資料庫、最初版本的資料庫、ddl-auto=update 時期已經是新結構的資料庫，最後都是 RecipeCache entity 需要的欄位
+ */
+class RecipeSchemaMigrationTest {
+
+	private static final Set<String> ENTITY_COLUMNS = Set.of("id", "normalized_key", "title", "ingredients", "steps",
+			"image_url", "image_hash", "response_payload", "hit_count", "last_accessed_at");
+
+	private final RecipeKeyNormalizer normalizer =
+			new RecipeKeyNormalizer(new SynonymIngredientDictionary(new ClassPathResource("ingredient-synonyms.txt")));
+	private JdbcDataSource dataSource;
+	private JdbcTemplate jdbcTemplate;
+
+	@BeforeEach
+	void setUp() {
+		dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:schema_" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		H2MySqlLocks.register(jdbcTemplate);
+	}
+
+	@Test
+	void migratesEmptyDatabase() {
+		migrate();
+		assertEquals(ENTITY_COLUMNS, columns());
+		assertEquals("5", flyway().info().current().getVersion().getVersion());
+
+		// 寫入路徑 (write-behind 的 upsert) 可以直接使用
+		RecipeWriteBehindQueue queue = new RecipeWriteBehindQueue(dataSource, new RecipeMetrics(new SimpleMeterRegistry()),
+				false, 10, 10, Duration.ofMillis(10), Duration.ofSeconds(1), 0, Duration.ofMillis(10), Duration.ofSeconds(5));
+		try {
+			RecipeCache entry = new RecipeCache();
+			entry.setId(RecipeKeyNormalizer.idOf("洋蔥|雞肉::"));
+			entry.setNormalizedKey("洋蔥|雞肉::");
+			entry.setTitle("洋蔥炒雞肉");
+			entry.setSteps(List.of("熱鍋"));
+			entry.setResponsePayload(new byte[] {1, 2, 3});
+			queue.enqueue(entry);
+			// 很長的食材清單 (normalized_key 超過以前 VARCHAR(2048) 的長度)
+			RecipeCache longKey = new RecipeCache();
+			longKey.setNormalizedKey("洋蔥|".repeat(1000) + "::");
+			longKey.setId(RecipeKeyNormalizer.idOf(longKey.getNormalizedKey()));
+			longKey.setTitle("很多洋蔥");
+			queue.enqueue(longKey);
+		} finally {
+			queue.shutdown();
+		}
+		assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM recipe_cache WHERE response_payload IS NOT NULL", Integer.class));
+		assertEquals(2, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM recipe_cache", Integer.class));
+
+		// 再啟動一次：已經是最新版本
+		migrate();
+		assertEquals(ENTITY_COLUMNS, columns());
+	}
+
+	@Test
+	void upgradesDatabaseCreatedByFirstVersion() {
+		// 最初版本 (還沒有 Flyway) 由 Hibernate 建立的資料表
+		jdbcTemplate.execute("CREATE TABLE recipe_cache (key_id VARCHAR(512) NOT NULL PRIMARY KEY, "
+				+ "title VARCHAR(512), ingredients TEXT, steps MEDIUMTEXT, image_url MEDIUMTEXT)");
+		// 舊格式的食材/步驟；第一項以 '[' 開頭也是舊格式
+		jdbcTemplate.update("INSERT INTO recipe_cache (key_id, title, ingredients, steps) VALUES (?, ?, ?, ?)",
+				"番茄|雞蛋::", "番茄炒蛋", "[可選] 香菜||番茄 2 顆||雞蛋 3 顆", "番茄切塊||炒蛋");
+		jdbcTemplate.update("INSERT INTO recipe_cache (key_id, title, ingredients, steps) VALUES (?, ?, ?, ?)",
+				"洋蔥|豬肉::", "洋蔥炒豬肉", "[\"洋蔥 1 顆\"]", null);
+
+		migrate();
+		assertEquals(ENTITY_COLUMNS, columns());
+		String key = normalizer.normalizeLegacyKey("番茄|雞蛋::");
+		assertEquals("番茄炒蛋", jdbcTemplate.queryForObject("SELECT title FROM recipe_cache WHERE normalized_key = ?",
+				String.class, key));
+
+		StringListJsonConverter converter = new StringListJsonConverter();
+		Map<String, Object> row = jdbcTemplate.queryForMap("SELECT ingredients, steps FROM recipe_cache WHERE normalized_key = ?", key);
+		assertEquals(List.of("[可選] 香菜", "番茄 2 顆", "雞蛋 3 顆"), converter.convertToEntityAttribute((String) row.get("ingredients")));
+		assertEquals(List.of("番茄切塊", "炒蛋"), converter.convertToEntityAttribute((String) row.get("steps")));
+		// 已經是 JSON 的不動
+		row = jdbcTemplate.queryForMap("SELECT ingredients, steps FROM recipe_cache WHERE normalized_key = ?",
+				normalizer.normalizeLegacyKey("洋蔥|豬肉::"));
+		assertEquals("[\"洋蔥 1 顆\"]", row.get("ingredients"));
+		assertNull(row.get("steps"));
+	}
+
+	@Test
+	void keepsDatabaseAlreadyUpdatedByHibernate() {
+		// ddl-auto=update 時期已經是新結構，只是沒有 flyway_schema_history
+		jdbcTemplate.execute("CREATE TABLE recipe_cache (id BINARY(16) NOT NULL PRIMARY KEY, "
+				+ "normalized_key VARCHAR(2048) NOT NULL, title VARCHAR(512), ingredients TEXT, steps MEDIUMTEXT, "
+				+ "image_url MEDIUMTEXT, image_hash VARCHAR(64), response_payload MEDIUMBLOB, "
+				+ "hit_count BIGINT, last_accessed_at BIGINT)");
+
+		migrate();
+		assertEquals(ENTITY_COLUMNS, columns());
+		assertEquals("5", flyway().info().current().getVersion().getVersion());
+		// V4：VARCHAR(2048) → TEXT (H2 的 MySQL 模式把 TEXT 當成沒有長度限制的 VARCHAR)
+		assertTrue(jdbcTemplate.queryForObject("SELECT character_maximum_length FROM information_schema.columns "
+				+ "WHERE table_name = 'recipe_cache' AND column_name = 'normalized_key'", Long.class) > 2048);
+	}
+
+	private void migrate() {
+		flyway().migrate();
+	}
+
+	// 與 application.properties 的 spring.flyway.* 相同
+	private Flyway flyway() {
+		return Flyway.configure()
+				.dataSource(dataSource)
+				.baselineOnMigrate(true)
+				.baselineVersion("1")
+				.javaMigrations(new RecipeKeyMigration(dataSource, normalizer, 500, Duration.ofSeconds(30)),
+						new RecipeCacheColumnsMigration(), new RecipeListJsonMigration(2))
+				.load();
+	}
+
+	private Set<String> columns() {
+		return new HashSet<>(jdbcTemplate.queryForList(
+				"SELECT column_name FROM information_schema.columns WHERE table_name = 'recipe_cache'", String.class));
+	}
+}
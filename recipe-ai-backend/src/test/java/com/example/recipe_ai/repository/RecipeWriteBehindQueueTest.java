@@ -0,0 +1,126 @@
+package com.example.recipe_ai.repository;
+
+import com.example.recipe_ai.entity.RecipeCache;
+import com.example.recipe_ai.key.RecipeKeyNormalizer;
+import com.example.recipe_ai.metrics.RecipeMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecipeWriteBehindQueueTest {
+
+	private JdbcDataSource dataSource;
+	private JdbcTemplate jdbcTemplate;
+	private RecipeWriteBehindQueue queue;
+
+	@BeforeEach
+	void setUp() {
+		dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:write_behind_" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		// 與 Hibernate 依 RecipeCache 建立的資料表相同
+		jdbcTemplate.execute("CREATE TABLE recipe_cache (id BINARY(16) NOT NULL PRIMARY KEY, "
+				+ "normalized_key TEXT NOT NULL, title VARCHAR(512), ingredients TEXT, steps MEDIUMTEXT, "
+				+ "image_url MEDIUMTEXT, image_hash VARCHAR(64), response_payload MEDIUMBLOB, "
+				+ "hit_count BIGINT, last_accessed_at BIGINT)");
+	}
+
+	@AfterEach
+	void tearDown() {
+		if (queue != null) {
+			queue.shutdown();
+		}
+	}
+
+	@Test
+	void queuedEntriesAreReadableAndFlushedOnShutdown() {
+		// flush-interval 很長：湊滿 50 筆的兩批先寫入，剩下 20 筆留在佇列
+		queue = queue(true, Duration.ofSeconds(30));
+		for (int i = 0; i < 120; i++) {
+			queue.enqueue(entry("食材" + i + "::", null));
+		}
+		// 寫入完成前也查得到
+		UUID last = RecipeKeyNormalizer.idOf("食材119::");
+		assertEquals("料理 食材119::", queue.find(last).orElseThrow().getTitle());
+
+		queue.shutdown();
+		assertEquals(120, count());
+		assertTrue(queue.find(last).isEmpty(), "寫入後就不用留在 pending");
+	}
+
+	@Test
+	void upsertUpdatesExistingRowWithoutDroppingImage() {
+		queue = queue(false, Duration.ofMillis(50));
+		RecipeCache entry = entry("洋蔥|雞肉::", null);
+		queue.enqueue(entry);
+		assertFalse(entry.isNew(), "寫入後之後的 JPA save 要走 UPDATE");
+
+		// 圖片完成後的更新
+		entry.setImageHash("abc");
+		entry.setResponsePayload(new byte[] {1, 2, 3});
+		queue.enqueue(entry);
+		assertEquals("abc", imageHash(entry.getId()));
+
+		// 其他服務實例晚一步存了沒有圖片的版本：不能把圖片清掉
+		queue.enqueue(entry("洋蔥|雞肉::", null));
+		assertEquals(1, count());
+		assertEquals("abc", imageHash(entry.getId()));
+	}
+
+	@Test
+	void badRowDoesNotDropTheRestOfItsBatch() {
+		queue = queue(true, Duration.ofSeconds(30));
+		for (int i = 0; i < 49; i++) {
+			queue.enqueue(entry("食材" + i + "::", null));
+		}
+		// 標題超過欄位長度 (VARCHAR(512))：這一筆永遠寫不進去
+		RecipeCache oversized = entry("太長::", null);
+		oversized.setTitle("長".repeat(600));
+		queue.enqueue(oversized);
+
+		queue.shutdown();
+		assertEquals(49, count());
+		assertEquals("料理 食材48::", jdbcTemplate.queryForObject("SELECT title FROM recipe_cache WHERE id = ?",
+				String.class, (Object) bytes(RecipeKeyNormalizer.idOf("食材48::"))));
+		assertTrue(queue.find(oversized.getId()).isEmpty());
+	}
+
+	private RecipeWriteBehindQueue queue(boolean enabled, Duration flushInterval) {
+		return new RecipeWriteBehindQueue(dataSource, new RecipeMetrics(new SimpleMeterRegistry()), enabled,
+				1000, 50, flushInterval, Duration.ofSeconds(1), 1, Duration.ofMillis(10), Duration.ofSeconds(10));
+	}
+
+	private static RecipeCache entry(String key, String imageHash) {
+		RecipeCache entry = new RecipeCache();
+		entry.setId(RecipeKeyNormalizer.idOf(key));
+		entry.setNormalizedKey(key);
+		entry.setTitle("料理 " + key);
+		entry.setIngredients(List.of("洋蔥 半顆"));
+		entry.setSteps(List.of("切絲", "炒香"));
+		entry.setImageHash(imageHash);
+		return entry;
+	}
+
+	private int count() {
+		return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM recipe_cache", Integer.class);
+	}
+
+	private String imageHash(UUID id) {
+		return jdbcTemplate.queryForObject("SELECT image_hash FROM recipe_cache WHERE id = ?", String.class,
+				(Object) bytes(id));
+	}
+
+	private static byte[] bytes(UUID id) {
+		return java.nio.ByteBuffer.allocate(16).putLong(id.getMostSignificantBits())
+				.putLong(id.getLeastSignificantBits()).array();
+	}
+}
@@ -0,0 +1,152 @@
+package com.example.recipe_ai.service;
+
+import com.example.recipe_ai.config.GeminiHttpClientConfig;
+import com.example.recipe_ai.exception.ApiException;
+import com.example.recipe_ai.limit.AdaptiveConcurrencyLimiter;
+import com.example.recipe_ai.limit.CircuitBreaker;
+import com.example.recipe_ai.limit.ResilientCaller;
+import com.example.recipe_ai.metrics.RecipeMetrics;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 用本機 stub 伺服器模擬 Gemini 圖片 API，驗證連線池重用與 timeout
+ */
+class GeminiImageServiceTest {
+
+	private static final String IMAGE_RESPONSE = """
+			{"candidates":[{"content":{"parts":[{"text":"好的"},{"inlineData":{"mimeType":"image/png","data":"iVBORw0KGgo="}}]}}]}
+			""";
+
+	private HttpServer server;
+	private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+	private volatile long delayMillis;
+	private volatile int statusCode = 200;
+	private PoolingHttpClientConnectionManager connectionManager;
+	private CloseableHttpClient httpClient;
+
+	@BeforeEach
+	void startStub() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/v1beta/models/gemini-2.5-flash-image:generateContent", exchange -> {
+			clientPorts.add(exchange.getRemoteAddress().getPort());
+			exchange.getRequestBody().readAllBytes();
+			try {
+				Thread.sleep(delayMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			byte[] body = IMAGE_RESPONSE.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			try {
+				exchange.sendResponseHeaders(statusCode, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			} catch (IOException e) {
+				// 用戶端已經因為 timeout 中斷
+			}
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+	}
+
+	@AfterEach
+	void stopStub() throws IOException {
+		if (httpClient != null) {
+			httpClient.close();
+		}
+		server.stop(0);
+	}
+
+	private static Object awaitLeased(GeminiImageService service, int expected) throws InterruptedException {
+		long deadline = System.nanoTime() + Duration.ofSeconds(1).toNanos();
+		Object leased = service.poolStats().get("leased");
+		while (!Integer.valueOf(expected).equals(leased) && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+			leased = service.poolStats().get("leased");
+		}
+		return leased;
+	}
+
+	private GeminiImageService service(Duration readTimeout, Duration totalTimeout) {
+		connectionManager = GeminiHttpClientConfig.createConnectionManager(4, 4,
+				Duration.ofSeconds(2), readTimeout, Duration.ofMinutes(5));
+		httpClient = GeminiHttpClientConfig.createHttpClient(connectionManager,
+				Duration.ofSeconds(2), readTimeout, Duration.ofSeconds(30));
+		String url = "http://127.0.0.1:" + server.getAddress().getPort()
+				+ "/v1beta/models/gemini-2.5-flash-image:generateContent";
+		return new GeminiImageService(httpClient, connectionManager, new RecipeMetrics(new SimpleMeterRegistry()),
+				new AdaptiveConcurrencyLimiter("image", 4, 1, 20, 20, Duration.ofSeconds(20), 0.9),
+				new ResilientCaller("image", ResilientCaller.Policy.noRetry(),
+						new CircuitBreaker("image", 20, 10, 0.5, Duration.ofSeconds(30), 1)),
+				url, "test-key", totalTimeout);
+	}
+
+	@Test
+	void reusesPooledConnectionAcrossCalls() {
+		GeminiImageService service = service(Duration.ofSeconds(5), Duration.ofSeconds(10));
+
+		for (int i = 0; i < 3; i++) {
+			GeneratedImage image = service.generateImage(List.of("熱鍋", "下油"));
+			assertArrayEquals(Base64.getDecoder().decode("iVBORw0KGgo="), image.data());
+		}
+
+		// keep-alive：三次呼叫都走同一條 TCP 連線
+		assertEquals(1, clientPorts.size());
+		assertEquals(1, service.poolStats().get("available"));
+		assertEquals(0, service.poolStats().get("leased"));
+	}
+
+	@Test
+	void readTimeoutFailsFastWithGatewayTimeout() {
+		delayMillis = 2_000;
+		GeminiImageService service = service(Duration.ofMillis(200), Duration.ofSeconds(10));
+
+		long start = System.nanoTime();
+		ApiException e = assertThrows(ApiException.class, () -> service.generateImage(List.of("熱鍋")));
+		assertEquals(HttpStatus.GATEWAY_TIMEOUT, e.getStatus());
+		assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1_500);
+	}
+
+	@Test
+	void totalTimeoutCancelsSlowCall() throws InterruptedException {
+		delayMillis = 2_000;
+		GeminiImageService service = service(Duration.ofSeconds(10), Duration.ofMillis(300));
+
+		long start = System.nanoTime();
+		ApiException e = assertThrows(ApiException.class, () -> service.generateImage(List.of("熱鍋")));
+		assertEquals(HttpStatus.GATEWAY_TIMEOUT, e.getStatus());
+		assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1_500);
+		// cancel 在計時執行緒上釋放連線，稍等一下
+		assertEquals(0, awaitLeased(service, 0));
+	}
+
+	@Test
+	void errorStatusIsReportedAsServerError() {
+		statusCode = 429;
+		GeminiImageService service = service(Duration.ofSeconds(5), Duration.ofSeconds(10));
+
+		ApiException e = assertThrows(ApiException.class, () -> service.generateImage(List.of("熱鍋")));
+		assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, e.getStatus());
+	}
+}
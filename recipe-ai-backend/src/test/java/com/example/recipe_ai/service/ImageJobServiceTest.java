@@ -0,0 +1,191 @@
+package com.example.recipe_ai.service;
+
+import com.example.recipe_ai.cache.RecipeImageReuseCache;
+import com.example.recipe_ai.cache.RecipeL1Cache;
+import com.example.recipe_ai.entity.RecipeCache;
+import com.example.recipe_ai.key.RecipeKeyNormalizer;
+import com.example.recipe_ai.metrics.RecipeMetrics;
+import com.example.recipe_ai.repository.RecipeCacheRepository;
+import com.example.recipe_ai.repository.RecipeWriteBehindQueue;
+import com.example.recipe_ai.storage.ImageBlobStore;
+import com.example.recipe_ai.storage.ImageRenditionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageJobServiceTest {
+
+	@TempDir
+	Path storeDir;
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private JdbcTemplate jdbcTemplate;
+	private RecipeL1Cache l1Cache;
+	private RecipeWriteBehindQueue writeBehind;
+	private ImageRenditionService renditionService;
+	private BlockingImageService imageService;
+	private ImageJobService jobs;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		JdbcDataSource dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:image_job_" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate.execute("CREATE TABLE recipe_cache (id BINARY(16) NOT NULL PRIMARY KEY, "
+				+ "normalized_key TEXT NOT NULL, title VARCHAR(512), ingredients TEXT, steps MEDIUMTEXT, "
+				+ "image_url MEDIUMTEXT, image_hash VARCHAR(64), response_payload MEDIUMBLOB, "
+				+ "hit_count BIGINT, last_accessed_at BIGINT)");
+		RecipeMetrics metrics = new RecipeMetrics(new SimpleMeterRegistry());
+		ImageBlobStore blobStore = new ImageBlobStore(storeDir, "");
+		l1Cache = new RecipeL1Cache(1 << 20, Duration.ofHours(1));
+		writeBehind = new RecipeWriteBehindQueue(dataSource, metrics, false, 10, 10, Duration.ofMillis(10),
+				Duration.ofSeconds(1), 0, Duration.ofMillis(10), Duration.ofSeconds(5));
+		renditionService = new ImageRenditionService(blobStore, metrics, false, 320, 768, 1536, 0.82f, 1, 1, Duration.ofSeconds(5));
+		imageService = new BlockingImageService(release);
+		// 背景執行緒 1 條、佇列 1 個
+		jobs = new ImageJobService(imageService, blobStore, renditionService,
+				new RecipeImageReuseCache(blobStore, null, "off", 100, Duration.ofHours(1), 0),
+				emptyRepository(), writeBehind, l1Cache, 1, 1, Duration.ofMinutes(30), Duration.ofSeconds(5), false);
+	}
+
+	@AfterEach
+	void tearDown() {
+		release.countDown();
+		jobs.shutdown();
+		imageService.shutdown();
+		renditionService.shutdown();
+		writeBehind.shutdown();
+	}
+
+	@Test
+	void fullQueueFailsJobWithoutBlockingCaller() throws Exception {
+		String running = jobs.submit(recipe("a::"), List.of("步驟"));
+		assertTrue(imageService.started.await(5, TimeUnit.SECONDS));
+		String queued = jobs.submit(recipe("b::"), List.of("步驟"));
+
+		// 佇列滿了：不在呼叫端生成圖片，馬上回傳失敗的工作
+		long start = System.nanoTime();
+		String rejected = jobs.submit(recipe("c::"), List.of("步驟"));
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+		assertEquals(ImageJobService.STATUS_FAILED, jobs.getStatus(rejected).getStatus());
+		assertEquals(ImageJobService.STATUS_PENDING, jobs.getStatus(running).getStatus());
+
+		// 失敗的工作不再對應到 key，下一次會重新送出
+		assertTrue(jobs.findJobIdByKey("c::").isEmpty());
+		release.countDown();
+		waitUntilDone(running);
+		String resubmitted = jobs.submit("c::", List.of("步驟"));
+		assertNotEquals(rejected, resubmitted);
+
+		// 等背景工作寫完圖片，@TempDir 才刪得掉
+		waitUntilDone(queued);
+		waitUntilDone(resubmitted);
+	}
+
+	@Test
+	void failedGenerationIsRetriedOnNextSubmit() throws Exception {
+		release.countDown();
+		imageService.fail = true;
+		String failed = jobs.submit(recipe("d::"), List.of("步驟"));
+		waitUntilDone(failed);
+		assertEquals(ImageJobService.STATUS_FAILED, jobs.getStatus(failed).getStatus());
+		assertTrue(jobs.findJobIdByKey("d::").isEmpty());
+
+		imageService.fail = false;
+		String retried = jobs.submit("d::", List.of("步驟"));
+		assertNotEquals(failed, retried);
+		waitUntilDone(retried);
+		assertEquals(ImageJobService.STATUS_DONE, jobs.getStatus(retried).getStatus());
+		assertNotNull(l1Cache.get("d::").orElseThrow().getImageHash());
+	}
+
+	@Test
+	void purgedRecipeIsNotWrittenBack() throws Exception {
+		String purged = jobs.submit(recipe("e::"), List.of("步驟"));
+		assertTrue(imageService.started.await(5, TimeUnit.SECONDS));
+
+		// 圖片生成期間 RecipeCachePurger 刪掉了那筆食譜 (資料庫與 L1)
+		l1Cache.invalidate("e::");
+		release.countDown();
+		waitUntilDone(purged);
+
+		// 不會被寫回 L1 或資料庫
+		assertTrue(l1Cache.get("e::").isEmpty());
+		writeBehind.shutdown();
+		assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM recipe_cache", Integer.class));
+	}
+
+	//食譜放進 L1 (圖片完成時更新的那筆)
+	private String recipe(String key) {
+		RecipeCache entry = new RecipeCache();
+		entry.setId(RecipeKeyNormalizer.idOf(key));
+		entry.setNormalizedKey(key);
+		entry.setTitle("料理 " + key);
+		entry.setSteps(List.of("步驟"));
+		l1Cache.put(key, entry);
+		return key;
+	}
+
+	//資料庫裡沒有任何食譜 (食譜都在 L1 或寫入佇列裡)
+	private static RecipeCacheRepository emptyRepository() {
+		return (RecipeCacheRepository) Proxy.newProxyInstance(RecipeCacheRepository.class.getClassLoader(),
+				new Class<?>[] {RecipeCacheRepository.class}, (proxy, method, args) -> {
+					if (method.getName().equals("findById")) {
+						return Optional.empty();
+					}
+					throw new UnsupportedOperationException(method.getName());
+				});
+	}
+
+	private void waitUntilDone(String jobId) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (ImageJobService.STATUS_PENDING.equals(jobs.getStatus(jobId).getStatus())) {
+			assertTrue(System.nanoTime() < deadline, "工作沒有完成 " + jobId);
+			Thread.sleep(10);
+		}
+	}
+
+	/**
+	 * 等 release 之後才回傳圖片的替身 (fail=true 時丟出例外)
+	 */
+	private static final class BlockingImageService extends GeminiImageService {
+		private final CountDownLatch release;
+		private final CountDownLatch started = new CountDownLatch(1);
+		private volatile boolean fail;
+
+		private BlockingImageService(CountDownLatch release) {
+			super(null, null, null, null, null, "", "", Duration.ofSeconds(5));
+			this.release = release;
+		}
+
+		@Override
+		public GeneratedImage generateImage(List<String> steps) {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (fail) {
+				throw new IllegalStateException("圖片生成失敗");
+			}
+			return new GeneratedImage(UUID.randomUUID().toString().getBytes());
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package com.example.recipe_ai.service;
+
+import com.example.recipe_ai.dto.RecipeRequest;
+import com.example.recipe_ai.dto.RecipeResponse;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.google.genai.GoogleGenAiChatOptions;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecipeOutputModeTest {
+
+	private static final RecipeRequest REQUEST = RecipeRequest.builder()
+			.ingredients("雞腿 2 隻, 番茄 3 顆, 洋蔥 半顆")
+			.styleOrDiet("家常")
+			.build();
+
+	@Test
+	void structuredPromptIsShorterAndRequestsJson() {
+		Prompt prompt = RecipeService.buildPrompt(REQUEST, RecipeService.OutputMode.PROMPT);
+		Prompt structured = RecipeService.buildPrompt(REQUEST, RecipeService.OutputMode.STRUCTURED);
+
+		GoogleGenAiChatOptions options = assertInstanceOf(GoogleGenAiChatOptions.class, structured.getOptions());
+		assertEquals("application/json", options.getResponseMimeType());
+		assertTrue(structured.getContents().contains("雞腿 2 隻"));
+		assertTrue(structured.getContents().length() * 2 < prompt.getContents().length(),
+				"精簡 prompt " + structured.getContents().length() + " 字，原本 " + prompt.getContents().length() + " 字");
+	}
+
+	@Test
+	void parsesBothModes() throws JsonProcessingException {
+		RecipeResponse fenced = RecipeService.parseRecipe("""
+				```json
+				{"title":"番茄燉雞","ingredients":["雞腿 2 隻"],"steps":["雞腿切塊"],"imageUrl":""}
+				```""", RecipeService.OutputMode.PROMPT);
+		assertEquals("番茄燉雞", fenced.getTitle());
+
+		// 多出來的欄位不影響
+		RecipeResponse structured = RecipeService.parseRecipe(
+				"{\"title\":\"番茄燉雞\",\"ingredients\":[\"雞腿 2 隻\"],\"steps\":[\"雞腿切塊\",\"小火燉 20 分鐘\"],\"servings\":2}",
+				RecipeService.OutputMode.STRUCTURED);
+		assertEquals(List.of("雞腿切塊", "小火燉 20 分鐘"), structured.getSteps());
+		assertNull(structured.getImageUrl());
+	}
+}
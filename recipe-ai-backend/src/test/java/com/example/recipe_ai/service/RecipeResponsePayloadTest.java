@@ -0,0 +1,73 @@
+package com.example.recipe_ai.service;
+
+import com.example.recipe_ai.dto.RecipeResponse;
+import com.example.recipe_ai.entity.RecipeCache;
+import com.example.recipe_ai.entity.StringListJsonConverter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecipeResponsePayloadTest {
+
+	@Test
+	void payloadRoundTripsStepsContainingDelimiters() throws Exception {
+		StringListJsonConverter converter = new StringListJsonConverter();
+		List<String> steps = List.of("加入醬油 || 糖 拌勻", "小火燜 \"5\" 分鐘");
+		String column = converter.convertToDatabaseColumn(steps);
+		assertEquals(steps, converter.convertToEntityAttribute(column));
+
+		RecipeCache entry = new RecipeCache();
+		entry.setTitle("紅燒雞");
+		entry.setIngredients(converter.convertToEntityAttribute("[\"雞腿 2 隻\"]"));
+		entry.setSteps(converter.convertToEntityAttribute(column));
+		byte[] payload = RecipeResponsePayload.build(entry, "/api/recipe/image/abc");
+
+		// gzip magic number
+		assertEquals((byte) 0x1f, payload[0]);
+		assertEquals((byte) 0x8b, payload[1]);
+		try (InputStream json = RecipeResponsePayload.uncompressed(payload)) {
+			RecipeResponse response = new ObjectMapper().readValue(json, RecipeResponse.class);
+			assertEquals("紅燒雞", response.getTitle());
+			assertEquals(List.of("雞腿 2 隻"), response.getIngredients());
+			assertEquals(steps, response.getSteps());
+			assertEquals("/api/recipe/image/abc", response.getImageUrl());
+			assertNull(response.getImageJobId());
+		}
+	}
+
+	@Test
+	void etagFollowsPayloadContent() {
+		RecipeCache entry = new RecipeCache();
+		entry.setTitle("紅燒雞");
+		entry.setIngredients(List.of("雞腿 2 隻"));
+		entry.setSteps(List.of("燉煮"));
+		entry.setResponsePayload(RecipeResponsePayload.build(entry, "/api/recipe/image/abc"));
+		String etag = RecipeResponsePayload.etag(entry);
+		assertEquals(etag, RecipeResponsePayload.etag(entry));
+
+		// 圖片換了 → 內容不同 → ETag 也不同
+		entry.setResponsePayload(RecipeResponsePayload.build(entry, "/api/recipe/image/def"));
+		assertNotEquals(etag, RecipeResponsePayload.etag(entry));
+
+		String quoted = "\"" + RecipeResponsePayload.etag(entry) + "\"";
+		assertTrue(RecipeResponsePayload.etagMatches(quoted, quoted));
+		assertTrue(RecipeResponsePayload.etagMatches("\"other\", W/" + quoted, quoted));
+		assertTrue(RecipeResponsePayload.etagMatches("*", quoted));
+		assertFalse(RecipeResponsePayload.etagMatches("\"" + etag + "\"", quoted));
+		assertFalse(RecipeResponsePayload.etagMatches(null, quoted));
+	}
+
+	@Test
+	void acceptEncodingNegotiation() {
+		assertTrue(RecipeResponsePayload.acceptsGzip("gzip, deflate, br"));
+		assertTrue(RecipeResponsePayload.acceptsGzip("br;q=1.0, gzip;q=0.8"));
+		assertTrue(RecipeResponsePayload.acceptsGzip("*"));
+		assertFalse(RecipeResponsePayload.acceptsGzip("gzip;q=0"));
+		assertFalse(RecipeResponsePayload.acceptsGzip("identity"));
+		assertFalse(RecipeResponsePayload.acceptsGzip(null));
+	}
+}
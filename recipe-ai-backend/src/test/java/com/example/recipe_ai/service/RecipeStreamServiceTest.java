@@ -0,0 +1,120 @@
+package com.example.recipe_ai.service;
+
+import com.example.recipe_ai.cache.InFlightRegistry;
+import com.example.recipe_ai.cache.RecipeL1Cache;
+import com.example.recipe_ai.dto.RecipeRequest;
+import com.example.recipe_ai.entity.RecipeCache;
+import com.example.recipe_ai.exception.ApiException;
+import com.example.recipe_ai.key.RecipeKeyNormalizer;
+import com.example.recipe_ai.key.SynonymIngredientDictionary;
+import com.example.recipe_ai.limit.AdaptiveConcurrencyLimiter;
+import com.example.recipe_ai.limit.CircuitBreaker;
+import com.example.recipe_ai.limit.ResilientCaller;
+import com.example.recipe_ai.metrics.RecipeMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.HttpStatus;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecipeStreamServiceTest {
+
+	private static final RecipeRequest REQUEST = RecipeRequest.builder()
+			.ingredients("番茄 2 顆, 雞蛋 3 顆")
+			.styleOrDiet("家常")
+			.build();
+
+	@Test
+	void waiterGetsParseErrorInsteadOfInterrupted() throws IOException, InterruptedException {
+		Sinks.Many<ChatResponse> chunks = Sinks.many().unicast().onBackpressureBuffer();
+		CountDownLatch upstreamCancelled = new CountDownLatch(1);
+		ChatModel chatModel = new ChatModel() {
+			@Override
+			public ChatResponse call(Prompt prompt) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public Flux<ChatResponse> stream(Prompt prompt) {
+				return chunks.asFlux().doOnCancel(upstreamCancelled::countDown);
+			}
+		};
+		InFlightRegistry inFlightRegistry = new InFlightRegistry(Duration.ofSeconds(30));
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("text", 8, 2, 64, 50, Duration.ofSeconds(10), 0.9);
+		ResilientCaller chatCaller = new ResilientCaller("chat", ResilientCaller.Policy.noRetry(),
+				new CircuitBreaker("chat", 20, 10, 0.5, Duration.ofSeconds(30), 1));
+		RecipeService recipeService = new MissingRecipeService(chatModel, inFlightRegistry, limiter, chatCaller);
+		RecipeStreamService streamService = new RecipeStreamService(chatModel, recipeService, inFlightRegistry,
+				limiter, chatCaller, Duration.ofMinutes(1));
+		try {
+			// leader 開始串流，收到第一段回覆
+			streamService.stream(REQUEST);
+			chunks.tryEmitNext(chunk("{\"title\": \"番茄炒蛋\", "));
+
+			// 同一個 key 的請求 (一般生成或串流) 等 leader 的結果
+			Optional<CompletableFuture<Object>> waiter = inFlightRegistry.join(recipeService.generate_key(REQUEST), new CompletableFuture<>());
+			assertTrue(waiter.isPresent());
+
+			// AI 回覆的 JSON 格式錯誤：等待中的請求收到解析錯誤 (500)，不是「被中斷」(503)
+			chunks.tryEmitNext(chunk("\"ingredients\": ]"));
+			ExecutionException error = assertThrows(ExecutionException.class, () -> waiter.get().get(5, TimeUnit.SECONDS));
+			ApiException apiException = assertInstanceOf(ApiException.class, error.getCause());
+			assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, apiException.getStatus());
+
+			// 上游串流被取消，執行權也歸還了 (doFinally 在取消上游之後才執行)
+			assertTrue(upstreamCancelled.await(5, TimeUnit.SECONDS));
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (limiter.inFlight() > 0 && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(0, limiter.inFlight());
+		} finally {
+			chatCaller.shutdown();
+		}
+	}
+
+	private static ChatResponse chunk(String text) {
+		return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+	}
+
+	/**
+	 * 快取永遠錯失的 RecipeService (不需要資料庫)
+	 */
+	private static final class MissingRecipeService extends RecipeService {
+
+		private MissingRecipeService(ChatModel chatModel, InFlightRegistry inFlightRegistry,
+									 AdaptiveConcurrencyLimiter limiter, ResilientCaller chatCaller) throws IOException {
+			super(chatModel, null, null, null, new RecipeL1Cache(1024 * 1024, Duration.ofHours(1)), inFlightRegistry,
+					null, null, null, null, null, null, null,
+					new RecipeKeyNormalizer(new SynonymIngredientDictionary(new ClassPathResource("ingredient-synonyms.txt"))),
+					new RecipeMetrics(new SimpleMeterRegistry()), limiter, chatCaller, 0.2, false, Duration.ofMinutes(5), "prompt");
+		}
+
+		@Override
+		Optional<RecipeCache> lookup(String key) {
+			return Optional.empty();
+		}
+
+		@Override
+		Optional<RecipeCache> findSimilar(String key) {
+			return Optional.empty();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.example.recipe_ai.service;
+
+import com.example.recipe_ai.dto.RecipeResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingRecipeParserTest {
+
+	@Test
+	void emitsEachFieldAsSoonAsItIsComplete() throws IOException {
+		List<String> events = new ArrayList<>();
+		StreamingRecipeParser parser = new StreamingRecipeParser(new StreamingRecipeParser.Listener() {
+			@Override
+			public void onTitle(String title) {
+				events.add("title:" + title);
+			}
+
+			@Override
+			public void onIngredient(int index, String ingredient) {
+				events.add("ingredient" + index + ":" + ingredient);
+			}
+
+			@Override
+			public void onStep(int index, String step) {
+				events.add("step" + index + ":" + step);
+			}
+		});
+
+		parser.feed("```json\n{\"title\": \"泰式打");
+		assertTrue(events.isEmpty());
+		parser.feed("拋雞\", \"ingredients\": [\"雞肉 200g\", \"洋");
+		assertEquals(List.of("title:泰式打拋雞", "ingredient0:雞肉 200g"), events);
+		parser.feed("蔥 半顆\"], \"steps\": [\"熱鍋||下油\", \"加入雞肉\"], \"imageUrl\": \"\"}\n```");
+
+		RecipeResponse recipe = parser.finish();
+		assertEquals("泰式打拋雞", recipe.getTitle());
+		assertEquals(List.of("雞肉 200g", "洋蔥 半顆"), recipe.getIngredients());
+		assertEquals(List.of("熱鍋||下油", "加入雞肉"), recipe.getSteps());
+		assertEquals(List.of("title:泰式打拋雞", "ingredient0:雞肉 200g", "ingredient1:洋蔥 半顆",
+				"step0:熱鍋||下油", "step1:加入雞肉"), events);
+	}
+
+	@Test
+	void truncatedJsonFailsOnFinish() throws IOException {
+		StreamingRecipeParser parser = new StreamingRecipeParser(new StreamingRecipeParser.Listener() {
+			@Override
+			public void onTitle(String title) {
+			}
+
+			@Override
+			public void onIngredient(int index, String ingredient) {
+			}
+
+			@Override
+			public void onStep(int index, String step) {
+			}
+		});
+		parser.feed("{\"title\": \"半成品\", \"steps\": [\"熱鍋\"");
+		assertThrows(IOException.class, parser::finish);
+	}
+}
@@ -0,0 +1,119 @@
+package com.example.recipe_ai.storage;
+
+import com.example.recipe_ai.metrics.RecipeMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageRenditionServiceTest {
+
+	@TempDir
+	Path storeDir;
+
+	private ImageBlobStore blobStore;
+	private ImageRenditionService service;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		blobStore = new ImageBlobStore(storeDir, "");
+		service = new ImageRenditionService(blobStore, new RecipeMetrics(new SimpleMeterRegistry()),
+				true, 320, 768, 1536, 0.82f, 2, 8, Duration.ofSeconds(30));
+	}
+
+	@AfterEach
+	void tearDown() {
+		service.shutdown();
+	}
+
+	@Test
+	void transcodesToJpegWithSmallerRenditions() throws IOException {
+		byte[] png = png(1024, 1024);
+		String hash = service.store(png);
+
+		Path full = blobStore.resolve(hash).orElseThrow();
+		assertEquals("image/jpeg", ImageBlobStore.detectContentType(full));
+		assertTrue(Files.size(full) * 5 < png.length, "JPEG 應該比原始 PNG 小很多");
+
+		Path medium = service.resolve(hash, ImageRendition.MEDIUM).orElseThrow().path();
+		Path thumb = service.resolve(hash, ImageRendition.THUMB).orElseThrow().path();
+		assertEquals(768, ImageIO.read(medium.toFile()).getWidth());
+		BufferedImage thumbImage = ImageIO.read(thumb.toFile());
+		assertEquals(320, thumbImage.getWidth());
+		assertEquals(320, thumbImage.getHeight());
+		assertTrue(Files.size(thumb) < Files.size(medium));
+		assertTrue(Files.size(medium) < Files.size(full));
+	}
+
+	@Test
+	void legacyImagesGetRenditionsOnFirstRequest() throws IOException {
+		// 舊資料：只有原始 PNG，沒有縮圖
+		String hash = blobStore.store(png(600, 400));
+		assertTrue(blobStore.resolveRendition(hash, ImageRendition.THUMB).isEmpty());
+
+		Path thumb = service.resolve(hash, ImageRendition.THUMB).orElseThrow().path();
+		assertEquals(blobStore.resolveRendition(hash, ImageRendition.THUMB).orElseThrow(), thumb);
+		BufferedImage thumbImage = ImageIO.read(thumb.toFile());
+		assertEquals(320, thumbImage.getWidth());
+		assertEquals(213, thumbImage.getHeight());
+		// FULL 仍然是原圖 (內容要和 hash 一致)
+		assertEquals("image/png", ImageBlobStore.detectContentType(service.resolve(hash, ImageRendition.FULL).orElseThrow().path()));
+	}
+
+	@Test
+	void timedOutTranscodeLeavesNoOrphanedFiles() throws IOException {
+		service.shutdown();
+		service = new ImageRenditionService(blobStore, new RecipeMetrics(new SimpleMeterRegistry()),
+				true, 320, 768, 1536, 0.82f, 1, 8, Duration.ofMillis(1));
+		byte[] png = png(1024, 1024);
+		String hash = service.store(png);
+		// 等背景的轉檔做完：逾時後才轉完的結果不會寫入
+		service.shutdown();
+
+		try (Stream<Path> files = Files.walk(storeDir)) {
+			List<String> stored = files.filter(Files::isRegularFile).map(path -> path.getFileName().toString()).toList();
+			assertFalse(stored.isEmpty());
+			assertTrue(stored.stream().allMatch(name -> name.startsWith(hash)), "沒有被引用的檔案: " + stored);
+		}
+		// 縮圖還沒產生 → 先回傳原圖，並標示實際尺寸是 FULL
+		assertEquals(ImageRendition.FULL, service.resolve(hash, ImageRendition.THUMB).orElseThrow().rendition());
+	}
+
+	@Test
+	void parsesSizeParameter() {
+		assertEquals(ImageRendition.FULL, ImageRendition.fromParam(null));
+		assertEquals(ImageRendition.THUMB, ImageRendition.fromParam("Thumb"));
+		assertThrows(RuntimeException.class, () -> ImageRendition.fromParam("../x"));
+	}
+
+	// 類似照片的圖片：漸層加上雜訊 (純色圖片 PNG 壓得太好，比不出差別)
+	private static byte[] png(int width, int height) throws IOException {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Random random = new Random(42);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int r = (x * 255 / width + random.nextInt(24)) & 0xFF;
+				int g = (y * 255 / height + random.nextInt(24)) & 0xFF;
+				int b = ((x + y) * 127 / (width + height) + random.nextInt(24)) & 0xFF;
+				image.setRGB(x, y, 0xFF000000 | r << 16 | g << 8 | b);
+			}
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", bytes);
+		return bytes.toByteArray();
+	}
+}
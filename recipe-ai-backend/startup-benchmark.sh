@@ -0,0 +1,84 @@
+#!/usr/bin/env bash
+# 量測啟動時間與第一個請求的延遲：預設設定 / prod profile / prod + AOT / prod + AOT + AppCDS 各冷啟動 RUNS 次
+# 先建構：./mvnw package -Pprod -DskipTests
+# 用法：./startup-benchmark.sh [傳給應用程式的參數 ...]
+# 環境變數：
+# - RUNS                每種模式啟動幾次 (預設 5，取中位數)
+# - PORT                應用程式的 port (預設 18080)
+# - FIRST_REQUEST_PATH  第一個請求 (預設查詢一筆不存在的食譜：經過 DispatcherServlet、controller、JPA 與連線池，不呼叫 Gemini)
+# - EXTRA_CLASSPATH     額外的 jar (例如本機沒有 MySQL 時加上 H2)
+# - JAVA                java 執行檔 (預設 java)
+# 資料庫、GOOGLE_GENAI_API_KEY 等設定與平常啟動相同 (環境變數或參數)
+set -euo pipefail
+
+cd "$(dirname "$0")"
+RUNS=${RUNS:-5}
+PORT=${PORT:-18080}
+FIRST_REQUEST_PATH=${FIRST_REQUEST_PATH:-/api/recipe/00000000-0000-0000-0000-000000000000}
+JAVA=${JAVA:-java}
+WORK=target/startup-benchmark
+MAIN=com.example.recipe_ai.RecipeAiApplication
+
+#1. 解開可執行 jar (與 Dockerfile 相同的配置)，再做一次 AppCDS 訓練
+rm -rf "$WORK"
+mkdir -p "$WORK"
+JAR=$(ls target/*-exec.jar)
+"$JAVA" -Djarmode=tools -jar "$JAR" extract --destination "$WORK/application" >/dev/null
+mv "$WORK/application/$(basename "$JAR")" "$WORK/application/app.jar"
+CLASSPATH="$WORK/application/app.jar${EXTRA_CLASSPATH:+:$EXTRA_CLASSPATH}"
+"$JAVA" -XX:ArchiveClassesAtExit="$WORK/app.jsa" -Dspring.context.exit=onRefresh -Drecipe.schema.migrate=false -Dspring.aot.enabled=true \
+    -Xlog:cds=off -Xlog:cds+dynamic=off -cp "$CLASSPATH" "$MAIN" \
+    --spring.profiles.active=prod --server.port="$PORT" "$@" >"$WORK/training.log" 2>&1
+
+now_ms() { date +%s%3N; }
+
+#2. 啟動一次：啟動到 /actuator/health 回應的時間、Spring 自己回報的啟動時間、第一個請求的延遲
+run_once() {
+    local log="$WORK/run.log"
+    local start pid ready first status
+    start=$(now_ms)
+    "$JAVA" "${JVM_FLAGS[@]}" -cp "$CLASSPATH" "$MAIN" "${APP_ARGS[@]}" --server.port="$PORT" "$@" >"$log" 2>&1 &
+    pid=$!
+    until curl -sf -o /dev/null "http://localhost:$PORT/actuator/health"; do
+        if ! kill -0 "$pid" 2>/dev/null; then
+            echo "啟動失敗，見 $log" >&2
+            exit 1
+        fi
+        sleep 0.05
+    done
+    ready=$(( $(now_ms) - start ))
+    first=$(curl -s -o /dev/null -w '%{http_code} %{time_total}' "http://localhost:$PORT$FIRST_REQUEST_PATH")
+    status=${first% *}
+    first=$(awk -v t="${first#* }" 'BEGIN { printf "%d", t * 1000 }')
+    kill "$pid"
+    wait "$pid" 2>/dev/null || true
+    local started
+    started=$(grep -o 'Started RecipeAiApplication in [0-9.]* seconds' "$log" | awk '{ printf "%d", $4 * 1000 }')
+    echo "$ready $started $first $status"
+}
+
+median() { sort -n | awk '{ v[NR] = $1 } END { print v[int((NR + 1) / 2)] }'; }
+
+measure() {
+    local name=$1
+    shift
+    local results=()
+    for ((i = 0; i < RUNS; i++)); do
+        results+=("$(run_once "$@")")
+    done
+    printf '%-24s %8s ms %8s ms %8s ms   (HTTP %s)\n' "$name" \
+        "$(printf '%s\n' "${results[@]}" | awk '{ print $1 }' | median)" \
+        "$(printf '%s\n' "${results[@]}" | awk '{ print $2 }' | median)" \
+        "$(printf '%s\n' "${results[@]}" | awk '{ print $3 }' | median)" \
+        "$(printf '%s\n' "${results[@]}" | awk '{ print $4 }' | sort -u | paste -sd,)"
+}
+
+printf '%-24s %11s %11s %11s   (中位數，%d 次)\n' "模式" "可接受請求" "Spring 回報" "第一個請求" "$RUNS"
+JVM_FLAGS=(-Xshare:auto); APP_ARGS=("$@")
+measure "預設設定"
+APP_ARGS=(--spring.profiles.active=prod "$@")
+measure "prod"
+JVM_FLAGS=(-Dspring.aot.enabled=true)
+measure "prod + AOT"
+JVM_FLAGS=(-Dspring.aot.enabled=true -XX:SharedArchiveFile="$WORK/app.jsa")
+measure "prod + AOT + AppCDS"
@@ -0,0 +1,67 @@
+package com.example.recipe_ai.key;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 快取 key 的產生 (RecipeService.generate_key → RecipeKeyNormalizer)
+ * 每個請求 (包含快取命中) 都會跑一次：切割、同義詞、去份量、排序，再算出主鍵 hash
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecipeKeyBenchmark {
+
+    @Param({"short", "long"})
+    public String input;
+
+    private RecipeKeyNormalizer normalizer;
+    private String ingredients;
+    private String style;
+    private String normalizedKey;
+
+    @Setup
+    public void setup() {
+        normalizer = new RecipeKeyNormalizer(new SynonymIngredientDictionary(new ClassPathResource("ingredient-synonyms.txt")));
+        if (input.equals("short")) {
+            ingredients = "雞胸肉, 洋蔥, 蒜頭";
+            style = "台式";
+        } else {
+            ingredients = "雞腿 2 隻, 西紅柿 3 顆，洋蔥 半顆、蒜頭 3瓣|青蔥 少許, 醬油 2 大匙, 米酒 1 大匙, 冰糖 10g,"
+                    + " 九層塔 (裝飾用), Potato 200g, 紅蘿蔔 1 根, 薑 3 片, 辣椒 適量, 香菇 5 朵";
+            style = "  Low-Carb 家常  ";
+        }
+        normalizedKey = normalizer.normalize(ingredients, style);
+    }
+
+    @Benchmark
+    public String normalize() {
+        return normalizer.normalize(ingredients, style);
+    }
+
+    @Benchmark
+    public UUID normalizeAndHash() {
+        return RecipeKeyNormalizer.idOf(normalizer.normalize(ingredients, style));
+    }
+
+    @Benchmark
+    public UUID hash() {
+        return RecipeKeyNormalizer.idOf(normalizedKey);
+    }
+}
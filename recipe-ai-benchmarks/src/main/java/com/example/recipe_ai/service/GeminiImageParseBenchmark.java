@@ -0,0 +1,87 @@
+package com.example.recipe_ai.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gemini 圖片回覆的解析 (GeminiImageResponseParser)
+ * 回覆的格式來自 fixtures/gemini-image-response.json (實際 API 回覆，圖片內容換成 ${IMAGE_BASE64})，
+ * 每種大小在 setup 時填入隨機圖片
+ * legacyTreeParse 是改成串流解析前的作法，用 -prof gc 比較兩者每次呼叫配置的記憶體 (gc.alloc.rate.norm)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeminiImageParseBenchmark {
+
+    @Param({"1048576", "2097152", "3145728"})
+    public int imageBytes;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private byte[] response;
+
+    @Setup
+    public void setup() throws IOException {
+        String fixture;
+        try (InputStream in = new ClassPathResource("fixtures/gemini-image-response.json").getInputStream()) {
+            fixture = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        byte[] image = new byte[imageBytes];
+        new Random(42).nextBytes(image);
+        response = fixture.replace("${IMAGE_BASE64}", Base64.getEncoder().encodeToString(image))
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Optional<GeneratedImage> parse() throws IOException {
+        return GeminiImageResponseParser.parse(new ByteArrayInputStream(response), response.length);
+    }
+
+    // 沒有 Content-Length (chunked) 時，緩衝區要邊讀邊擴大
+    @Benchmark
+    public Optional<GeneratedImage> parseChunked() throws IOException {
+        return GeminiImageResponseParser.parse(new ByteArrayInputStream(response), -1);
+    }
+
+    // 舊的解析流程：String → readTree → asText → Data URL → 解碼，整張圖片的 base64 會複製好幾份
+    @Benchmark
+    public byte[] legacyTreeParse() throws IOException {
+        String jsonResponse = new String(response, StandardCharsets.UTF_8);
+        JsonNode rootNode = objectMapper.readTree(jsonResponse);
+        String base64Image = null;
+        for (JsonNode part : rootNode.path("candidates").path(0).path("content").path("parts")) {
+            JsonNode dataNode = part.path("inlineData").path("data");
+            if (dataNode.isTextual()) {
+                base64Image = dataNode.asText();
+                break;
+            }
+        }
+        String dataUrl = "data:image/png;base64," + base64Image;
+        return Base64.getMimeDecoder().decode(dataUrl.substring(dataUrl.indexOf(",") + 1));
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.recipe_ai.service;
+
+import com.example.recipe_ai.cache.InFlightRegistry;
+import com.example.recipe_ai.cache.RecipeAccessTracker;
+import com.example.recipe_ai.cache.RecipeL1Cache;
+import com.example.recipe_ai.dto.RecipeRequest;
+import com.example.recipe_ai.dto.RecipeResponse;
+import com.example.recipe_ai.entity.RecipeCache;
+import com.example.recipe_ai.key.RecipeKeyNormalizer;
+import com.example.recipe_ai.key.SynonymIngredientDictionary;
+import com.example.recipe_ai.limit.AdaptiveConcurrencyLimiter;
+import com.example.recipe_ai.limit.CircuitBreaker;
+import com.example.recipe_ai.limit.ResilientCaller;
+import com.example.recipe_ai.metrics.RecipeMetrics;
+import com.example.recipe_ai.storage.ImageBlobStore;
+import com.example.recipe_ai.storage.LegacyImageMigrator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 快取命中的路徑 (資料已在 L1，不碰資料庫與 AI)：
+ * - toResponse：資料庫的 RecipeCache → RecipeResponse
+ * - generateRecipeHit：RecipeService.generateRecipe 整段 (產生 key、查 L1、轉 DTO)
+ * - cachedPayload：controller 的快速路徑，直接拿預先序列化好的 bytes
+ * 命中路徑用不到的依賴 (ChatModel、Repository…) 傳 null，碰到就會 NullPointerException
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecipeHitPathBenchmark {
+
+    private Path imageDir;
+    private RecipeService recipeService;
+    private RecipeRequest request;
+    private RecipeCache entry;
+
+    @Setup
+    public void setup() throws IOException {
+        imageDir = Files.createTempDirectory("recipe-bench-images");
+        ImageBlobStore imageBlobStore = new ImageBlobStore(imageDir, "");
+        RecipeKeyNormalizer normalizer = new RecipeKeyNormalizer(
+                new SynonymIngredientDictionary(new ClassPathResource("ingredient-synonyms.txt")));
+        RecipeL1Cache l1Cache = new RecipeL1Cache(256L * 1024 * 1024, Duration.ofHours(1));
+        recipeService = new RecipeService(null, null, null, null, l1Cache, new InFlightRegistry(Duration.ofSeconds(90)),
+                // 讀取紀錄只在記憶體累加 (寫回間隔比一次基準測試長，不會碰到資料庫)
+                new RecipeAccessTracker(new SimpleDriverDataSource(), true, Duration.ofHours(1), 100_000, 500),
+                imageBlobStore, null, null, new LegacyImageMigrator(null, imageBlobStore, false, 50), null, null,
+                normalizer, new RecipeMetrics(new SimpleMeterRegistry()),
+                new AdaptiveConcurrencyLimiter("text", 8, 2, 64, 50, Duration.ofSeconds(10), 0.9),
+                new ResilientCaller("chat", ResilientCaller.Policy.noRetry(),
+                        new CircuitBreaker("chat", 20, 10, 0.5, Duration.ofSeconds(30), 1)),
+                0.2, false, Duration.ofMinutes(5), "prompt");
+
+        request = RecipeRequest.builder()
+                .ingredients("雞腿 2 隻, 番茄 3 顆, 洋蔥 半顆, 蒜頭 3 瓣, 醬油 2 大匙")
+                .styleOrDiet("台式")
+                .build();
+
+        String key = recipeService.generate_key(request);
+        entry = new RecipeCache();
+        entry.setNormalizedKey(key);
+        entry.setTitle("番茄燉雞腿");
+        entry.setIngredients(List.of("雞腿 2 隻", "番茄 3 顆", "洋蔥 半顆", "蒜頭 3 瓣", "醬油 2 大匙"));
+        entry.setSteps(List.of(
+                "雞腿切塊，用醬油醃 15 分鐘。",
+                "熱鍋爆香蒜頭與洋蔥，放入雞腿煎至表面金黃。",
+                "加入切塊番茄與少許水，蓋上鍋蓋小火燉 20 分鐘。",
+                "開蓋收汁，試味道後起鍋。"));
+        entry.setImageHash("9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08");
+        entry.setResponsePayload(RecipeResponsePayload.build(entry, imageBlobStore.publicUrl(entry.getImageHash())));
+        l1Cache.put(key, entry);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(imageDir);
+    }
+
+    @Benchmark
+    public RecipeResponse toResponse() {
+        return recipeService.toResponse(entry);
+    }
+
+    @Benchmark
+    public RecipeResponse generateRecipeHit() {
+        return recipeService.generateRecipe(request);
+    }
+
+    @Benchmark
+    public RecipeService.CacheLookup cachedPayload() {
+        return recipeService.lookup(request);
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.recipe_ai.service;
+
+import com.example.recipe_ai.dto.RecipeResponse;
+import com.example.recipe_ai.entity.RecipeCache;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RecipeResponse 的 JSON 序列化
+ * imageBytes=0 是現在的回應 (imageUrl 是圖片網址)；
+ * 1MB、3MB 是舊資料還沒遷移時，imageUrl 直接放 base64 Data URL 的情況
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecipeResponseSerializationBenchmark {
+
+    @Param({"0", "1048576", "3145728"})
+    public int imageBytes;
+
+    private final ObjectWriter writer = new ObjectMapper().writerFor(RecipeResponse.class);
+    private RecipeResponse response;
+    private RecipeCache entry;
+
+    @Setup
+    public void setup() {
+        String imageUrl;
+        if (imageBytes == 0) {
+            imageUrl = "/api/recipe/image/9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+        } else {
+            byte[] image = new byte[imageBytes];
+            new Random(42).nextBytes(image);
+            imageUrl = "data:image/png;base64," + Base64.getEncoder().encodeToString(image);
+        }
+        List<String> ingredients = List.of("雞腿 2 隻", "番茄 3 顆", "洋蔥 半顆", "蒜頭 3 瓣", "醬油 2 大匙");
+        List<String> steps = List.of(
+                "雞腿切塊，用醬油醃 15 分鐘。",
+                "熱鍋爆香蒜頭與洋蔥，放入雞腿煎至表面金黃。",
+                "加入切塊番茄與少許水，蓋上鍋蓋小火燉 20 分鐘。",
+                "開蓋收汁，試味道後起鍋。");
+        response = RecipeResponse.builder()
+                .title("番茄燉雞腿")
+                .ingredients(ingredients)
+                .steps(steps)
+                .imageUrl(imageUrl)
+                .build();
+
+        entry = new RecipeCache();
+        entry.setTitle(response.getTitle());
+        entry.setIngredients(ingredients);
+        entry.setSteps(steps);
+    }
+
+    // Spring MVC 每次回應都要做的事
+    @Benchmark
+    public byte[] writeJson() throws JsonProcessingException {
+        return writer.writeValueAsBytes(response);
+    }
+
+    // 存檔時做一次的預先序列化 (JSON + gzip)
+    @Benchmark
+    public byte[] buildPayload() {
+        return RecipeResponsePayload.build(entry, response.getImageUrl());
+    }
+}
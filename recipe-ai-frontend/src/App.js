@@ -1,5 +1,9 @@
 import React, { useState } from "react";
 
+// 後端網址 (圖片網址為相對路徑 /api/recipe/image/{hash} 時要加上)
+const API_BASE_URL = "http://localhost:8080";
+const toImageSrc = (imageUrl) => (imageUrl.startsWith("/") ? API_BASE_URL + imageUrl : imageUrl);
+
 function App() {
   const [ingredients, setIngredients] = useState("");
   const [styleOrDiet, setStyleOrDiet] = useState("");
@@ -210,7 +214,7 @@ function App() {
             {recipe.imageUrl && (
               <div style={{ textAlign: "center" }}>
                 <img
-                  src={recipe.imageUrl}
+                  src={toImageSrc(recipe.imageUrl)}
                   alt="食譜圖片"
                   style={{
                     maxWidth: "600px",     // 限制圖片最大寬度